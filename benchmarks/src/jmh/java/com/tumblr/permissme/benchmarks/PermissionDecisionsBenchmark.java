@@ -0,0 +1,45 @@
+package com.tumblr.permissme.benchmarks;
+
+import com.tumblr.permissme.core.PermissionDecisions;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the decision logic of {@code permissme-core}, for dialogs of 1 to 256 permissions.
+ * <p>
+ * Run with {@code ./gradlew :benchmarks:jmh}; the results are written to {@code benchmarks/build/results/jmh}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PermissionDecisionsBenchmark {
+
+	@Param({ "1", "4", "16", "64", "256" })
+	public int size;
+
+	private int[] mAllGrantedResults;
+
+	@Setup
+	public void setUp() {
+		mAllGrantedResults = new int[size];
+		Arrays.fill(mAllGrantedResults, PermissionDecisions.PERMISSION_GRANTED);
+	}
+
+	/**
+	 * The worst case: every result is granted, so all of them are checked
+	 */
+	@Benchmark
+	public boolean verifyPermissions() {
+		return PermissionDecisions.verifyPermissions(mAllGrantedResults);
+	}
+}
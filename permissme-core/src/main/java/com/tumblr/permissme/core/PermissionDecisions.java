@@ -0,0 +1,46 @@
+package com.tumblr.permissme.core;
+
+import androidx.annotation.NonNull;
+
+/**
+ * The decisions of the permission flows that don't need any Android dependency: how to read the grant results of a
+ * dialog, see {@code PermissMeUtils#verifyPermissions(int[])}.
+ */
+public final class PermissionDecisions {
+
+	/**
+	 * The grant result of a granted permission, same as {@code PackageManager.PERMISSION_GRANTED}
+	 */
+	public static final int PERMISSION_GRANTED = 0;
+
+	/**
+	 * The grant result of a denied permission, same as {@code PackageManager.PERMISSION_DENIED}
+	 */
+	public static final int PERMISSION_DENIED = -1;
+
+	private PermissionDecisions() {
+
+	}
+
+	/**
+	 * Check that all given permissions have been granted by verifying that each entry in the given array is
+	 * {@link #PERMISSION_GRANTED}.
+	 *
+	 * @param grantResults
+	 * 		the results to check whether they are granted
+	 * @return whether the permissions have been granted; {@code false} if there are no results
+	 */
+	public static boolean verifyPermissions(@NonNull final int[] grantResults) {
+		// At least one result must be checked.
+		if (grantResults.length < 1) {
+			return false;
+		}
+
+		for (int i = 0; i < grantResults.length; i++) {
+			if (grantResults[i] != PERMISSION_GRANTED) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
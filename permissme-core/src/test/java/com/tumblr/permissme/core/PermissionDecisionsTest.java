@@ -0,0 +1,24 @@
+package com.tumblr.permissme.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the {@link PermissionDecisions} class
+ */
+public class PermissionDecisionsTest {
+
+	@Test
+	public void testVerifyPermissions_whenAllGranted_returnTrue() {
+		assertTrue(PermissionDecisions.verifyPermissions(new int[] {
+				PermissionDecisions.PERMISSION_GRANTED, PermissionDecisions.PERMISSION_GRANTED }));
+	}
+
+	@Test
+	public void testVerifyPermissions_whenOneDeniedOrNone_returnFalse() {
+		assertFalse(PermissionDecisions.verifyPermissions(new int[] {
+				PermissionDecisions.PERMISSION_GRANTED, PermissionDecisions.PERMISSION_DENIED }));
+		assertFalse(PermissionDecisions.verifyPermissions(new int[0]));
+	}
+}
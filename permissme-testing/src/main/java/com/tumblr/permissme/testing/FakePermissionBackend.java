@@ -0,0 +1,298 @@
+package com.tumblr.permissme.testing;
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.pm.PackageManager;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.tumblr.permissme.PermissMe;
+import com.tumblr.permissme.PermissionBackend;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * A scripted device for the unit tests of an app using PermissMe, installed in place of the runtime permissions of the
+ * system with {@link #install()}: the test sets the grant state of the permissions and how the user answers the
+ * dialogs, and the flows of the app run on the JVM with a mocked activity, without PowerMock.
+ * <p>
+ * The flows run synchronously on the thread of the test: every dialog is answered as soon as it is shown, and the
+ * callbacks and launches of a flow have happened once {@code verifyPermissions()} returns. For example:
+ * <pre>
+ * final FakePermissionBackend backend = FakePermissionBackend.install()
+ *         .deny(Manifest.permission.CAMERA)
+ *         .answer(FakePermissionBackend.ANSWER_GRANT, Manifest.permission.CAMERA);
+ * PermissMe.with(activity).setRequiredPermissions(Manifest.permission.CAMERA).listener(listener).verifyPermissions();
+ * verify(listener).onSuccess();
+ * backend.uninstall();
+ * </pre>
+ * PermissMe only reads the state of the permissions and the answers of the dialogs through the backend, so the
+ * denials are classified the way they are on a device: a permission auto-denied before the first dialog of the process
+ * is reported denied, and auto-denied from its next dialog on. The snackbar of the auto-denied permissions is only
+ * shown in an activity with a content view, i.e. never with a mocked activity.
+ * <p>
+ * There is one backend for the whole process: tests that install one must not run in parallel in the same JVM, but
+ * can run in parallel forks.
+ */
+public final class FakePermissionBackend extends PermissionBackend {
+
+	/**
+	 * The user allows the permission
+	 */
+	public static final int ANSWER_GRANT = 0;
+
+	/**
+	 * The user denies the permission; its rationale is shown from then on
+	 */
+	public static final int ANSWER_DENY = 1;
+
+	/**
+	 * The user denies the permission and checks "Don't ask again": the permission is auto-denied from then on
+	 */
+	public static final int ANSWER_DENY_DONT_ASK_AGAIN = 2;
+
+	private static final int STATE_NEVER_ASKED = 0;
+	private static final int STATE_GRANTED = 1;
+	private static final int STATE_DENIED = 2;
+	private static final int STATE_AUTO_DENIED = 3;
+
+	/**
+	 * Runs the main thread work of PermissMe right away, on the calling thread
+	 */
+	private static final Executor DIRECT_EXECUTOR = new Executor() {
+		@Override
+		public void execute(@NonNull final Runnable command) {
+			command.run();
+		}
+	};
+
+	/**
+	 * The state of each permission, never asked when missing
+	 */
+	private final Map<String, Integer> mStates = new HashMap<>();
+
+	/**
+	 * The answer to the dialogs asking each permission, the default answer when missing
+	 */
+	private final Map<String, Integer> mAnswers = new HashMap<>();
+
+	/**
+	 * The permissions of each dialog shown so far, dismissed ones included
+	 */
+	private final List<String[]> mDialogs = new ArrayList<>();
+
+	private int mDefaultAnswer = ANSWER_DENY;
+	private int mDialogsToDismiss;
+
+	/**
+	 * Creates a backend where every permission was never asked and every dialog is denied, and installs it in place of
+	 * the system
+	 *
+	 * @return the installed backend
+	 */
+	@NonNull
+	public static FakePermissionBackend install() {
+		final FakePermissionBackend backend = new FakePermissionBackend();
+		PermissMe.setPermissionBackend(backend);
+		return backend;
+	}
+
+	/**
+	 * Goes back to the system, if this backend is still the installed one
+	 */
+	public void uninstall() {
+		if (PermissionBackend.getInstalled() == this) {
+			PermissMe.setPermissionBackend(null);
+		}
+	}
+
+	/**
+	 * Grants the permissions, e.g. granted by an earlier run of the app
+	 */
+	@NonNull
+	public FakePermissionBackend grant(@NonNull final String... permissions) {
+		return setState(STATE_GRANTED, permissions);
+	}
+
+	/**
+	 * Denies the permissions, as if the user denied them in an earlier dialog: they can be asked again, and their
+	 * rationale should be shown
+	 */
+	@NonNull
+	public FakePermissionBackend deny(@NonNull final String... permissions) {
+		return setState(STATE_DENIED, permissions);
+	}
+
+	/**
+	 * Auto-denies the permissions, as if the user checked "Don't ask again" in an earlier dialog or a policy of the
+	 * device denies them: the dialogs asking them are denied without asking the user
+	 */
+	@NonNull
+	public FakePermissionBackend autoDeny(@NonNull final String... permissions) {
+		return setState(STATE_AUTO_DENIED, permissions);
+	}
+
+	/**
+	 * Revokes the permissions, as if they were never asked
+	 */
+	@NonNull
+	public FakePermissionBackend revoke(@NonNull final String... permissions) {
+		return setState(STATE_NEVER_ASKED, permissions);
+	}
+
+	/**
+	 * Sets how the user answers the permissions in the dialogs asking them from now on
+	 *
+	 * @param answer
+	 * 		{@link #ANSWER_GRANT}, {@link #ANSWER_DENY} or {@link #ANSWER_DENY_DONT_ASK_AGAIN}
+	 * @param permissions
+	 * 		the permissions to answer that way
+	 */
+	@NonNull
+	public synchronized FakePermissionBackend answer(final int answer, @NonNull final String... permissions) {
+		checkAnswer(answer);
+		for (final String permission : permissions) {
+			mAnswers.put(permission, answer);
+		}
+		return this;
+	}
+
+	/**
+	 * Sets how the user answers the permissions that were not given an answer with {@link #answer(int, String...)};
+	 * {@link #ANSWER_DENY} by default
+	 */
+	@NonNull
+	public synchronized FakePermissionBackend setDefaultAnswer(final int answer) {
+		checkAnswer(answer);
+		mDefaultAnswer = answer;
+		return this;
+	}
+
+	/**
+	 * The next dialog is dismissed, e.g. by a configuration change, without the user answering it
+	 */
+	@NonNull
+	public synchronized FakePermissionBackend dismissNextDialog() {
+		mDialogsToDismiss++;
+		return this;
+	}
+
+	/**
+	 * @return whether the permission is granted at this point
+	 */
+	public synchronized boolean isGranted(@NonNull final String permission) {
+		return getState(permission) == STATE_GRANTED;
+	}
+
+	/**
+	 * @return the permissions asked by each dialog shown so far, in order
+	 */
+	@NonNull
+	public synchronized List<String[]> getDialogs() {
+		final List<String[]> dialogs = new ArrayList<>(mDialogs.size());
+		for (final String[] permissions : mDialogs) {
+			dialogs.add(permissions.clone());
+		}
+		return dialogs;
+	}
+
+	/**
+	 * @return the number of dialogs shown so far
+	 */
+	public synchronized int getDialogCount() {
+		return mDialogs.size();
+	}
+
+	@Override
+	public synchronized boolean isGranted(@NonNull final Context context, @NonNull final String permission) {
+		return getState(permission) == STATE_GRANTED;
+	}
+
+	@Override
+	public synchronized boolean shouldShowRequestPermissionRationale(@NonNull final Activity activity,
+	                                                                 @NonNull final String permission) {
+		return getState(permission) == STATE_DENIED;
+	}
+
+	@Override
+	public void requestPermissions(@NonNull final Activity activity,
+	                               @NonNull final String[] permissions,
+	                               @NonNull final ResultCallback callback) {
+		final String[] resultPermissions;
+		final int[] grantResults;
+		synchronized (this) {
+			mDialogs.add(permissions.clone());
+			if (mDialogsToDismiss > 0) {
+				mDialogsToDismiss--;
+				resultPermissions = new String[0];
+				grantResults = new int[0];
+			} else {
+				resultPermissions = permissions;
+				grantResults = new int[permissions.length];
+				for (int i = 0; i < permissions.length; i++) {
+					grantResults[i] = answerDialog(permissions[i]);
+				}
+			}
+		}
+		// Outside the lock, the flows call back into the backend
+		callback.onRequestPermissionsResult(resultPermissions, grantResults);
+	}
+
+	@Nullable
+	@Override
+	public Executor getMainThreadExecutor() {
+		return DIRECT_EXECUTOR;
+	}
+
+	/**
+	 * Answers the permission in a dialog, and updates its state
+	 *
+	 * @return the grant result of the permission
+	 */
+	private int answerDialog(@NonNull final String permission) {
+		final int state = getState(permission);
+		if (state == STATE_GRANTED) {
+			return PackageManager.PERMISSION_GRANTED;
+		}
+		if (state == STATE_AUTO_DENIED) {
+			return PackageManager.PERMISSION_DENIED;
+		}
+
+		final Integer answer = mAnswers.get(permission);
+		switch (answer != null ? answer : mDefaultAnswer) {
+			case ANSWER_GRANT:
+				mStates.put(permission, STATE_GRANTED);
+				return PackageManager.PERMISSION_GRANTED;
+			case ANSWER_DENY_DONT_ASK_AGAIN:
+				mStates.put(permission, STATE_AUTO_DENIED);
+				return PackageManager.PERMISSION_DENIED;
+			default:
+				mStates.put(permission, STATE_DENIED);
+				return PackageManager.PERMISSION_DENIED;
+		}
+	}
+
+	@NonNull
+	private synchronized FakePermissionBackend setState(final int state, @NonNull final String... permissions) {
+		for (final String permission : permissions) {
+			mStates.put(permission, state);
+		}
+		return this;
+	}
+
+	private int getState(@NonNull final String permission) {
+		final Integer state = mStates.get(permission);
+		return state != null ? state : STATE_NEVER_ASKED;
+	}
+
+	private static void checkAnswer(final int answer) {
+		if (answer != ANSWER_GRANT && answer != ANSWER_DENY && answer != ANSWER_DENY_DONT_ASK_AGAIN) {
+			throw new IllegalArgumentException("Unknown answer: " + answer);
+		}
+	}
+}
@@ -0,0 +1,159 @@
+package com.tumblr.permissme.testing;
+
+import android.Manifest;
+import androidx.activity.ComponentActivity;
+
+import com.tumblr.permissme.PermissMe;
+import com.tumblr.permissme.PermissionRequest;
+import com.tumblr.permissme.utils.PermissMeUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static org.mockito.AdditionalMatchers.aryEq;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for the {@link FakePermissionBackend} class, through the flows of {@link PermissMe}
+ */
+public class FakePermissionBackendTest {
+
+	private static final String CAMERA = Manifest.permission.CAMERA;
+	private static final String CONTACTS = Manifest.permission.READ_CONTACTS;
+
+	private FakePermissionBackend mBackend;
+	private ComponentActivity mActivity;
+	private PermissMe.PermissionListener mListener;
+
+	@Before
+	public void init() {
+		mBackend = FakePermissionBackend.install();
+		mActivity = mock(ComponentActivity.class);
+		mListener = mock(PermissMe.PermissionListener.class);
+	}
+
+	@After
+	public void tearDown() {
+		mBackend.uninstall();
+	}
+
+	@Test
+	public void testVerifyPermissions_whenGranted_succeedWithoutDialog() {
+		mBackend.grant(CAMERA);
+
+		verifyPermissions(CAMERA);
+
+		verify(mListener).onSuccess();
+		assertEquals(0, mBackend.getDialogCount());
+		assertFalse(PermissMeUtils.needToRequestPermission(mActivity, CAMERA));
+	}
+
+	@Test
+	public void testVerifyPermissions_whenAnswerGrant_succeedSynchronously() {
+		mBackend.deny(CAMERA).answer(FakePermissionBackend.ANSWER_GRANT, CAMERA);
+
+		verifyPermissions(CAMERA);
+
+		verify(mListener).onSuccess();
+		assertEquals(1, mBackend.getDialogCount());
+		assertArrayEquals(new String[] { CAMERA }, mBackend.getDialogs().get(0));
+		assertTrue(mBackend.isGranted(CAMERA));
+		assertFalse(PermissMeUtils.needToRequestPermission(mActivity, CAMERA));
+	}
+
+	@Test
+	public void testVerifyPermissions_whenAnswerDeny_reportDenied() {
+		verifyPermissions(CAMERA);
+
+		verify(mListener).onRequiredPermissionDenied(aryEq(new String[] { CAMERA }), aryEq(new boolean[] { false }));
+		verify(mListener, never()).onSuccess();
+		assertTrue(PermissMeUtils.needToRequestPermission(mActivity, CAMERA));
+	}
+
+	@Test
+	public void testVerifyPermissions_whenAnswerDontAskAgain_reportAutoDenied() {
+		mBackend.deny(CAMERA).answer(FakePermissionBackend.ANSWER_DENY_DONT_ASK_AGAIN, CAMERA);
+
+		verifyPermissions(CAMERA);
+
+		verify(mListener).onRequiredPermissionDenied(aryEq(new String[] { CAMERA }), aryEq(new boolean[] { true }));
+	}
+
+	@Test
+	public void testVerifyPermissions_whenAutoDenied_reportAutoDeniedFromSecondDialog() {
+		mBackend.autoDeny(CAMERA).setDefaultAnswer(FakePermissionBackend.ANSWER_GRANT);
+
+		verifyPermissions(CAMERA);
+		verifyPermissions(CAMERA);
+
+		verify(mListener).onRequiredPermissionDenied(aryEq(new String[] { CAMERA }), aryEq(new boolean[] { false }));
+		verify(mListener).onRequiredPermissionDenied(aryEq(new String[] { CAMERA }), aryEq(new boolean[] { true }));
+		assertFalse(mBackend.isGranted(CAMERA));
+	}
+
+	@Test
+	public void testVerifyPermissions_whenOptionalDenied_succeedAndReportOptional() {
+		mBackend.answer(FakePermissionBackend.ANSWER_GRANT, CAMERA);
+
+		PermissMe.with(mActivity)
+				.setRequiredPermissions(CAMERA)
+				.setOptionalPermissions(CONTACTS)
+				.listener(mListener)
+				.verifyPermissions();
+
+		verify(mListener).onSuccess();
+		verify(mListener).onOptionalPermissionDenied(aryEq(new String[] { CONTACTS }), aryEq(new boolean[] { false }));
+		assertTrue(mBackend.isGranted(CAMERA));
+		assertFalse(mBackend.isGranted(CONTACTS));
+	}
+
+	@Test
+	public void testVerifyPermissions_whenDialogDismissed_notGranted() {
+		mBackend.setDefaultAnswer(FakePermissionBackend.ANSWER_GRANT).dismissNextDialog();
+
+		verifyPermissions(CAMERA);
+
+		verify(mListener, never()).onSuccess();
+		assertFalse(mBackend.isGranted(CAMERA));
+	}
+
+	@Test
+	public void testExecute_whenPermissionRequestDenied_askThroughBackend() {
+		mBackend.answer(FakePermissionBackend.ANSWER_GRANT, CAMERA);
+		final PermissionRequest request = new PermissionRequest.Builder()
+				.setRequiredPermissions(CAMERA)
+				.build();
+
+		request.execute(mActivity, mListener);
+		request.execute(mActivity, mListener);
+
+		verify(mListener, times(2)).onSuccess();
+		assertEquals(1, mBackend.getDialogCount());
+		assertTrue(mBackend.isGranted(CAMERA));
+	}
+
+	@Test
+	public void testUninstall_whenReplaced_keepOtherBackend() {
+		final FakePermissionBackend other = FakePermissionBackend.install();
+		other.grant(CAMERA);
+
+		mBackend.uninstall();
+
+		assertFalse(PermissMeUtils.needToRequestPermission(mActivity, CAMERA));
+		other.uninstall();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testAnswer_whenUnknown_throw() {
+		mBackend.answer(-1, CAMERA);
+	}
+
+	private void verifyPermissions(final String... permissions) {
+		PermissMe.with(mActivity)
+				.setRequiredPermissions(permissions)
+				.listener(mListener)
+				.verifyPermissions();
+	}
+}
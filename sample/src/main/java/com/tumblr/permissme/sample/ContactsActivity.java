@@ -1,15 +1,21 @@
 package com.tumblr.permissme.sample;
 
 import android.content.ContentResolver;
+import android.content.Context;
 import android.database.Cursor;
 import android.os.Bundle;
 import android.provider.ContactsContract;
 import android.widget.ArrayAdapter;
 import android.widget.ListView;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.appcompat.app.AppCompatActivity;
 
+import com.tumblr.permissme.DestinationWarmup;
+import com.tumblr.permissme.PermissMe;
+import com.tumblr.permissme.PermissionOutcome;
+
 import java.util.ArrayList;
 
 /**
@@ -23,14 +29,33 @@ public class ContactsActivity extends AppCompatActivity {
 		super.onCreate(savedInstanceState);
 		setContentView(R.layout.activity_contacts);
 
-		ArrayList<String> contactsList = getListOfContacts();
+		// The contacts were queried in the background while this activity was launching, see ContactsWarmup
+		final PermissionOutcome<ArrayList<String>> contacts = PermissMe.takeDestinationWarmup(getIntent());
+		if (contacts == null) {
+			showContacts(getListOfContacts(this));
+			return;
+		}
+		contacts.whenComplete(new PermissionOutcome.Callback<ArrayList<String>>() {
+			@Override
+			public void onComplete(@Nullable final ArrayList<String> contactsList, @Nullable final Throwable error) {
+				runOnUiThread(new Runnable() {
+					@Override
+					public void run() {
+						showContacts(contactsList != null ? contactsList : getListOfContacts(ContactsActivity.this));
+					}
+				});
+			}
+		});
+	}
+
+	private void showContacts(final ArrayList<String> contactsList) {
 		final ListView listView = (ListView) findViewById(R.id.listview);
 		listView.setAdapter(new ArrayAdapter<String>(this, android.R.layout.simple_list_item_1, contactsList));
 	}
 
-	private ArrayList<String> getListOfContacts() {
+	private static ArrayList<String> getListOfContacts(final Context context) {
 		ArrayList<String> contactsList = new ArrayList<>();
-		ContentResolver cr = getContentResolver();
+		ContentResolver cr = context.getContentResolver();
 		Cursor cur = cr.query(ContactsContract.Contacts.CONTENT_URI, null, null, null, null);
 
 		if (cur != null && cur.getCount() > 0) {
@@ -39,9 +64,22 @@ public class ContactsActivity extends AppCompatActivity {
 				contactsList.add(name);
 			}
 		}
+		if (cur != null) {
+			cur.close();
+		}
 		if (contactsList.isEmpty()) {
 			contactsList.add("No Contacts Found");
 		}
 		return contactsList;
 	}
+
+	/**
+	 * Queries the contacts as soon as the permission is granted, while this activity launches
+	 */
+	public static class ContactsWarmup implements DestinationWarmup<ArrayList<String>> {
+		@Override
+		public ArrayList<String> warmUp(@NonNull final Context context) {
+			return getListOfContacts(context);
+		}
+	}
 }
@@ -55,6 +55,7 @@ public class MainActivity extends AppCompatActivity {
 						);
 				PermissMe.with(MainActivity.this)
 						.setRequiredPermissions(Manifest.permission.READ_CONTACTS)
+						.destinationWarmup(new ContactsActivity.ContactsWarmup())
 						.launchActivityWithPermissions(ContactsActivity.class, null, options.toBundle());
 			}
 		});
@@ -72,6 +73,7 @@ public class MainActivity extends AppCompatActivity {
 
 				PermissMe.with(MainActivity.this)
 						.setOptionalPermissions(Manifest.permission.READ_EXTERNAL_STORAGE)
+						.destinationWarmup(new SharedElementActivity.ImagesWarmup())
 						.launchActivityWithPermissions(
 								new Intent(MainActivity.this, SharedElementActivity.class),
 								options.toBundle()
@@ -1,6 +1,7 @@
 package com.tumblr.permissme.sample;
 
 import android.Manifest;
+import android.content.Context;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
@@ -11,6 +12,7 @@ import android.view.ViewGroup;
 import android.widget.Button;
 import android.widget.ImageView;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.recyclerview.widget.GridLayoutManager;
@@ -18,7 +20,9 @@ import androidx.recyclerview.widget.RecyclerView;
 
 import com.bumptech.glide.Glide;
 import com.bumptech.glide.load.engine.DiskCacheStrategy;
+import com.tumblr.permissme.DestinationWarmup;
 import com.tumblr.permissme.PermissMe;
+import com.tumblr.permissme.PermissionOutcome;
 import com.tumblr.permissme.utils.PermissMeUtils;
 
 import java.util.ArrayList;
@@ -71,9 +75,28 @@ public class SharedElementActivity extends AppCompatActivity {
 		mRecyclerView.setLayoutManager(new GridLayoutManager(this, 3));
 		mRecyclerView.setAdapter(new ImageAdapter());
 
+		// The photos were queried in the background while this activity was launching, see ImagesWarmup
+		final PermissionOutcome<ArrayList<String>> images = PermissMe.takeDestinationWarmup(getIntent());
 		if (PermissMeUtils.needToRequestPermission(this, Manifest.permission.READ_EXTERNAL_STORAGE)) {
 			// we don't have access to photos!
 			shouldShowEmptyView(true);
+		} else if (images != null) {
+			shouldShowEmptyView(false);
+			images.whenComplete(new PermissionOutcome.Callback<ArrayList<String>>() {
+				@Override
+				public void onComplete(@Nullable final ArrayList<String> imagePaths, @Nullable final Throwable error) {
+					runOnUiThread(new Runnable() {
+						@Override
+						public void run() {
+							if (imagePaths != null) {
+								showPhotos(imagePaths);
+							} else {
+								loadPhotos();
+							}
+						}
+					});
+				}
+			});
 		} else {
 			shouldShowEmptyView(false);
 			loadPhotos();
@@ -81,7 +104,11 @@ public class SharedElementActivity extends AppCompatActivity {
 	}
 
 	private void loadPhotos() {
-		((ImageAdapter)(mRecyclerView.getAdapter())).reloadWithImages(getAllShownImagesPath(this));
+		showPhotos(getAllShownImagesPath(this));
+	}
+
+	private void showPhotos(final ArrayList<String> imagePaths) {
+		((ImageAdapter)(mRecyclerView.getAdapter())).reloadWithImages(imagePaths);
 	}
 
 	private void shouldShowEmptyView(final boolean shouldShowEmptyView) {
@@ -97,24 +124,38 @@ public class SharedElementActivity extends AppCompatActivity {
 	/**
 	 * Getting All Images Path.
 	 *
-	 * @param activity
-	 *            the activity
+	 * @param context
+	 *            the context
 	 * @return ArrayList with images Path
 	 */
-	private ArrayList<String> getAllShownImagesPath(AppCompatActivity activity) {
+	private static ArrayList<String> getAllShownImagesPath(Context context) {
 
 		final Uri uri = android.provider.MediaStore.Images.Media.EXTERNAL_CONTENT_URI;
 		final String[] projection = { MediaStore.MediaColumns.DATA };
-		final Cursor cursor = activity.getContentResolver().query(uri, projection, null, null, null);
+		final Cursor cursor = context.getContentResolver().query(uri, projection, null, null, null);
 		int column_index_data = cursor.getColumnIndexOrThrow(MediaStore.MediaColumns.DATA);
 
 		final ArrayList<String> listOfAllImages = new ArrayList<>();
 		while (cursor.moveToNext()) {
 			listOfAllImages.add(cursor.getString(column_index_data));
 		}
+		cursor.close();
 		return listOfAllImages;
 	}
 
+	/**
+	 * Queries the photos as soon as the activity is launched, if the optional storage permission was granted
+	 */
+	public static class ImagesWarmup implements DestinationWarmup<ArrayList<String>> {
+		@Override
+		public ArrayList<String> warmUp(@NonNull final Context context) {
+			if (PermissMeUtils.needToRequestPermission(context, Manifest.permission.READ_EXTERNAL_STORAGE)) {
+				return null;
+			}
+			return getAllShownImagesPath(context);
+		}
+	}
+
 	private class ImageAdapter extends RecyclerView.Adapter<ImageAdapter.ImageViewHolder> {
 
 		private ArrayList<String> mImagePaths;
@@ -0,0 +1,334 @@
+package com.tumblr.permissme;
+
+import android.Manifest;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+import androidx.activity.ComponentActivity;
+import androidx.core.content.PermissionChecker;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Drives thousands of complete flows through the {@link PermissionScheduler}, from the start of the flow to its
+ * callbacks and the launch of its destination, for each path a user can take: everything granted, the required
+ * permission denied, optional permissions only, and required then optional permissions.
+ * <p>
+ * The main looper is scripted, see {@link PermissMeDispatcher#setMainThreadExecutor(Executor)}: every runnable
+ * PermissMe posts is a task, and so is the result of each system dialog, which is delivered from the looper with
+ * scripted grant results the way the framework does. Permission checks go through the real
+ * {@link PermissionStateCache}, down to a {@link PermissionChecker} that answers from the scripted grant state. The
+ * flows are handed to the scheduler directly, the way the {@link PermissMe} fragment and the
+ * {@link RegistryPermissionHost} do; the fragment transaction itself needs a running activity.
+ * <p>
+ * Each path reports flows per second, latency percentiles, looper tasks per flow and bytes allocated per flow (on JVMs
+ * that count them, -1 otherwise; this includes the test doubles). The results are written as JSON to
+ * {@code build/reports/benchmarks/permissme-flows.json}, or to the file set in the
+ * {@code permissme.benchmark.output} system property, so runs on different commits can be compared.
+ * <p>
+ * It lives outside of the unit tests, and is only compiled with them when asked:
+ * {@code ./gradlew :testDebugUnitTest -Pbenchmarks --tests '*FlowThroughputBenchmark'}.
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(PermissionChecker.class)
+@PowerMockIgnore({"jdk.internal.reflect.*", "javax.management.*", "com.sun.management.*"})
+public class FlowThroughputBenchmark {
+
+	private static final int WARMUP_FLOWS = 2000;
+	private static final int FLOWS = 10000;
+
+	private static final String OUTPUT_PROPERTY = "permissme.benchmark.output";
+	private static final String DEFAULT_OUTPUT = "build/reports/benchmarks/permissme-flows.json";
+
+	private static final double NANOS_PER_SECOND = 1e9;
+	private static final int P50 = 50;
+	private static final int P99 = 99;
+	private static final int PERCENT = 100;
+
+	private static final PermissionSet CAMERA = PermissionSet.of(Manifest.permission.CAMERA);
+	private static final PermissionSet CONTACTS = PermissionSet.of(Manifest.permission.READ_CONTACTS);
+
+	private final ArrayDeque<Runnable> mLooper = new ArrayDeque<>();
+	private final Set<String> mGranted = new HashSet<>();
+	private int mTaskCount;
+
+	private ComponentActivity mActivity;
+	private ScriptedHost mHost;
+	private PermissionScheduler mScheduler;
+	private CountingListener mListener;
+
+	@Before
+	public void init() {
+		PermissMeDispatcher.setMainThreadExecutor(new Executor() {
+			@Override
+			public void execute(final Runnable command) {
+				mLooper.add(command);
+			}
+		});
+
+		PowerMockito.mockStatic(PermissionChecker.class);
+		PowerMockito.when(PermissionChecker.checkSelfPermission(any(Context.class), anyString()))
+				.thenAnswer(new Answer<Integer>() {
+					@Override
+					public Integer answer(final InvocationOnMock invocation) {
+						return mGranted.contains((String) invocation.getArguments()[1])
+								? PermissionChecker.PERMISSION_GRANTED
+								: PermissionChecker.PERMISSION_DENIED;
+					}
+				});
+
+		mActivity = mock(ComponentActivity.class, withSettings().stubOnly());
+		// Denied, but can still be asked: the denied path doesn't go through the auto-denied snackbar
+		when(mActivity.shouldShowRequestPermissionRationale(anyString())).thenReturn(true);
+
+		mHost = new ScriptedHost();
+		mScheduler = new PermissionScheduler(mHost);
+		mListener = new CountingListener();
+		PermissionStateCache.getInstance().invalidate();
+	}
+
+	@After
+	public void tearDown() {
+		PermissMeDispatcher.setMainThreadExecutor(null);
+		PermissionStateCache.getInstance().invalidate();
+	}
+
+	@Test
+	public void benchmarkFlows() throws IOException {
+		final Path[] paths = {
+				new Path("granted", CAMERA, PermissionSet.EMPTY, true, true),
+				new Path("denied", CAMERA, PermissionSet.EMPTY, false, false),
+				new Path("optional_only", PermissionSet.EMPTY, CONTACTS, true, true),
+				new Path("required_and_optional", CAMERA, CONTACTS, true, true)
+		};
+
+		final StringBuilder json = new StringBuilder();
+		json.append("{\n  \"flows\": ").append(FLOWS).append(",\n  \"javaVersion\": \"")
+				.append(System.getProperty("java.version")).append("\",\n  \"paths\": [\n");
+		for (int i = 0; i < paths.length; i++) {
+			final Path path = paths[i];
+			run(path, WARMUP_FLOWS, null);
+			final Result result = new Result();
+			run(path, FLOWS, result);
+
+			System.out.println(path.mName + ": " + result.toJson());
+			json.append("    {\"path\": \"").append(path.mName).append("\", ").append(result.toJson()).append('}')
+					.append(i < paths.length - 1 ? ",\n" : "\n");
+		}
+		json.append("  ]\n}\n");
+
+		final File output = new File(System.getProperty(OUTPUT_PROPERTY, DEFAULT_OUTPUT));
+		final File directory = output.getAbsoluteFile().getParentFile();
+		assertTrue(directory.isDirectory() || directory.mkdirs());
+		final Writer writer = new FileWriter(output);
+		try {
+			writer.write(json.toString());
+		} finally {
+			writer.close();
+		}
+		System.out.println("Results written to " + output.getAbsolutePath());
+	}
+
+	/**
+	 * Runs complete flows down the path, one after the other
+	 */
+	private void run(final Path path, final int flows, final Result result) {
+		final long[] latencies = new long[flows];
+		mTaskCount = 0;
+		mListener.mSuccessCount = 0;
+		mListener.mDeniedCount = 0;
+		mHost.mLaunchCount = 0;
+
+		final long startBytes = allocatedBytes();
+		final long start = System.nanoTime();
+		for (int i = 0; i < flows; i++) {
+			final long flowStart = System.nanoTime();
+			mHost.mGrantRequests = path.mGrant;
+			mScheduler.enqueue(createFlow(path));
+			runLooper();
+			latencies[i] = System.nanoTime() - flowStart;
+
+			// Back to square one for the next flow
+			mGranted.clear();
+			PermissionStateCache.getInstance().invalidate();
+		}
+		final long elapsed = System.nanoTime() - start;
+		final long endBytes = allocatedBytes();
+
+		assertEquals(path.mGrant ? flows : 0, mListener.mSuccessCount);
+		assertEquals(path.mGrant ? 0 : flows, mListener.mDeniedCount);
+		assertEquals(path.mLaunches ? flows : 0, mHost.mLaunchCount);
+		assertFalse(mScheduler.isBusy());
+
+		if (result != null) {
+			Arrays.sort(latencies);
+			result.mFlowsPerSecond = flows * NANOS_PER_SECOND / elapsed;
+			result.mP50Nanos = latencies[flows * P50 / PERCENT];
+			result.mP99Nanos = latencies[flows * P99 / PERCENT];
+			result.mTasksPerFlow = (double) mTaskCount / flows;
+			result.mBytesPerFlow = startBytes < 0 || endBytes < 0 ? -1 : (double) (endBytes - startBytes) / flows;
+		}
+	}
+
+	private void runLooper() {
+		Runnable task;
+		while ((task = mLooper.poll()) != null) {
+			mTaskCount++;
+			task.run();
+		}
+	}
+
+	private PermissionFlow createFlow(final Path path) {
+		final PermissionFlow flow = new PermissionFlow();
+		flow.mRequiredPermissions = path.mRequiredPermissions;
+		flow.mOptionalPermissions = path.mOptionalPermissions;
+		flow.mListener = mListener;
+		if (path.mLaunches) {
+			flow.mLaunchIntent = mHost.mIntent;
+		}
+		return flow;
+	}
+
+	/**
+	 * @return the bytes allocated by the current thread so far, -1 if the JVM doesn't count them
+	 */
+	private static long allocatedBytes() {
+		final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (threads instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+
+	private static final class Path {
+		private final String mName;
+		private final PermissionSet mRequiredPermissions;
+		private final PermissionSet mOptionalPermissions;
+		private final boolean mGrant;
+		private final boolean mLaunches;
+
+		private Path(final String name,
+		             final PermissionSet requiredPermissions,
+		             final PermissionSet optionalPermissions,
+		             final boolean grant,
+		             final boolean launches) {
+			mName = name;
+			mRequiredPermissions = requiredPermissions;
+			mOptionalPermissions = optionalPermissions;
+			mGrant = grant;
+			mLaunches = launches;
+		}
+	}
+
+	private static final class Result {
+		private double mFlowsPerSecond;
+		private long mP50Nanos;
+		private long mP99Nanos;
+		private double mTasksPerFlow;
+		private double mBytesPerFlow;
+
+		private String toJson() {
+			return String.format(Locale.US, "\"flowsPerSecond\": %.1f, \"p50Nanos\": %d, \"p99Nanos\": %d, "
+							+ "\"looperTasksPerFlow\": %.2f, \"allocatedBytesPerFlow\": %.1f",
+					mFlowsPerSecond, mP50Nanos, mP99Nanos, mTasksPerFlow, mBytesPerFlow);
+		}
+	}
+
+	/**
+	 * Answers each system dialog from the looper with the scripted grant results, and launches into the void
+	 */
+	private final class ScriptedHost implements PermissionScheduler.Host {
+		private final Intent mIntent = mock(Intent.class, withSettings().stubOnly());
+		private boolean mGrantRequests;
+		private int mLaunchCount;
+
+		private ScriptedHost() {
+			doAnswer(new Answer<Void>() {
+				@Override
+				public Void answer(final InvocationOnMock invocation) {
+					mLaunchCount++;
+					return null;
+				}
+			}).when(mActivity).startActivity(any(Intent.class), any(Bundle.class));
+		}
+
+		@Override
+		public ComponentActivity getHostActivity() {
+			return mActivity;
+		}
+
+		@Override
+		public PermissionSet getUngrantedPermissions(final PermissionSet permissions) {
+			return PermissionStateCache.getInstance().getDenied(mActivity, permissions);
+		}
+
+		@Override
+		public void requestPermissions(final String[] permissions, final int requestCode) {
+			mLooper.add(new Runnable() {
+				@Override
+				public void run() {
+					final int[] grantResults = new int[permissions.length];
+					for (int i = 0; i < permissions.length; i++) {
+						grantResults[i] = mGrantRequests
+								? PermissionChecker.PERMISSION_GRANTED
+								: PermissionChecker.PERMISSION_DENIED;
+						if (mGrantRequests) {
+							mGranted.add(permissions[i]);
+						}
+					}
+					// As the PermissMe fragment does with every result
+					PermissionStateCache.getInstance().invalidate();
+					mScheduler.onRequestPermissionsResult(requestCode, permissions, grantResults);
+				}
+			});
+		}
+	}
+
+	private static final class CountingListener implements PermissMe.PermissionListener {
+		private int mSuccessCount;
+		private int mDeniedCount;
+
+		@Override
+		public void onSuccess() {
+			mSuccessCount++;
+		}
+
+		@Override
+		public void onRequiredPermissionDenied(final String[] deniedPermissions,
+		                                       final boolean[] isAutoDenied) {
+			mDeniedCount++;
+		}
+
+		@Override
+		public void onOptionalPermissionDenied(final String[] deniedPermissions,
+		                                       final boolean[] isAutoDenied) {
+			mDeniedCount++;
+		}
+	}
+}
@@ -0,0 +1,115 @@
+package com.tumblr.permissme;
+
+import androidx.activity.ComponentActivity;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Requests the permissions of the flows of one activity through the installed {@link PermissionBackend}, see
+ * {@link PermissMe#setPermissionBackend(PermissionBackend)}. Unlike the {@link PermissMe} fragment and the
+ * {@link RegistryPermissionHost}, the host doesn't touch the activity: its dialogs are whatever the backend makes of
+ * them.
+ * <p>
+ * Hosts are only used from the main thread, or from the executor of the backend.
+ */
+/*package*/ final class BackendPermissionHost implements PermissionScheduler.Host {
+
+	/**
+	 * The host of each activity; a host only holds a weak reference to its activity
+	 */
+	private static final Map<ComponentActivity, BackendPermissionHost> HOSTS = new WeakHashMap<>();
+
+	@NonNull
+	private final WeakReference<ComponentActivity> mActivity;
+
+	@NonNull
+	private final PermissionBackend mBackend;
+
+	@NonNull
+	private final PermissionScheduler mScheduler = new PermissionScheduler(this);
+
+	private BackendPermissionHost(@NonNull final ComponentActivity activity, @NonNull final PermissionBackend backend) {
+		mActivity = new WeakReference<>(activity);
+		mBackend = backend;
+	}
+
+	/**
+	 * @param activity
+	 * 		the activity to request permissions in
+	 * @param backend
+	 * 		the installed backend
+	 * @return the host of the activity for the backend, created if it didn't exist yet
+	 */
+	@NonNull
+	/*package*/ static synchronized BackendPermissionHost get(@NonNull final ComponentActivity activity,
+	                                                          @NonNull final PermissionBackend backend) {
+		BackendPermissionHost host = HOSTS.get(activity);
+		if (host == null || host.mBackend != backend) {
+			host = new BackendPermissionHost(activity, backend);
+			HOSTS.put(activity, host);
+		}
+		return host;
+	}
+
+	/**
+	 * Drops the hosts, and the flows waiting on their dialogs, when the backend is replaced
+	 */
+	/*package*/ static synchronized void reset() {
+		HOSTS.clear();
+	}
+
+	/**
+	 * Hands the flow to the scheduler of the activity
+	 *
+	 * @param flow
+	 * 		the flow to start
+	 */
+	/*package*/ void enqueue(@NonNull final PermissionFlow flow) {
+		mScheduler.enqueue(flow);
+	}
+
+	@Nullable
+	@Override
+	public ComponentActivity getHostActivity() {
+		return mActivity.get();
+	}
+
+	@NonNull
+	@Override
+	public PermissionSet getUngrantedPermissions(@NonNull final PermissionSet permissions) {
+		final ComponentActivity activity = mActivity.get();
+		return activity != null
+				? PermissionStateCache.getInstance().getDenied(activity, permissions)
+				: PermissionSet.EMPTY;
+	}
+
+	@Override
+	public void requestPermissions(@NonNull final String[] permissions, final int requestCode) {
+		final ComponentActivity activity = mActivity.get();
+		if (activity == null) {
+			onResult(requestCode, new String[0], new int[0]);
+			return;
+		}
+		mBackend.requestPermissions(activity, permissions, new PermissionBackend.ResultCallback() {
+			@Override
+			public void onRequestPermissionsResult(@NonNull final String[] permissions,
+			                                       @NonNull final int[] grantResults) {
+				onResult(requestCode, permissions, grantResults);
+			}
+		});
+	}
+
+	@VisibleForTesting
+	/*package*/ void onResult(final int requestCode,
+	                          @NonNull final String[] permissions,
+	                          @NonNull final int[] grantResults) {
+		// The backend may have changed the grant state of any permission we have cached
+		PermissionStateCache.getInstance().invalidate();
+		mScheduler.onRequestPermissionsResult(requestCode, permissions, grantResults);
+	}
+}
@@ -0,0 +1,490 @@
+package com.tumblr.permissme;
+
+import android.app.Activity;
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+import androidx.core.content.ContextCompat;
+import androidx.core.content.PermissionChecker;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.ref.WeakReference;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * The last decision of the user for each permission, kept across process restarts, so that a permission the user
+ * chose to not be asked for again isn't requested only for the system to deny it without showing anything.
+ * <p>
+ * The journal is an append-only file in the no-backup storage of the app, memory-mapped so that recording a decision
+ * is a memory write rather than a file write. Each record holds a permission and its decision; the last record of a
+ * permission wins. Once the file is full, it is compacted into a new file with only the last decision of each
+ * permission, which is then renamed over the old one.
+ * <p>
+ * Every file access happens off the main thread, on the background executor of {@link PermissMeDispatcher}. The main
+ * thread only reads the decisions published once the journal is loaded; until then, the journal knows nothing and
+ * permissions are requested as usual. The decisions are verified against the live grant state lazily: every
+ * auto-denied permission when the journal is loaded, and the permissions of a dialog the journal skipped right after
+ * skipping it, see {@link #verify(Activity, PermissionSet)}.
+ * <p>
+ * A permission is only recorded auto-denied once the user was seen fixing the denial, or the system was seen denying
+ * it without showing anything, see {@link RationaleSnapshot#getUserFixed(PermissionSet)}: a guess would keep a
+ * permission that was never really auto-denied, e.g. a dialog dismissed twice, from ever being asked again. A dialog
+ * is only skipped once per process, see {@link #skip(PermissionSet)}, so that a permission reset from the system
+ * settings without the journal knowing is asked again the next time.
+ */
+/*package*/ final class DecisionJournal {
+
+	private static final String TAG = DecisionJournal.class.getSimpleName();
+
+	/*package*/ static final byte DECISION_GRANTED = 1;
+	/*package*/ static final byte DECISION_DENIED = 2;
+
+	/**
+	 * Auto-denied, the user was seen choosing to not be asked again
+	 */
+	/*package*/ static final byte DECISION_USER_FIXED = 3;
+
+	/*package*/ static final String FILE_NAME = "permissme_decisions.journal";
+
+	/**
+	 * The size the journal is mapped with; grown when the last decisions alone fill more than half of it
+	 */
+	/*package*/ static final int DEFAULT_CAPACITY_BYTES = 16 * 1024;
+
+	/**
+	 * "PMDJ"
+	 */
+	private static final int MAGIC = 0x504d444a;
+	private static final int VERSION = 1;
+	private static final int MAGIC_OFFSET = 0;
+	private static final int VERSION_OFFSET = 4;
+	private static final int HEADER_BYTES = 8;
+
+	/**
+	 * The name of a record follows its length
+	 */
+	private static final int NAME_OFFSET = 2;
+
+	/**
+	 * The name length and the decision around the name of each record
+	 */
+	private static final int RECORD_OVERHEAD_BYTES = 3;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static volatile DecisionJournal sInstance;
+
+	@NonNull
+	private final File mFile;
+
+	@NonNull
+	private final Executor mExecutor;
+
+	/**
+	 * The permissions the journal knows as auto-denied, published for the main thread
+	 */
+	@NonNull
+	private volatile PermissionSet mAutoDenied = PermissionSet.EMPTY;
+
+	/**
+	 * The permissions the journal knows as denied, auto-denied or not, published for the main thread
+	 */
+	@NonNull
+	private volatile PermissionSet mDenied = PermissionSet.EMPTY;
+
+	/**
+	 * The permissions of the dialogs skipped by this process, see {@link #skip(PermissionSet)}; main thread only
+	 */
+	@NonNull
+	private PermissionSet mSkipped = PermissionSet.EMPTY;
+
+	/**
+	 * The last decision of each permission; guarded by this, like the mapping
+	 */
+	private final Map<String, Byte> mDecisions = new HashMap<>();
+
+	@Nullable
+	private MappedByteBuffer mBuffer;
+
+	private int mWritePosition;
+
+	/*package*/ DecisionJournal(@NonNull final File file, @NonNull final Executor executor) {
+		mFile = file;
+		mExecutor = executor;
+	}
+
+	/**
+	 * @param context
+	 * 		any context of the app
+	 * @return the journal of the app, loaded in the background the first time it is needed
+	 */
+	@NonNull
+	/*package*/ static DecisionJournal getInstance(@NonNull final Context context) {
+		DecisionJournal journal = sInstance;
+		if (journal == null) {
+			synchronized (DecisionJournal.class) {
+				journal = sInstance;
+				if (journal == null) {
+					final File directory = ContextCompat.getNoBackupFilesDir(context.getApplicationContext());
+					journal = new DecisionJournal(new File(directory, FILE_NAME),
+							PermissMeDispatcher.getInstance().getBackgroundExecutor());
+					journal.loadAsync(context.getApplicationContext());
+					sInstance = journal;
+				}
+			}
+		}
+		return journal;
+	}
+
+	/**
+	 * @return the journal of the app if it was created already, otherwise null
+	 */
+	@Nullable
+	/*package*/ static DecisionJournal peek() {
+		return sInstance;
+	}
+
+	@VisibleForTesting
+	/*package*/ static void setInstance(@Nullable final DecisionJournal journal) {
+		sInstance = journal;
+	}
+
+	/**
+	 * @return the permissions the user chose to not be asked for again, as far as the journal knows
+	 */
+	@NonNull
+	/*package*/ PermissionSet getAutoDenied() {
+		return mAutoDenied;
+	}
+
+	/**
+	 * Decides whether a dialog can be skipped because the journal knows all its permissions as auto-denied. Only
+	 * used from the main thread.
+	 * <p>
+	 * Each permission is only skipped once per process: when the flow is requested again, e.g. by the user retrying,
+	 * the dialog goes through the system, which denies a permission that is still auto-denied right away, see
+	 * {@link RationaleSnapshot}, and asks one that was reset from the system settings.
+	 *
+	 * @param permissions
+	 * 		the permissions of the dialog
+	 * @return {@code true} if the dialog can be skipped, its permissions are then not skipped again
+	 */
+	/*package*/ boolean skip(@NonNull final PermissionSet permissions) {
+		if (!mAutoDenied.containsAll(permissions) || !mSkipped.intersect(permissions).isEmpty()) {
+			return false;
+		}
+		mSkipped = mSkipped.union(permissions);
+		return true;
+	}
+
+	/**
+	 * @return the permissions the user denied, auto-denied or not, as far as the journal knows
+	 */
+	@NonNull
+	/*package*/ PermissionSet getDenied() {
+		return mDenied;
+	}
+
+	/**
+	 * Loads the journal in the background, then verifies its auto-denied permissions against their grant state
+	 *
+	 * @param context
+	 * 		the application context
+	 */
+	/*package*/ void loadAsync(@NonNull final Context context) {
+		mExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				synchronized (DecisionJournal.this) {
+					if (!ensureLoaded()) {
+						return;
+					}
+					// The user may have granted them from the app settings while the process was dead
+					final String[] autoDenied = mAutoDenied.toArray();
+					for (int i = 0; i < autoDenied.length; i++) {
+						if (PermissionChecker.checkSelfPermission(context, autoDenied[i])
+								== PermissionChecker.PERMISSION_GRANTED) {
+							append(autoDenied[i], DECISION_GRANTED);
+						}
+					}
+					publish();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Records the result of a permission dialog in the background
+	 *
+	 * @param granted
+	 * 		the permissions the dialog granted
+	 * @param denied
+	 * 		the permissions the dialog denied, auto-denied or not
+	 * @param userFixed
+	 * 		the permissions of the dialog the user chose to not be asked for again
+	 */
+	/*package*/ void record(@NonNull final PermissionSet granted,
+	                        @NonNull final PermissionSet denied,
+	                        @NonNull final PermissionSet userFixed) {
+		mExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				synchronized (DecisionJournal.this) {
+					if (!ensureLoaded()) {
+						return;
+					}
+					appendAll(granted, DECISION_GRANTED);
+					appendAll(denied.minus(userFixed), DECISION_DENIED);
+					appendAll(userFixed, DECISION_USER_FIXED);
+					publish();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Checks in the background whether the permissions the journal knows as auto-denied still are, e.g. after a
+	 * dialog was skipped because of them. A permission that is granted, or that the system would show a rationale for,
+	 * is asked again the next time.
+	 *
+	 * @param activity
+	 * 		the activity the permissions would have been requested in, or null if it is gone
+	 * @param permissions
+	 * 		the permissions to verify
+	 */
+	/*package*/ void verify(@Nullable final Activity activity, @NonNull final PermissionSet permissions) {
+		if (activity == null) {
+			return;
+		}
+		final WeakReference<Activity> activityReference = new WeakReference<>(activity);
+		mExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				final Activity verifiedActivity = activityReference.get();
+				if (verifiedActivity == null) {
+					return;
+				}
+				final String[] permissionArray = permissions.toArray();
+				synchronized (DecisionJournal.this) {
+					if (!ensureLoaded()) {
+						return;
+					}
+					for (int i = 0; i < permissionArray.length; i++) {
+						final String permission = permissionArray[i];
+						if (PermissionChecker.checkSelfPermission(verifiedActivity, permission)
+								== PermissionChecker.PERMISSION_GRANTED) {
+							append(permission, DECISION_GRANTED);
+						} else if (verifiedActivity.shouldShowRequestPermissionRationale(permission)) {
+							append(permission, DECISION_DENIED);
+						}
+					}
+					publish();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Forgets the permissions known as auto-denied in the background, so that they are asked again
+	 */
+	/*package*/ void forgetAutoDenied() {
+		mExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				synchronized (DecisionJournal.this) {
+					if (!ensureLoaded()) {
+						return;
+					}
+					// Still denied, as far as we know, but worth asking again
+					appendAll(mAutoDenied, DECISION_DENIED);
+					publish();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Must hold the lock; maps the journal and reads its decisions, the first time only
+	 *
+	 * @return {@code false} if the journal can't be used
+	 */
+	@WorkerThread
+	private boolean ensureLoaded() {
+		if (mBuffer != null) {
+			return true;
+		}
+		try {
+			final File directory = mFile.getParentFile();
+			if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+				throw new IOException("Can't create " + directory);
+			}
+			final MappedByteBuffer buffer = map(mFile, Math.max(mFile.length(), DEFAULT_CAPACITY_BYTES));
+			if (buffer.getInt(MAGIC_OFFSET) != MAGIC || buffer.getInt(VERSION_OFFSET) != VERSION) {
+				// A new journal, or one we can't read; start over
+				clear(buffer);
+				mWritePosition = HEADER_BYTES;
+			} else {
+				mWritePosition = read(buffer, mDecisions);
+			}
+			mBuffer = buffer;
+			publish();
+			return true;
+		} catch (final IOException e) {
+			Log.w(TAG, "The decision journal can't be loaded, permissions will be requested as usual", e);
+			return false;
+		}
+	}
+
+	/**
+	 * Reads the records of the journal into the map
+	 *
+	 * @return the position after the last complete record
+	 */
+	private static int read(@NonNull final MappedByteBuffer buffer, @NonNull final Map<String, Byte> decisions) {
+		int position = HEADER_BYTES;
+		while (position + RECORD_OVERHEAD_BYTES <= buffer.capacity()) {
+			// The length is written last, a record cut short by a crash reads as the end of the journal
+			final int length = buffer.getShort(position);
+			if (length <= 0 || position + RECORD_OVERHEAD_BYTES + length > buffer.capacity()) {
+				break;
+			}
+			final byte[] name = new byte[length];
+			for (int i = 0; i < length; i++) {
+				name[i] = buffer.get(position + NAME_OFFSET + i);
+			}
+			decisions.put(new String(name, UTF_8), buffer.get(position + NAME_OFFSET + length));
+			position += RECORD_OVERHEAD_BYTES + length;
+		}
+		return position;
+	}
+
+	private void appendAll(@NonNull final PermissionSet permissions, final byte decision) {
+		final String[] permissionArray = permissions.toArray();
+		for (int i = 0; i < permissionArray.length; i++) {
+			append(permissionArray[i], decision);
+		}
+	}
+
+	/**
+	 * Must hold the lock and be loaded; records the decision unless it is already the last one of the permission
+	 */
+	private void append(@NonNull final String permission, final byte decision) {
+		final Byte lastDecision = mDecisions.get(permission);
+		if (lastDecision != null && lastDecision == decision) {
+			return;
+		}
+		mDecisions.put(permission, decision);
+
+		final byte[] name = permission.getBytes(UTF_8);
+		if (name.length > Short.MAX_VALUE) {
+			return;
+		}
+		if (mWritePosition + RECORD_OVERHEAD_BYTES + name.length > mBuffer.capacity()) {
+			// The map already holds the new decision
+			compact();
+			return;
+		}
+		mWritePosition = write(mBuffer, mWritePosition, name, decision);
+	}
+
+	/**
+	 * Writes a record at the position
+	 *
+	 * @return the position after the record
+	 */
+	private static int write(@NonNull final MappedByteBuffer buffer,
+	                         final int position,
+	                         @NonNull final byte[] name,
+	                         final byte decision) {
+		for (int i = 0; i < name.length; i++) {
+			buffer.put(position + NAME_OFFSET + i, name[i]);
+		}
+		buffer.put(position + NAME_OFFSET + name.length, decision);
+		buffer.putShort(position, (short) name.length);
+		return position + RECORD_OVERHEAD_BYTES + name.length;
+	}
+
+	/**
+	 * Must hold the lock; rewrites the journal with only the last decision of each permission, into a new file that
+	 * replaces the old one once complete
+	 */
+	@VisibleForTesting
+	/*package*/ void compact() {
+		int size = HEADER_BYTES;
+		for (final String permission : mDecisions.keySet()) {
+			size += RECORD_OVERHEAD_BYTES + permission.getBytes(UTF_8).length;
+		}
+		int capacity = DEFAULT_CAPACITY_BYTES;
+		while (size > capacity / 2) {
+			capacity *= 2;
+		}
+
+		final File compacted = new File(mFile.getPath() + ".tmp");
+		try {
+			final MappedByteBuffer buffer = map(compacted, capacity);
+			clear(buffer);
+			int position = HEADER_BYTES;
+			for (final Map.Entry<String, Byte> decision : mDecisions.entrySet()) {
+				position = write(buffer, position, decision.getKey().getBytes(UTF_8), decision.getValue());
+			}
+			buffer.force();
+			if (!compacted.renameTo(mFile)) {
+				throw new IOException("Can't rename " + compacted + " to " + mFile);
+			}
+			mBuffer = buffer;
+			mWritePosition = position;
+		} catch (final IOException e) {
+			// Keep the old journal; the new decisions are only known until the process dies
+			Log.w(TAG, "The decision journal can't be compacted", e);
+			compacted.delete();
+		}
+	}
+
+	/**
+	 * Must hold the lock; publishes the decisions for the main thread
+	 */
+	private void publish() {
+		PermissionSet denied = PermissionSet.EMPTY;
+		PermissionSet autoDenied = PermissionSet.EMPTY;
+		for (final Map.Entry<String, Byte> decision : mDecisions.entrySet()) {
+			if (decision.getValue() == DECISION_USER_FIXED) {
+				autoDenied = autoDenied.union(PermissionSet.of(decision.getKey()));
+				denied = denied.union(PermissionSet.of(decision.getKey()));
+			} else if (decision.getValue() == DECISION_DENIED) {
+				denied = denied.union(PermissionSet.of(decision.getKey()));
+			}
+		}
+		mDenied = denied;
+		mAutoDenied = autoDenied;
+	}
+
+	@NonNull
+	private static MappedByteBuffer map(@NonNull final File file, final long size) throws IOException {
+		final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+		try {
+			// The mapping stays valid once the file is closed
+			return randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+		} finally {
+			randomAccessFile.close();
+		}
+	}
+
+	private static void clear(@NonNull final MappedByteBuffer buffer) {
+		for (int i = 0; i < buffer.capacity(); i++) {
+			buffer.put(i, (byte) 0);
+		}
+		buffer.putInt(MAGIC_OFFSET, MAGIC);
+		buffer.putInt(VERSION_OFFSET, VERSION);
+	}
+}
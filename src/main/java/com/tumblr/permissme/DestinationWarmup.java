@@ -0,0 +1,31 @@
+package com.tumblr.permissme;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+/**
+ * Work that prepares the data of a destination activity, e.g. querying a content provider the permissions were asked
+ * for. Set it through {@link PermissMe.Builder#destinationWarmup(DestinationWarmup)}: it is started on a background
+ * thread as soon as the required permissions are granted, in parallel with the launch of the destination and its
+ * transition. The destination then picks up the in-flight result with
+ * {@link PermissMe#takeDestinationWarmup(android.content.Intent)} instead of loading its data in {@code onCreate}.
+ *
+ * @param <T>
+ * 		the type of the prepared data
+ */
+public interface DestinationWarmup<T> {
+	/**
+	 * Prepares the data of the destination, on a background thread. Optional permissions may have been denied, check
+	 * them here if the data depends on them.
+	 *
+	 * @param context
+	 * 		the application context
+	 * @return the data, handed to the destination
+	 * @throws Exception
+	 * 		if the data could not be prepared; the destination gets a failed outcome
+	 */
+	@WorkerThread
+	T warmUp(@NonNull Context context) throws Exception;
+}
@@ -0,0 +1,110 @@
+package com.tumblr.permissme;
+
+import android.content.ComponentName;
+import android.os.Bundle;
+
+import androidx.annotation.AnimRes;
+import androidx.annotation.Nullable;
+
+/**
+ * The plain data a caller sets up a {@link PermissionFlow} with through the {@link PermissMe.Builder}: what to launch
+ * once the required permissions are granted, and how to report an auto-denied permission.
+ * <p>
+ * The fields are read directly while the flow runs. The state lives as long as its flow, which also holds the
+ * listeners of the caller, so it is never saved; the destination is a {@link ComponentName} rather than a {@link Class}
+ * all the same, so that nothing of the flow relies on Java serialization.
+ * <p>
+ * Two states are equal when they launch the same destination the same way and report auto-denials the same way; the
+ * bundles are compared shallowly, see {@link PermissionFlow#isSameBundle(Bundle, Bundle)}.
+ */
+/*package*/ final class FlowState {
+
+	/**
+	 * The activity to launch once the required permissions are granted, null if none
+	 */
+	@Nullable
+	/*package*/ ComponentName mDestination;
+
+	/**
+	 * The extras of {@link #mDestination}
+	 */
+	@Nullable
+	/*package*/ Bundle mDestinationExtras;
+
+	/**
+	 * The options to start the destination with, see
+	 * {@link androidx.appcompat.app.AppCompatActivity#startActivity(android.content.Intent, Bundle)}
+	 */
+	@Nullable
+	/*package*/ Bundle mLaunchOptions;
+
+	@AnimRes
+	/*package*/ int mEnterAnim;
+
+	@AnimRes
+	/*package*/ int mExitAnim;
+
+	/**
+	 * The request code to start the destination for result with, 0 to start it without a result
+	 */
+	/*package*/ int mRequestCode;
+
+	/*package*/ boolean mFinishCallerActivity;
+
+	/**
+	 * Whether to show the snackbar when a required permission is auto-denied
+	 */
+	/*package*/ boolean mShowUIOnFailure = true;
+
+	/**
+	 * The message of the auto-denied snackbar, null for the default one
+	 */
+	@Nullable
+	/*package*/ String mCustomAutoDeniedMessage;
+
+	/**
+	 * The configuration of the auto-denied snackbar, null for the global one
+	 */
+	@Nullable
+	/*package*/ PermissMeConfig mConfig;
+
+	/*package*/ FlowState() {
+
+	}
+
+	@Override
+	public boolean equals(final Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (!(o instanceof FlowState)) {
+			return false;
+		}
+		final FlowState other = (FlowState) o;
+		return mEnterAnim == other.mEnterAnim
+				&& mExitAnim == other.mExitAnim
+				&& mRequestCode == other.mRequestCode
+				&& mFinishCallerActivity == other.mFinishCallerActivity
+				&& mShowUIOnFailure == other.mShowUIOnFailure
+				&& (mDestination == null ? other.mDestination == null : mDestination.equals(other.mDestination))
+				&& PermissionFlow.isSameBundle(mDestinationExtras, other.mDestinationExtras)
+				&& PermissionFlow.isSameBundle(mLaunchOptions, other.mLaunchOptions)
+				&& (mCustomAutoDeniedMessage == null
+						? other.mCustomAutoDeniedMessage == null
+						: mCustomAutoDeniedMessage.equals(other.mCustomAutoDeniedMessage))
+				&& mConfig == other.mConfig;
+	}
+
+	@Override
+	public int hashCode() {
+		// The bundles are left out, their contents can't be hashed consistently with the shallow comparison
+		int result = mDestination != null ? mDestination.hashCode() : 0;
+		result = 31 * result + mEnterAnim;
+		result = 31 * result + mExitAnim;
+		result = 31 * result + mRequestCode;
+		result = 31 * result + (mFinishCallerActivity ? 1 : 0);
+		result = 31 * result + (mShowUIOnFailure ? 1 : 0);
+		result = 31 * result + (mCustomAutoDeniedMessage != null ? mCustomAutoDeniedMessage.hashCode() : 0);
+		return result;
+	}
+}
@@ -0,0 +1,61 @@
+package com.tumblr.permissme;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-size histogram of durations in nanoseconds, with one bucket per power of two: bucket 0 holds 0ns, and
+ * bucket {@code i} holds the durations in {@code [2^(i-1), 2^i)}. Recording is lock-free and doesn't allocate, so it
+ * can be done from any thread on the hot path; a snapshot is only consistent bucket by bucket, which is enough for
+ * telemetry.
+ */
+/*package*/ final class LatencyHistogram {
+
+	/**
+	 * Enough buckets for any non-negative {@code long}
+	 */
+	/*package*/ static final int BUCKET_COUNT = 64;
+
+	private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+	private final AtomicLong mCount = new AtomicLong();
+	private final AtomicLong mSumNanos = new AtomicLong();
+	private final AtomicLong mMaxNanos = new AtomicLong();
+
+	/**
+	 * @param durationNanos
+	 * 		the duration to record; negative durations, e.g. from a clock that went backwards, count as 0
+	 */
+	/*package*/ void record(final long durationNanos) {
+		final long duration = Math.max(durationNanos, 0);
+		mBuckets.incrementAndGet(bucketOf(duration));
+		mCount.incrementAndGet();
+		mSumNanos.addAndGet(duration);
+		long max = mMaxNanos.get();
+		while (duration > max && !mMaxNanos.compareAndSet(max, duration)) {
+			max = mMaxNanos.get();
+		}
+	}
+
+	@NonNull
+	/*package*/ PermissMeMetrics.HistogramSnapshot snapshot() {
+		final long[] buckets = new long[BUCKET_COUNT];
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			buckets[i] = mBuckets.get(i);
+		}
+		return new PermissMeMetrics.HistogramSnapshot(buckets, mCount.get(), mSumNanos.get(), mMaxNanos.get());
+	}
+
+	/*package*/ static int bucketOf(final long durationNanos) {
+		return Long.SIZE - Long.numberOfLeadingZeros(durationNanos);
+	}
+
+	/**
+	 * @return the largest duration the bucket holds, in nanoseconds; {@link Long#MAX_VALUE} for the last bucket
+	 */
+	/*package*/ static long upperBoundOf(final int bucket) {
+		// 1L << 63 overflows to Long.MIN_VALUE, minus one is Long.MAX_VALUE
+		return (1L << bucket) - 1;
+	}
+}
@@ -0,0 +1,268 @@
+package com.tumblr.permissme;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Parcel;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands large destination extras over to the destination activity within the process instead of through the intent.
+ * <p>
+ * Everything in a destination intent is parceled through Binder when the activity is started, which is slow for large
+ * extras and fails with a {@code TransactionTooLargeException} past the size of the Binder buffer. Once the app opts in
+ * with {@link #setThresholdBytes(int) a threshold}, the extras of a destination intent that is larger than the threshold
+ * once parceled are kept in a reference counted store and only a token goes into the intent; the destination puts them
+ * back in its intent, without any copy, through {@link PermissMe#restoreHandedOffExtras(Intent)}. Extras that are not
+ * claimed are dropped after {@link #TIMEOUT_MILLIS}, e.g. when the destination failed to launch.
+ * <p>
+ * The store lives in memory: if the process dies before the destination claims the extras, they are lost, so the
+ * handoff is off by default. Only intents explicitly addressed to the caller's own package are handed off, since
+ * another app could never claim the extras.
+ */
+/*package*/ final class PayloadHandoff {
+
+	/**
+	 * The intent extra holding the token of the handed off extras
+	 */
+	/*package*/ static final String HANDOFF_TOKEN_EXTRA = "PERMISSME_HANDOFF_TOKEN_EXTRA";
+
+	/**
+	 * The default threshold: extras always go through the intent, which is never measured
+	 */
+	/*package*/ static final int DISABLED_THRESHOLD_BYTES = Integer.MAX_VALUE;
+
+	/**
+	 * How long handed off extras are kept for a destination that does not claim them
+	 */
+	/*package*/ static final long TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+	/**
+	 * Tokens are unique to the process, so that an intent restored after the process died matches nothing
+	 */
+	private static final String TOKEN_PREFIX = UUID.randomUUID().toString() + ':';
+
+	private static final AtomicLong NEXT_TOKEN = new AtomicLong();
+
+	/**
+	 * The handed off payloads by token; guarded by its own lock
+	 */
+	private static final Map<String, Entry> ENTRIES = new HashMap<>();
+
+	private static volatile int sThresholdBytes = DISABLED_THRESHOLD_BYTES;
+
+	private PayloadHandoff() {
+
+	}
+
+	/**
+	 * A payload of the store, with the number of references that still need it
+	 */
+	private static final class Entry {
+		@NonNull
+		private final Object mPayload;
+		private long mDeadline;
+		private int mRefCount = 1;
+
+		private Entry(@NonNull final Object payload, final long deadline) {
+			mPayload = payload;
+			mDeadline = deadline;
+		}
+	}
+
+	/**
+	 * @param thresholdBytes
+	 * 		the parceled size of a destination intent from which its extras are handed off in process; 0 hands off the
+	 * 		extras of every destination intent, {@link #DISABLED_THRESHOLD_BYTES} never does
+	 * @throws IllegalArgumentException
+	 * 		if the threshold is negative
+	 */
+	/*package*/ static void setThresholdBytes(final int thresholdBytes) {
+		if (thresholdBytes < 0) {
+			throw new IllegalArgumentException("Negative handoff threshold: " + thresholdBytes);
+		}
+		sThresholdBytes = thresholdBytes;
+	}
+
+	/*package*/ static int getThresholdBytes() {
+		return sThresholdBytes;
+	}
+
+	/**
+	 * Adds the extras to the destination intent, handing them and the extras already in the intent off if the handoff
+	 * is enabled, the intent is addressed to the caller's own package and it would be larger than the threshold once
+	 * parceled
+	 *
+	 * @param context
+	 * 		the context launching the destination, if still around
+	 * @param destinationIntent
+	 * 		the intent of the destination activity
+	 * @param extras
+	 * 		the extras to add to the intent, if any; they are not copied when handed off
+	 */
+	/*package*/ static void putExtras(@Nullable final Context context,
+	                                  @NonNull final Intent destinationIntent,
+	                                  @Nullable final Bundle extras) {
+		final int thresholdBytes = sThresholdBytes;
+		if (thresholdBytes == DISABLED_THRESHOLD_BYTES || !isOwnPackage(context, destinationIntent)) {
+			putPlainExtras(destinationIntent, extras);
+			return;
+		}
+
+		// A copy, only made when the caller built the intent with its own extras
+		final Bundle intentExtras = destinationIntent.getExtras();
+		if (intentExtras == null && (extras == null || extras.isEmpty())) {
+			// Nothing worth handing off
+			return;
+		}
+
+		// Parceling the whole intent is not free, skip it when everything is handed off anyway
+		if (thresholdBytes > 0 && measure(destinationIntent, extras) <= thresholdBytes) {
+			putPlainExtras(destinationIntent, extras);
+			return;
+		}
+
+		final Bundle payload;
+		if (intentExtras == null) {
+			payload = extras;
+		} else {
+			payload = intentExtras;
+			if (extras != null) {
+				payload.putAll(extras);
+			}
+			destinationIntent.replaceExtras((Bundle) null);
+		}
+		destinationIntent.putExtra(HANDOFF_TOKEN_EXTRA, put(payload, SystemClock.uptimeMillis()));
+	}
+
+	/**
+	 * Puts the extras handed off for the intent back in it, so that they are read as usual; does nothing if none were
+	 * handed off or they were already put back
+	 *
+	 * @param destinationIntent
+	 * 		the intent the destination activity was started with
+	 * @return {@code false} if extras were handed off for the intent but are gone, e.g. because the process was
+	 * restarted or they timed out
+	 */
+	/*package*/ static boolean restoreExtras(@Nullable final Intent destinationIntent) {
+		final String token = destinationIntent != null
+				? destinationIntent.getStringExtra(HANDOFF_TOKEN_EXTRA)
+				: null;
+		if (token == null) {
+			return true;
+		}
+		final Bundle extras = (Bundle) claim(token, SystemClock.uptimeMillis());
+		if (extras == null) {
+			return false;
+		}
+		destinationIntent.removeExtra(HANDOFF_TOKEN_EXTRA);
+		destinationIntent.putExtras(extras);
+		return true;
+	}
+
+	private static void putPlainExtras(@NonNull final Intent destinationIntent, @Nullable final Bundle extras) {
+		if (extras != null) {
+			destinationIntent.putExtras(extras);
+		}
+	}
+
+	/**
+	 * @return {@code true} if the intent is explicitly addressed to the package of the context, i.e. its destination
+	 * runs in a process that can claim the handed off extras; implicit intents are not resolved
+	 */
+	private static boolean isOwnPackage(@Nullable final Context context, @NonNull final Intent intent) {
+		if (context == null) {
+			return false;
+		}
+		final ComponentName component = intent.getComponent();
+		final String targetPackage = component != null ? component.getPackageName() : intent.getPackage();
+		return targetPackage != null && targetPackage.equals(context.getPackageName());
+	}
+
+	/**
+	 * @return the size of the intent with the extras once parceled, in bytes
+	 */
+	private static int measure(@NonNull final Intent intent, @Nullable final Bundle extras) {
+		final Parcel parcel = Parcel.obtain();
+		try {
+			intent.writeToParcel(parcel, 0);
+			if (extras != null) {
+				parcel.writeBundle(extras);
+			}
+			return parcel.dataSize();
+		} finally {
+			parcel.recycle();
+		}
+	}
+
+	/**
+	 * Stores the payload with one reference, or adds a reference to it if it is already stored, e.g. when the same
+	 * destination bundle is launched twice; the payload is dropped once every reference claimed it
+	 *
+	 * @return the token to claim the payload with
+	 */
+	@VisibleForTesting
+	@NonNull
+	/*package*/ static String put(@NonNull final Object payload, final long now) {
+		synchronized (ENTRIES) {
+			evictExpired(now);
+			for (final Map.Entry<String, Entry> stored : ENTRIES.entrySet()) {
+				final Entry entry = stored.getValue();
+				if (entry.mPayload == payload) {
+					entry.mRefCount++;
+					entry.mDeadline = now + TIMEOUT_MILLIS;
+					return stored.getKey();
+				}
+			}
+			final String token = TOKEN_PREFIX + NEXT_TOKEN.incrementAndGet();
+			ENTRIES.put(token, new Entry(payload, now + TIMEOUT_MILLIS));
+			return token;
+		}
+	}
+
+	/**
+	 * Releases a reference to the payload, dropping it with the last one
+	 *
+	 * @return the payload, or null if it is gone
+	 */
+	@VisibleForTesting
+	@Nullable
+	/*package*/ static Object claim(@NonNull final String token, final long now) {
+		synchronized (ENTRIES) {
+			evictExpired(now);
+			final Entry entry = ENTRIES.get(token);
+			if (entry == null) {
+				return null;
+			}
+			if (--entry.mRefCount == 0) {
+				ENTRIES.remove(token);
+			}
+			return entry.mPayload;
+		}
+	}
+
+	/**
+	 * Must hold the lock of {@link #ENTRIES}; the store is small, so expired payloads are dropped whenever it is used
+	 * rather than with a timer
+	 */
+	private static void evictExpired(final long now) {
+		final Iterator<Entry> entries = ENTRIES.values().iterator();
+		while (entries.hasNext()) {
+			if (entries.next().mDeadline <= now) {
+				entries.remove();
+			}
+		}
+	}
+}
@@ -1,15 +1,22 @@
 package com.tumblr.permissme;
 
+import android.app.Activity;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
+import android.os.Build;
 import android.os.Bundle;
 
+import androidx.activity.ComponentActivity;
 import androidx.annotation.AnimRes;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.fragment.app.Fragment;
+import androidx.fragment.app.FragmentActivity;
+import androidx.fragment.app.FragmentManager;
+import androidx.fragment.app.FragmentTransaction;
 
 import com.tumblr.permissme.utils.PermissMeUtils;
 
@@ -17,12 +24,13 @@ import com.tumblr.permissme.utils.PermissMeUtils;
  * The class that will handle requesting permissions if the app does not have a queried permission.
  * This class is a {@link Fragment} that will be attached to the caller activity passed through the
  * constructor:
- * {@link Builder#with(AppCompatActivity)} or the activity the caller fragment is attached to,
- * passed through {@link Builder#with(Fragment)} .
+ * {@link #with(ComponentActivity)} or the activity the caller fragment is attached to,
+ * passed through {@link #with(Fragment)} . Activities that are not a {@link FragmentActivity}, or requests that
+ * select {@link #ENGINE_ACTIVITY_RESULT_REGISTRY}, go through the activity's result registry instead.
  * <p>
  * Exceptions:
- * {@link IllegalArgumentException} thrown if caller activity/caller fragment's activity is not of
- * type {@link AppCompatActivity}
+ * {@link IllegalArgumentException} thrown if caller fragment's activity is not of
+ * type {@link ComponentActivity}
  * <p>
  * Usage: For usage examples see the demo app or refer to User Guide at:
  * See <a href="https://tumblr.github.io/PermissMe/">PermissMe User Guide</a>
@@ -54,61 +62,23 @@ import com.tumblr.permissme.utils.PermissMeUtils;
  * See <a href="https://tumblr.github.io/PermissMe/java-docs.html">PermissMe JavaDocs</a>
  * <p>
  */
-public class PermissMe extends Fragment {
+public class PermissMe extends Fragment implements PermissionScheduler.Host {
 	/**
 	 * TAG to get a reference to the fragment + logging + analytics and all that fun stuff
 	 */
 	private static final String TAG = PermissMe.class.getSimpleName();
 	/**
-	 * The destination class extra key
+	 * Requests the permissions through a headless {@link PermissMe} fragment added to the caller activity, which has
+	 * to be a {@link FragmentActivity}; the fragment is retained, so the flows survive configuration changes
 	 */
-	@VisibleForTesting
-	/*package*/ static final String DESTINATION_ACTIVITY_CLASS_EXTRA = "DESTINATION_ACTIVITY_CLASS_EXTRA";
-	/**
-	 * The destination activity's extras if required
-	 */
-	private static final String DESTINATION_ACTIVITY_BUNDLE_EXTRA = "DESTINATION_ACTIVITY_BUNDLE_EXTRA";
-	/**
-	 * The launch options bundle to be passed in when starting the activity intent:
-	 * {@link AppCompatActivity#startActivity(Intent, Bundle)}
-	 */
-	private static final String DESTINATION_ACTIVITY_LAUNCH_OPTIONS_EXTRA = "DESTINATION_ACTIVITY_LAUNCH_OPTIONS_EXTRA";
-	/**
-	 * The required permissions extras key
-	 */
-	private static final String REQUIRED_PERMISSIONS_REQUESTED_EXTRA = "REQUIRED_PERMISSIONS_REQUESTED_EXTRA";
-	/**
-	 * The optional permissions extra key
-	 */
-	private static final String OPTIONAL_PERMISSIONS_REQUESTED_EXTRA = "OPTIONAL_PERMISSIONS_REQUESTED_EXTRA";
-	/**
-	 * The activity enter transition type extra key
-	 */
-	private static final String DESTINATION_ACTIVITY_ENTER_TRANSITION_EXTRA = "DESTINATION_ACTIVITY_ENTER_TRANSITION_EXTRA";
-	/**
-	 * The activity exit transition type extra key
-	 */
-	private static final String DESTINATION_ACTIVITY_EXIT_TRANSITION_EXTRA = "DESTINATION_ACTIVITY_EXIT_TRANSITION_EXTRA";
-	/**
-	 * The flag which indicates whether we should show the failure snackbar on auto-fail of permission
-	 */
-	@VisibleForTesting
-	/*package*/ static final String SHOULD_SHOW_UI_UPON_FAILURE_EXTRA = "SHOULD_SHOW_UI_UPON_FAILURE_EXTRA";
-	/**
-	 * The custom auto-denied permission message extra key
-	 */
-	private static final String CUSTOM_AUTO_DENIED_MESSAGE_EXTRA = "CUSTOM_AUTO_DENIED_MESSAGE_EXTRA";
+	public static final int ENGINE_FRAGMENT = 0;
 	/**
-	 * The request code that the destination activity is started with extra key
+	 * Requests the permissions through launchers registered against the
+	 * {@link androidx.activity.result.ActivityResultRegistry} of the caller activity, which can be any
+	 * {@link ComponentActivity}. Starting a flow doesn't take any fragment transaction, but the flows waiting on a
+	 * dialog are dropped if the activity is destroyed meanwhile, e.g. by a configuration change
 	 */
-	private static final String DESTINATION_START_ACTIVITY_WITH_REQUEST_CODE =
-			"DESTINATION_START_ACTIVITY_WITH_REQUEST_CODE";
-	/**
-	 * Flag that indicates to finish activity upon result
-	 */
-	@VisibleForTesting
-	/*package*/ static final String DESTINATION_FINISH_ACTIVITY_UPON_RESULT_EXTRA =
-			"DESTINATION_FINISH_ACTIVITY_UPON_RESULT_EXTRA";
+	public static final int ENGINE_ACTIVITY_RESULT_REGISTRY = 1;
 	/**
 	 * The required-permissions request code
 	 */
@@ -121,25 +91,23 @@ public class PermissMe extends Fragment {
 	/*package*/ static final int OPTIONAL_PERMISSION_REQUEST_CODE = 2;
 
 	/**
-	 * A listener to provide callbacks to in regards to the status of permissions granted/ungranted by user; see
-	 * {@link PermissionListener}
-	 */
-	@VisibleForTesting
-	/*package*/ PermissionListener mListener;
-
-	/**
-	 * Contains all the data sent by the caller
+	 * Schedules the flows of every caller of the activity this fragment is attached to
 	 */
 	@NonNull
-	@VisibleForTesting
-	/*package*/ Bundle mPermissionsInfoBundle = new Bundle();
+	private final PermissionScheduler mScheduler = new PermissionScheduler(this);
 
 	/**
-	 * An intent the user passed in directly through {@link Builder#launchActivityWithPermissions(Intent, Bundle)}
+	 * A constructor to start the flow of launching a destination activity class with permissions.
+	 *
+	 * @param callerActivity
+	 * 		the caller activity
+	 * @return A builder to add more parameters if necessary or call
+	 * {@link Builder#launchActivityWithPermissions(Class, Bundle, Bundle)} or {@link Builder#verifyPermissions()}
+	 * to start the flow
 	 */
-	@Nullable
-	@VisibleForTesting
-	/*package*/ Intent mLaunchIntent;
+	public static Builder with(final ComponentActivity callerActivity) {
+		return new Builder(callerActivity);
+	}
 
 	/**
 	 * A constructor to start the flow of launching a destination activity class with permissions.
@@ -149,9 +117,12 @@ public class PermissMe extends Fragment {
 	 * @return A builder to add more parameters if necessary or call
 	 * {@link Builder#launchActivityWithPermissions(Class, Bundle, Bundle)} or {@link Builder#verifyPermissions()}
 	 * to start the flow
+	 * @deprecated use {@link #with(ComponentActivity)}, which takes any {@link ComponentActivity}; this overload only
+	 * remains for apps compiled against it
 	 */
+	@Deprecated
 	public static Builder with(final AppCompatActivity callerActivity) {
-		return new Builder(callerActivity);
+		return new Builder((ComponentActivity) callerActivity);
 	}
 
 	/**
@@ -159,12 +130,12 @@ public class PermissMe extends Fragment {
 	 * callbacks about the grant/deny status of the permissions when the user takes an action.
 	 *
 	 * @param callerFragment
-	 * 		the caller fragment used to get the {@link AppCompatActivity} it is attached to
+	 * 		the caller fragment used to get the {@link ComponentActivity} it is attached to
 	 * @return A builder to add more parameters if necessary or call
 	 * {@link Builder#launchActivityWithPermissions(Class, Bundle, Bundle)} or {@link Builder#verifyPermissions()}
 	 * to start the flow
 	 * @throws IllegalArgumentException
-	 * 		if the callerFragment is attached to an activity that is not of type {@link AppCompatActivity}
+	 * 		if the callerFragment is attached to an activity that is not of type {@link ComponentActivity}
 	 */
 	public static Builder with(final Fragment callerFragment) {
 		return new Builder(callerFragment);
@@ -179,11 +150,14 @@ public class PermissMe extends Fragment {
 	 */
 	public static class Builder {
 		@NonNull
-		private final AppCompatActivity mCallerActivity;
+		private final ComponentActivity mCallerActivity;
 
 		@Nullable
 		private PermissionListener mListener;
 
+		@Nullable
+		private PermissionResultListener mResultListener;
+
 		@AnimRes
 		private int mEnterAnim;
 
@@ -195,12 +169,40 @@ public class PermissMe extends Fragment {
 
 		@Nullable
 		private String mCustomAutoDeniedMessage;
+		@Nullable
+		private PermissMeConfig mConfig;
 		private boolean mNoUIForFailure;
 		private boolean mShouldStartActivityForResult;
 		private boolean mShouldFinishActivityAfterResult;
+		private boolean mLaunchDestinationPerCaller;
+		@Nullable
+		private DestinationWarmup<?> mDestinationWarmup;
 		private int mRequestCode = -1;
-		private String[] mRequiredPermissions = {};
-		private String[] mOptionalPermissions = {};
+		private int mEngine = ENGINE_FRAGMENT;
+		@NonNull
+		private PermissionSet mRequiredPermissions = PermissionSet.EMPTY;
+		@NonNull
+		private PermissionSet mOptionalPermissions = PermissionSet.EMPTY;
+
+		/**
+		 * The permissions as the caller passed them, for the order of the arrays handed to the listeners
+		 */
+		@Nullable
+		private String[] mRequiredPermissionOrder;
+		@Nullable
+		private String[] mOptionalPermissionOrder;
+
+		/**
+		 * When the builder was created and when its permissions were checked, see
+		 * {@link PermissMeMetrics#STAGE_BUILD_TO_CHECK}
+		 */
+		private final long mCreatedNanos = PermissMeMetrics.now();
+		private long mCheckedNanos;
+
+		/**
+		 * The ID of the flow started by the last check, see {@link PermissMeTrace}
+		 */
+		private int mFlowId;
 
 		/**
 		 * Constructor
@@ -208,21 +210,55 @@ public class PermissMe extends Fragment {
 		 * @param callerActivity
 		 * 		caller activity
 		 */
-		public Builder(@NonNull final AppCompatActivity callerActivity) {
+		public Builder(@NonNull final ComponentActivity callerActivity) {
 			mCallerActivity = callerActivity;
 		}
 
+		/**
+		 * Constructor
+		 *
+		 * @param callerActivity
+		 * 		caller activity
+		 * @deprecated use {@link #Builder(ComponentActivity)}; this overload only remains for apps compiled against it
+		 */
+		@Deprecated
+		public Builder(@NonNull final AppCompatActivity callerActivity) {
+			this((ComponentActivity) callerActivity);
+		}
+
 		/**
 		 * Constructor
 		 *
 		 * @param callerFragment
 		 * 		caller fragment
+		 * @throws IllegalArgumentException
+		 * 		if the callerFragment is attached to an activity that is not of type {@link ComponentActivity}
 		 */
 		public Builder(@NonNull final Fragment callerFragment) {
-			if (!(callerFragment.getActivity() instanceof AppCompatActivity)) {
-				throw new IllegalArgumentException("PermissMe requires fragment to be added to an Activity of type AppCompatActivity");
+			if (!(callerFragment.getActivity() instanceof ComponentActivity)) {
+				throw new IllegalArgumentException("PermissMe requires fragment to be added to an Activity of type ComponentActivity");
+			}
+			mCallerActivity = (ComponentActivity) callerFragment.getActivity();
+		}
+
+		/**
+		 * Selects how the permissions of this request are requested from the system, see
+		 * {@link PermissMe#ENGINE_FRAGMENT} and {@link PermissMe#ENGINE_ACTIVITY_RESULT_REGISTRY}. Requests only share their permission
+		 * dialogs with the requests of the same activity that use the same engine.
+		 *
+		 * @param engine
+		 * 		one of {@link PermissMe#ENGINE_FRAGMENT}, the default, or
+		 * 		{@link PermissMe#ENGINE_ACTIVITY_RESULT_REGISTRY}
+		 * @return this, for chaining
+		 * @throws IllegalArgumentException
+		 * 		if the engine is unknown
+		 */
+		public Builder engine(final int engine) {
+			if (engine != ENGINE_FRAGMENT && engine != ENGINE_ACTIVITY_RESULT_REGISTRY) {
+				throw new IllegalArgumentException("Unknown engine: " + engine);
 			}
-			mCallerActivity = (AppCompatActivity) callerFragment.getActivity();
+			mEngine = engine;
+			return this;
 		}
 
 		/**
@@ -237,6 +273,19 @@ public class PermissMe extends Fragment {
 			return this;
 		}
 
+		/**
+		 * The {@link PermissionResultListener} that will receive the result of every permission dialog shown to the
+		 * user, as a pooled {@link PermissionResult}. Can be used alongside {@link #listener(PermissionListener)}.
+		 *
+		 * @param resultListener
+		 * 		the result listener
+		 * @return this, for chaining
+		 */
+		public Builder resultListener(final PermissionResultListener resultListener) {
+			mResultListener = resultListener;
+			return this;
+		}
+
 		/**
 		 * Indicates that we don't want to see the permission-denied UI when we get a auto-denied permissions.
 		 * Auto-denied happens when the user has tapped "Do not ask again" for permission request previously or
@@ -265,6 +314,19 @@ public class PermissMe extends Fragment {
 			return this;
 		}
 
+		/**
+		 * Sets the configuration of the auto-denied permission snackbar of this request, instead of the global
+		 * {@link PermissMeConfig#getInstance()}
+		 *
+		 * @param config
+		 * 		the configuration, e.g. built with {@link PermissMeConfig#buildUpon()}
+		 * @return this, for chaining
+		 */
+		public Builder config(final PermissMeConfig config) {
+			mConfig = config;
+			return this;
+		}
+
 		/**
 		 * Finishes the caller activity upon the result of the permissions request
 		 *
@@ -275,6 +337,34 @@ public class PermissMe extends Fragment {
 			return this;
 		}
 
+		/**
+		 * By default, a request that asks the same permissions and launches the same destination as a request still
+		 * in flight, e.g. after a double tap, shares the result of that request: its listener is called back, but the
+		 * destination is only launched once. Calling this method makes this request launch its own destination too.
+		 *
+		 * @return this, for chaining
+		 */
+		public Builder launchDestinationPerCaller() {
+			mLaunchDestinationPerCaller = true;
+			return this;
+		}
+
+		/**
+		 * Work that prepares the data of the destination activity. It starts on a background thread as soon as the
+		 * required permissions are granted, in parallel with the launch of the destination, which takes the result with
+		 * {@link PermissMe#takeDestinationWarmup(Intent)}. Only used with
+		 * {@link #launchActivityWithPermissions(Class, Bundle, Bundle)} and
+		 * {@link #launchActivityWithPermissions(Intent, Bundle)}.
+		 *
+		 * @param destinationWarmup
+		 * 		the work to start along with the destination
+		 * @return this, for chaining
+		 */
+		public Builder destinationWarmup(final DestinationWarmup<?> destinationWarmup) {
+			mDestinationWarmup = destinationWarmup;
+			return this;
+		}
+
 		/**
 		 * A target fragment that can be specified if {@link #requestCode(int)} is specified to
 		 * {@link Fragment#startActivityForResult(Intent, int)}. The target fragment will be the one that
@@ -334,7 +424,8 @@ public class PermissMe extends Fragment {
 		 * @return this, for chaining
 		 */
 		public Builder setRequiredPermissions(final String... requiredPermissions) {
-			mRequiredPermissions = requiredPermissions.clone();
+			mRequiredPermissions = PermissionSet.of(requiredPermissions);
+			mRequiredPermissionOrder = requiredPermissions;
 			return this;
 		}
 
@@ -348,7 +439,28 @@ public class PermissMe extends Fragment {
 		 * @return this, for chaining
 		 */
 		public Builder setOptionalPermissions(final String... optionalPermissions) {
-			mOptionalPermissions = optionalPermissions.clone();
+			mOptionalPermissions = PermissionSet.of(optionalPermissions);
+			mOptionalPermissionOrder = optionalPermissions;
+			return this;
+		}
+
+		/**
+		 * Sets already interned required and optional permissions, see {@link PermissionRequest#newBuilder}
+		 *
+		 * @param requiredPermissionOrder
+		 * 		the required permissions in the order the caller asked them, or null
+		 * @param optionalPermissionOrder
+		 * 		the optional permissions in the order the caller asked them, or null
+		 * @return this, for chaining
+		 */
+		/*package*/ Builder setPermissions(@NonNull final PermissionSet requiredPermissions,
+		                                   @NonNull final PermissionSet optionalPermissions,
+		                                   @Nullable final String[] requiredPermissionOrder,
+		                                   @Nullable final String[] optionalPermissionOrder) {
+			mRequiredPermissions = requiredPermissions;
+			mOptionalPermissions = optionalPermissions;
+			mRequiredPermissionOrder = requiredPermissionOrder;
+			mOptionalPermissionOrder = optionalPermissionOrder;
 			return this;
 		}
 
@@ -371,13 +483,15 @@ public class PermissMe extends Fragment {
 		 */
 		public void launchActivityWithPermissions(@NonNull final Intent activityIntent,
 		                                          @Nullable final Bundle optionsBundle) {
-			final Bundle bundle = getPermissionsDataBundle(mCallerActivity,
-					mRequiredPermissions, mOptionalPermissions);
-			if (bundle != null) {
-				bundle.putBundle(DESTINATION_ACTIVITY_LAUNCH_OPTIONS_EXTRA, optionsBundle);
-				final PermissMe fragment = launchPermissMe(bundle);
-				fragment.setLaunchIntent(activityIntent);
+			if (checkPermissions()) {
+				final FlowState state = new FlowState();
+				state.mLaunchOptions = optionsBundle;
+				launchPermissMe(state, activityIntent);
 			} else {
+				PayloadHandoff.putExtras(mCallerActivity, activityIntent, null);
+				if (mDestinationWarmup != null) {
+					WarmupRegistry.start(mCallerActivity, activityIntent, mDestinationWarmup);
+				}
 				launchIntentWithParameters(
 						activityIntent,
 						mCallerActivity,
@@ -386,7 +500,8 @@ public class PermissMe extends Fragment {
 						mEnterAnim,
 						mExitAnim,
 						mRequestCode,
-						mShouldFinishActivityAfterResult
+						mShouldFinishActivityAfterResult,
+						mFlowId
 				);
 			}
 		}
@@ -411,17 +526,17 @@ public class PermissMe extends Fragment {
 		                                          @Nullable final Bundle destinationBundle,
 		                                          @Nullable final Bundle optionsBundle) {
 
-			final Bundle bundle = getPermissionsDataBundle(mCallerActivity,
-					mRequiredPermissions, mOptionalPermissions);
-			if (bundle != null) {
-				bundle.putSerializable(DESTINATION_ACTIVITY_CLASS_EXTRA, destinationActivity);
-				bundle.putBundle(DESTINATION_ACTIVITY_BUNDLE_EXTRA, destinationBundle);
-				bundle.putBundle(DESTINATION_ACTIVITY_LAUNCH_OPTIONS_EXTRA, optionsBundle);
-				launchPermissMe(bundle);
+			if (checkPermissions()) {
+				final FlowState state = new FlowState();
+				state.mDestination = new ComponentName(mCallerActivity, destinationActivity);
+				state.mDestinationExtras = destinationBundle;
+				state.mLaunchOptions = optionsBundle;
+				launchPermissMe(state, null);
 			} else {
 				final Intent intent = new Intent(mCallerActivity, destinationActivity);
-				if (destinationBundle != null) {
-					intent.putExtras(destinationBundle);
+				PayloadHandoff.putExtras(mCallerActivity, intent, destinationBundle);
+				if (mDestinationWarmup != null) {
+					WarmupRegistry.start(mCallerActivity, intent, mDestinationWarmup);
 				}
 				launchIntentWithParameters(
 						intent,
@@ -430,7 +545,8 @@ public class PermissMe extends Fragment {
 						mTargetFragment,
 						mEnterAnim, mExitAnim,
 						mRequestCode,
-						mShouldFinishActivityAfterResult
+						mShouldFinishActivityAfterResult,
+						mFlowId
 				);
 			}
 		}
@@ -442,11 +558,8 @@ public class PermissMe extends Fragment {
 		 * @throws RuntimeException thrown if no permissions are specified when this method is called
 		 */
 		public void verifyPermissions() {
-			final Bundle permissionsDataBundle = getPermissionsDataBundle(mCallerActivity,
-					mRequiredPermissions, mOptionalPermissions);
-			if (permissionsDataBundle != null) {
-				addDefaultDataToPermissionsBundle(permissionsDataBundle);
-				startPermissionsFragment(mCallerActivity, permissionsDataBundle, mListener);
+			if (checkPermissions()) {
+				startFlow(mCallerActivity, mEngine, createFlow(new FlowState()));
 			} else {
 				if (mListener != null) {
 					mListener.onSuccess();
@@ -455,65 +568,225 @@ public class PermissMe extends Fragment {
 		}
 
 		/**
-		 * Data that will always be sent in to the permissions bundle regardless of the execution flow
+		 * Starts the permission check flow like {@link #verifyPermissions()}, and returns a handle on its outcome,
+		 * so that work that depends on the permissions can be chained instead of nested in listener callbacks.
+		 * If the package already has all the permissions granted, the outcome is complete right away.
+		 *
+		 * @return the outcome of the request, completed on the main thread once the user answered
+		 * @throws RuntimeException thrown if no permissions are specified when this method is called
+		 */
+		@NonNull
+		public PermissionOutcome<PermissionDecision> request() {
+			if (!checkPermissions()) {
+				if (mListener != null) {
+					mListener.onSuccess();
+				}
+				return PermissionOutcome.completed(PermissionDecision.GRANTED);
+			}
+
+			final PermissionOutcome<PermissionDecision> outcome = new PermissionOutcome<>();
+			final PermissionFlow flow = createFlow(new FlowState());
+			flow.mOutcome = outcome;
+			startFlow(mCallerActivity, mEngine, flow);
+			return outcome;
+		}
+
+		/**
+		 * Checks the permissions of this request, and records how long it took to get there
+		 *
+		 * @return {@code true} if a flow has to be started, {@code false} if there is nothing to request
+		 */
+		private boolean checkPermissions() {
+			mFlowId = PermissMeTrace.newFlowId();
+			final boolean traced = PermissMeTrace.beginSection("needsPermissions", mFlowId);
+			final boolean needsPermissions;
+			try {
+				final PermissMeInterceptor[] interceptors = PermissMeInterceptor.getInstalled();
+				needsPermissions = interceptors.length == 0
+						? needsPermissions(mCallerActivity, mRequiredPermissions, mOptionalPermissions)
+						: new PermissMeInterceptor.CheckChain(interceptors, 0, mCallerActivity, mRequiredPermissions,
+								mOptionalPermissions).proceed();
+			} finally {
+				PermissMeTrace.endSection(traced);
+			}
+			mCheckedNanos = PermissMeMetrics.now();
+			PermissMeMetrics.getInstance().recordStage(PermissMeMetrics.STAGE_BUILD_TO_CHECK, mCreatedNanos,
+					mCheckedNanos);
+			return needsPermissions;
+		}
+
+		/**
+		 * Creates the flow of this request, to be scheduled along with the flows of other callers
 		 *
-		 * @param bundle
-		 * 		the permission bundle to add the data into
+		 * @param state
+		 * 		the state of the flow, completed with the data that is sent regardless of the execution flow
+		 * @return the flow
 		 */
-		private void addDefaultDataToPermissionsBundle(final Bundle bundle) {
-			bundle.putBoolean(SHOULD_SHOW_UI_UPON_FAILURE_EXTRA, !mNoUIForFailure);
-			bundle.putString(CUSTOM_AUTO_DENIED_MESSAGE_EXTRA, mCustomAutoDeniedMessage);
+		private PermissionFlow createFlow(final FlowState state) {
+			state.mShowUIOnFailure = !mNoUIForFailure;
+			state.mCustomAutoDeniedMessage = mCustomAutoDeniedMessage;
+			state.mConfig = mConfig;
+			final PermissionFlow flow = new PermissionFlow();
+			flow.mState = state;
+			flow.mRequiredPermissions = mRequiredPermissions;
+			flow.mOptionalPermissions = mOptionalPermissions;
+			flow.mRequiredPermissionOrder = mRequiredPermissionOrder;
+			flow.mOptionalPermissionOrder = mOptionalPermissionOrder;
+			flow.mListener = mListener;
+			flow.mResultListener = mResultListener;
+			flow.mCheckedNanos = mCheckedNanos;
+			flow.mId = mFlowId;
+			return flow;
 		}
 
-		private PermissMe launchPermissMe(final Bundle bundle) {
-			bundle.putBoolean(DESTINATION_FINISH_ACTIVITY_UPON_RESULT_EXTRA, mShouldFinishActivityAfterResult);
-			bundle.putInt(DESTINATION_ACTIVITY_ENTER_TRANSITION_EXTRA, mEnterAnim);
-			bundle.putInt(DESTINATION_ACTIVITY_EXIT_TRANSITION_EXTRA, mExitAnim);
-			addDefaultDataToPermissionsBundle(bundle);
+		private void launchPermissMe(final FlowState state, @Nullable final Intent launchIntent) {
+			state.mFinishCallerActivity = mShouldFinishActivityAfterResult;
+			state.mEnterAnim = mEnterAnim;
+			state.mExitAnim = mExitAnim;
 
 			if (mShouldStartActivityForResult) {
-				bundle.putInt(DESTINATION_START_ACTIVITY_WITH_REQUEST_CODE, mRequestCode);
+				state.mRequestCode = mRequestCode;
 			}
 
-			final PermissMe fragment = startPermissionsFragment(mCallerActivity, bundle, mListener);
-			if (mTargetFragment != null) {
-				fragment.setTargetFragment(mTargetFragment, mRequestCode);
-			}
-			return fragment;
+			final PermissionFlow flow = createFlow(state);
+			flow.mLaunchIntent = launchIntent;
+			flow.mTargetFragment = mTargetFragment;
+			flow.mLaunchDestinationPerCaller = mLaunchDestinationPerCaller;
+			flow.mDestinationWarmup = mDestinationWarmup;
+			startFlow(mCallerActivity, mEngine, flow);
 		}
 	}
 
-	private void setLaunchIntent(final Intent activityIntent) {
-		mLaunchIntent = activityIntent;
+	/**
+	 * Takes the outcome of the {@link DestinationWarmup} started for a destination activity, see
+	 * {@link Builder#destinationWarmup(DestinationWarmup)}. Call it from the destination's {@code onCreate}; the
+	 * outcome can only be taken once.
+	 *
+	 * @param destinationIntent
+	 * 		the intent the destination activity was started with, i.e. {@link android.app.Activity#getIntent()}
+	 * @param <T>
+	 * 		the type of the data prepared by the warm-up
+	 * @return the outcome of the warm-up, or null if none was started for this intent, e.g. when the activity is
+	 * recreated; load the data directly then
+	 */
+	@Nullable
+	@SuppressWarnings("unchecked")
+	public static <T> PermissionOutcome<T> takeDestinationWarmup(@Nullable final Intent destinationIntent) {
+		return (PermissionOutcome<T>) WarmupRegistry.take(destinationIntent);
+	}
+
+	/**
+	 * Puts back the extras of a destination activity that were too large to go through its intent. Once a
+	 * {@link #setPayloadHandoffThreshold(int) threshold} is set, destination intents of the app whose extras would be
+	 * larger than it once parceled keep them in process instead, and only carry a token. Call it from the destination's {@code onCreate} before reading the
+	 * extras; it does nothing for other intents, or when the extras were already put back.
+	 *
+	 * @param destinationIntent
+	 * 		the intent the destination activity was started with, i.e. {@link android.app.Activity#getIntent()}
+	 * @return {@code false} if the extras are gone, i.e. the process was restarted or the destination was launched
+	 * long after {@link Builder#launchActivityWithPermissions(Class, Bundle, Bundle)}; the destination needs to recover
+	 * like it would without its extras then
+	 */
+	public static boolean restoreHandedOffExtras(@Nullable final Intent destinationIntent) {
+		return PayloadHandoff.restoreExtras(destinationIntent);
+	}
+
+	/**
+	 * Sets the size from which the extras of destination activities are handed off in process, see
+	 * {@link #restoreHandedOffExtras(Intent)}. The handoff is off by default: the extras don't survive the death of the
+	 * process, and measuring a destination intent parcels it on the main thread. Only the destinations of the app
+	 * itself are handed off; destinations only launched with small extras don't need to restore them.
+	 *
+	 * @param thresholdBytes
+	 * 		the size of the parceled destination intent, in bytes, e.g. 128KB to stay well below the 1MB Binder buffer
+	 * 		shared by the whole process; 0 always hands off the extras, {@link Integer#MAX_VALUE}, the default, never
+	 * 		does
+	 * @throws IllegalArgumentException
+	 * 		if the threshold is negative
+	 */
+	public static void setPayloadHandoffThreshold(final int thresholdBytes) {
+		PayloadHandoff.setThresholdBytes(thresholdBytes);
+	}
+
+	/**
+	 * Makes PermissMe ask again the permissions the user chose to not be asked for again. PermissMe remembers them
+	 * across process restarts and reports them as auto-denied without showing the system dialog, which would deny
+	 * them without showing anything anyway. They are forgotten when the user opens the app settings from the
+	 * auto-denied snackbar; call this if your app lets the user change their permissions in another way.
+	 *
+	 * @param context
+	 * 		any context of the app
+	 */
+	public static void forgetAutoDeniedPermissions(@NonNull final Context context) {
+		DecisionJournal.getInstance(context).forgetAutoDenied();
+	}
+
+	/**
+	 * Adds an interceptor around the stages of every flow of the process, after the interceptors already added
+	 *
+	 * @param interceptor
+	 * 		the interceptor to add
+	 */
+	public static void addInterceptor(@NonNull final PermissMeInterceptor interceptor) {
+		PermissMeInterceptor.install(interceptor);
+	}
+
+	/**
+	 * Replaces the runtime permissions of the system with a backend for the whole process, e.g. a fake one in the unit
+	 * tests of the app, see {@link PermissionBackend}. The cached grant states, the hosts of the flows and what is
+	 * remembered of the denied permissions are dropped, as if the process was restarted.
+	 *
+	 * @param backend
+	 * 		the backend to install, or null to go back to the system
+	 */
+	@VisibleForTesting
+	public static void setPermissionBackend(@Nullable final PermissionBackend backend) {
+		PermissionBackend.install(backend);
+		BackendPermissionHost.reset();
+		RationaleSnapshot.reset();
+		PermissMeDispatcher.setMainThreadExecutor(backend != null ? backend.getMainThreadExecutor() : null);
+		PermissionStateCache.getInstance().setGrantReader(backend == null ? null : new PermissionStateCache.GrantReader() {
+			@Override
+			public boolean isGranted(@NonNull final Context context, @NonNull final String permission) {
+				return backend.isGranted(context, permission);
+			}
+		});
+	}
+
+	/**
+	 * Removes an interceptor added with {@link #addInterceptor(PermissMeInterceptor)}; the flows already past a stage
+	 * are not affected
+	 *
+	 * @param interceptor
+	 * 		the interceptor to remove
+	 */
+	public static void removeInterceptor(@NonNull final PermissMeInterceptor interceptor) {
+		PermissMeInterceptor.uninstall(interceptor);
 	}
 
-	private static Bundle getPermissionsDataBundle(final Context context,
-												   final String[] requiredPermissions,
-												   final String[] optionalPermissions) {
+	/**
+	 * Checks whether any of the permissions need to be requested from the user
+	 *
+	 * @return {@code true} if a flow has to be started, {@code false} if there is nothing to request
+	 */
+	/*package*/ static boolean needsPermissions(final Context context,
+	                                            @NonNull final PermissionSet requiredPermissions,
+	                                            @NonNull final PermissionSet optionalPermissions) {
 
-		if (requiredPermissions.length <= 0 && optionalPermissions.length < 0) {
+		if (requiredPermissions.isEmpty() && optionalPermissions.size() < 0) {
 			throw new RuntimeException("No permissions specified to ask user to grant. "
 					+ "Specify permissions using setRequiredPermissions() and "
 					+ "setOptionalPermissions()");
 		}
 
-		final boolean shouldRequestRequiredPermissions =
-				PermissMeUtils.needToRequestPermission(context, requiredPermissions);
-		final boolean shouldRequestOptionalPermissions =
-				PermissMeUtils.needToRequestPermission(context, optionalPermissions);
-
-		Bundle bundle = null;
-		if (shouldRequestRequiredPermissions || shouldRequestOptionalPermissions) {
-			bundle = new Bundle();
-			if (shouldRequestRequiredPermissions) {
-				bundle.putStringArray(REQUIRED_PERMISSIONS_REQUESTED_EXTRA, requiredPermissions);
-			}
-
-			if (shouldRequestOptionalPermissions) {
-				bundle.putStringArray(OPTIONAL_PERMISSIONS_REQUESTED_EXTRA, optionalPermissions);
-			}
+		if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M && PermissionBackend.getInstalled() == null) {
+			return false;
 		}
-		return bundle;
+
+		// The grant state of the whole request is read at once and then checked with bit operations
+		final PermissionStateCache cache = PermissionStateCache.getInstance();
+		final boolean hasPermissions = cache.isAllGranted(context, requiredPermissions, optionalPermissions);
+		return !hasPermissions;
 	}
 
 	/**
@@ -539,29 +812,53 @@ public class PermissMe extends Fragment {
 	 * 		{@link AppCompatActivity#startActivityForResult(Intent, int)}
 	 * @param shouldFinishActivityAfterResult
 	 * 		boolean whether should finish the caller activity after launching the
+	 * @param flowId
+	 * 		the ID of the flow launching the activity in the system trace, see {@link PermissMeTrace}
 	 */
 	@SuppressWarnings("checkstyle:parameternumber")
 	@VisibleForTesting
 	/*package*/ static void launchIntentWithParameters(@NonNull final Intent activityIntent,
-	                                                   @NonNull final AppCompatActivity callerActivity,
+	                                                   @NonNull final ComponentActivity callerActivity,
 	                                                   @Nullable final Bundle launchOptionsBundle,
 	                                                   @Nullable final Fragment targetFragment,
 	                                                   @AnimRes final int enterAnim,
 	                                                   @AnimRes final int exitAnim,
 	                                                   final int requestCode,
-	                                                   final boolean shouldFinishActivityAfterResult) {
+	                                                   final boolean shouldFinishActivityAfterResult,
+	                                                   final int flowId) {
+		PermissMeEventLog.getInstance().record(PermissMeEventLog.EVENT_LAUNCH, flowId, requestCode);
 		// Launch the activity on the main thread incase there are some animations the caller wants executed
 		PermissMeUtils.runOnUiThread(new Runnable() {
 			@Override
 			public void run() {
+				final boolean traced = PermissMeTrace.beginSection("launchIntentWithParameters", flowId);
+				try {
+					final PermissMeInterceptor[] interceptors = PermissMeInterceptor.getInstalled();
+					if (interceptors.length == 0) {
+						launch(activityIntent);
+					} else {
+						new PermissMeInterceptor.LaunchChain(interceptors, 0, callerActivity, activityIntent, requestCode,
+								new PermissMeInterceptor.LaunchChain.Launcher() {
+									@Override
+									public void start(@NonNull final Intent intent) {
+										launch(intent);
+									}
+								}).proceed(activityIntent);
+					}
+				} finally {
+					PermissMeTrace.endSection(traced);
+				}
+			}
+
+			private void launch(@NonNull final Intent intent) {
 				if (requestCode != 0) {
 					if (targetFragment != null) {
-						targetFragment.startActivityForResult(activityIntent, requestCode, launchOptionsBundle);
+						targetFragment.startActivityForResult(intent, requestCode, launchOptionsBundle);
 					} else {
-						callerActivity.startActivityForResult(activityIntent, requestCode, launchOptionsBundle);
+						callerActivity.startActivityForResult(intent, requestCode, launchOptionsBundle);
 					}
 				} else {
-					callerActivity.startActivity(activityIntent, launchOptionsBundle);
+					callerActivity.startActivity(intent, launchOptionsBundle);
 				}
 
 				if (enterAnim != 0 || exitAnim != 0) {
@@ -575,75 +872,97 @@ public class PermissMe extends Fragment {
 		});
 	}
 
-	@NonNull
-	private static PermissMe startPermissionsFragment(final AppCompatActivity activity,
-	                                                  @NonNull final Bundle permissionsData,
-	                                                  @Nullable final PermissionListener listener) {
-		PermissMe permissionFragment = (PermissMe) activity
-						.getSupportFragmentManager()
-						.findFragmentByTag(PermissMe.TAG);
+	/**
+	 * Hands the flow to the scheduler of the activity, held by the {@link PermissMe} fragment attached to it or by its
+	 * {@link RegistryPermissionHost}, depending on the engine
+	 */
+	private static void startFlow(final ComponentActivity activity,
+	                              final int engine,
+	                              @NonNull final PermissionFlow flow) {
+		PermissMeTrace.beginFlow(flow.mId);
+		PermissMeEventLog.getInstance().record(PermissMeEventLog.EVENT_REQUEST, flow.mId,
+				flow.mRequiredPermissions.size() + flow.mOptionalPermissions.size());
+		final boolean traced = PermissMeTrace.beginSection("startPermissionsFragment", flow.mId);
+		try {
+			enqueueFlow(activity, engine, flow);
+		} finally {
+			PermissMeTrace.endSection(traced);
+		}
+	}
+
+	private static void enqueueFlow(final ComponentActivity activity,
+	                                final int engine,
+	                                @NonNull final PermissionFlow flow) {
+		final PermissionBackend backend = PermissionBackend.getInstalled();
+		if (backend != null) {
+			// The backend answers the dialogs, and stands in for what the journal remembers of them
+			BackendPermissionHost.get(activity, backend).enqueue(flow);
+			return;
+		}
+
+		// Loaded in the background while the flow waits for its batch, so the scheduler can skip known auto-denials
+		DecisionJournal.getInstance(activity);
+
+		if (engine == ENGINE_ACTIVITY_RESULT_REGISTRY || !(activity instanceof FragmentActivity)) {
+			// The launchers are registered once per activity and reused, no transaction needed
+			RegistryPermissionHost.get(activity).enqueue(flow);
+			return;
+		}
+
+		final FragmentManager fragmentManager = ((FragmentActivity) activity).getSupportFragmentManager();
+		PermissMe permissionFragment = (PermissMe) fragmentManager.findFragmentByTag(PermissMe.TAG);
 		if (permissionFragment == null) {
 			permissionFragment = new PermissMe();
-			activity.getSupportFragmentManager()
+			final FragmentTransaction transaction = fragmentManager
 					.beginTransaction()
-					.add(permissionFragment, PermissMe.TAG)
-					.commit();
+					.add(permissionFragment, PermissMe.TAG);
+			// When the flow is about to start inline, attach the fragment right away so it doesn't wait for the next
+			// frame; otherwise the scheduler waits for the fragment to be attached, see onAttach()
+			if (PermissMeDispatcher.getInstance().willRunInline()) {
+				commitNowOrLater(transaction);
+			} else {
+				transaction.commit();
+			}
 		}
 
-		if (listener != null) {
-			permissionFragment.setListener(listener);
-		}
-		permissionFragment.setDataBundle(permissionsData);
-		permissionFragment.startPermissionsFlow();
-		return permissionFragment;
+		// The permissions are requested once this fragment is attached to its activity (dispatched to main thread),
+		// together with the flows other callers start meanwhile
+		permissionFragment.mScheduler.enqueue(flow);
 	}
 
-	private void setDataBundle(final Bundle bundle) {
-		mPermissionsInfoBundle = bundle;
+	private static void commitNowOrLater(@NonNull final FragmentTransaction transaction) {
+		try {
+			transaction.commitNow();
+		} catch (final IllegalStateException e) {
+			// The fragment manager is already executing transactions, e.g. the flow was started from a fragment
+			// lifecycle callback; the transaction has not been committed, commit it with the next ones
+			transaction.commit();
+		}
 	}
 
-	private void startPermissionsFlow() {
-		// Request the permissions once this fragment is attached to its activity (queue to main thread)
-		// Note - if there are required permissions, we will check for optional permissions in the callback if user allows
-		// required permissions.
-		PermissMeUtils.runOnUiThread(new Runnable() {
-			@Override
-			public void run() {
-
-				final String[] requiredPermissions = getUngrantedRequiredPermissions();
-				// We want to query for optional permissions once the user accepts existing required permissions
-				final String[] optionalPermissions =
-						requiredPermissions.length == 0 ? getUngrantedOptionalPermissions() : null;
-
-				if (requiredPermissions.length != 0) {
-					requestPermissions(requiredPermissions, REQUIRED_PERMISSION_REQUEST_CODE);
-				} else if (optionalPermissions.length != 0) {
-					requestPermissions(optionalPermissions, OPTIONAL_PERMISSION_REQUEST_CODE);
-				}
-			}
-		});
+	@Nullable
+	@Override
+	public ComponentActivity getHostActivity() {
+		return getActivity();
 	}
 
 	/**
-	 * Returns an array of permissions denied/ungranted by the user.
+	 * Returns the permissions denied/ungranted by the user.
 	 *
-	 * @param permissionsExtraKey Bundle Key in mPermissionsInfoBundle that has the list of permissions you want to check
+	 * @param permissions the permissions you want to check
 	 */
 	@NonNull
-	private String[] getUngrantedPermissions(final String permissionsExtraKey) {
-		final String[] permissions = mPermissionsInfoBundle.getStringArray(permissionsExtraKey);
+	@Override
+	public PermissionSet getUngrantedPermissions(@NonNull final PermissionSet permissions) {
 		final Context ctx = getContext();
-		return ctx != null ? PermissMeUtils.getDeniedPermissions(ctx, permissions) : new String[0];
+		return ctx != null ? PermissionStateCache.getInstance().getDenied(ctx, permissions) : PermissionSet.EMPTY;
 	}
 
-	@NonNull
-	private String[] getUngrantedRequiredPermissions() {
-		return getUngrantedPermissions(REQUIRED_PERMISSIONS_REQUESTED_EXTRA);
-	}
-
-	@NonNull
-	private String[] getUngrantedOptionalPermissions() {
-		return getUngrantedPermissions(OPTIONAL_PERMISSIONS_REQUESTED_EXTRA);
+	@Override
+	public void onAttach(@NonNull final Context context) {
+		super.onAttach(context);
+		// The flows started before the fragment got attached, or while it was detached, can ask their permissions now
+		mScheduler.onHostAttached();
 	}
 
 	@Override
@@ -654,64 +973,19 @@ public class PermissMe extends Fragment {
 		setRetainInstance(true);
 	}
 
-	// TODO this method should have a test
 	@Override
 	public void onRequestPermissionsResult(final int requestCode,
 										   @NonNull final String[] permissions,
 										   @NonNull final int[] grantResults) {
+		// The user may have changed the grant state of any permission we have cached
+		PermissionStateCache.getInstance().invalidate();
 
-		// can occur if permissions check is cancelled in between
-		if (permissions.length == 0) {
-			return;
-		}
-
-		if (requestCode == REQUIRED_PERMISSION_REQUEST_CODE) {
-			// Check if required permissions were granted
-			if (PermissMeUtils.verifyPermissions(grantResults)) {
-				final String[] optionalPermissions = getUngrantedOptionalPermissions();
-
-				if (optionalPermissions.length == 0) {
-					// No optional permissions, we're done
-					onPermissionsFinalResults(requestCode, permissions, true);
-				} else {
-					// Query for grant of optional permissions
-					requestPermissions(optionalPermissions, OPTIONAL_PERMISSION_REQUEST_CODE);
-				}
-			} else {
-				onPermissionsFinalResults(requestCode, permissions, false);
-			}
-		} else if (requestCode == OPTIONAL_PERMISSION_REQUEST_CODE) {
-			onPermissionsFinalResults(requestCode, permissions, PermissMeUtils.verifyPermissions(grantResults));
-		} else {
+		if (!mScheduler.onRequestPermissionsResult(requestCode, permissions, grantResults)) {
 			// Nothing special to do
 			super.onRequestPermissionsResult(requestCode, permissions, grantResults);
 		}
 	}
 
-	// TODO this method should have a test
-	private void onPermissionsFinalResults(final int requestCode,
-	                                       final String[] permissions,
-	                                       final boolean permissionGranted) {
-		if (requestCode == REQUIRED_PERMISSION_REQUEST_CODE) {
-			if (permissionGranted) {
-				// There were only required permissions
-				onSuccess();
-			} else {
-				// Required permission was denied
-				onPermissionDenied(requestCode, permissions);
-			}
-		} else if (requestCode == OPTIONAL_PERMISSION_REQUEST_CODE) {
-			// Regardless of whether user denied/granted the permission, report onSuccess because the permissions
-			// were optional anyway
-			onSuccess();
-			if (!permissionGranted) {
-				// Provide the permission denied callback for the optional permission
-				onPermissionDenied(requestCode, permissions);
-			}
-		}
-		cleanUp();
-	}
-
 	/**
 	 * This helper fragment should not be handling any callbacks, there should be a target fragment set through
 	 * the builder using {@link Builder#targetFragment(Fragment)}. The target fragment's
@@ -727,8 +1001,14 @@ public class PermissMe extends Fragment {
 
 	@Override
 	public void onDetach() {
+		final Activity activity = getActivity();
 		super.onDetach();
-		cleanUp();
+		if (activity != null && activity.isChangingConfigurations()) {
+			// The retained fragment is attached to the new activity, where the flows get their results
+			mScheduler.cleanUp();
+		} else {
+			mScheduler.cancelAll();
+		}
 	}
 
 	/**
@@ -773,92 +1053,19 @@ public class PermissMe extends Fragment {
 	}
 
 	/**
-	 * Get the denied permissions, check if each one was auto-denied or not, pass this info to the listeners and
-	 * show the UI for an auto-denied required permission
-	 *
-	 * @param requestCode indicates whether these are required or optional permissions
-	 * @param permissions the permissions in question
-	 */
-	@VisibleForTesting
-	/*package*/ void onPermissionDenied(final int requestCode, final String[] permissions) {
-		final String[] deniedPermissions = PermissMeUtils.getDeniedPermissions(getActivity(), permissions);
-
-		// There will definitely be denied permissions at this point, can suppress this
-		@SuppressWarnings("ConstantConditions")
-		final boolean[] isAutoDeniedPermissions = new boolean[deniedPermissions.length];
-		boolean hasAtleastOneAutoDeniedPermission = false;
-		for (int i = 0; i < deniedPermissions.length; i++) {
-			final boolean isAutoDenied = PermissMeUtils.isAutoDeniedPermission(
-					(AppCompatActivity) getActivity(),
-					deniedPermissions[i]);
-			isAutoDeniedPermissions[i] = isAutoDenied;
-			hasAtleastOneAutoDeniedPermission |= isAutoDenied;
-		}
-
-		if (mListener != null) {
-			if (requestCode == OPTIONAL_PERMISSION_REQUEST_CODE) {
-				mListener.onOptionalPermissionDenied(deniedPermissions, isAutoDeniedPermissions);
-			} else if (requestCode == REQUIRED_PERMISSION_REQUEST_CODE) {
-				mListener.onRequiredPermissionDenied(deniedPermissions, isAutoDeniedPermissions);
-			}
-		}
-
-		// Show the snackbar with a 'settings' button the user can tap to go to their app's setting screen and turn
-		// the permissions on from
-		if (hasAtleastOneAutoDeniedPermission
-				&& requestCode == REQUIRED_PERMISSION_REQUEST_CODE
-				&& shouldShowPermissionDeniedSnackbar()) {
-			showPermissionDeniedSnackbar();
-		}
-	}
-
-	/**
-	 * Internal method that handles the success case of required permissions being granted and/or optional
-	 * permissions getting a result
-	 */
-	@VisibleForTesting
-	/*package*/ void onSuccess() {
-		if (mListener != null) {
-			mListener.onSuccess();
-		}
-
-		if (getDestinationActivityClass() != null || mLaunchIntent != null) {
-			// Launch the destination activity! Onwards!
-			launchDestinationIntent();
-		}
-	}
-
-	/**
-	 * Launches the destination intent/activity specified through the builder
+	 * Listener that receives the result of every permission dialog shown to the user, without allocating per
+	 * callback. It can be used instead of, or alongside, a {@link PermissionListener}.
 	 */
-	@VisibleForTesting
-	/*package*/ void launchDestinationIntent() {
-		// Launch the destination intent/activity! Onwards!
-		final Intent destinationIntent;
-		if (mLaunchIntent != null) {
-			destinationIntent = mLaunchIntent;
-		} else {
-			destinationIntent = new Intent(getActivity(), getDestinationActivityClass());
-			if (getDestinationActivityBundle() != null) {
-				destinationIntent.putExtras(getDestinationActivityBundle());
-			}
-		}
-		final int requestCode = getDestinationActivityRequestCode();
-		@AnimRes final int enterAnim = getEnterAnimation();
-		@AnimRes final int exitAnim = getExitAnimation();
-		final boolean finishCallerActivity = mPermissionsInfoBundle
-				.getBoolean(DESTINATION_FINISH_ACTIVITY_UPON_RESULT_EXTRA);
-		final Bundle launchOptionsBundle = getDestinationActivityLaunchOptionsBundle();
-
-		launchIntentWithParameters(destinationIntent,
-				(AppCompatActivity) getActivity(),
-				launchOptionsBundle,
-				getTargetFragment(),
-				enterAnim,
-				exitAnim,
-				requestCode,
-				finishCallerActivity
-		);
+	public interface PermissionResultListener {
+		/**
+		 * The callback when the user answered a permission dialog. The required permissions and the optional
+		 * permissions are asked in separate dialogs, see {@link PermissionResult#isRequired()}. A dialog may be shared
+		 * with other requests started at the same time; the result only holds the permissions of this request.
+		 *
+		 * @param result
+		 * 		the result of the dialog; it is recycled once this method returns and must not be kept around
+		 */
+		void onPermissionResult(@NonNull PermissionResult result);
 	}
 
 	/**
@@ -871,71 +1078,11 @@ public class PermissMe extends Fragment {
 	 * @param exitAnim
 	 * 		the exit activity transition
 	 */
-	private static void overrideDefaultTransition(final AppCompatActivity activity,
+	private static void overrideDefaultTransition(final Activity activity,
 	                                              @AnimRes final int enterAnim,
 	                                              @AnimRes final int exitAnim) {
 		if (activity != null) {
 			activity.overridePendingTransition(enterAnim, exitAnim);
 		}
 	}
-
-	/**
-	 * Can be null if the user did not not specify launching a destination activity after permissions flow
-	 *
-	 * @return the destination activity class, or null if not specified
-	 */
-	@Nullable
-	Class getDestinationActivityClass() {
-		return (Class) mPermissionsInfoBundle.getSerializable(DESTINATION_ACTIVITY_CLASS_EXTRA);
-	}
-
-	@VisibleForTesting
-	/*package*/ int getDestinationActivityRequestCode() {
-		return mPermissionsInfoBundle.getInt(DESTINATION_START_ACTIVITY_WITH_REQUEST_CODE);
-	}
-
-	@Nullable
-	Bundle getDestinationActivityBundle() {
-		return mPermissionsInfoBundle.getBundle(DESTINATION_ACTIVITY_BUNDLE_EXTRA);
-	}
-
-	@Nullable
-	@VisibleForTesting
-	/*package*/ Bundle getDestinationActivityLaunchOptionsBundle() {
-		return mPermissionsInfoBundle.getBundle(DESTINATION_ACTIVITY_LAUNCH_OPTIONS_EXTRA);
-	}
-
-	@AnimRes
-	@VisibleForTesting
-	/*package*/ int getEnterAnimation() {
-		return mPermissionsInfoBundle.getInt(DESTINATION_ACTIVITY_ENTER_TRANSITION_EXTRA);
-	}
-
-	@AnimRes
-	@VisibleForTesting
-	/*package*/ int getExitAnimation() {
-		return mPermissionsInfoBundle.getInt(DESTINATION_ACTIVITY_EXIT_TRANSITION_EXTRA);
-	}
-
-	private boolean shouldShowPermissionDeniedSnackbar() {
-		return mPermissionsInfoBundle.getBoolean(SHOULD_SHOW_UI_UPON_FAILURE_EXTRA, true);
-	}
-
-	private void showPermissionDeniedSnackbar() {
-		PermissMeUtils.showPermissionDeniedSnackbar(getActivity(), getCustomAutoDeniedMessage());
-	}
-
-	@Nullable
-	private String getCustomAutoDeniedMessage() {
-		return mPermissionsInfoBundle.getString(CUSTOM_AUTO_DENIED_MESSAGE_EXTRA);
-	}
-
-	private void cleanUp() {
-		// Don't hold a reference to the listener anymore
-		mListener = null;
-	}
-
-	private void setListener(final PermissionListener listener) {
-		mListener = listener;
-	}
 }
@@ -1,37 +1,74 @@
 package com.tumblr.permissme;
 
+import android.content.Context;
+import android.content.res.Configuration;
+
+import androidx.annotation.ColorInt;
 import androidx.annotation.ColorRes;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.annotation.StringRes;
+import androidx.core.content.ContextCompat;
+import androidx.core.os.ConfigurationCompat;
+
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
- * Configuration singleton class that will setup your custom configuration of {@link PermissMe} permission denied
- * messages and colors for the {@link com.google.android.material.snackbar.Snackbar}
+ * Configuration of {@link PermissMe} permission denied messages and colors for the
+ * {@link com.google.android.material.snackbar.Snackbar}.
+ * <p>
+ * A configuration is an immutable snapshot, so it can be read from any thread. The global configuration returned by
+ * {@link #getInstance()} is replaced as a whole by {@link #config(int, int, int, int)}, never modified in place; a
+ * single request can use its own configuration through {@link PermissMe.Builder#config(PermissMeConfig)} without
+ * touching the global one.
+ * <p>
+ * The strings and colors are resolved the first time they are needed and kept until the locale or the night mode of
+ * the app changes.
  */
 public final class PermissMeConfig {
 
-	private static final PermissMeConfig INSTANCE = new PermissMeConfig();
+	private static final PermissMeConfig DEFAULT = new PermissMeConfig(
+			R.string.default_permission_denied_msg,
+			R.string.default_permission_denied_cta_text,
+			R.color.white,
+			R.color.red_toast_background_color);
+
+	private static final AtomicReference<PermissMeConfig> INSTANCE = new AtomicReference<>(DEFAULT);
 
 	@StringRes
-	private int mDefaultPermissionDeniedMsgRes;
+	private final int mDefaultPermissionDeniedMsgRes;
 
 	@StringRes
-	private int mDefaultCtaButtonStringRes;
+	private final int mDefaultCtaButtonStringRes;
 
 	@ColorRes
-	private int mTextColorRes;
+	private final int mTextColorRes;
 
 	@ColorRes
-	private int mSnackBarBgColorRes;
+	private final int mSnackBarBgColorRes;
+
+	/**
+	 * The resources resolved for the last configuration they were needed in; replaced as a whole when it changes
+	 */
+	@Nullable
+	private volatile Resolved mResolved;
 
+	/**
+	 * @return the global configuration, used by every request that doesn't set its own
+	 */
+	@NonNull
 	public static PermissMeConfig getInstance() {
-		return INSTANCE;
+		return INSTANCE.get();
 	}
 
-	private PermissMeConfig() {
-		mDefaultPermissionDeniedMsgRes = R.string.default_permission_denied_msg;
-		mDefaultCtaButtonStringRes = R.string.default_permission_denied_cta_text;
-		mTextColorRes =  R.color.white;
-		mSnackBarBgColorRes = R.color.red_toast_background_color;
+	private PermissMeConfig(@StringRes final int defaultPermissionDeniedMsgRes,
+	                        @StringRes final int defaultCtaButtonStringRes,
+	                        @ColorRes final int textColorRes,
+	                        @ColorRes final int snackBarBgColorRes) {
+		mDefaultPermissionDeniedMsgRes = defaultPermissionDeniedMsgRes;
+		mDefaultCtaButtonStringRes = defaultCtaButtonStringRes;
+		mTextColorRes = textColorRes;
+		mSnackBarBgColorRes = snackBarBgColorRes;
 	}
 
 	/**
@@ -54,22 +91,36 @@ public final class PermissMeConfig {
 	                          @StringRes final int defaultCtaButtonString,
 	                          @ColorRes final int textColorRes,
 	                          @ColorRes final int snackbarBgColorRes) {
+		// Copy on write, so that concurrent calls don't lose each other's changes
+		PermissMeConfig current;
+		PermissMeConfig updated;
+		do {
+			current = INSTANCE.get();
+			updated = current.buildUpon()
+					.permissionDeniedMessage(defaultPermissionDeniedMessage)
+					.ctaButtonString(defaultCtaButtonString)
+					.textColor(textColorRes)
+					.snackBarBgColor(snackbarBgColorRes)
+					.build();
+		} while (!INSTANCE.compareAndSet(current, updated));
+	}
 
-		if (defaultPermissionDeniedMessage != 0) {
-			getInstance().setDefaultPermissionDeniedMessage(defaultPermissionDeniedMessage);
-		}
-
-		if (defaultCtaButtonString != 0) {
-			getInstance().setDefaultCtaButtonString(defaultCtaButtonString);
-		}
-
-		if (textColorRes != 0) {
-			getInstance().setTextColorRes(textColorRes);
-		}
+	/**
+	 * Replaces the global configuration
+	 *
+	 * @param config
+	 * 		the new global configuration, e.g. built with {@link #buildUpon()}
+	 */
+	public static void config(@NonNull final PermissMeConfig config) {
+		INSTANCE.set(config);
+	}
 
-		if (snackbarBgColorRes != 0) {
-			getInstance().setSnackBarBgColorRes(snackbarBgColorRes);
-		}
+	/**
+	 * @return a builder of a new configuration, starting from the values of this one
+	 */
+	@NonNull
+	public Builder buildUpon() {
+		return new Builder(this);
 	}
 
 	/**
@@ -114,19 +165,178 @@ public final class PermissMeConfig {
 		return mTextColorRes;
 	}
 
-	private void setDefaultPermissionDeniedMessage(@StringRes final int strResId) {
-		mDefaultPermissionDeniedMsgRes = strResId;
+	/**
+	 * @param context
+	 * 		the context to resolve the message in
+	 * @return the resolved {@link #getDefaultPermissionDeniedMsg()}
+	 */
+	@NonNull
+	public String getDefaultPermissionDeniedMsg(@NonNull final Context context) {
+		return resolve(context).mPermissionDeniedMsg;
 	}
 
-	private void setDefaultCtaButtonString(@StringRes final int ctaResId) {
-		mDefaultCtaButtonStringRes = ctaResId;
+	/**
+	 * @param context
+	 * 		the context to resolve the message in
+	 * @return the resolved {@link #getDefaultCtaButtonMsg()}
+	 */
+	@NonNull
+	public String getDefaultCtaButtonMsg(@NonNull final Context context) {
+		return resolve(context).mCtaButtonMsg;
 	}
 
-	private void setSnackBarBgColorRes(@ColorRes final int snackBarBgColorRes) {
-		mSnackBarBgColorRes = snackBarBgColorRes;
+	/**
+	 * @param context
+	 * 		the context to resolve the color in
+	 * @return the resolved {@link #getSnackBarBgColorRes()}
+	 */
+	@ColorInt
+	public int getSnackBarBgColor(@NonNull final Context context) {
+		return resolve(context).mSnackBarBgColor;
 	}
 
-	private void setTextColorRes(@ColorRes final int textColorRes) {
-		mTextColorRes = textColorRes;
+	/**
+	 * @param context
+	 * 		the context to resolve the color in
+	 * @return the resolved {@link #getTextColorRes()}
+	 */
+	@ColorInt
+	public int getTextColor(@NonNull final Context context) {
+		return resolve(context).mTextColor;
+	}
+
+	/**
+	 * @return the resources of this configuration for the locale and night mode of the context, resolved again only
+	 * if they changed since the last call
+	 */
+	@NonNull
+	private Resolved resolve(@NonNull final Context context) {
+		final Configuration configuration = context.getResources().getConfiguration();
+		final String locales = ConfigurationCompat.getLocales(configuration).toLanguageTags();
+		final int nightMode = configuration.uiMode & Configuration.UI_MODE_NIGHT_MASK;
+
+		Resolved resolved = mResolved;
+		if (resolved == null || resolved.mNightMode != nightMode || !resolved.mLocales.equals(locales)) {
+			// Racing threads may both resolve, they get equal values
+			resolved = new Resolved(locales, nightMode,
+					context.getString(mDefaultPermissionDeniedMsgRes),
+					context.getString(mDefaultCtaButtonStringRes),
+					ContextCompat.getColor(context, mTextColorRes),
+					ContextCompat.getColor(context, mSnackBarBgColorRes));
+			mResolved = resolved;
+		}
+		return resolved;
+	}
+
+	/**
+	 * The resources of a configuration, resolved for a locale and a night mode
+	 */
+	private static final class Resolved {
+		@NonNull
+		private final String mLocales;
+		private final int mNightMode;
+		@NonNull
+		private final String mPermissionDeniedMsg;
+		@NonNull
+		private final String mCtaButtonMsg;
+		@ColorInt
+		private final int mTextColor;
+		@ColorInt
+		private final int mSnackBarBgColor;
+
+		private Resolved(@NonNull final String locales,
+		                 final int nightMode,
+		                 @NonNull final String permissionDeniedMsg,
+		                 @NonNull final String ctaButtonMsg,
+		                 @ColorInt final int textColor,
+		                 @ColorInt final int snackBarBgColor) {
+			mLocales = locales;
+			mNightMode = nightMode;
+			mPermissionDeniedMsg = permissionDeniedMsg;
+			mCtaButtonMsg = ctaButtonMsg;
+			mTextColor = textColor;
+			mSnackBarBgColor = snackBarBgColor;
+		}
+	}
+
+	/**
+	 * Builds a new configuration; values left at 0 keep the value of the configuration the builder started from
+	 */
+	public static final class Builder {
+		@StringRes
+		private int mDefaultPermissionDeniedMsgRes;
+
+		@StringRes
+		private int mDefaultCtaButtonStringRes;
+
+		@ColorRes
+		private int mTextColorRes;
+
+		@ColorRes
+		private int mSnackBarBgColorRes;
+
+		private Builder(@NonNull final PermissMeConfig config) {
+			mDefaultPermissionDeniedMsgRes = config.mDefaultPermissionDeniedMsgRes;
+			mDefaultCtaButtonStringRes = config.mDefaultCtaButtonStringRes;
+			mTextColorRes = config.mTextColorRes;
+			mSnackBarBgColorRes = config.mSnackBarBgColorRes;
+		}
+
+		/**
+		 * @param messageRes
+		 * 		the res id for the message that will show on the auto-denied permission snackbar
+		 * @return this, for chaining
+		 */
+		public Builder permissionDeniedMessage(@StringRes final int messageRes) {
+			if (messageRes != 0) {
+				mDefaultPermissionDeniedMsgRes = messageRes;
+			}
+			return this;
+		}
+
+		/**
+		 * @param ctaRes
+		 * 		the res id for the cta string that will show on the auto-denied permission snackbar
+		 * @return this, for chaining
+		 */
+		public Builder ctaButtonString(@StringRes final int ctaRes) {
+			if (ctaRes != 0) {
+				mDefaultCtaButtonStringRes = ctaRes;
+			}
+			return this;
+		}
+
+		/**
+		 * @param textColorRes
+		 * 		the resource id of the color of the cta on the auto-denied permission snackbar
+		 * @return this, for chaining
+		 */
+		public Builder textColor(@ColorRes final int textColorRes) {
+			if (textColorRes != 0) {
+				mTextColorRes = textColorRes;
+			}
+			return this;
+		}
+
+		/**
+		 * @param snackBarBgColorRes
+		 * 		the resource id of the background color of the auto-denied permission snackbar
+		 * @return this, for chaining
+		 */
+		public Builder snackBarBgColor(@ColorRes final int snackBarBgColorRes) {
+			if (snackBarBgColorRes != 0) {
+				mSnackBarBgColorRes = snackBarBgColorRes;
+			}
+			return this;
+		}
+
+		/**
+		 * @return the configuration
+		 */
+		@NonNull
+		public PermissMeConfig build() {
+			return new PermissMeConfig(mDefaultPermissionDeniedMsgRes, mDefaultCtaButtonStringRes, mTextColorRes,
+					mSnackBarBgColorRes);
+		}
 	}
 }
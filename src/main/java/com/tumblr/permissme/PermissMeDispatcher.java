@@ -0,0 +1,223 @@
+package com.tumblr.permissme;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.core.os.HandlerCompat;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Dispatches the work {@link PermissMe} has to do on the main thread, such as requesting the permissions or launching
+ * the destination activity, through a single handler shared by the whole process.
+ * <p>
+ * How the work is dispatched is selected globally through {@link #setMode(int)}:
+ * <ul>
+ * <li>{@link #MODE_POST}, the default: the work is always posted to the main looper, even when already on the main
+ * thread. This gives the caller's own pending work, such as animations, a chance to run first.</li>
+ * <li>{@link #MODE_INLINE}: the work runs right away when already on the main thread, and is posted otherwise. This
+ * saves the looper turn, often a whole frame, before the permissions dialog or the destination activity shows up.</li>
+ * <li>{@link #MODE_ASYNC}: the work is always posted, but as asynchronous messages so it isn't held up behind the
+ * sync barriers of view traversals.</li>
+ * </ul>
+ * The dispatcher also holds the executor PermissMe runs background work on, see {@link #getBackgroundExecutor()}.
+ */
+public final class PermissMeDispatcher {
+
+	/**
+	 * Always post the work to the main looper
+	 */
+	public static final int MODE_POST = 0;
+
+	/**
+	 * Run the work inline when on the main thread, post it otherwise
+	 */
+	public static final int MODE_INLINE = 1;
+
+	/**
+	 * Always post the work to the main looper, as asynchronous messages
+	 */
+	public static final int MODE_ASYNC = 2;
+
+	private static final int BACKGROUND_THREADS = 4;
+
+	private static final long BACKGROUND_KEEP_ALIVE_SECONDS = 30;
+
+	private static final PermissMeDispatcher INSTANCE = new PermissMeDispatcher();
+
+	private volatile int mMode = MODE_POST;
+
+	/**
+	 * The shared handlers, created lazily the first time they are used
+	 */
+	private volatile Handler mHandler;
+	private volatile Handler mAsyncHandler;
+
+	/**
+	 * The executor for background work, created lazily unless the app sets its own
+	 */
+	private volatile Executor mBackgroundExecutor;
+
+	/**
+	 * Stands in for the main looper when set, see {@link #setMainThreadExecutor(Executor)}
+	 */
+	@Nullable
+	private volatile Executor mMainThreadExecutor;
+
+	public static PermissMeDispatcher getInstance() {
+		return INSTANCE;
+	}
+
+	private PermissMeDispatcher() {
+
+	}
+
+	/**
+	 * Selects how {@link PermissMe} dispatches its work to the main thread for the whole process
+	 *
+	 * @param mode
+	 * 		one of {@link #MODE_POST}, {@link #MODE_INLINE} or {@link #MODE_ASYNC}
+	 */
+	public static void setMode(final int mode) {
+		if (mode != MODE_POST && mode != MODE_INLINE && mode != MODE_ASYNC) {
+			throw new IllegalArgumentException("Unknown dispatch mode: " + mode);
+		}
+		getInstance().mMode = mode;
+	}
+
+	/**
+	 * Sets the executor PermissMe runs background work on, e.g. the app's own I/O executor. By default, PermissMe
+	 * uses a small pool of daemon threads that time out when idle.
+	 *
+	 * @param executor
+	 * 		the executor for background work
+	 */
+	public static void setBackgroundExecutor(@NonNull final Executor executor) {
+		getInstance().mBackgroundExecutor = executor;
+	}
+
+	/**
+	 * Replaces the main looper with an executor, e.g. a looper scripted by a test; every mode then hands the work to
+	 * the executor
+	 *
+	 * @param executor
+	 * 		the executor to run the main thread work on, or null to go back to the main looper
+	 */
+	@VisibleForTesting
+	/*package*/ static void setMainThreadExecutor(@Nullable final Executor executor) {
+		getInstance().mMainThreadExecutor = executor;
+	}
+
+	/**
+	 * @return the executor PermissMe runs background work on, see {@link #setBackgroundExecutor(Executor)}
+	 */
+	@NonNull
+	public Executor getBackgroundExecutor() {
+		Executor executor = mBackgroundExecutor;
+		if (executor == null) {
+			synchronized (this) {
+				executor = mBackgroundExecutor;
+				if (executor == null) {
+					executor = createBackgroundExecutor();
+					mBackgroundExecutor = executor;
+				}
+			}
+		}
+		return executor;
+	}
+
+	/**
+	 * @return the current dispatch mode, one of {@link #MODE_POST}, {@link #MODE_INLINE} or {@link #MODE_ASYNC}
+	 */
+	public int getMode() {
+		return mMode;
+	}
+
+	/**
+	 * Runs the runnable on the main thread, according to the current mode
+	 *
+	 * @param runnable
+	 * 		the work to run on the main thread
+	 */
+	public void dispatch(@NonNull final Runnable runnable) {
+		final Executor mainThreadExecutor = mMainThreadExecutor;
+		final int mode = mMode;
+		if (mainThreadExecutor != null) {
+			mainThreadExecutor.execute(runnable);
+		} else if (mode == MODE_INLINE && isMainThread()) {
+			runnable.run();
+		} else if (mode == MODE_ASYNC) {
+			getAsyncHandler().post(runnable);
+		} else {
+			getHandler().post(runnable);
+		}
+	}
+
+	/**
+	 * @return {@code true} if work dispatched from the current thread right now would run inline, before
+	 * {@link #dispatch(Runnable)} returns
+	 */
+	public boolean willRunInline() {
+		return mMainThreadExecutor == null && mMode == MODE_INLINE && isMainThread();
+	}
+
+	private static boolean isMainThread() {
+		return Looper.myLooper() == Looper.getMainLooper();
+	}
+
+	@NonNull
+	private Handler getHandler() {
+		Handler handler = mHandler;
+		if (handler == null) {
+			synchronized (this) {
+				handler = mHandler;
+				if (handler == null) {
+					handler = new Handler(Looper.getMainLooper());
+					mHandler = handler;
+				}
+			}
+		}
+		return handler;
+	}
+
+	@NonNull
+	private Handler getAsyncHandler() {
+		Handler handler = mAsyncHandler;
+		if (handler == null) {
+			synchronized (this) {
+				handler = mAsyncHandler;
+				if (handler == null) {
+					handler = HandlerCompat.createAsync(Looper.getMainLooper());
+					mAsyncHandler = handler;
+				}
+			}
+		}
+		return handler;
+	}
+
+	@NonNull
+	private static Executor createBackgroundExecutor() {
+		final ThreadPoolExecutor executor = new ThreadPoolExecutor(BACKGROUND_THREADS, BACKGROUND_THREADS,
+				BACKGROUND_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					private final AtomicInteger mCount = new AtomicInteger();
+
+					@Override
+					public Thread newThread(@NonNull final Runnable runnable) {
+						final Thread thread = new Thread(runnable, "PermissMe-background-" + mCount.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+}
@@ -0,0 +1,167 @@
+package com.tumblr.permissme;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The last events of the {@link PermissMe} flows of the process, to attach to crash and bug reports through
+ * {@link #dump()} when a flow seemingly did nothing, e.g. a dialog result without permissions or a listener that was
+ * let go of before its callback.
+ * <p>
+ * The events are kept in a fixed-size ring buffer that overwrites the oldest ones. Each event is encoded in primitives:
+ * when it happened, the ID of its flow (see {@link PermissMeTrace}), its type and one argument, so recording is
+ * lock-free and doesn't allocate. A slot is stamped with the sequence number of its event once written, which lets
+ * {@link #dump()} skip the slots being written; an event can only come out garbled if the buffer wraps around during
+ * its recording, which takes {@link #DEFAULT_CAPACITY} concurrent events.
+ */
+public final class PermissMeEventLog {
+
+	/**
+	 * A flow was started; the argument is the number of permissions it asks
+	 */
+	public static final int EVENT_REQUEST = 1;
+
+	/**
+	 * A system dialog was shown for a flow; the argument is the request code of the dialog
+	 */
+	public static final int EVENT_DIALOG = 2;
+
+	/**
+	 * A flow got the result of a dialog; the argument is the number of permissions of the result, 0 when the dialog
+	 * was cancelled
+	 */
+	public static final int EVENT_RESULT = 3;
+
+	/**
+	 * A flow was dropped without callbacks, because its dialog was cancelled
+	 */
+	public static final int EVENT_CANCEL = 4;
+
+	/**
+	 * The destination of a flow was launched; the argument is the request code it was launched with
+	 */
+	public static final int EVENT_LAUNCH = 5;
+
+	/**
+	 * The listeners of a flow were let go of before it finished, e.g. because its activity was destroyed; the argument
+	 * is the request code of the dialog it was waiting on, 0 if none
+	 */
+	public static final int EVENT_LISTENER_NULL = 6;
+
+	/*package*/ static final int DEFAULT_CAPACITY = 256;
+
+	/**
+	 * The longs of a slot: the sequence number of its event plus one (0 while empty, negative while being written),
+	 * the time of the event in milliseconds since the epoch, and its flow, type and argument packed together
+	 */
+	private static final int SLOT_LONGS = 3;
+	private static final int SEQUENCE_OFFSET = 0;
+	private static final int TIME_OFFSET = 1;
+	private static final int PACKED_OFFSET = 2;
+
+	private static final long WRITING = -1;
+
+	private static final int TYPE_SHIFT = 24;
+	private static final int FLOW_SHIFT = 32;
+	private static final int TYPE_MASK = 0xff;
+	private static final int ARG_MASK = 0xffffff;
+	private static final long FLOW_MASK = 0xffffffffL;
+
+	private static final PermissMeEventLog INSTANCE = new PermissMeEventLog(DEFAULT_CAPACITY);
+
+	private final int mMask;
+
+	private final AtomicLongArray mSlots;
+
+	private final AtomicLong mNextSequence = new AtomicLong();
+
+	public static PermissMeEventLog getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * @param capacity
+	 * 		the number of events kept, a power of two
+	 */
+	@VisibleForTesting
+	/*package*/ PermissMeEventLog(final int capacity) {
+		if (Integer.bitCount(capacity) != 1) {
+			throw new IllegalArgumentException("The capacity must be a power of two: " + capacity);
+		}
+		mMask = capacity - 1;
+		mSlots = new AtomicLongArray(capacity * SLOT_LONGS);
+	}
+
+	/**
+	 * Records an event, overwriting the oldest one if the buffer is full
+	 *
+	 * @param event
+	 * 		one of the {@code EVENT_} constants
+	 * @param flowId
+	 * 		the ID of the flow of the event
+	 * @param arg
+	 * 		the argument of the event, see the {@code EVENT_} constants; only its lowest 24 bits are kept
+	 */
+	/*package*/ void record(final int event, final int flowId, final int arg) {
+		final long sequence = mNextSequence.getAndIncrement();
+		final int base = (int) (sequence & mMask) * SLOT_LONGS;
+		mSlots.set(base + SEQUENCE_OFFSET, WRITING);
+		mSlots.lazySet(base + TIME_OFFSET, System.currentTimeMillis());
+		mSlots.lazySet(base + PACKED_OFFSET, ((long) flowId << FLOW_SHIFT)
+				| ((long) (event & TYPE_MASK) << TYPE_SHIFT)
+				| (arg & ARG_MASK));
+		mSlots.set(base + SEQUENCE_OFFSET, sequence + 1);
+	}
+
+	/**
+	 * @return the events kept, oldest first, one per line as
+	 * {@code <sequence> <time in ms since the epoch> flow=<id> <event> arg=<argument>}
+	 */
+	@NonNull
+	public String dump() {
+		final int capacity = mMask + 1;
+		final long next = mNextSequence.get();
+		final StringBuilder dump = new StringBuilder();
+		dump.append("PermissMe events: ").append(Math.min(next, capacity)).append(" of ").append(next).append('\n');
+		for (long sequence = Math.max(0, next - capacity); sequence < next; sequence++) {
+			final int base = (int) (sequence & mMask) * SLOT_LONGS;
+			final long stamp = mSlots.get(base + SEQUENCE_OFFSET);
+			final long time = mSlots.get(base + TIME_OFFSET);
+			final long packed = mSlots.get(base + PACKED_OFFSET);
+			if (stamp != sequence + 1 || mSlots.get(base + SEQUENCE_OFFSET) != stamp) {
+				// Being written, or already overwritten by a newer event
+				continue;
+			}
+			dump.append(sequence)
+					.append(' ').append(time)
+					.append(" flow=").append((int) ((packed >>> FLOW_SHIFT) & FLOW_MASK))
+					.append(' ').append(eventName((int) (packed >>> TYPE_SHIFT) & TYPE_MASK))
+					.append(" arg=").append((int) packed & ARG_MASK)
+					.append('\n');
+		}
+		return dump.toString();
+	}
+
+	@NonNull
+	private static String eventName(final int event) {
+		switch (event) {
+			case EVENT_REQUEST:
+				return "REQUEST";
+			case EVENT_DIALOG:
+				return "DIALOG";
+			case EVENT_RESULT:
+				return "RESULT";
+			case EVENT_CANCEL:
+				return "CANCEL";
+			case EVENT_LAUNCH:
+				return "LAUNCH";
+			case EVENT_LISTENER_NULL:
+				return "LISTENER_NULL";
+			default:
+				return "EVENT_" + event;
+		}
+	}
+}
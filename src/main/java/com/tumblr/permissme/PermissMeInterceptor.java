@@ -0,0 +1,368 @@
+package com.tumblr.permissme;
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.Intent;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+/**
+ * Wraps the stages of the {@link PermissMe} flows, to add caching, metrics or policies around them without forking
+ * the library. Interceptors are installed for the whole process with {@link PermissMe#addInterceptor}, and run in the
+ * order they were added, the first one outermost:
+ * <ul>
+ * <li>{@link #interceptCheck(CheckChain)}: whether the permissions of a request are all granted already, in which
+ * case no flow is started</li>
+ * <li>{@link #interceptRequest(RequestChain)}: the permissions a system dialog is about to ask</li>
+ * <li>{@link #interceptResult(ResultChain)}: which of the permissions denied by a dialog are auto-denied</li>
+ * <li>{@link #interceptLaunch(LaunchChain)}: the launch of the destination of a request</li>
+ * </ul>
+ * Each stage hands the interceptor a chain; {@code chain.proceed(...)} runs the next interceptors and then the stage
+ * itself, and returns its result. An interceptor can change what it passes on, answer without proceeding, or time the
+ * call to {@code proceed}. By default every stage proceeds unchanged, so interceptors only override the stages they
+ * care about.
+ * <p>
+ * Chains are only created while interceptors are installed; otherwise the stages run directly. Interceptors are called
+ * on the main thread, except {@link #interceptCheck(CheckChain)} which runs on the thread the request is started from.
+ */
+public abstract class PermissMeInterceptor {
+
+	private static final PermissMeInterceptor[] NONE = new PermissMeInterceptor[0];
+
+	/**
+	 * The installed interceptors, replaced as a whole when one is added or removed
+	 */
+	@NonNull
+	private static volatile PermissMeInterceptor[] sInstalled = NONE;
+
+	/**
+	 * @return {@code true} if the permissions are not all granted, i.e. a flow has to be started
+	 */
+	public boolean interceptCheck(@NonNull final CheckChain chain) {
+		return chain.proceed();
+	}
+
+	/**
+	 * @return the permissions to ask in the dialog; the permissions left out of the request are reported neither
+	 * granted nor denied to the flows, and an empty set vetoes the dialog, in which case every permission of the
+	 * request is reported denied
+	 */
+	@NonNull
+	public PermissionSet interceptRequest(@NonNull final RequestChain chain) {
+		return chain.proceed(chain.getPermissions());
+	}
+
+	/**
+	 * @return the auto-denied permissions among the denied permissions of the dialog
+	 */
+	@NonNull
+	public PermissionSet interceptResult(@NonNull final ResultChain chain) {
+		return chain.proceed();
+	}
+
+	/**
+	 * Not proceeding vetoes the launch
+	 */
+	public void interceptLaunch(@NonNull final LaunchChain chain) {
+		chain.proceed(chain.getIntent());
+	}
+
+	/*package*/ static synchronized void install(@NonNull final PermissMeInterceptor interceptor) {
+		final PermissMeInterceptor[] installed = new PermissMeInterceptor[sInstalled.length + 1];
+		System.arraycopy(sInstalled, 0, installed, 0, sInstalled.length);
+		installed[sInstalled.length] = interceptor;
+		sInstalled = installed;
+	}
+
+	/*package*/ static synchronized void uninstall(@NonNull final PermissMeInterceptor interceptor) {
+		for (int i = 0; i < sInstalled.length; i++) {
+			if (sInstalled[i] == interceptor) {
+				final PermissMeInterceptor[] installed = new PermissMeInterceptor[sInstalled.length - 1];
+				System.arraycopy(sInstalled, 0, installed, 0, i);
+				System.arraycopy(sInstalled, i + 1, installed, i, installed.length - i);
+				sInstalled = installed;
+				return;
+			}
+		}
+	}
+
+	@NonNull
+	/*package*/ static PermissMeInterceptor[] getInstalled() {
+		return sInstalled;
+	}
+
+	@VisibleForTesting
+	/*package*/ static synchronized void uninstallAll() {
+		sInstalled = NONE;
+	}
+
+	/**
+	 * The part of a chain shared by every stage: the interceptors still to run
+	 */
+	private abstract static class Chain {
+		@NonNull
+		/*package*/ final PermissMeInterceptor[] mInterceptors;
+
+		/**
+		 * The interceptor {@code proceed} calls next; the stage itself once past the last one
+		 */
+		/*package*/ final int mIndex;
+
+		/*package*/ Chain(@NonNull final PermissMeInterceptor[] interceptors, final int index) {
+			mInterceptors = interceptors;
+			mIndex = index;
+		}
+
+		/*package*/ boolean isLast() {
+			return mIndex == mInterceptors.length;
+		}
+	}
+
+	/**
+	 * The check of whether a request has to start a flow
+	 */
+	public static final class CheckChain extends Chain {
+		@NonNull
+		private final Context mContext;
+		@NonNull
+		private final PermissionSet mRequiredPermissions;
+		@NonNull
+		private final PermissionSet mOptionalPermissions;
+
+		/*package*/ CheckChain(@NonNull final PermissMeInterceptor[] interceptors,
+		                      final int index,
+		                      @NonNull final Context context,
+		                      @NonNull final PermissionSet requiredPermissions,
+		                      @NonNull final PermissionSet optionalPermissions) {
+			super(interceptors, index);
+			mContext = context;
+			mRequiredPermissions = requiredPermissions;
+			mOptionalPermissions = optionalPermissions;
+		}
+
+		@NonNull
+		public Context getContext() {
+			return mContext;
+		}
+
+		@NonNull
+		public PermissionSet getRequiredPermissions() {
+			return mRequiredPermissions;
+		}
+
+		@NonNull
+		public PermissionSet getOptionalPermissions() {
+			return mOptionalPermissions;
+		}
+
+		/**
+		 * @return {@code true} if the permissions are not all granted
+		 */
+		public boolean proceed() {
+			if (isLast()) {
+				return PermissMe.needsPermissions(mContext, mRequiredPermissions, mOptionalPermissions);
+			}
+			return mInterceptors[mIndex].interceptCheck(
+					new CheckChain(mInterceptors, mIndex + 1, mContext, mRequiredPermissions, mOptionalPermissions));
+		}
+	}
+
+	/**
+	 * A system dialog about to be shown
+	 */
+	public static final class RequestChain extends Chain {
+		@Nullable
+		private final Activity mActivity;
+		@NonNull
+		private final PermissionSet mPermissions;
+		private final int mRequestCode;
+
+		/*package*/ RequestChain(@NonNull final PermissMeInterceptor[] interceptors,
+		                        final int index,
+		                        @Nullable final Activity activity,
+		                        @NonNull final PermissionSet permissions,
+		                        final int requestCode) {
+			super(interceptors, index);
+			mActivity = activity;
+			mPermissions = permissions;
+			mRequestCode = requestCode;
+		}
+
+		/**
+		 * @return the activity the dialog is shown in, or null if it is gone
+		 */
+		@Nullable
+		public Activity getActivity() {
+			return mActivity;
+		}
+
+		/**
+		 * @return the permissions to ask, as passed on by the previous interceptor
+		 */
+		@NonNull
+		public PermissionSet getPermissions() {
+			return mPermissions;
+		}
+
+		/**
+		 * @return {@code true} if the dialog asks required permissions, {@code false} if it asks optional ones
+		 */
+		public boolean isRequired() {
+			return mRequestCode == PermissMe.REQUIRED_PERMISSION_REQUEST_CODE;
+		}
+
+		/**
+		 * @param permissions
+		 * 		the permissions to ask in the dialog
+		 * @return the permissions the dialog will ask
+		 */
+		@NonNull
+		public PermissionSet proceed(@NonNull final PermissionSet permissions) {
+			if (isLast()) {
+				return permissions;
+			}
+			return mInterceptors[mIndex].interceptRequest(
+					new RequestChain(mInterceptors, mIndex + 1, mActivity, permissions, mRequestCode));
+		}
+	}
+
+	/**
+	 * The result of a system dialog, whose denied permissions are classified as auto-denied or not
+	 */
+	public static final class ResultChain extends Chain {
+		@Nullable
+		private final Activity mActivity;
+		@NonNull
+		private final PermissionSet mPermissions;
+		@NonNull
+		private final PermissionSet mDeniedPermissions;
+		@NonNull
+		private final RationaleSnapshot mRationaleBefore;
+		@NonNull
+		private final PermissionSet mJournalDeniedPermissions;
+
+		@SuppressWarnings("checkstyle:parameternumber")
+		/*package*/ ResultChain(@NonNull final PermissMeInterceptor[] interceptors,
+		                       final int index,
+		                       @Nullable final Activity activity,
+		                       @NonNull final PermissionSet permissions,
+		                       @NonNull final PermissionSet deniedPermissions,
+		                       @NonNull final RationaleSnapshot rationaleBefore,
+		                       @NonNull final PermissionSet journalDeniedPermissions) {
+			super(interceptors, index);
+			mActivity = activity;
+			mPermissions = permissions;
+			mDeniedPermissions = deniedPermissions;
+			mRationaleBefore = rationaleBefore;
+			mJournalDeniedPermissions = journalDeniedPermissions;
+		}
+
+		/**
+		 * @return the activity the dialog was shown in, or null if it is gone
+		 */
+		@Nullable
+		public Activity getActivity() {
+			return mActivity;
+		}
+
+		/**
+		 * @return the permissions the dialog asked
+		 */
+		@NonNull
+		public PermissionSet getPermissions() {
+			return mPermissions;
+		}
+
+		/**
+		 * @return the permissions the dialog denied
+		 */
+		@NonNull
+		public PermissionSet getDeniedPermissions() {
+			return mDeniedPermissions;
+		}
+
+		/**
+		 * @return the auto-denied permissions, see {@link PermissMe.PermissionListener}
+		 */
+		@NonNull
+		public PermissionSet proceed() {
+			if (isLast()) {
+				return RationaleSnapshot.getAutoDenied(mActivity, mRationaleBefore, mDeniedPermissions,
+						mJournalDeniedPermissions);
+			}
+			return mInterceptors[mIndex].interceptResult(new ResultChain(mInterceptors, mIndex + 1, mActivity,
+					mPermissions, mDeniedPermissions, mRationaleBefore, mJournalDeniedPermissions));
+		}
+	}
+
+	/**
+	 * The launch of the destination of a request
+	 */
+	public static final class LaunchChain extends Chain {
+		/**
+		 * Launches the intent the chain ends with
+		 */
+		/*package*/ interface Launcher {
+			void start(@NonNull Intent intent);
+		}
+
+		@NonNull
+		private final Activity mActivity;
+		@NonNull
+		private final Intent mIntent;
+		private final int mRequestCode;
+		@NonNull
+		private final Launcher mLauncher;
+
+		/*package*/ LaunchChain(@NonNull final PermissMeInterceptor[] interceptors,
+		                       final int index,
+		                       @NonNull final Activity activity,
+		                       @NonNull final Intent intent,
+		                       final int requestCode,
+		                       @NonNull final Launcher launcher) {
+			super(interceptors, index);
+			mActivity = activity;
+			mIntent = intent;
+			mRequestCode = requestCode;
+			mLauncher = launcher;
+		}
+
+		/**
+		 * @return the activity the destination is launched from
+		 */
+		@NonNull
+		public Activity getActivity() {
+			return mActivity;
+		}
+
+		/**
+		 * @return the intent to launch, as passed on by the previous interceptor
+		 */
+		@NonNull
+		public Intent getIntent() {
+			return mIntent;
+		}
+
+		/**
+		 * @return the request code the destination is started for a result with, 0 if none
+		 */
+		public int getRequestCode() {
+			return mRequestCode;
+		}
+
+		/**
+		 * @param intent
+		 * 		the intent to launch
+		 */
+		public void proceed(@NonNull final Intent intent) {
+			if (isLast()) {
+				mLauncher.start(intent);
+				return;
+			}
+			mInterceptors[mIndex].interceptLaunch(
+					new LaunchChain(mInterceptors, mIndex + 1, mActivity, intent, mRequestCode, mLauncher));
+		}
+	}
+}
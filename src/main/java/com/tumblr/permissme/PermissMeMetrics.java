@@ -0,0 +1,341 @@
+package com.tumblr.permissme;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Process-wide metrics of the {@link PermissMe} flows, for the app to pull into its own telemetry through
+ * {@link #snapshot()}:
+ * <ul>
+ * <li>how long each stage of a flow takes, see {@link #STAGE_BUILD_TO_CHECK}, {@link #STAGE_CHECK_TO_DIALOG},
+ * {@link #STAGE_DIALOG_DWELL} and {@link #STAGE_RESULT_TO_LAUNCH}, in a {@link HistogramSnapshot histogram} per
+ * stage</li>
+ * <li>how many times each permission was granted, denied and auto-denied by a dialog, see {@link #DECISION_GRANTED},
+ * {@link #DECISION_DENIED} and {@link #DECISION_AUTO_DENIED}</li>
+ * </ul>
+ * Everything is recorded in fixed-size, lock-free structures that are allocated once, so recording doesn't allocate
+ * and can't contend with the app. The metrics add up since the process started; a telemetry pipeline that wants
+ * intervals subtracts two snapshots.
+ */
+public final class PermissMeMetrics {
+
+	/**
+	 * From the creation of the {@link PermissMe.Builder} to the end of the check of the permissions it asks, when the
+	 * request is started
+	 */
+	public static final int STAGE_BUILD_TO_CHECK = 0;
+
+	/**
+	 * From the end of the check of the permissions of a flow to the first system dialog shown for it, including the
+	 * wait for the flows it is batched with
+	 */
+	public static final int STAGE_CHECK_TO_DIALOG = 1;
+
+	/**
+	 * From showing a system dialog to its result, i.e. how long the user took to answer; once per dialog, however
+	 * many flows share it
+	 */
+	public static final int STAGE_DIALOG_DWELL = 2;
+
+	/**
+	 * From the last dialog result of a flow to the launch of its destination
+	 */
+	public static final int STAGE_RESULT_TO_LAUNCH = 3;
+
+	/*package*/ static final int STAGE_COUNT = 4;
+
+	public static final int DECISION_GRANTED = 0;
+	public static final int DECISION_DENIED = 1;
+	public static final int DECISION_AUTO_DENIED = 2;
+
+	private static final int DECISION_COUNT = 3;
+
+	private static final int PERCENT = 100;
+
+	/**
+	 * The permissions counted one by one, by {@link PermissionSet} ID; the decisions on the permissions interned after
+	 * them are only counted in {@link Snapshot#getUntrackedDecisionCount(int)}
+	 */
+	/*package*/ static final int MAX_TRACKED_PERMISSIONS = 128;
+
+	private static final PermissMeMetrics INSTANCE = new PermissMeMetrics();
+
+	private static volatile boolean sEnabled = true;
+
+	private final LatencyHistogram[] mStages = new LatencyHistogram[STAGE_COUNT];
+
+	/**
+	 * The decision counts of each tracked permission, {@link #DECISION_COUNT} per permission ID
+	 */
+	private final AtomicLongArray mDecisions = new AtomicLongArray(MAX_TRACKED_PERMISSIONS * DECISION_COUNT);
+
+	private final AtomicLongArray mUntrackedDecisions = new AtomicLongArray(DECISION_COUNT);
+
+	public static PermissMeMetrics getInstance() {
+		return INSTANCE;
+	}
+
+	@VisibleForTesting
+	/*package*/ PermissMeMetrics() {
+		for (int i = 0; i < STAGE_COUNT; i++) {
+			mStages[i] = new LatencyHistogram();
+		}
+	}
+
+	/**
+	 * Turns the recording of metrics on or off for the whole process; on by default
+	 *
+	 * @param enabled
+	 * 		whether to record metrics
+	 */
+	public static void setEnabled(final boolean enabled) {
+		sEnabled = enabled;
+	}
+
+	/**
+	 * @return the time to stamp the start or end of a stage with, in nanoseconds; 0 if metrics are disabled, which
+	 * makes {@link #recordStage(int, long, long)} skip the stage
+	 */
+	/*package*/ static long now() {
+		return sEnabled ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * Records the duration of a stage, unless either end of it wasn't stamped
+	 *
+	 * @param stage
+	 * 		one of the {@code STAGE_} constants
+	 * @param startNanos
+	 * 		the start of the stage, from {@link #now()}
+	 * @param endNanos
+	 * 		the end of the stage, from {@link #now()}
+	 */
+	/*package*/ void recordStage(final int stage, final long startNanos, final long endNanos) {
+		if (startNanos == 0 || endNanos == 0) {
+			return;
+		}
+		mStages[stage].record(endNanos - startNanos);
+	}
+
+	/**
+	 * Counts the decisions of a dialog
+	 *
+	 * @param requested
+	 * 		the permissions of the dialog
+	 * @param denied
+	 * 		the permissions the dialog denied, auto-denied or not
+	 * @param autoDenied
+	 * 		the permissions the dialog auto-denied
+	 */
+	/*package*/ void recordDecisions(@NonNull final PermissionSet requested,
+	                                 @NonNull final PermissionSet denied,
+	                                 @NonNull final PermissionSet autoDenied) {
+		if (!sEnabled) {
+			return;
+		}
+		for (int id = requested.nextId(0); id >= 0; id = requested.nextId(id + 1)) {
+			final int decision;
+			if (autoDenied.containsId(id)) {
+				decision = DECISION_AUTO_DENIED;
+			} else if (denied.containsId(id)) {
+				decision = DECISION_DENIED;
+			} else {
+				decision = DECISION_GRANTED;
+			}
+			if (id < MAX_TRACKED_PERMISSIONS) {
+				mDecisions.incrementAndGet(id * DECISION_COUNT + decision);
+			} else {
+				mUntrackedDecisions.incrementAndGet(decision);
+			}
+		}
+	}
+
+	/**
+	 * @return the metrics recorded so far
+	 */
+	@NonNull
+	public Snapshot snapshot() {
+		final HistogramSnapshot[] stages = new HistogramSnapshot[STAGE_COUNT];
+		for (int i = 0; i < STAGE_COUNT; i++) {
+			stages[i] = mStages[i].snapshot();
+		}
+
+		final List<String> permissions = new ArrayList<>();
+		final List<long[]> decisions = new ArrayList<>();
+		for (int id = 0; id < MAX_TRACKED_PERMISSIONS; id++) {
+			final long[] counts = new long[DECISION_COUNT];
+			long total = 0;
+			for (int decision = 0; decision < DECISION_COUNT; decision++) {
+				counts[decision] = mDecisions.get(id * DECISION_COUNT + decision);
+				total += counts[decision];
+			}
+			if (total > 0) {
+				permissions.add(PermissionSet.permissionOf(id));
+				decisions.add(counts);
+			}
+		}
+
+		final long[] untracked = new long[DECISION_COUNT];
+		for (int decision = 0; decision < DECISION_COUNT; decision++) {
+			untracked[decision] = mUntrackedDecisions.get(decision);
+		}
+		return new Snapshot(stages, permissions.toArray(new String[permissions.size()]),
+				decisions.toArray(new long[decisions.size()][]), untracked);
+	}
+
+	/**
+	 * The metrics recorded up to a point in time
+	 */
+	public static final class Snapshot {
+		@NonNull
+		private final HistogramSnapshot[] mStages;
+		@NonNull
+		private final String[] mPermissions;
+		@NonNull
+		private final long[][] mDecisions;
+		@NonNull
+		private final long[] mUntrackedDecisions;
+
+		/*package*/ Snapshot(@NonNull final HistogramSnapshot[] stages,
+		                     @NonNull final String[] permissions,
+		                     @NonNull final long[][] decisions,
+		                     @NonNull final long[] untrackedDecisions) {
+			mStages = stages;
+			mPermissions = permissions;
+			mDecisions = decisions;
+			mUntrackedDecisions = untrackedDecisions;
+		}
+
+		/**
+		 * @param stage
+		 * 		one of the {@code STAGE_} constants
+		 * @return the durations of the stage
+		 */
+		@NonNull
+		public HistogramSnapshot getStage(final int stage) {
+			return mStages[stage];
+		}
+
+		/**
+		 * @return the permissions a dialog decided on at least once
+		 */
+		@NonNull
+		public String[] getPermissions() {
+			return mPermissions.clone();
+		}
+
+		/**
+		 * @param permission
+		 * 		the permission
+		 * @param decision
+		 * 		one of the {@code DECISION_} constants
+		 * @return how many times a dialog made the decision on the permission
+		 */
+		public long getDecisionCount(@NonNull final String permission, final int decision) {
+			for (int i = 0; i < mPermissions.length; i++) {
+				if (mPermissions[i].equals(permission)) {
+					return mDecisions[i][decision];
+				}
+			}
+			return 0;
+		}
+
+		/**
+		 * @param decision
+		 * 		one of the {@code DECISION_} constants
+		 * @return how many times a dialog made the decision on a permission that isn't counted on its own, i.e. past
+		 * the first 128 distinct permissions of the process
+		 */
+		public long getUntrackedDecisionCount(final int decision) {
+			return mUntrackedDecisions[decision];
+		}
+	}
+
+	/**
+	 * The durations recorded for a stage, in power-of-two buckets: bucket 0 holds 0ns, and bucket {@code i} holds the
+	 * durations in {@code [2^(i-1), 2^i)} nanoseconds
+	 */
+	public static final class HistogramSnapshot {
+		@NonNull
+		private final long[] mBuckets;
+		private final long mCount;
+		private final long mSumNanos;
+		private final long mMaxNanos;
+
+		/*package*/ HistogramSnapshot(@NonNull final long[] buckets,
+		                              final long count,
+		                              final long sumNanos,
+		                              final long maxNanos) {
+			mBuckets = buckets;
+			mCount = count;
+			mSumNanos = sumNanos;
+			mMaxNanos = maxNanos;
+		}
+
+		/**
+		 * @return the number of durations recorded
+		 */
+		public long getCount() {
+			return mCount;
+		}
+
+		public long getSumNanos() {
+			return mSumNanos;
+		}
+
+		public long getMaxNanos() {
+			return mMaxNanos;
+		}
+
+		public int getBucketCount() {
+			return mBuckets.length;
+		}
+
+		/**
+		 * @param bucket
+		 * 		the index of the bucket, from 0 to {@link #getBucketCount()} excluded
+		 * @return the number of durations in the bucket
+		 */
+		public long getBucket(final int bucket) {
+			return mBuckets[bucket];
+		}
+
+		/**
+		 * @param bucket
+		 * 		the index of the bucket, from 0 to {@link #getBucketCount()} excluded
+		 * @return the largest duration of the bucket, in nanoseconds
+		 */
+		public long getBucketUpperBoundNanos(final int bucket) {
+			return LatencyHistogram.upperBoundOf(bucket);
+		}
+
+		/**
+		 * @param percentile
+		 * 		the percentile, from 0 to 100
+		 * @return an upper bound of the percentile, i.e. the upper bound of the bucket it falls in, capped by the
+		 * largest duration recorded; 0 if nothing was recorded
+		 */
+		public long getPercentileNanos(final double percentile) {
+			long total = 0;
+			for (int i = 0; i < mBuckets.length; i++) {
+				total += mBuckets[i];
+			}
+			if (total == 0) {
+				return 0;
+			}
+			final long rank = Math.max(1, (long) Math.ceil(total * percentile / PERCENT));
+			long seen = 0;
+			for (int i = 0; i < mBuckets.length; i++) {
+				seen += mBuckets[i];
+				if (seen >= rank) {
+					return Math.min(LatencyHistogram.upperBoundOf(i), mMaxNanos);
+				}
+			}
+			return mMaxNanos;
+		}
+	}
+}
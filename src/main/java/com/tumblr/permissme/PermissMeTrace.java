@@ -0,0 +1,111 @@
+package com.tumblr.permissme;
+
+import androidx.annotation.NonNull;
+import androidx.tracing.Trace;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * System trace sections around the stages of the {@link PermissionFlow}s, so that PermissMe work shows up by name in
+ * Perfetto or systrace rather than as anonymous main-thread slices.
+ * <p>
+ * Every flow gets an ID, which tags each of its sections, and an async track, "PermissMe flow", that spans from its
+ * start to its end across looper turns, with the ID as its cookie. Section names are only built while the app is
+ * being traced; otherwise a section costs a {@link Trace#isEnabled()} check.
+ * <p>
+ * Sections are begun and ended on the same thread, e.g.:
+ * <pre>
+ * final boolean traced = PermissMeTrace.beginSection("onPermissionDenied", flowId);
+ * try {
+ *     ...
+ * } finally {
+ *     PermissMeTrace.endSection(traced);
+ * }
+ * </pre>
+ */
+/*package*/ final class PermissMeTrace {
+
+	private static final String SECTION_PREFIX = "PermissMe#";
+
+	/*package*/ static final String FLOW_TRACK = "PermissMe flow";
+
+	private static final AtomicInteger NEXT_FLOW_ID = new AtomicInteger();
+
+	private PermissMeTrace() {
+
+	}
+
+	/**
+	 * @return a new flow ID, unique to the process
+	 */
+	/*package*/ static int newFlowId() {
+		return NEXT_FLOW_ID.incrementAndGet();
+	}
+
+	/**
+	 * @param name
+	 * 		the name of the stage
+	 * @param flowId
+	 * 		the ID of the flow the stage is part of
+	 * @return whether a section was begun, to hand to {@link #endSection(boolean)}
+	 */
+	/*package*/ static boolean beginSection(@NonNull final String name, final int flowId) {
+		if (!Trace.isEnabled()) {
+			return false;
+		}
+		Trace.beginSection(SECTION_PREFIX + name + " flow=" + flowId);
+		return true;
+	}
+
+	/**
+	 * @param name
+	 * 		the name of the stage
+	 * @param flows
+	 * 		the flows the stage is part of, e.g. a batch sharing a dialog
+	 * @return whether a section was begun, to hand to {@link #endSection(boolean)}
+	 */
+	/*package*/ static boolean beginSection(@NonNull final String name, @NonNull final List<PermissionFlow> flows) {
+		if (!Trace.isEnabled()) {
+			return false;
+		}
+		final StringBuilder label = new StringBuilder(SECTION_PREFIX).append(name).append(" flows=");
+		for (int i = 0; i < flows.size(); i++) {
+			if (i > 0) {
+				label.append(',');
+			}
+			label.append(flows.get(i).mId);
+		}
+		Trace.beginSection(label.toString());
+		return true;
+	}
+
+	/**
+	 * @param begun
+	 * 		the result of the matching {@code beginSection}
+	 */
+	/*package*/ static void endSection(final boolean begun) {
+		if (begun) {
+			Trace.endSection();
+		}
+	}
+
+	/**
+	 * Begins the async track of a flow
+	 */
+	/*package*/ static void beginFlow(final int flowId) {
+		if (Trace.isEnabled()) {
+			Trace.beginAsyncSection(FLOW_TRACK, flowId);
+		}
+	}
+
+	/**
+	 * Ends the async track of a flow; ending a track that wasn't begun, e.g. because tracing started meanwhile, is
+	 * ignored by the system
+	 */
+	/*package*/ static void endFlow(final int flowId) {
+		if (Trace.isEnabled()) {
+			Trace.endAsyncSection(FLOW_TRACK, flowId);
+		}
+	}
+}
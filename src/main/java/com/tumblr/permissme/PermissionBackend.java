@@ -0,0 +1,86 @@
+package com.tumblr.permissme;
+
+import android.app.Activity;
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Stands in for the runtime permissions of the system: the grant state of each permission, whether its rationale
+ * should be shown, and the permission dialogs. A backend is installed for the whole process with
+ * {@link PermissMe#setPermissionBackend(PermissionBackend)}, typically the {@code FakePermissionBackend} of the
+ * {@code permissme-testing} artifact, so that the flows the app gates on permissions can be tested on the JVM without
+ * mocking the static methods of the system.
+ * <p>
+ * While a backend is installed, permissions are checked through it on every API level, and every flow asks its
+ * permissions through {@link #requestPermissions(Activity, String[], ResultCallback)} instead of the {@link PermissMe}
+ * fragment or the activity result registry; nothing else of the activity is needed unless a flow shows its snackbar.
+ */
+public abstract class PermissionBackend {
+
+	/**
+	 * The installed backend, if any
+	 */
+	@Nullable
+	private static volatile PermissionBackend sInstalled;
+
+	/**
+	 * Receives the answer to a dialog shown by {@link #requestPermissions(Activity, String[], ResultCallback)}
+	 */
+	public interface ResultCallback {
+		/**
+		 * @param permissions
+		 * 		the permissions of the dialog, or an empty array if it was dismissed
+		 * @param grantResults
+		 * 		the grant result of each permission, {@link android.content.pm.PackageManager#PERMISSION_GRANTED} or
+		 * 		{@link android.content.pm.PackageManager#PERMISSION_DENIED}
+		 */
+		void onRequestPermissionsResult(@NonNull String[] permissions, @NonNull int[] grantResults);
+	}
+
+	/**
+	 * @return whether the permission is granted to the package, in place of
+	 * {@link androidx.core.content.PermissionChecker#checkSelfPermission(Context, String)}
+	 */
+	public abstract boolean isGranted(@NonNull Context context, @NonNull String permission);
+
+	/**
+	 * @return whether the rationale of the permission should be shown, in place of
+	 * {@link Activity#shouldShowRequestPermissionRationale(String)}; {@code false} for a permission that is not
+	 * granted means it is auto-denied
+	 */
+	public abstract boolean shouldShowRequestPermissionRationale(@NonNull Activity activity,
+	                                                             @NonNull String permission);
+
+	/**
+	 * Shows the dialog asking the permissions, and answers the callback once the user is done with it; the callback
+	 * must be called on the main thread, or on the executor of {@link #getMainThreadExecutor()}
+	 */
+	public abstract void requestPermissions(@NonNull Activity activity,
+	                                        @NonNull String[] permissions,
+	                                        @NonNull ResultCallback callback);
+
+	/**
+	 * @return the executor PermissMe runs its main thread work on while the backend is installed, e.g. a direct
+	 * executor to run the flows synchronously on the thread of the test, or null to keep the main looper
+	 */
+	@Nullable
+	public Executor getMainThreadExecutor() {
+		return null;
+	}
+
+	/**
+	 * @return the installed backend, or null when PermissMe talks to the system
+	 */
+	@Nullable
+	public static PermissionBackend getInstalled() {
+		return sInstalled;
+	}
+
+	/*package*/ static void install(@Nullable final PermissionBackend backend) {
+		sInstalled = backend;
+	}
+}
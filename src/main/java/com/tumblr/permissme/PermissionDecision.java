@@ -0,0 +1,73 @@
+package com.tumblr.permissme;
+
+import androidx.annotation.NonNull;
+
+/**
+ * The final decision of the user on a permissions request, the value of the {@link PermissionOutcome} returned by
+ * {@link PermissMe.Builder#request()}
+ */
+public final class PermissionDecision {
+
+	/**
+	 * The decision when every permission of the request is granted
+	 */
+	public static final PermissionDecision GRANTED =
+			new PermissionDecision(PermissionSet.EMPTY, PermissionSet.EMPTY, PermissionSet.EMPTY);
+
+	@NonNull
+	private final PermissionSet mDeniedRequiredPermissions;
+
+	@NonNull
+	private final PermissionSet mDeniedOptionalPermissions;
+
+	@NonNull
+	private final PermissionSet mAutoDeniedPermissions;
+
+	/*package*/ PermissionDecision(@NonNull final PermissionSet deniedRequiredPermissions,
+	                               @NonNull final PermissionSet deniedOptionalPermissions,
+	                               @NonNull final PermissionSet autoDeniedPermissions) {
+		mDeniedRequiredPermissions = deniedRequiredPermissions;
+		mDeniedOptionalPermissions = deniedOptionalPermissions;
+		mAutoDeniedPermissions = autoDeniedPermissions;
+	}
+
+	/**
+	 * @return {@code true} if the required permissions were granted, regardless of the optional permissions; this is
+	 * when {@link PermissMe.PermissionListener#onSuccess()} is called
+	 */
+	public boolean isGranted() {
+		return mDeniedRequiredPermissions.isEmpty();
+	}
+
+	/**
+	 * @return the required permissions the user denied
+	 */
+	@NonNull
+	public PermissionSet getDeniedRequiredPermissions() {
+		return mDeniedRequiredPermissions;
+	}
+
+	/**
+	 * @return the optional permissions the user denied
+	 */
+	@NonNull
+	public PermissionSet getDeniedOptionalPermissions() {
+		return mDeniedOptionalPermissions;
+	}
+
+	/**
+	 * @return the denied permissions that were auto-denied, ergo, the user previously or currently checked "Never ask
+	 * again" on the permission dialog
+	 */
+	@NonNull
+	public PermissionSet getAutoDeniedPermissions() {
+		return mAutoDeniedPermissions;
+	}
+
+	@Override
+	public String toString() {
+		return "PermissionDecision{deniedRequired=" + mDeniedRequiredPermissions
+				+ ", deniedOptional=" + mDeniedOptionalPermissions
+				+ ", autoDenied=" + mAutoDeniedPermissions + "}";
+	}
+}
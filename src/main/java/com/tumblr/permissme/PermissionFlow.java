@@ -0,0 +1,489 @@
+package com.tumblr.permissme;
+
+import android.content.Intent;
+import android.os.Bundle;
+
+import androidx.activity.ComponentActivity;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.core.content.PermissionChecker;
+import androidx.fragment.app.Fragment;
+
+import com.tumblr.permissme.utils.PermissMeUtils;
+
+import java.util.ArrayList;
+
+/**
+ * The state of a single caller's permissions request, as set up through a {@link PermissMe.Builder}: the permissions
+ * it needs, its listeners and what to launch once the required permissions are granted.
+ * <p>
+ * Flows don't request permissions by themselves; they are handed to the {@link PermissionScheduler} of the caller
+ * activity, which may merge them with other flows into the same system dialog, and then get called back with the
+ * part of the result that concerns them.
+ */
+/*package*/ class PermissionFlow {
+
+	/**
+	 * A listener to provide callbacks to in regards to the status of permissions granted/ungranted by user; see
+	 * {@link PermissMe.PermissionListener}
+	 */
+	@Nullable
+	@VisibleForTesting
+	/*package*/ PermissMe.PermissionListener mListener;
+
+	/**
+	 * A listener to receive the pooled result of every permission dialog; see
+	 * {@link PermissMe.PermissionResultListener}
+	 */
+	@Nullable
+	@VisibleForTesting
+	/*package*/ PermissMe.PermissionResultListener mResultListener;
+
+	/**
+	 * Contains the plain data sent by the caller
+	 */
+	@NonNull
+	@VisibleForTesting
+	/*package*/ FlowState mState = new FlowState();
+
+	/**
+	 * The required permissions of the flow
+	 */
+	@NonNull
+	/*package*/ PermissionSet mRequiredPermissions = PermissionSet.EMPTY;
+
+	/**
+	 * The optional permissions of the flow
+	 */
+	@NonNull
+	/*package*/ PermissionSet mOptionalPermissions = PermissionSet.EMPTY;
+
+	/**
+	 * The required and optional permissions in the order the caller asked them, for the arrays handed to the
+	 * listeners; null to use the order of {@link PermissionSet#toArray()}
+	 */
+	@Nullable
+	/*package*/ String[] mRequiredPermissionOrder;
+	@Nullable
+	/*package*/ String[] mOptionalPermissionOrder;
+
+	/**
+	 * An intent the user passed in directly through
+	 * {@link PermissMe.Builder#launchActivityWithPermissions(Intent, Bundle)}
+	 */
+	@Nullable
+	@VisibleForTesting
+	/*package*/ Intent mLaunchIntent;
+
+	/**
+	 * The fragment that starts the destination activity for result, see {@link PermissMe.Builder#targetFragment}
+	 */
+	@Nullable
+	/*package*/ Fragment mTargetFragment;
+
+	/**
+	 * Whether this flow launches its own destination when it is attached to an identical in-flight flow, see
+	 * {@link PermissMe.Builder#launchDestinationPerCaller()}
+	 */
+	/*package*/ boolean mLaunchDestinationPerCaller;
+
+	/**
+	 * The work to start in the background along with the launch of the destination, see
+	 * {@link PermissMe.Builder#destinationWarmup(DestinationWarmup)}
+	 */
+	@Nullable
+	/*package*/ DestinationWarmup<?> mDestinationWarmup;
+
+	/**
+	 * The ID of the flow in the system trace, see {@link PermissMeTrace}
+	 */
+	/*package*/ int mId;
+
+	/**
+	 * When the permissions of the flow were checked, when its first dialog was shown and when it got its last dialog
+	 * result, see {@link PermissMeMetrics}; 0 if not stamped
+	 */
+	/*package*/ long mCheckedNanos;
+	/*package*/ long mDialogNanos;
+	/*package*/ long mResultNanos;
+
+	/**
+	 * The identical flows started while this one was in flight, which get called back with its results
+	 */
+	@Nullable
+	private ArrayList<PermissionFlow> mFollowers;
+
+	/**
+	 * The outcome returned by {@link PermissMe.Builder#request()}, completed once the flow is finished
+	 */
+	@Nullable
+	/*package*/ PermissionOutcome<PermissionDecision> mOutcome;
+
+	/**
+	 * What the user denied so far, for the {@link #mOutcome}
+	 */
+	@NonNull
+	private PermissionSet mDeniedRequiredPermissions = PermissionSet.EMPTY;
+	@NonNull
+	private PermissionSet mDeniedOptionalPermissions = PermissionSet.EMPTY;
+	@NonNull
+	private PermissionSet mAutoDeniedPermissions = PermissionSet.EMPTY;
+
+	/**
+	 * Attaches an identical flow to this one, so that it receives the results of this flow instead of requesting the
+	 * permissions again; see {@link #isSameRequest(PermissionFlow)}
+	 *
+	 * @param follower
+	 * 		the identical flow
+	 */
+	/*package*/ void attach(@NonNull final PermissionFlow follower) {
+		if (mFollowers == null) {
+			mFollowers = new ArrayList<>();
+		}
+		mFollowers.add(follower);
+	}
+
+	/**
+	 * @param other
+	 * 		another flow
+	 * @return {@code true} if the other flow asks the same permissions and launches the same destination
+	 */
+	/*package*/ boolean isSameRequest(@NonNull final PermissionFlow other) {
+		return mRequiredPermissions.equals(other.mRequiredPermissions)
+				&& mOptionalPermissions.equals(other.mOptionalPermissions)
+				&& mTargetFragment == other.mTargetFragment
+				&& mState.equals(other.mState)
+				&& isSameIntent(mLaunchIntent, other.mLaunchIntent);
+	}
+
+	/**
+	 * @param isRequired
+	 * 		whether the permissions are required permissions of the flow
+	 * @param permissions
+	 * 		some of the required or optional permissions of the flow
+	 * @return the permissions in the order the caller asked them
+	 */
+	@NonNull
+	/*package*/ String[] toRequestOrder(final boolean isRequired, @NonNull final PermissionSet permissions) {
+		return permissions.toArray(isRequired ? mRequiredPermissionOrder : mOptionalPermissionOrder);
+	}
+
+	/**
+	 * Hands the part of a permission dialog result that concerns this flow to the {@link #mResultListener} through a
+	 * pooled {@link PermissionResult}, recycled as soon as the callback returns
+	 *
+	 * @param isRequired
+	 * 		whether the dialog was for required permissions
+	 * @param permissions
+	 * 		the permissions of the dialog, possibly shared with other flows
+	 * @param grantResults
+	 * 		the grant results of the dialog
+	 * @param autoDeniedPermissions
+	 * 		the permissions of the dialog that were auto-denied, see {@link RationaleSnapshot}
+	 */
+	/*package*/ void deliverPermissionResult(final boolean isRequired,
+	                                         @NonNull final String[] permissions,
+	                                         @NonNull final int[] grantResults,
+	                                         @NonNull final PermissionSet autoDeniedPermissions) {
+		if (mResultListener == null && mFollowers == null) {
+			return;
+		}
+
+		final PermissionSet flowPermissions = isRequired ? mRequiredPermissions : mOptionalPermissions;
+		int size = 0;
+		for (int i = 0; i < permissions.length; i++) {
+			if (flowPermissions.contains(permissions[i])) {
+				size++;
+			}
+		}
+		if (size == 0) {
+			return;
+		}
+
+		final PermissionResult result = PermissionResult.obtain(isRequired, size);
+		int index = 0;
+		for (int i = 0; i < permissions.length; i++) {
+			if (!flowPermissions.contains(permissions[i])) {
+				continue;
+			}
+			final int status;
+			if (i < grantResults.length && grantResults[i] == PermissionChecker.PERMISSION_GRANTED) {
+				status = PermissionResult.STATUS_GRANTED;
+			} else if (autoDeniedPermissions.contains(permissions[i])) {
+				status = PermissionResult.STATUS_AUTO_DENIED;
+			} else {
+				status = PermissionResult.STATUS_DENIED;
+			}
+			result.set(index++, permissions[i], status);
+		}
+
+		try {
+			if (mResultListener != null) {
+				mResultListener.onPermissionResult(result);
+			}
+			if (mFollowers != null) {
+				for (int i = 0; i < mFollowers.size(); i++) {
+					final PermissMe.PermissionResultListener resultListener = mFollowers.get(i).mResultListener;
+					if (resultListener != null) {
+						resultListener.onPermissionResult(result);
+					}
+				}
+			}
+		} finally {
+			result.recycle();
+		}
+	}
+
+	/**
+	 * Get the denied permissions, pass them along with whether each one was auto-denied to the listeners and show the
+	 * UI for an auto-denied required permission
+	 *
+	 * @param activity the activity the flow runs in
+	 * @param requestCode indicates whether these are required or optional permissions
+	 * @param permissions the permissions in question
+	 * @param autoDeniedPermissions the permissions of the dialog that were auto-denied, see {@link RationaleSnapshot}
+	 */
+	@VisibleForTesting
+	/*package*/ void onPermissionDenied(@Nullable final ComponentActivity activity,
+	                                    final int requestCode,
+	                                    final String[] permissions,
+	                                    @NonNull final PermissionSet autoDeniedPermissions) {
+		final boolean traced = PermissMeTrace.beginSection("onPermissionDenied", mId);
+		try {
+			notifyPermissionDenied(activity, requestCode, permissions, autoDeniedPermissions);
+		} finally {
+			PermissMeTrace.endSection(traced);
+		}
+	}
+
+	private void notifyPermissionDenied(@Nullable final ComponentActivity activity,
+	                                    final int requestCode,
+	                                    final String[] permissions,
+	                                    @NonNull final PermissionSet autoDeniedPermissions) {
+		final String[] deniedPermissions = PermissMeUtils.getDeniedPermissions(activity, permissions);
+
+		// There will definitely be denied permissions at this point, can suppress this
+		@SuppressWarnings("ConstantConditions")
+		final boolean[] isAutoDeniedPermissions = new boolean[deniedPermissions.length];
+		boolean hasAtleastOneAutoDeniedPermission = false;
+		for (int i = 0; i < deniedPermissions.length; i++) {
+			final boolean isAutoDenied = autoDeniedPermissions.contains(deniedPermissions[i]);
+			isAutoDeniedPermissions[i] = isAutoDenied;
+			hasAtleastOneAutoDeniedPermission |= isAutoDenied;
+		}
+
+		if (mOutcome != null || mFollowers != null) {
+			recordDeniedPermissions(requestCode, deniedPermissions, isAutoDeniedPermissions);
+		}
+
+		notifyPermissionDenied(mListener, requestCode, deniedPermissions, isAutoDeniedPermissions);
+		if (mFollowers != null) {
+			// Identical flows get the same result, the snackbar below is only shown once for all of them
+			for (int i = 0; i < mFollowers.size(); i++) {
+				notifyPermissionDenied(mFollowers.get(i).mListener, requestCode, deniedPermissions,
+						isAutoDeniedPermissions);
+			}
+		}
+
+		// Show the snackbar with a 'settings' button the user can tap to go to their app's setting screen and turn
+		// the permissions on from
+		if (hasAtleastOneAutoDeniedPermission
+				&& requestCode == PermissMe.REQUIRED_PERMISSION_REQUEST_CODE
+				&& mState.mShowUIOnFailure) {
+			PermissMeUtils.showPermissionDeniedSnackbar(activity, mState.mCustomAutoDeniedMessage, mState.mConfig);
+		}
+	}
+
+	/**
+	 * Internal method that handles the success case of required permissions being granted and/or optional
+	 * permissions getting a result
+	 *
+	 * @param activity the activity the flow runs in
+	 */
+	@VisibleForTesting
+	/*package*/ void onSuccess(@Nullable final ComponentActivity activity) {
+		if (mListener != null) {
+			mListener.onSuccess();
+		}
+
+		if (hasDestination()) {
+			// Launch the destination activity! Onwards!
+			launchDestinationIntent(activity);
+		}
+
+		if (mFollowers != null) {
+			for (int i = 0; i < mFollowers.size(); i++) {
+				final PermissionFlow follower = mFollowers.get(i);
+				if (follower.mListener != null) {
+					follower.mListener.onSuccess();
+				}
+				// Identical flows share the destination launched above, unless they asked for their own
+				if (follower.mLaunchDestinationPerCaller && follower.hasDestination()) {
+					follower.launchDestinationIntent(activity);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Launches the destination intent/activity specified through the builder
+	 *
+	 * @param activity the activity the flow runs in
+	 */
+	@VisibleForTesting
+	/*package*/ void launchDestinationIntent(@Nullable final ComponentActivity activity) {
+		// Launch the destination intent/activity! Onwards!
+		final Intent destinationIntent;
+		if (mLaunchIntent != null) {
+			destinationIntent = mLaunchIntent;
+			PayloadHandoff.putExtras(activity, destinationIntent, null);
+		} else {
+			destinationIntent = new Intent().setComponent(mState.mDestination);
+			PayloadHandoff.putExtras(activity, destinationIntent, mState.mDestinationExtras);
+		}
+
+		// Overlap the destination's data loading with its launch and transition
+		if (mDestinationWarmup != null && activity != null) {
+			WarmupRegistry.start(activity, destinationIntent, mDestinationWarmup);
+		}
+
+		PermissMeMetrics.getInstance().recordStage(PermissMeMetrics.STAGE_RESULT_TO_LAUNCH, mResultNanos,
+				PermissMeMetrics.now());
+		PermissMe.launchIntentWithParameters(destinationIntent,
+				activity,
+				mState.mLaunchOptions,
+				mTargetFragment,
+				mState.mEnterAnim,
+				mState.mExitAnim,
+				mState.mRequestCode,
+				mState.mFinishCallerActivity,
+				mId
+		);
+	}
+
+	/**
+	 * @return {@code true} if the flow launches a destination activity or intent once the permissions are granted
+	 */
+	private boolean hasDestination() {
+		return mState.mDestination != null || mLaunchIntent != null;
+	}
+
+	/**
+	 * Called once the flow got all of its callbacks; completes the outcomes of the flow and of the flows attached to
+	 * it, then lets go of the listeners
+	 */
+	/*package*/ void onFinished() {
+		if (mOutcome != null || mFollowers != null) {
+			final PermissionDecision decision = mDeniedRequiredPermissions.isEmpty()
+					&& mDeniedOptionalPermissions.isEmpty()
+					? PermissionDecision.GRANTED
+					: new PermissionDecision(mDeniedRequiredPermissions, mDeniedOptionalPermissions,
+							mAutoDeniedPermissions);
+			completeOutcomes(decision);
+		}
+		cleanUp();
+	}
+
+	/**
+	 * Called when the permissions dialog got cancelled; the flow gets no callbacks, its outcomes are cancelled
+	 */
+	/*package*/ void onCancelled() {
+		PermissMeEventLog.getInstance().record(PermissMeEventLog.EVENT_CANCEL, mId, 0);
+		completeOutcomes(null);
+		cleanUp();
+	}
+
+	/**
+	 * Don't hold a reference to the listeners anymore
+	 */
+	/*package*/ void cleanUp() {
+		PermissMeTrace.endFlow(mId);
+		mListener = null;
+		mResultListener = null;
+		if (mFollowers != null) {
+			for (int i = 0; i < mFollowers.size(); i++) {
+				mFollowers.get(i).cleanUp();
+			}
+		}
+	}
+
+	/**
+	 * Completes the outcomes of the flow and the flows attached to it with the decision, or cancels them if null
+	 */
+	private void completeOutcomes(@Nullable final PermissionDecision decision) {
+		if (mOutcome != null) {
+			if (decision != null) {
+				mOutcome.complete(decision);
+			} else {
+				mOutcome.cancel(false);
+			}
+		}
+		if (mFollowers != null) {
+			for (int i = 0; i < mFollowers.size(); i++) {
+				mFollowers.get(i).completeOutcomes(decision);
+			}
+		}
+	}
+
+	private void recordDeniedPermissions(final int requestCode,
+	                                     @NonNull final String[] deniedPermissions,
+	                                     @NonNull final boolean[] isAutoDeniedPermissions) {
+		final PermissionSet denied = PermissionSet.of(deniedPermissions);
+		if (requestCode == PermissMe.REQUIRED_PERMISSION_REQUEST_CODE) {
+			mDeniedRequiredPermissions = mDeniedRequiredPermissions.union(denied);
+		} else {
+			mDeniedOptionalPermissions = mDeniedOptionalPermissions.union(denied);
+		}
+		for (int i = 0; i < deniedPermissions.length; i++) {
+			if (isAutoDeniedPermissions[i]) {
+				mAutoDeniedPermissions = mAutoDeniedPermissions.union(PermissionSet.of(deniedPermissions[i]));
+			}
+		}
+	}
+
+	private static void notifyPermissionDenied(@Nullable final PermissMe.PermissionListener listener,
+	                                           final int requestCode,
+	                                           @NonNull final String[] deniedPermissions,
+	                                           @NonNull final boolean[] isAutoDeniedPermissions) {
+		if (listener == null) {
+			return;
+		}
+		if (requestCode == PermissMe.OPTIONAL_PERMISSION_REQUEST_CODE) {
+			listener.onOptionalPermissionDenied(deniedPermissions, isAutoDeniedPermissions);
+		} else if (requestCode == PermissMe.REQUIRED_PERMISSION_REQUEST_CODE) {
+			listener.onRequiredPermissionDenied(deniedPermissions, isAutoDeniedPermissions);
+		}
+	}
+
+	private static boolean isSameIntent(@Nullable final Intent intent, @Nullable final Intent otherIntent) {
+		if (intent == null || otherIntent == null) {
+			return intent == otherIntent;
+		}
+		return intent.filterEquals(otherIntent) && isSameBundle(intent.getExtras(), otherIntent.getExtras());
+	}
+
+	/**
+	 * Shallow comparison of two bundles; nested containers are only equal if they are the same instance, so that
+	 * flows are only considered identical when that is certain
+	 */
+	/*package*/ static boolean isSameBundle(@Nullable final Bundle bundle, @Nullable final Bundle otherBundle) {
+		if (bundle == otherBundle) {
+			return true;
+		}
+		if (bundle == null || otherBundle == null) {
+			return bundle == otherBundle;
+		}
+		if (!bundle.keySet().equals(otherBundle.keySet())) {
+			return false;
+		}
+		for (final String key : bundle.keySet()) {
+			final Object value = bundle.get(key);
+			final Object otherValue = otherBundle.get(key);
+			if (value == null ? otherValue != null : !value.equals(otherValue)) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
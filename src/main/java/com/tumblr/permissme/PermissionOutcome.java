@@ -0,0 +1,432 @@
+package com.tumblr.permissme;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A handle on the eventual outcome of a permissions request, returned by {@link PermissMe.Builder#request()}, or on
+ * work chained after it. It follows the {@code CompletableFuture} API, which is not available on every API level
+ * PermissMe supports:
+ * <pre>
+ * PermissMe.with(activity)
+ * 		.setRequiredPermissions(Manifest.permission.READ_CONTACTS)
+ * 		.request()
+ * 		.thenApplyAsync(new PermissionOutcome.Function&lt;PermissionDecision, List&lt;Contact&gt;&gt;() {
+ * 			&#64;Override
+ * 			public List&lt;Contact&gt; apply(final PermissionDecision decision) {
+ * 				return decision.isGranted() ? loadContacts() : Collections.&lt;Contact&gt;emptyList();
+ * 			}
+ * 		});
+ * </pre>
+ * Functions chained through {@code thenApply} run on the thread that completes the outcome, i.e. the main thread for
+ * a permissions request, or right away if it is already complete; {@code thenApplyAsync} runs them on an executor,
+ * by default {@link PermissMeDispatcher#getBackgroundExecutor()}. A failure or a cancellation is passed on to every
+ * dependent outcome.
+ * <p>
+ * Don't block the main thread on {@link #get()}: permission results are delivered on the main thread.
+ *
+ * @param <T>
+ * 		the type of the value
+ */
+public final class PermissionOutcome<T> implements Future<T> {
+
+	/**
+	 * A function applied to the value of an outcome
+	 *
+	 * @param <T>
+	 * 		the type of the value
+	 * @param <R>
+	 * 		the type of the result
+	 */
+	public interface Function<T, R> {
+		/**
+		 * @param value
+		 * 		the value of the outcome
+		 * @return the result; an exception thrown here fails the dependent outcome
+		 * @throws Exception
+		 * 		if the function failed
+		 */
+		R apply(T value) throws Exception;
+	}
+
+	/**
+	 * A callback for the completion of an outcome, whichever way it completed
+	 *
+	 * @param <T>
+	 * 		the type of the value
+	 */
+	public interface Callback<T> {
+		/**
+		 * @param value
+		 * 		the value of the outcome, null if it failed
+		 * @param error
+		 * 		the failure of the outcome, a {@link CancellationException} if it was cancelled; null if it succeeded
+		 */
+		void onComplete(@Nullable T value, @Nullable Throwable error);
+	}
+
+	private static final int PENDING = 0;
+	private static final int SUCCEEDED = 1;
+	private static final int FAILED = 2;
+	private static final int CANCELLED = 3;
+
+	private final Object mLock = new Object();
+
+	/**
+	 * One of {@link #PENDING}, {@link #SUCCEEDED}, {@link #FAILED} or {@link #CANCELLED}; guarded by {@link #mLock}
+	 */
+	private int mState = PENDING;
+
+	@Nullable
+	private T mValue;
+
+	@Nullable
+	private Throwable mError;
+
+	/**
+	 * The work to run on completion; guarded by {@link #mLock} and dropped once complete
+	 */
+	@Nullable
+	private ArrayList<Runnable> mContinuations;
+
+	/*package*/ PermissionOutcome() {
+
+	}
+
+	/**
+	 * @param value
+	 * 		the value
+	 * @param <T>
+	 * 		the type of the value
+	 * @return an outcome that is already complete with the given value
+	 */
+	@NonNull
+	public static <T> PermissionOutcome<T> completed(@Nullable final T value) {
+		final PermissionOutcome<T> outcome = new PermissionOutcome<>();
+		outcome.complete(value);
+		return outcome;
+	}
+
+	/**
+	 * @param outcomes
+	 * 		the outcomes to wait for, e.g. independent gated operations running in parallel
+	 * @return an outcome that completes once all of the given outcomes are complete; it fails with the first failure
+	 */
+	@NonNull
+	public static PermissionOutcome<Void> allOf(@NonNull final PermissionOutcome<?>... outcomes) {
+		final PermissionOutcome<Void> all = new PermissionOutcome<>();
+		if (outcomes.length == 0) {
+			all.complete(null);
+			return all;
+		}
+
+		final AtomicInteger remaining = new AtomicInteger(outcomes.length);
+		for (final PermissionOutcome<?> outcome : outcomes) {
+			outcome.addContinuation(new Runnable() {
+				@Override
+				public void run() {
+					final Throwable error = outcome.getError();
+					if (error != null) {
+						all.completeWith(null, error);
+					} else if (remaining.decrementAndGet() == 0) {
+						all.complete(null);
+					}
+				}
+			});
+		}
+		return all;
+	}
+
+	/**
+	 * Completes the outcome with the given value, unless it is already complete
+	 *
+	 * @return {@code true} if this call completed the outcome
+	 */
+	/*package*/ boolean complete(@Nullable final T value) {
+		return completeWith(value, null);
+	}
+
+	/**
+	 * Fails the outcome with the given error, unless it is already complete
+	 *
+	 * @return {@code true} if this call completed the outcome
+	 */
+	/*package*/ boolean completeExceptionally(@NonNull final Throwable error) {
+		return completeWith(null, error);
+	}
+
+	@Override
+	public boolean cancel(final boolean mayInterruptIfRunning) {
+		return completeWith(null, new CancellationException());
+	}
+
+	@Override
+	public boolean isCancelled() {
+		synchronized (mLock) {
+			return mState == CANCELLED;
+		}
+	}
+
+	@Override
+	public boolean isDone() {
+		synchronized (mLock) {
+			return mState != PENDING;
+		}
+	}
+
+	@Override
+	public T get() throws InterruptedException, ExecutionException {
+		synchronized (mLock) {
+			while (mState == PENDING) {
+				mLock.wait();
+			}
+			return getResult();
+		}
+	}
+
+	@Override
+	public T get(final long timeout, @NonNull final TimeUnit unit)
+			throws InterruptedException, ExecutionException, TimeoutException {
+		final long deadline = System.nanoTime() + unit.toNanos(timeout);
+		synchronized (mLock) {
+			long remainingNanos = unit.toNanos(timeout);
+			while (mState == PENDING) {
+				if (remainingNanos <= 0) {
+					throw new TimeoutException();
+				}
+				TimeUnit.NANOSECONDS.timedWait(mLock, remainingNanos);
+				remainingNanos = deadline - System.nanoTime();
+			}
+			return getResult();
+		}
+	}
+
+	/**
+	 * @param valueIfPending
+	 * 		the value to return if the outcome is not complete yet
+	 * @return the value of the outcome if it succeeded, or the given value if it is not complete yet
+	 * @throws ExecutionException
+	 * 		if the outcome failed
+	 * @throws CancellationException
+	 * 		if the outcome was cancelled
+	 */
+	@Nullable
+	public T getNow(@Nullable final T valueIfPending) throws ExecutionException {
+		synchronized (mLock) {
+			return mState == PENDING ? valueIfPending : getResult();
+		}
+	}
+
+	/**
+	 * @param function
+	 * 		the function to apply to the value, on the thread that completes this outcome
+	 * @param <R>
+	 * 		the type of the result
+	 * @return an outcome with the result of the function
+	 */
+	@NonNull
+	public <R> PermissionOutcome<R> thenApply(@NonNull final Function<? super T, ? extends R> function) {
+		return thenApply(function, null);
+	}
+
+	/**
+	 * @param function
+	 * 		the function to apply to the value, on {@link PermissMeDispatcher#getBackgroundExecutor()}
+	 * @param <R>
+	 * 		the type of the result
+	 * @return an outcome with the result of the function
+	 */
+	@NonNull
+	public <R> PermissionOutcome<R> thenApplyAsync(@NonNull final Function<? super T, ? extends R> function) {
+		return thenApply(function, PermissMeDispatcher.getInstance().getBackgroundExecutor());
+	}
+
+	/**
+	 * @param function
+	 * 		the function to apply to the value
+	 * @param executor
+	 * 		the executor to apply the function on
+	 * @param <R>
+	 * 		the type of the result
+	 * @return an outcome with the result of the function
+	 */
+	@NonNull
+	public <R> PermissionOutcome<R> thenApplyAsync(@NonNull final Function<? super T, ? extends R> function,
+	                                              @NonNull final Executor executor) {
+		return thenApply(function, executor);
+	}
+
+	/**
+	 * @param function
+	 * 		the function that starts more asynchronous work from the value, on the thread that completes this outcome
+	 * @param <R>
+	 * 		the type of the result
+	 * @return an outcome that completes like the outcome returned by the function
+	 */
+	@NonNull
+	public <R> PermissionOutcome<R> thenCompose(
+			@NonNull final Function<? super T, ? extends PermissionOutcome<R>> function) {
+		final PermissionOutcome<R> dependent = new PermissionOutcome<>();
+		addContinuation(new Runnable() {
+			@Override
+			public void run() {
+				if (dependent.failIfFailed(PermissionOutcome.this)) {
+					return;
+				}
+				try {
+					final PermissionOutcome<R> next = function.apply(mValue);
+					next.addContinuation(new Runnable() {
+						@Override
+						public void run() {
+							if (!dependent.failIfFailed(next)) {
+								dependent.complete(next.mValue);
+							}
+						}
+					});
+				} catch (final Exception e) {
+					dependent.completeExceptionally(e);
+				}
+			}
+		});
+		return dependent;
+	}
+
+	/**
+	 * @param callback
+	 * 		the callback to call once the outcome completes, on the thread that completes it
+	 * @return an outcome that completes like this one once the callback returns
+	 */
+	@NonNull
+	public PermissionOutcome<T> whenComplete(@NonNull final Callback<? super T> callback) {
+		final PermissionOutcome<T> dependent = new PermissionOutcome<>();
+		addContinuation(new Runnable() {
+			@Override
+			public void run() {
+				final Throwable error = getError();
+				try {
+					callback.onComplete(error == null ? mValue : null, error);
+				} catch (final RuntimeException e) {
+					dependent.completeWith(null, error != null ? error : e);
+					return;
+				}
+				dependent.completeWith(mValue, error);
+			}
+		});
+		return dependent;
+	}
+
+	@NonNull
+	private <R> PermissionOutcome<R> thenApply(@NonNull final Function<? super T, ? extends R> function,
+	                                          @Nullable final Executor executor) {
+		final PermissionOutcome<R> dependent = new PermissionOutcome<>();
+		final Runnable apply = new Runnable() {
+			@Override
+			public void run() {
+				try {
+					dependent.complete(function.apply(mValue));
+				} catch (final Exception e) {
+					dependent.completeExceptionally(e);
+				}
+			}
+		};
+		addContinuation(new Runnable() {
+			@Override
+			public void run() {
+				if (dependent.failIfFailed(PermissionOutcome.this)) {
+					return;
+				}
+				if (executor == null) {
+					apply.run();
+				} else {
+					executor.execute(apply);
+				}
+			}
+		});
+		return dependent;
+	}
+
+	/**
+	 * Fails this outcome the same way as the given complete outcome, if it failed
+	 *
+	 * @return {@code true} if the given outcome failed
+	 */
+	private boolean failIfFailed(@NonNull final PermissionOutcome<?> source) {
+		final Throwable error = source.getError();
+		if (error == null) {
+			return false;
+		}
+		completeWith(null, error);
+		return true;
+	}
+
+	/**
+	 * @return the failure of this complete outcome, null if it succeeded
+	 */
+	@Nullable
+	private Throwable getError() {
+		synchronized (mLock) {
+			return mError;
+		}
+	}
+
+	private boolean completeWith(@Nullable final T value, @Nullable final Throwable error) {
+		final ArrayList<Runnable> continuations;
+		synchronized (mLock) {
+			if (mState != PENDING) {
+				return false;
+			}
+			mValue = value;
+			mError = error;
+			if (error == null) {
+				mState = SUCCEEDED;
+			} else {
+				mState = error instanceof CancellationException ? CANCELLED : FAILED;
+			}
+			continuations = mContinuations;
+			mContinuations = null;
+			mLock.notifyAll();
+		}
+
+		if (continuations != null) {
+			for (int i = 0; i < continuations.size(); i++) {
+				continuations.get(i).run();
+			}
+		}
+		return true;
+	}
+
+	private void addContinuation(@NonNull final Runnable continuation) {
+		synchronized (mLock) {
+			if (mState == PENDING) {
+				if (mContinuations == null) {
+					mContinuations = new ArrayList<>();
+				}
+				mContinuations.add(continuation);
+				return;
+			}
+		}
+		continuation.run();
+	}
+
+	/**
+	 * Must hold {@link #mLock} and be complete
+	 */
+	private T getResult() throws ExecutionException {
+		if (mState == CANCELLED) {
+			throw (CancellationException) mError;
+		}
+		if (mState == FAILED) {
+			throw new ExecutionException(mError);
+		}
+		return mValue;
+	}
+}
@@ -0,0 +1,203 @@
+package com.tumblr.permissme;
+
+import android.os.Build;
+
+import androidx.activity.ComponentActivity;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * A prepared, immutable permissions request. Unlike {@link PermissMe.Builder}, a request is compiled once, typically
+ * into a {@code static final} field, and can then be executed any number of times:
+ * <pre>
+ * private static final PermissionRequest CAMERA_REQUEST = new PermissionRequest.Builder()
+ * 		.setRequiredPermissions(Manifest.permission.CAMERA)
+ * 		.build();
+ *
+ * CAMERA_REQUEST.execute(activity, listener);
+ * </pre>
+ * When all the permissions are already granted, {@link #execute(ComponentActivity, PermissMe.PermissionListener)}
+ * answers from the {@link PermissionStateCache} and calls {@link PermissMe.PermissionListener#onSuccess()} directly,
+ * without allocating anything. Otherwise it starts the same flow as {@link PermissMe.Builder#verifyPermissions()}.
+ * While a {@link PermissMeInterceptor} is installed, there is no fast path: the request is always checked by the
+ * builder, through the interceptors.
+ */
+public final class PermissionRequest {
+
+	@NonNull
+	private final PermissionSet mRequiredPermissions;
+
+	@NonNull
+	private final PermissionSet mOptionalPermissions;
+
+	/**
+	 * The union of the required and optional permissions, checked on the fast path
+	 */
+	@NonNull
+	private final PermissionSet mAllPermissions;
+
+	/**
+	 * The permissions in the order they were set, for the arrays handed to the listeners
+	 */
+	@Nullable
+	private final String[] mRequiredPermissionOrder;
+	@Nullable
+	private final String[] mOptionalPermissionOrder;
+
+	@Nullable
+	private final String mCustomAutoDeniedMessage;
+
+	private final boolean mNoUIForFailure;
+
+	private PermissionRequest(@NonNull final Builder builder) {
+		mRequiredPermissions = builder.mRequiredPermissions;
+		mOptionalPermissions = builder.mOptionalPermissions;
+		mRequiredPermissionOrder = builder.mRequiredPermissionOrder;
+		mOptionalPermissionOrder = builder.mOptionalPermissionOrder;
+		mAllPermissions = mRequiredPermissions.union(mOptionalPermissions);
+		mCustomAutoDeniedMessage = builder.mCustomAutoDeniedMessage;
+		mNoUIForFailure = builder.mNoUIForFailure;
+	}
+
+	/**
+	 * Executes the request. If the package already has all the permissions granted, the listener is called
+	 * synchronously and nothing is allocated; otherwise the permissions flow is started, see
+	 * {@link PermissMe.Builder#verifyPermissions()}.
+	 *
+	 * @param callerActivity
+	 * 		the caller activity
+	 * @param listener
+	 * 		the listener to receive the result of the request, can be null
+	 */
+	public void execute(@NonNull final ComponentActivity callerActivity,
+	                    @Nullable final PermissMe.PermissionListener listener) {
+		if (isGranted(callerActivity)) {
+			if (listener != null) {
+				listener.onSuccess();
+			}
+			return;
+		}
+		newBuilder(callerActivity).listener(listener).verifyPermissions();
+	}
+
+	/**
+	 * A {@link PermissMe.Builder} set up with this request, to add more parameters such as a destination activity
+	 *
+	 * @param callerActivity
+	 * 		the caller activity
+	 * @return the builder
+	 */
+	@NonNull
+	public PermissMe.Builder newBuilder(@NonNull final ComponentActivity callerActivity) {
+		final PermissMe.Builder builder = PermissMe.with(callerActivity)
+				.setPermissions(mRequiredPermissions, mOptionalPermissions, mRequiredPermissionOrder,
+						mOptionalPermissionOrder)
+				.customAutoFailureMessage(mCustomAutoDeniedMessage);
+		return mNoUIForFailure ? builder.showNoUIOnFailure() : builder;
+	}
+
+	/**
+	 * @return the required permissions of this request
+	 */
+	@NonNull
+	public PermissionSet getRequiredPermissions() {
+		return mRequiredPermissions;
+	}
+
+	/**
+	 * @return the optional permissions of this request
+	 */
+	@NonNull
+	public PermissionSet getOptionalPermissions() {
+		return mOptionalPermissions;
+	}
+
+	private boolean isGranted(@NonNull final ComponentActivity callerActivity) {
+		if (PermissMeInterceptor.getInstalled().length != 0) {
+			// Left to the check of the builder, so that the interceptors see it once
+			return false;
+		}
+		// An installed backend answers on every API level, like in the check of the builder
+		return Build.VERSION.SDK_INT < Build.VERSION_CODES.M && PermissionBackend.getInstalled() == null
+				|| PermissionStateCache.getInstance().isAllGranted(callerActivity, mAllPermissions);
+	}
+
+	/**
+	 * The Builder to compile a {@link PermissionRequest}
+	 */
+	public static final class Builder {
+		@NonNull
+		private PermissionSet mRequiredPermissions = PermissionSet.EMPTY;
+
+		@NonNull
+		private PermissionSet mOptionalPermissions = PermissionSet.EMPTY;
+
+		@Nullable
+		private String[] mRequiredPermissionOrder;
+
+		@Nullable
+		private String[] mOptionalPermissionOrder;
+
+		@Nullable
+		private String mCustomAutoDeniedMessage;
+
+		private boolean mNoUIForFailure;
+
+		/**
+		 * See {@link PermissMe.Builder#setRequiredPermissions(String...)}
+		 *
+		 * @param requiredPermissions
+		 * 		the required permissions
+		 * @return this, for chaining
+		 */
+		public Builder setRequiredPermissions(final String... requiredPermissions) {
+			mRequiredPermissions = PermissionSet.of(requiredPermissions);
+			// Copied, the request outlives the array
+			mRequiredPermissionOrder = requiredPermissions != null ? requiredPermissions.clone() : null;
+			return this;
+		}
+
+		/**
+		 * See {@link PermissMe.Builder#setOptionalPermissions(String...)}
+		 *
+		 * @param optionalPermissions
+		 * 		the optional permissions
+		 * @return this, for chaining
+		 */
+		public Builder setOptionalPermissions(final String... optionalPermissions) {
+			mOptionalPermissions = PermissionSet.of(optionalPermissions);
+			mOptionalPermissionOrder = optionalPermissions != null ? optionalPermissions.clone() : null;
+			return this;
+		}
+
+		/**
+		 * See {@link PermissMe.Builder#showNoUIOnFailure()}
+		 *
+		 * @return this, for chaining
+		 */
+		public Builder showNoUIOnFailure() {
+			mNoUIForFailure = true;
+			return this;
+		}
+
+		/**
+		 * See {@link PermissMe.Builder#customAutoFailureMessage(String)}
+		 *
+		 * @param failureMsg
+		 * 		The custom message that should show up for the auto-denied permission snackbar
+		 * @return this, for chaining
+		 */
+		public Builder customAutoFailureMessage(final String failureMsg) {
+			mCustomAutoDeniedMessage = failureMsg;
+			return this;
+		}
+
+		/**
+		 * @return the compiled request
+		 */
+		@NonNull
+		public PermissionRequest build() {
+			return new PermissionRequest(this);
+		}
+	}
+}
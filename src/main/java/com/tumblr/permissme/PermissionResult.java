@@ -0,0 +1,190 @@
+package com.tumblr.permissme;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.core.util.Pools;
+
+/**
+ * The result of a permission request dialog, delivered to a {@link PermissMe.PermissionResultListener}.
+ * <p>
+ * Results are pooled and recycled as soon as
+ * {@link PermissMe.PermissionResultListener#onPermissionResult(PermissionResult)} returns, so flows that get denied
+ * over and over don't create garbage on the UI thread. Do not keep a reference to a result after the callback
+ * returns; copy whatever you need instead.
+ */
+public final class PermissionResult {
+
+	/**
+	 * The permission was not part of the request
+	 */
+	public static final int STATUS_NOT_APPLICABLE = 0;
+
+	/**
+	 * The user granted the permission
+	 */
+	public static final int STATUS_GRANTED = 1;
+
+	/**
+	 * The user denied the permission
+	 */
+	public static final int STATUS_DENIED = 2;
+
+	/**
+	 * The permission was auto-denied, ergo, the user previously or currently checked "Never ask again" on the
+	 * permission dialog
+	 */
+	public static final int STATUS_AUTO_DENIED = 3;
+
+	private static final int MAX_POOL_SIZE = 4;
+
+	private static final int INITIAL_CAPACITY = 8;
+
+	private static final Pools.SynchronizedPool<PermissionResult> POOL = new Pools.SynchronizedPool<>(MAX_POOL_SIZE);
+
+	/**
+	 * The permissions of the request; only the first {@link #mSize} entries are valid
+	 */
+	@NonNull
+	private String[] mPermissions = new String[INITIAL_CAPACITY];
+
+	/**
+	 * The status of each permission, one of the {@code STATUS_*} constants
+	 */
+	@NonNull
+	private int[] mStatuses = new int[INITIAL_CAPACITY];
+
+	private int mSize;
+
+	private boolean mIsRequired;
+
+	private PermissionResult() {
+
+	}
+
+	/**
+	 * Gets a result from the pool, or creates one if the pool is empty
+	 *
+	 * @param isRequired
+	 * 		whether the result is about required permissions
+	 * @param size
+	 * 		the number of permissions of the request
+	 * @return an empty result
+	 */
+	@NonNull
+	/*package*/ static PermissionResult obtain(final boolean isRequired, final int size) {
+		PermissionResult result = POOL.acquire();
+		if (result == null) {
+			result = new PermissionResult();
+		}
+		if (result.mPermissions.length < size) {
+			result.mPermissions = new String[size];
+			result.mStatuses = new int[size];
+		}
+		result.mIsRequired = isRequired;
+		result.mSize = size;
+		return result;
+	}
+
+	/**
+	 * Sets the status of the permission at the given index
+	 */
+	/*package*/ void set(final int index, @NonNull final String permission, final int status) {
+		mPermissions[index] = permission;
+		mStatuses[index] = status;
+	}
+
+	/**
+	 * Clears the result and returns it to the pool; it must not be used anymore
+	 */
+	/*package*/ void recycle() {
+		for (int i = 0; i < mSize; i++) {
+			mPermissions[i] = null;
+		}
+		mSize = 0;
+		POOL.release(this);
+	}
+
+	/**
+	 * @return {@code true} if the request was for required permissions, {@code false} for optional ones
+	 */
+	public boolean isRequired() {
+		return mIsRequired;
+	}
+
+	/**
+	 * @return the number of permissions of the request
+	 */
+	public int size() {
+		return mSize;
+	}
+
+	/**
+	 * @param index
+	 * 		the index of the permission, from 0 to {@link #size()}
+	 * @return the permission at the index
+	 */
+	@NonNull
+	public String getPermission(final int index) {
+		checkIndex(index);
+		return mPermissions[index];
+	}
+
+	/**
+	 * @param index
+	 * 		the index of the permission, from 0 to {@link #size()}
+	 * @return the status of the permission at the index, one of the {@code STATUS_*} constants
+	 */
+	public int getStatus(final int index) {
+		checkIndex(index);
+		return mStatuses[index];
+	}
+
+	/**
+	 * @param permission
+	 * 		the permission
+	 * @return the status of the permission, or {@link #STATUS_NOT_APPLICABLE} if it was not part of the request
+	 */
+	public int getStatus(@Nullable final String permission) {
+		for (int i = 0; i < mSize; i++) {
+			if (mPermissions[i].equals(permission)) {
+				return mStatuses[i];
+			}
+		}
+		return STATUS_NOT_APPLICABLE;
+	}
+
+	/**
+	 * @return {@code true} if every permission of the request was granted
+	 */
+	public boolean isGranted() {
+		return getCount(STATUS_GRANTED) == mSize;
+	}
+
+	/**
+	 * @return {@code true} if at least one permission of the request was auto-denied
+	 */
+	public boolean hasAutoDenied() {
+		return getCount(STATUS_AUTO_DENIED) > 0;
+	}
+
+	/**
+	 * @param status
+	 * 		one of the {@code STATUS_*} constants
+	 * @return the number of permissions of the request that have the given status
+	 */
+	public int getCount(final int status) {
+		int count = 0;
+		for (int i = 0; i < mSize; i++) {
+			if (mStatuses[i] == status) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private void checkIndex(final int index) {
+		if (index < 0 || index >= mSize) {
+			throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + mSize);
+		}
+	}
+}
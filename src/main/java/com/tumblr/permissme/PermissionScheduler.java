@@ -0,0 +1,545 @@
+package com.tumblr.permissme;
+
+import androidx.activity.ComponentActivity;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.core.content.PermissionChecker;
+
+import com.tumblr.permissme.utils.PermissMeUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Schedules the {@link PermissionFlow}s of one activity, so that flows started by different callers at about the same
+ * time, e.g. two fragments of the same screen, share their system dialogs instead of overwriting each other.
+ * <p>
+ * Flows are collected until the next time the scheduler runs on the main thread, see {@link PermissMeDispatcher};
+ * every flow collected by then is part of the same batch. The batch asks the union of the ungranted required
+ * permissions in one {@code requestPermissions} call, then the union of the ungranted optional permissions of the
+ * flows that got their required permissions, and each flow is called back with its own part of the results. A
+ * permission the required dialog denied is not asked again by the optional dialog of the same batch, it is reported
+ * denied to the flows that have it as optional. Flows started while a batch is showing a dialog are collected into the
+ * next batch.
+ * <p>
+ * A flow that asks the same permissions and launches the same destination as a flow that is still in flight, e.g.
+ * after a double tap, is not requested again; it is attached to that flow and receives its results, see
+ * {@link PermissionFlow#attach(PermissionFlow)}.
+ * <p>
+ * A dialog whose permissions the {@link DecisionJournal} all knows as auto-denied is not shown: the system would deny
+ * them without showing anything, so the flows get their denied callbacks right away. The same goes for a dialog an
+ * installed {@link PermissMeInterceptor} vetoes, whose permissions are reported denied but not auto-denied, and for the
+ * permissions an interceptor drops from a dialog.
+ * <p>
+ * The scheduler is only used from the main thread.
+ */
+/*package*/ final class PermissionScheduler {
+
+	/**
+	 * What the scheduler needs from the component it requests permissions through, i.e. the {@link PermissMe}
+	 * fragment
+	 */
+	/*package*/ interface Host {
+		/**
+		 * @return the activity the permissions are requested in, or null if it is gone
+		 */
+		@Nullable
+		ComponentActivity getHostActivity();
+
+		/**
+		 * @param permissions
+		 * 		the permissions to check
+		 * @return the permissions that are not granted yet
+		 */
+		@NonNull
+		PermissionSet getUngrantedPermissions(@NonNull PermissionSet permissions);
+
+		/**
+		 * Shows the system permissions dialog; the result must be handed to
+		 * {@link PermissionScheduler#onRequestPermissionsResult(int, String[], int[])}
+		 *
+		 * @param permissions
+		 * 		the permissions to request
+		 * @param requestCode
+		 * 		the request code of the result
+		 */
+		void requestPermissions(@NonNull String[] permissions, int requestCode);
+	}
+
+	private static final String[] NO_PERMISSIONS = new String[0];
+	private static final int[] NO_GRANT_RESULTS = new int[0];
+
+	@NonNull
+	private final Host mHost;
+
+	/**
+	 * The flows waiting for the next batch
+	 */
+	private final ArrayList<PermissionFlow> mPendingFlows = new ArrayList<>();
+
+	/**
+	 * The flows of the current batch
+	 */
+	private final ArrayList<PermissionFlow> mActiveFlows = new ArrayList<>();
+
+	/**
+	 * The request code of the dialog the current batch is waiting on, 0 if none
+	 */
+	private int mPendingRequestCode;
+
+	/**
+	 * The rationale flags of the permissions of the dialog the current batch is waiting on, read before it was shown
+	 */
+	@NonNull
+	private RationaleSnapshot mRationaleBefore = RationaleSnapshot.EMPTY;
+
+	/**
+	 * The permissions of the dialog being shown that an interceptor dropped from it; they are reported denied along
+	 * with the results of the dialog
+	 */
+	@NonNull
+	private PermissionSet mDroppedPermissions = PermissionSet.EMPTY;
+
+	/**
+	 * The permissions denied by the required dialog of the current batch, and which of them were auto-denied; they
+	 * are not asked again by its optional dialog, see {@link #requestOptionalPermissions()}
+	 */
+	@NonNull
+	private PermissionSet mBatchDeniedPermissions = PermissionSet.EMPTY;
+	@NonNull
+	private PermissionSet mBatchAutoDeniedPermissions = PermissionSet.EMPTY;
+
+	/**
+	 * When the dialog the current batch is waiting on was shown, see {@link PermissMeMetrics#STAGE_DIALOG_DWELL}
+	 */
+	private long mDialogNanos;
+
+	/**
+	 * Whether the flows are being called back, so that flows they start wait for the next batch
+	 */
+	private boolean mIsDispatching;
+
+	private boolean mIsDrainScheduled;
+
+	private final Runnable mDrainRunnable = new Runnable() {
+		@Override
+		public void run() {
+			drain();
+		}
+	};
+
+	/*package*/ PermissionScheduler(@NonNull final Host host) {
+		mHost = host;
+	}
+
+	/**
+	 * Adds the flow to the next batch
+	 *
+	 * @param flow
+	 * 		the flow to start
+	 */
+	/*package*/ void enqueue(@NonNull final PermissionFlow flow) {
+		final PermissionFlow inFlightFlow = findSameRequest(flow);
+		if (inFlightFlow != null) {
+			inFlightFlow.attach(flow);
+			return;
+		}
+		mPendingFlows.add(flow);
+		scheduleDrain();
+	}
+
+	/**
+	 * @return a pending or active flow identical to the given one, which it can attach to; null if there is none
+	 */
+	@Nullable
+	private PermissionFlow findSameRequest(@NonNull final PermissionFlow flow) {
+		for (int i = 0; i < mPendingFlows.size(); i++) {
+			if (mPendingFlows.get(i).isSameRequest(flow)) {
+				return mPendingFlows.get(i);
+			}
+		}
+		// Active flows that are being called back are already done
+		if (!mIsDispatching) {
+			for (int i = 0; i < mActiveFlows.size(); i++) {
+				if (mActiveFlows.get(i).isSameRequest(flow)) {
+					return mActiveFlows.get(i);
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return {@code true} if a batch is waiting on a dialog or calling back its flows
+	 */
+	/*package*/ boolean isBusy() {
+		return mPendingRequestCode != 0 || mIsDispatching;
+	}
+
+	/**
+	 * Called once the host is attached to its activity, to start the batch of the flows that waited for it
+	 */
+	/*package*/ void onHostAttached() {
+		scheduleDrain();
+	}
+
+	private void scheduleDrain() {
+		if (mIsDrainScheduled || isBusy() || mPendingFlows.isEmpty()) {
+			return;
+		}
+		mIsDrainScheduled = true;
+		PermissMeUtils.runOnUiThread(mDrainRunnable);
+	}
+
+	/**
+	 * Starts a batch with every pending flow, unless a batch is already running or the host is not attached to an
+	 * activity yet, see {@link #onHostAttached()}
+	 */
+	@VisibleForTesting
+	/*package*/ void drain() {
+		mIsDrainScheduled = false;
+		if (isBusy() || mPendingFlows.isEmpty() || mHost.getHostActivity() == null) {
+			return;
+		}
+		mActiveFlows.addAll(mPendingFlows);
+		mPendingFlows.clear();
+
+		final boolean traced = PermissMeTrace.beginSection("startPermissionsFlow", mActiveFlows);
+		try {
+			PermissionSet requiredPermissions = PermissionSet.EMPTY;
+			for (int i = 0; i < mActiveFlows.size(); i++) {
+				requiredPermissions = requiredPermissions.union(mActiveFlows.get(i).mRequiredPermissions);
+			}
+			requiredPermissions = mHost.getUngrantedPermissions(requiredPermissions);
+
+			if (!requiredPermissions.isEmpty()) {
+				request(requiredPermissions, PermissMe.REQUIRED_PERMISSION_REQUEST_CODE);
+			} else {
+				requestOptionalPermissions();
+			}
+		} finally {
+			PermissMeTrace.endSection(traced);
+		}
+	}
+
+	/**
+	 * Handles the result of a dialog shown through {@link Host#requestPermissions(String[], int)}
+	 *
+	 * @return {@code true} if the result was for this scheduler
+	 */
+	/*package*/ boolean onRequestPermissionsResult(final int requestCode,
+	                                              @NonNull final String[] permissions,
+	                                              @NonNull final int[] grantResults) {
+		if (requestCode != PermissMe.REQUIRED_PERMISSION_REQUEST_CODE
+				&& requestCode != PermissMe.OPTIONAL_PERMISSION_REQUEST_CODE) {
+			return false;
+		}
+		mPendingRequestCode = 0;
+		final PermissMeMetrics metrics = PermissMeMetrics.getInstance();
+		metrics.recordStage(PermissMeMetrics.STAGE_DIALOG_DWELL, mDialogNanos, PermissMeMetrics.now());
+		mDialogNanos = 0;
+
+		final PermissMeEventLog eventLog = PermissMeEventLog.getInstance();
+		for (int i = 0; i < mActiveFlows.size(); i++) {
+			eventLog.record(PermissMeEventLog.EVENT_RESULT, mActiveFlows.get(i).mId, permissions.length);
+		}
+
+		// can occur if permissions check is cancelled in between; the flows of the batch are dropped
+		if (permissions.length == 0) {
+			mRationaleBefore = RationaleSnapshot.EMPTY;
+			for (int i = 0; i < mActiveFlows.size(); i++) {
+				mActiveFlows.get(i).onCancelled();
+			}
+			finishBatch();
+			return true;
+		}
+
+		final ComponentActivity activity = mHost.getHostActivity();
+		final PermissionSet requestedPermissions = PermissionSet.of(permissions);
+		final PermissionSet deniedPermissions = getDeniedPermissions(permissions, grantResults);
+		final DecisionJournal journal = DecisionJournal.peek();
+		// Classified once for every flow of the batch
+		final PermissionSet journalDeniedPermissions = journal != null ? journal.getDenied() : PermissionSet.EMPTY;
+		final PermissMeInterceptor[] interceptors = PermissMeInterceptor.getInstalled();
+		final PermissionSet autoDeniedPermissions = interceptors.length == 0
+				? RationaleSnapshot.getAutoDenied(activity, mRationaleBefore, deniedPermissions, journalDeniedPermissions)
+				: new PermissMeInterceptor.ResultChain(interceptors, 0, activity, requestedPermissions, deniedPermissions,
+						mRationaleBefore, journalDeniedPermissions).proceed().intersect(deniedPermissions);
+		if (journal != null) {
+			// Only a denial the user just fixed is worth skipping the dialog for next time
+			journal.record(requestedPermissions.minus(deniedPermissions), deniedPermissions,
+					mRationaleBefore.getUserFixed(autoDeniedPermissions));
+		}
+		mRationaleBefore = RationaleSnapshot.EMPTY;
+		metrics.recordDecisions(requestedPermissions, deniedPermissions, autoDeniedPermissions);
+
+		final boolean traced = PermissMeTrace.beginSection("onRequestPermissionsResult", mActiveFlows);
+		try {
+			dispatchResult(activity, requestCode, permissions, grantResults, requestedPermissions, deniedPermissions,
+					autoDeniedPermissions);
+		} finally {
+			PermissMeTrace.endSection(traced);
+		}
+		return true;
+	}
+
+	/**
+	 * Calls back the active flows with the result of a dialog, then moves on with the batch
+	 */
+	private void dispatchResult(@Nullable final ComponentActivity activity,
+	                            final int requestCode,
+	                            @NonNull final String[] permissions,
+	                            @NonNull final int[] grantResults,
+	                            @NonNull final PermissionSet requestedPermissions,
+	                            @NonNull final PermissionSet deniedPermissions,
+	                            @NonNull final PermissionSet autoDeniedPermissions) {
+		final boolean isRequired = requestCode == PermissMe.REQUIRED_PERMISSION_REQUEST_CODE;
+		final long resultNanos = PermissMeMetrics.now();
+
+		// The permissions an interceptor dropped from the dialog were not granted, they are reported denied
+		final PermissionSet droppedPermissions = mDroppedPermissions;
+		mDroppedPermissions = PermissionSet.EMPTY;
+
+		// The optional permissions the required dialog denied were not asked again, they are reported denied along
+		// with the ones of the optional dialog
+		final PermissionSet reportedPermissions;
+		final PermissionSet reportedDeniedPermissions;
+		final PermissionSet reportedAutoDeniedPermissions;
+		if (isRequired) {
+			mBatchDeniedPermissions = deniedPermissions.union(droppedPermissions);
+			mBatchAutoDeniedPermissions = autoDeniedPermissions;
+			reportedPermissions = requestedPermissions.union(droppedPermissions);
+			reportedDeniedPermissions = mBatchDeniedPermissions;
+			reportedAutoDeniedPermissions = autoDeniedPermissions;
+		} else {
+			final PermissionSet carriedPermissions = mBatchDeniedPermissions.minus(requestedPermissions)
+					.union(droppedPermissions);
+			reportedPermissions = requestedPermissions.union(carriedPermissions);
+			reportedDeniedPermissions = deniedPermissions.union(carriedPermissions);
+			reportedAutoDeniedPermissions = autoDeniedPermissions.union(
+					mBatchAutoDeniedPermissions.intersect(carriedPermissions));
+		}
+
+		mIsDispatching = true;
+		try {
+			int remaining = 0;
+			for (int i = 0; i < mActiveFlows.size(); i++) {
+				final PermissionFlow flow = mActiveFlows.get(i);
+				flow.mResultNanos = resultNanos;
+				flow.deliverPermissionResult(isRequired, permissions, grantResults, autoDeniedPermissions);
+
+				final PermissionSet flowPermissions = (isRequired ? flow.mRequiredPermissions : flow.mOptionalPermissions)
+						.intersect(reportedPermissions);
+				final boolean isDenied = !flowPermissions.intersect(reportedDeniedPermissions).isEmpty();
+				if (isRequired) {
+					if (isDenied) {
+						// Required permission was denied
+						flow.onPermissionDenied(activity, requestCode, flow.toRequestOrder(isRequired, flowPermissions),
+								reportedAutoDeniedPermissions);
+						flow.onFinished();
+					} else {
+						// Move on to the optional permissions along with the rest of the batch
+						mActiveFlows.set(remaining++, flow);
+					}
+				} else {
+					// Regardless of whether user denied/granted the permission, report onSuccess because the
+					// permissions were optional anyway
+					flow.onSuccess(activity);
+					if (isDenied) {
+						// Provide the permission denied callback for the optional permission
+						flow.onPermissionDenied(activity, requestCode, flow.toRequestOrder(isRequired, flowPermissions),
+								reportedAutoDeniedPermissions);
+					}
+					flow.onFinished();
+				}
+			}
+			trimActiveFlows(remaining);
+		} finally {
+			mIsDispatching = false;
+		}
+
+		if (isRequired) {
+			requestOptionalPermissions();
+		} else {
+			finishBatch();
+		}
+	}
+
+	/**
+	 * Don't hold a reference to any listener anymore; the flows go on, e.g. with the result the system delivers to
+	 * the retained {@link PermissMe} fragment once the activity is recreated. See {@link #cancelAll()} when they
+	 * can't.
+	 */
+	/*package*/ void cleanUp() {
+		final PermissMeEventLog eventLog = PermissMeEventLog.getInstance();
+		for (int i = 0; i < mActiveFlows.size(); i++) {
+			eventLog.record(PermissMeEventLog.EVENT_LISTENER_NULL, mActiveFlows.get(i).mId, mPendingRequestCode);
+			mActiveFlows.get(i).cleanUp();
+		}
+		for (int i = 0; i < mPendingFlows.size(); i++) {
+			eventLog.record(PermissMeEventLog.EVENT_LISTENER_NULL, mPendingFlows.get(i).mId, 0);
+			mPendingFlows.get(i).cleanUp();
+		}
+	}
+
+	/**
+	 * Drops every flow for good, e.g. once the activity is destroyed without being recreated: no result will come for
+	 * them, so their outcomes are cancelled instead of never completing, and the listeners are let go of
+	 */
+	/*package*/ void cancelAll() {
+		final PermissionFlow[] flows = new PermissionFlow[mActiveFlows.size() + mPendingFlows.size()];
+		for (int i = 0; i < mActiveFlows.size(); i++) {
+			flows[i] = mActiveFlows.get(i);
+		}
+		for (int i = 0; i < mPendingFlows.size(); i++) {
+			flows[mActiveFlows.size() + i] = mPendingFlows.get(i);
+		}
+		// Reset first, the outcomes may run work that starts new flows
+		mActiveFlows.clear();
+		mPendingFlows.clear();
+		mPendingRequestCode = 0;
+		mRationaleBefore = RationaleSnapshot.EMPTY;
+		mBatchDeniedPermissions = PermissionSet.EMPTY;
+		mBatchAutoDeniedPermissions = PermissionSet.EMPTY;
+		for (final PermissionFlow flow : flows) {
+			flow.onCancelled();
+		}
+	}
+
+	/**
+	 * Asks the ungranted optional permissions of the active flows, or completes them if there are none
+	 */
+	private void requestOptionalPermissions() {
+		if (mActiveFlows.isEmpty()) {
+			finishBatch();
+			return;
+		}
+
+		PermissionSet optionalPermissions = PermissionSet.EMPTY;
+		for (int i = 0; i < mActiveFlows.size(); i++) {
+			optionalPermissions = optionalPermissions.union(mActiveFlows.get(i).mOptionalPermissions);
+		}
+		optionalPermissions = mHost.getUngrantedPermissions(optionalPermissions);
+
+		// A permission that is required by a flow and optional for another was just asked by the required dialog;
+		// if the user denied it, it is not asked twice
+		final PermissionSet askedPermissions = optionalPermissions.minus(mBatchDeniedPermissions);
+		if (!askedPermissions.isEmpty()) {
+			request(askedPermissions, PermissMe.OPTIONAL_PERMISSION_REQUEST_CODE);
+			return;
+		}
+
+		final ComponentActivity activity = mHost.getHostActivity();
+		if (!optionalPermissions.isEmpty()) {
+			// Only permissions the required dialog denied, reported denied without a dialog
+			dispatchResult(activity, PermissMe.OPTIONAL_PERMISSION_REQUEST_CODE, NO_PERMISSIONS, NO_GRANT_RESULTS,
+					PermissionSet.EMPTY, PermissionSet.EMPTY, PermissionSet.EMPTY);
+			return;
+		}
+
+		// Nothing left to ask, we're done
+		mIsDispatching = true;
+		try {
+			for (int i = 0; i < mActiveFlows.size(); i++) {
+				final PermissionFlow flow = mActiveFlows.get(i);
+				flow.onSuccess(activity);
+				flow.onFinished();
+			}
+		} finally {
+			mIsDispatching = false;
+		}
+		finishBatch();
+	}
+
+	private void request(@NonNull final PermissionSet requestedPermissions, final int requestCode) {
+		final ComponentActivity activity = mHost.getHostActivity();
+		final PermissMeInterceptor[] interceptors = PermissMeInterceptor.getInstalled();
+		final PermissionSet permissions = interceptors.length == 0
+				? requestedPermissions
+				: new PermissMeInterceptor.RequestChain(interceptors, 0, activity, requestedPermissions, requestCode)
+						.proceed(requestedPermissions);
+		mDroppedPermissions = requestedPermissions.minus(permissions);
+		if (permissions.isEmpty()) {
+			// Vetoed by an interceptor
+			dispatchDenied(activity, requestCode, requestedPermissions, PermissionSet.EMPTY);
+			return;
+		}
+
+		final DecisionJournal journal = DecisionJournal.peek();
+		if (journal != null && journal.skip(permissions)) {
+			// Skip the round trip through the system, and check in the background that it was right to
+			journal.verify(activity, permissions);
+			dispatchDenied(activity, requestCode, permissions, permissions);
+			return;
+		}
+
+		mPendingRequestCode = requestCode;
+		mRationaleBefore = RationaleSnapshot.capture(activity, permissions);
+		recordDialogShown();
+		mHost.requestPermissions(permissions.toArray(), requestCode);
+	}
+
+	/**
+	 * Calls back the active flows as if a dialog had denied the permissions, without showing it
+	 */
+	private void dispatchDenied(@Nullable final ComponentActivity activity,
+	                            final int requestCode,
+	                            @NonNull final PermissionSet permissions,
+	                            @NonNull final PermissionSet autoDeniedPermissions) {
+		PermissMeMetrics.getInstance().recordDecisions(permissions, permissions, autoDeniedPermissions);
+		final String[] permissionArray = permissions.toArray();
+		for (int i = 0; i < mActiveFlows.size(); i++) {
+			PermissMeEventLog.getInstance().record(PermissMeEventLog.EVENT_RESULT, mActiveFlows.get(i).mId,
+					permissionArray.length);
+		}
+		final int[] grantResults = new int[permissionArray.length];
+		Arrays.fill(grantResults, PermissionChecker.PERMISSION_DENIED);
+		dispatchResult(activity, requestCode, permissionArray, grantResults, permissions, permissions,
+				autoDeniedPermissions);
+	}
+
+	/**
+	 * Stamps the dialog about to be shown, and the flows it is the first dialog of; logs it for each flow
+	 */
+	private void recordDialogShown() {
+		final PermissMeMetrics metrics = PermissMeMetrics.getInstance();
+		mDialogNanos = PermissMeMetrics.now();
+		for (int i = 0; i < mActiveFlows.size(); i++) {
+			final PermissionFlow flow = mActiveFlows.get(i);
+			PermissMeEventLog.getInstance().record(PermissMeEventLog.EVENT_DIALOG, flow.mId, mPendingRequestCode);
+			if (flow.mDialogNanos == 0) {
+				flow.mDialogNanos = mDialogNanos;
+				metrics.recordStage(PermissMeMetrics.STAGE_CHECK_TO_DIALOG, flow.mCheckedNanos, mDialogNanos);
+			}
+		}
+	}
+
+	/**
+	 * Ends the current batch and starts the next one if flows came in meanwhile
+	 */
+	private void finishBatch() {
+		mActiveFlows.clear();
+		mBatchDeniedPermissions = PermissionSet.EMPTY;
+		mBatchAutoDeniedPermissions = PermissionSet.EMPTY;
+		scheduleDrain();
+	}
+
+	private void trimActiveFlows(final int size) {
+		for (int i = mActiveFlows.size() - 1; i >= size; i--) {
+			mActiveFlows.remove(i);
+		}
+	}
+
+	@NonNull
+	private static PermissionSet getDeniedPermissions(@NonNull final String[] permissions,
+	                                                  @NonNull final int[] grantResults) {
+		PermissionSet deniedPermissions = PermissionSet.EMPTY;
+		for (int i = 0; i < permissions.length; i++) {
+			if (i >= grantResults.length || grantResults[i] != PermissionChecker.PERMISSION_GRANTED) {
+				deniedPermissions = deniedPermissions.union(PermissionSet.of(permissions[i]));
+			}
+		}
+		return deniedPermissions;
+	}
+}
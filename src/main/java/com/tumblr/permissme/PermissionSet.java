@@ -0,0 +1,420 @@
+package com.tumblr.permissme;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An immutable set of permissions. Every permission string is interned once per process into a small integer ID,
+ * and sets are stored as a {@code long} bitmask over those IDs; the rare sets that use more than 64 distinct
+ * permissions spill over into additional words. Union, difference and containment checks are bit operations, and
+ * permissions are only turned back into strings at the boundaries with the framework, see {@link #toArray()}.
+ * <p>
+ * Null or empty permission strings are ignored, the same way {@link com.tumblr.permissme.utils.PermissMeUtils} treats
+ * them as granted.
+ */
+public final class PermissionSet {
+
+	/**
+	 * The number of permission IDs that fit in one word
+	 */
+	private static final int WORD_SIZE = 64;
+
+	/**
+	 * log2 of {@link #WORD_SIZE}
+	 */
+	private static final int WORD_SHIFT = 6;
+
+	/**
+	 * The empty set
+	 */
+	public static final PermissionSet EMPTY = new PermissionSet(0L, null);
+
+	private static final String[] NO_PERMISSIONS = new String[0];
+
+	/**
+	 * The ID of each interned permission
+	 */
+	private static final ConcurrentHashMap<String, Integer> IDS = new ConcurrentHashMap<>();
+
+	/**
+	 * The permission of each ID; written under the {@link #IDS} lock and published through the volatile write
+	 */
+	private static volatile String[] sPermissions = new String[WORD_SIZE];
+
+	/**
+	 * The next ID to hand out, guarded by the {@link #IDS} lock
+	 */
+	private static int sNextId;
+
+	/**
+	 * The permission IDs 0-63
+	 */
+	private final long mBits;
+
+	/**
+	 * The permission IDs 64 and up, word {@code i} holding IDs {@code 64 * (i + 1)} and up; {@code null} if there are
+	 * none. Never has trailing zero words, so that equal sets have equal arrays.
+	 */
+	@Nullable
+	private final long[] mOverflow;
+
+	private PermissionSet(final long bits, @Nullable final long[] overflow) {
+		mBits = bits;
+		mOverflow = overflow;
+	}
+
+	/**
+	 * Creates a set out of the given permissions
+	 *
+	 * @param permissions
+	 * 		the permissions; null or empty strings are ignored
+	 * @return the set
+	 */
+	@NonNull
+	public static PermissionSet of(@Nullable final String... permissions) {
+		if (permissions == null || permissions.length == 0) {
+			return EMPTY;
+		}
+
+		long bits = 0L;
+		long[] overflow = null;
+		for (int i = 0; i < permissions.length; i++) {
+			final String permission = permissions[i];
+			if (permission == null || permission.isEmpty()) {
+				continue;
+			}
+
+			final int id = intern(permission);
+			if (id < WORD_SIZE) {
+				bits |= 1L << id;
+			} else {
+				final int word = (id >>> WORD_SHIFT) - 1;
+				if (overflow == null) {
+					overflow = new long[word + 1];
+				} else if (word >= overflow.length) {
+					overflow = Arrays.copyOf(overflow, word + 1);
+				}
+				overflow[word] |= 1L << id;
+			}
+		}
+		return create(bits, overflow);
+	}
+
+	/**
+	 * Returns the process-wide ID of the permission, assigning the next free one if the permission was never seen
+	 *
+	 * @param permission
+	 * 		the permission
+	 * @return the ID of the permission
+	 */
+	/*package*/ static int intern(@NonNull final String permission) {
+		final Integer id = IDS.get(permission);
+		if (id != null) {
+			return id;
+		}
+
+		synchronized (IDS) {
+			final Integer existingId = IDS.get(permission);
+			if (existingId != null) {
+				return existingId;
+			}
+
+			final int newId = sNextId++;
+			String[] permissions = sPermissions;
+			if (newId >= permissions.length) {
+				permissions = Arrays.copyOf(permissions, permissions.length * 2);
+			}
+			permissions[newId] = permission;
+			sPermissions = permissions;
+			IDS.put(permission, newId);
+			return newId;
+		}
+	}
+
+	/**
+	 * @param id
+	 * 		an ID handed out by {@link #intern(String)}
+	 * @return the permission of the ID
+	 */
+	@NonNull
+	/*package*/ static String permissionOf(final int id) {
+		return sPermissions[id];
+	}
+
+	/**
+	 * @return a set with the given permission ID added
+	 */
+	@NonNull
+	/*package*/ PermissionSet with(final int id) {
+		if (containsId(id)) {
+			return this;
+		}
+		if (id < WORD_SIZE) {
+			return new PermissionSet(mBits | (1L << id), mOverflow);
+		}
+		final int word = (id >>> WORD_SHIFT) - 1;
+		final long[] overflow = mOverflow == null
+				? new long[word + 1]
+				: Arrays.copyOf(mOverflow, Math.max(mOverflow.length, word + 1));
+		overflow[word] |= 1L << id;
+		return new PermissionSet(mBits, overflow);
+	}
+
+	/**
+	 * @return {@code true} if the set contains the permission ID
+	 */
+	/*package*/ boolean containsId(final int id) {
+		if (id < WORD_SIZE) {
+			return (mBits & (1L << id)) != 0;
+		}
+		final int word = (id >>> WORD_SHIFT) - 1;
+		return mOverflow != null && word < mOverflow.length && (mOverflow[word] & (1L << id)) != 0;
+	}
+
+	/**
+	 * Allocation-free iteration over the IDs of the set:
+	 * {@code for (int id = set.nextId(0); id >= 0; id = set.nextId(id + 1))}
+	 *
+	 * @param fromId
+	 * 		the ID to start looking from, inclusive
+	 * @return the smallest ID in the set that is {@code >= fromId}, or -1 if there is none
+	 */
+	/*package*/ int nextId(final int fromId) {
+		if (fromId < WORD_SIZE) {
+			final long bits = mBits & (-1L << fromId);
+			if (bits != 0) {
+				return Long.numberOfTrailingZeros(bits);
+			}
+		}
+		if (mOverflow == null) {
+			return -1;
+		}
+
+		final int from = Math.max(fromId, WORD_SIZE);
+		int word = (from >>> WORD_SHIFT) - 1;
+		if (word >= mOverflow.length) {
+			return -1;
+		}
+		// Shifts only use the lowest 6 bits of the distance, i.e. the position of the ID within its word
+		long bits = mOverflow[word] & (-1L << from);
+		while (bits == 0) {
+			if (++word >= mOverflow.length) {
+				return -1;
+			}
+			bits = mOverflow[word];
+		}
+		return ((word + 1) << WORD_SHIFT) + Long.numberOfTrailingZeros(bits);
+	}
+
+	/**
+	 * @param permission
+	 * 		the permission
+	 * @return {@code true} if the set contains the permission
+	 */
+	public boolean contains(@Nullable final String permission) {
+		if (permission == null) {
+			return false;
+		}
+		final Integer id = IDS.get(permission);
+		return id != null && containsId(id);
+	}
+
+	/**
+	 * @param other
+	 * 		the other set
+	 * @return {@code true} if every permission of the other set is in this set
+	 */
+	public boolean containsAll(@NonNull final PermissionSet other) {
+		if ((other.mBits & ~mBits) != 0) {
+			return false;
+		}
+		if (other.mOverflow == null) {
+			return true;
+		}
+		for (int i = 0; i < other.mOverflow.length; i++) {
+			final long bits = mOverflow != null && i < mOverflow.length ? mOverflow[i] : 0L;
+			if ((other.mOverflow[i] & ~bits) != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return {@code true} if the set has no permissions
+	 */
+	public boolean isEmpty() {
+		return mBits == 0 && mOverflow == null;
+	}
+
+	/**
+	 * @return the number of permissions in the set
+	 */
+	public int size() {
+		int size = Long.bitCount(mBits);
+		if (mOverflow != null) {
+			for (int i = 0; i < mOverflow.length; i++) {
+				size += Long.bitCount(mOverflow[i]);
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * @param other
+	 * 		the other set
+	 * @return the permissions that are in this set or in the other
+	 */
+	@NonNull
+	public PermissionSet union(@NonNull final PermissionSet other) {
+		if (other.mOverflow == null && mOverflow == null) {
+			// Sets are immutable, so a union that adds nothing to either of them is that set
+			final long bits = mBits | other.mBits;
+			return bits == mBits ? this : bits == other.mBits ? other : create(bits, null);
+		}
+		final long[] overflow = new long[Math.max(length(mOverflow), length(other.mOverflow))];
+		for (int i = 0; i < overflow.length; i++) {
+			overflow[i] = word(mOverflow, i) | word(other.mOverflow, i);
+		}
+		return create(mBits | other.mBits, overflow);
+	}
+
+	/**
+	 * @param other
+	 * 		the other set
+	 * @return the permissions of this set that are not in the other
+	 */
+	@NonNull
+	public PermissionSet minus(@NonNull final PermissionSet other) {
+		if (mOverflow == null) {
+			return create(mBits & ~other.mBits, null);
+		}
+		final long[] overflow = new long[mOverflow.length];
+		for (int i = 0; i < overflow.length; i++) {
+			overflow[i] = mOverflow[i] & ~word(other.mOverflow, i);
+		}
+		return create(mBits & ~other.mBits, overflow);
+	}
+
+	/**
+	 * @param other
+	 * 		the other set
+	 * @return the permissions that are both in this set and in the other
+	 */
+	@NonNull
+	public PermissionSet intersect(@NonNull final PermissionSet other) {
+		if (mOverflow == null || other.mOverflow == null) {
+			return create(mBits & other.mBits, null);
+		}
+		final long[] overflow = new long[Math.min(mOverflow.length, other.mOverflow.length)];
+		for (int i = 0; i < overflow.length; i++) {
+			overflow[i] = mOverflow[i] & other.mOverflow[i];
+		}
+		return create(mBits & other.mBits, overflow);
+	}
+
+	/**
+	 * The permissions of the set as strings, to hand over to the framework or to a
+	 * {@link PermissMe.PermissionListener}. Permissions are ordered by the order they were first seen in the process;
+	 * see {@link #toArray(String[])} for the order of a request.
+	 *
+	 * @return a new array with the permissions of this set
+	 */
+	@NonNull
+	public String[] toArray() {
+		if (isEmpty()) {
+			return NO_PERMISSIONS;
+		}
+		final String[] permissions = new String[size()];
+		int index = 0;
+		for (int id = nextId(0); id >= 0; id = nextId(id + 1)) {
+			permissions[index++] = permissionOf(id);
+		}
+		return permissions;
+	}
+
+	/**
+	 * The permissions of the set as strings, in the order they appear in the given array, e.g. the order a caller
+	 * asked them in; the permissions of the set that are not in the array follow in the order of {@link #toArray()}
+	 *
+	 * @param order
+	 * 		the permissions in the order to follow, may contain permissions that are not in the set, or be null
+	 * @return a new array with the permissions of this set
+	 */
+	@NonNull
+	/*package*/ String[] toArray(@Nullable final String[] order) {
+		if (order == null || isEmpty()) {
+			return toArray();
+		}
+		final String[] permissions = new String[size()];
+		int index = 0;
+		for (int i = 0; i < order.length; i++) {
+			if (contains(order[i]) && indexOf(order, order[i]) == i) {
+				permissions[index++] = order[i];
+			}
+		}
+		if (index < permissions.length) {
+			for (int id = nextId(0); id >= 0; id = nextId(id + 1)) {
+				final String permission = permissionOf(id);
+				if (indexOf(order, permission) < 0) {
+					permissions[index++] = permission;
+				}
+			}
+		}
+		return permissions;
+	}
+
+	@Override
+	public boolean equals(final Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (!(o instanceof PermissionSet)) {
+			return false;
+		}
+		final PermissionSet that = (PermissionSet) o;
+		return mBits == that.mBits && Arrays.equals(mOverflow, that.mOverflow);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * (int) (mBits ^ (mBits >>> 32)) + Arrays.hashCode(mOverflow);
+	}
+
+	@Override
+	public String toString() {
+		return Arrays.toString(toArray());
+	}
+
+	@NonNull
+	private static PermissionSet create(final long bits, @Nullable final long[] overflow) {
+		int length = length(overflow);
+		while (length > 0 && overflow[length - 1] == 0) {
+			length--;
+		}
+		if (length == 0) {
+			return bits == 0 ? EMPTY : new PermissionSet(bits, null);
+		}
+		return new PermissionSet(bits, length == overflow.length ? overflow : Arrays.copyOf(overflow, length));
+	}
+
+	private static int indexOf(@NonNull final String[] permissions, @NonNull final String permission) {
+		for (int i = 0; i < permissions.length; i++) {
+			if (permission.equals(permissions[i])) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static int length(@Nullable final long[] words) {
+		return words == null ? 0 : words.length;
+	}
+
+	private static long word(@Nullable final long[] words, final int index) {
+		return words != null && index < words.length ? words[index] : 0L;
+	}
+}
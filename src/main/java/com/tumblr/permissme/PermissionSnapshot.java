@@ -0,0 +1,232 @@
+package com.tumblr.permissme;
+
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An immutable, versioned snapshot of the grant state of every permission the app declares in its manifest, read
+ * with a single {@link PackageManager#getPackageInfo(String, int)} call through
+ * {@link PackageInfo#requestedPermissionsFlags}. Querying a snapshot never goes back to the system, so a whole
+ * permission request can be evaluated against it without further IPC.
+ * <p>
+ * Note that unlike {@link androidx.core.content.PermissionChecker}, a snapshot does not take app-ops into account;
+ * for runtime permissions both agree unless the app-op was changed by other means than the permission dialog or the
+ * app settings.
+ */
+public final class PermissionSnapshot {
+
+	private static final AtomicInteger VERSIONS = new AtomicInteger();
+
+	private static final String[] EMPTY = new String[0];
+
+	/**
+	 * The version of this snapshot; snapshots captured later always have a higher version
+	 */
+	private final int mVersion;
+
+	/**
+	 * The grant state of every permission declared in the manifest
+	 */
+	@NonNull
+	private final Map<String, Boolean> mGrantStates;
+
+	private PermissionSnapshot(final int version, @NonNull final Map<String, Boolean> grantStates) {
+		mVersion = version;
+		mGrantStates = grantStates;
+	}
+
+	/**
+	 * Reads the grant state of every permission the app declares, with a single call to the package manager.
+	 *
+	 * @param context
+	 * 		any context of the app
+	 * @return the snapshot, or {@code null} if the package info could not be read
+	 */
+	@Nullable
+	public static PermissionSnapshot capture(@NonNull final Context context) {
+		final PackageManager packageManager = context.getPackageManager();
+		if (packageManager == null) {
+			return null;
+		}
+
+		final PackageInfo packageInfo;
+		try {
+			packageInfo = packageManager.getPackageInfo(context.getPackageName(), PackageManager.GET_PERMISSIONS);
+		} catch (final PackageManager.NameNotFoundException e) {
+			return null;
+		}
+		if (packageInfo == null) {
+			return null;
+		}
+
+		final String[] permissions = packageInfo.requestedPermissions;
+		final int[] flags = packageInfo.requestedPermissionsFlags;
+		final Map<String, Boolean> grantStates = new HashMap<>();
+		if (permissions != null && flags != null) {
+			for (int i = 0; i < permissions.length && i < flags.length; i++) {
+				final boolean granted = (flags[i] & PackageInfo.REQUESTED_PERMISSION_GRANTED) != 0;
+				grantStates.put(permissions[i], granted);
+			}
+		}
+		return new PermissionSnapshot(VERSIONS.incrementAndGet(), Collections.unmodifiableMap(grantStates));
+	}
+
+	/**
+	 * @return the version of this snapshot; snapshots captured later always have a higher version
+	 */
+	public int getVersion() {
+		return mVersion;
+	}
+
+	/**
+	 * Whether the permission is declared in the app's manifest, i.e. whether this snapshot knows its state
+	 *
+	 * @param permission
+	 * 		the permission
+	 * @return {@code true} if the grant state of the permission is part of this snapshot
+	 */
+	public boolean isDeclared(@NonNull final String permission) {
+		return mGrantStates.containsKey(permission);
+	}
+
+	/**
+	 * Whether the permission was granted when this snapshot was captured. A permission the app does not declare
+	 * can never be granted.
+	 *
+	 * @param permission
+	 * 		the permission
+	 * @return {@code true} if the permission is granted
+	 */
+	public boolean isGranted(@NonNull final String permission) {
+		final Boolean granted = mGrantStates.get(permission);
+		return granted != null && granted;
+	}
+
+	/**
+	 * Given a list of permissions, get all the permissions that were denied when this snapshot was captured. Null or
+	 * empty permissions are ignored, the same way {@link com.tumblr.permissme.utils.PermissMeUtils} does.
+	 *
+	 * @param permissions
+	 * 		the permissions to check
+	 * @return the denied permissions, in the order they were given, or an empty array
+	 */
+	@NonNull
+	public String[] denied(@Nullable final String... permissions) {
+		if (permissions == null || permissions.length == 0) {
+			return EMPTY;
+		}
+
+		int deniedCount = 0;
+		for (int i = 0; i < permissions.length; i++) {
+			if (isDeniedPermission(permissions[i])) {
+				deniedCount++;
+			}
+		}
+		if (deniedCount == 0) {
+			return EMPTY;
+		}
+
+		final String[] denied = new String[deniedCount];
+		int index = 0;
+		for (int i = 0; i < permissions.length; i++) {
+			if (isDeniedPermission(permissions[i])) {
+				denied[index++] = permissions[i];
+			}
+		}
+		return denied;
+	}
+
+	/**
+	 * Compares this snapshot to a previous one.
+	 *
+	 * @param previous
+	 * 		the previously captured snapshot, or {@code null} to compare against nothing
+	 * @return what changed between the previous snapshot and this one
+	 */
+	@NonNull
+	public Diff diff(@Nullable final PermissionSnapshot previous) {
+		final List<String> granted = new ArrayList<>();
+		final List<String> revoked = new ArrayList<>();
+		for (final Map.Entry<String, Boolean> entry : mGrantStates.entrySet()) {
+			final String permission = entry.getKey();
+			final boolean isGranted = entry.getValue();
+			final boolean wasGranted = previous != null && previous.isGranted(permission);
+			if (isGranted && !wasGranted) {
+				granted.add(permission);
+			} else if (!isGranted && wasGranted) {
+				revoked.add(permission);
+			}
+		}
+		if (previous != null) {
+			// Permissions that were granted but are no longer declared at all count as revoked
+			for (final Map.Entry<String, Boolean> entry : previous.mGrantStates.entrySet()) {
+				if (entry.getValue() && !mGrantStates.containsKey(entry.getKey())) {
+					revoked.add(entry.getKey());
+				}
+			}
+		}
+		return new Diff(granted.toArray(EMPTY), revoked.toArray(EMPTY));
+	}
+
+	/**
+	 * @return all the permissions declared by the app, in no particular order
+	 */
+	@NonNull
+	/*package*/ Map<String, Boolean> getGrantStates() {
+		return mGrantStates;
+	}
+
+	private boolean isDeniedPermission(@Nullable final String permission) {
+		return permission != null && !permission.isEmpty() && !isGranted(permission);
+	}
+
+	/**
+	 * The difference between two {@link PermissionSnapshot}s
+	 */
+	public static final class Diff {
+		@NonNull
+		private final String[] mGranted;
+
+		@NonNull
+		private final String[] mRevoked;
+
+		/*package*/ Diff(@NonNull final String[] granted, @NonNull final String[] revoked) {
+			mGranted = granted;
+			mRevoked = revoked;
+		}
+
+		/**
+		 * @return the permissions that were granted since the previous snapshot
+		 */
+		@NonNull
+		public String[] getGranted() {
+			return mGranted.clone();
+		}
+
+		/**
+		 * @return the permissions that were revoked since the previous snapshot
+		 */
+		@NonNull
+		public String[] getRevoked() {
+			return mRevoked.clone();
+		}
+
+		/**
+		 * @return {@code true} if no permission changed its grant state
+		 */
+		public boolean isEmpty() {
+			return mGranted.length == 0 && mRevoked.length == 0;
+		}
+	}
+}
@@ -0,0 +1,373 @@
+package com.tumblr.permissme;
+
+import android.app.Activity;
+import android.app.Application;
+import android.content.Context;
+import android.os.Bundle;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.core.content.PermissionChecker;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Process-wide, in-memory cache of the grant state of runtime permissions, so that repeated permission checks on
+ * the main thread don't each turn into a {@link PermissionChecker#checkSelfPermission(Context, String)} binder call.
+ * <p>
+ * Grant states are kept as {@link PermissionSet}s stamped with the epoch they were read in, so checking a whole
+ * request is a bit operation. Bumping the global epoch through {@link #invalidate()} makes every state stale at once;
+ * stale states are re-read lazily on their next lookup. The cache is invalidated:
+ * <ul>
+ * <li>when {@link PermissMe} receives {@link PermissMe#onRequestPermissionsResult(int, String[], int[])}</li>
+ * <li>when the user returns from the app settings screen opened through
+ * {@link com.tumblr.permissme.utils.PermissMeUtils#createSettingsClickListener(Activity)}</li>
+ * <li>explicitly, through {@link #invalidate()}; call this if your app requests permissions outside of
+ * {@link PermissMe}</li>
+ * </ul>
+ * Revoking a permission from the system settings kills the app process, so a granted state can never be stale
+ * within the same process.
+ */
+public final class PermissionStateCache {
+
+	private static final PermissionStateCache INSTANCE = new PermissionStateCache();
+
+	/**
+	 * The current epoch; states stamped with any other value are stale
+	 */
+	private final AtomicInteger mEpoch = new AtomicInteger();
+
+	/**
+	 * The known grant states, replaced as a whole whenever permissions are read
+	 */
+	private final AtomicReference<State> mState = new AtomicReference<>(new State(0));
+
+	/**
+	 * Stands in for the system when set, see {@link #setGrantReader(GrantReader)}
+	 */
+	@Nullable
+	private volatile GrantReader mGrantReader;
+
+	/**
+	 * Reads the grant state of a single permission, in place of the system
+	 */
+	/*package*/ interface GrantReader {
+		boolean isGranted(@NonNull Context context, @NonNull String permission);
+	}
+
+	public static PermissionStateCache getInstance() {
+		return INSTANCE;
+	}
+
+	private PermissionStateCache() {
+
+	}
+
+	/**
+	 * Whether the package has the given permission granted. Answered from memory if the permission was already read
+	 * in the current epoch, otherwise it is read through {@link PermissionChecker} and cached.
+	 *
+	 * @param context
+	 * 		any context of the app
+	 * @param permission
+	 * 		the permission to check
+	 * @return {@code true} if the permission is granted
+	 */
+	public boolean isGranted(@NonNull final Context context, @NonNull final String permission) {
+		final int id = PermissionSet.intern(permission);
+		final int epoch = mEpoch.get();
+		State state = mState.get();
+		if (state.mEpoch != epoch || !state.mKnown.containsId(id)) {
+			state = load(context, epoch, PermissionSet.EMPTY.with(id));
+		}
+		return state.mGranted.containsId(id);
+	}
+
+	/**
+	 * Whether the package has every permission of the set granted. Doesn't allocate when all the permissions were
+	 * already read in the current epoch.
+	 *
+	 * @param context
+	 * 		any context of the app
+	 * @param permissions
+	 * 		the permissions to check
+	 * @return {@code true} if all the permissions are granted
+	 */
+	public boolean isAllGranted(@NonNull final Context context, @NonNull final PermissionSet permissions) {
+		return resolve(context, permissions).mGranted.containsAll(permissions);
+	}
+
+	/**
+	 * Whether the package has every permission of both sets granted, e.g. the required and optional permissions of a
+	 * request; the same as checking their union, without building it when all the permissions were already read in
+	 * the current epoch.
+	 */
+	/*package*/ boolean isAllGranted(@NonNull final Context context,
+	                                 @NonNull final PermissionSet permissions,
+	                                 @NonNull final PermissionSet otherPermissions) {
+		final int epoch = mEpoch.get();
+		final State state = mState.get();
+		if (state.mEpoch == epoch && state.mKnown.containsAll(permissions) && state.mKnown.containsAll(otherPermissions)) {
+			return state.mGranted.containsAll(permissions) && state.mGranted.containsAll(otherPermissions);
+		}
+		return isAllGranted(context, permissions.union(otherPermissions));
+	}
+
+	/**
+	 * Whether the package has every given permission granted; null or empty permissions are ignored. Doesn't
+	 * allocate when all the permissions were already read in the current epoch, otherwise the missing ones are read
+	 * at once, the same way as {@link #prefetch(Context, String[])}.
+	 *
+	 * @param context
+	 * 		any context of the app
+	 * @param permissions
+	 * 		the permissions to check
+	 * @return {@code true} if all the permissions are granted
+	 */
+	public boolean isAllGranted(@NonNull final Context context, @Nullable final String... permissions) {
+		if (permissions == null || permissions.length == 0) {
+			return true;
+		}
+		final int epoch = mEpoch.get();
+		final State state = mState.get();
+		if (state.mEpoch == epoch) {
+			boolean isAllGranted = true;
+			int i = 0;
+			for (; i < permissions.length; i++) {
+				final String permission = permissions[i];
+				if (permission == null || permission.isEmpty()) {
+					continue;
+				}
+				final int id = PermissionSet.intern(permission);
+				if (!state.mKnown.containsId(id)) {
+					break;
+				}
+				isAllGranted &= state.mGranted.containsId(id);
+			}
+			if (i == permissions.length) {
+				return isAllGranted;
+			}
+		}
+		return isAllGranted(context, PermissionSet.of(permissions));
+	}
+
+	/**
+	 * Given a set of permissions, get all the permissions that are not granted to the package.
+	 *
+	 * @param context
+	 * 		any context of the app
+	 * @param permissions
+	 * 		the permissions to check
+	 * @return the denied permissions, or {@link PermissionSet#EMPTY}
+	 */
+	@NonNull
+	public PermissionSet getDenied(@NonNull final Context context, @NonNull final PermissionSet permissions) {
+		final State state = resolve(context, permissions);
+		return state.mGranted.containsAll(permissions) ? PermissionSet.EMPTY : permissions.minus(state.mGranted);
+	}
+
+	/**
+	 * Makes sure the grant state of all the given permissions can be answered from memory. If more than one of them
+	 * is missing or stale, the grant state of every permission the app declares is read at once through a single
+	 * {@link PermissionSnapshot}, rather than with one {@link PermissionChecker} call per permission.
+	 *
+	 * @param context
+	 * 		any context of the app
+	 * @param permissions
+	 * 		the permissions that are about to be checked
+	 */
+	public void prefetch(@NonNull final Context context, @Nullable final String[] permissions) {
+		resolve(context, PermissionSet.of(permissions));
+	}
+
+	/**
+	 * @return a state of the current epoch that knows the grant state of all the given permissions
+	 */
+	@NonNull
+	private State resolve(@NonNull final Context context, @NonNull final PermissionSet permissions) {
+		// Read the epoch before checking so an invalidation that races with the check leaves a stale state behind
+		final int epoch = mEpoch.get();
+		final State state = mState.get();
+		if (state.mEpoch == epoch && state.mKnown.containsAll(permissions)) {
+			return state;
+		}
+		return load(context, epoch,
+				state.mEpoch == epoch ? permissions.minus(state.mKnown) : permissions);
+	}
+
+	/**
+	 * Reads the grant state of the missing permissions from the system and publishes it
+	 *
+	 * @return the published state
+	 */
+	@NonNull
+	private State load(@NonNull final Context context, final int epoch, @NonNull final PermissionSet missing) {
+		PermissionSet known = PermissionSet.EMPTY;
+		PermissionSet granted = PermissionSet.EMPTY;
+
+		final GrantReader reader = mGrantReader;
+		final PermissionSnapshot snapshot = reader == null && missing.size() > 1 ? PermissionSnapshot.capture(context) : null;
+		if (snapshot != null) {
+			final Map<String, Boolean> grantStates = snapshot.getGrantStates();
+			final String[] declared = grantStates.keySet().toArray(new String[grantStates.size()]);
+			known = PermissionSet.of(declared);
+			for (final Map.Entry<String, Boolean> state : grantStates.entrySet()) {
+				if (state.getValue()) {
+					granted = granted.with(PermissionSet.intern(state.getKey()));
+				}
+			}
+			// A permission that isn't declared in the manifest can never be granted
+			known = known.union(missing);
+		} else {
+			for (int id = missing.nextId(0); id >= 0; id = missing.nextId(id + 1)) {
+				final String permission = PermissionSet.permissionOf(id);
+				final boolean isGranted = reader != null
+						? reader.isGranted(context, permission)
+						: PermissionChecker.checkSelfPermission(context, permission) == PermissionChecker.PERMISSION_GRANTED;
+				if (isGranted) {
+					granted = granted.with(id);
+				}
+			}
+			known = missing;
+		}
+
+		while (true) {
+			final State current = mState.get();
+			if (current.mEpoch > epoch) {
+				// Invalidated while we were reading; answer this lookup but don't publish stale states
+				return new State(epoch, known, granted);
+			}
+			final State next = current.mEpoch == epoch
+					? new State(epoch, current.mKnown.union(known), current.mGranted.minus(known).union(granted))
+					: new State(epoch, known, granted);
+			if (mState.compareAndSet(current, next)) {
+				return next;
+			}
+		}
+	}
+
+	/**
+	 * Replaces the system with a reader, e.g. a simulated permission service; permissions are then always read one by
+	 * one through it, rather than through {@link PermissionChecker} or a {@link PermissionSnapshot}
+	 *
+	 * @param reader
+	 * 		the reader to read the grant states with, or null to go back to the system
+	 */
+	@VisibleForTesting
+	/*package*/ void setGrantReader(@Nullable final GrantReader reader) {
+		mGrantReader = reader;
+		invalidate();
+	}
+
+	/**
+	 * Marks every cached permission state as stale; the next lookup of each permission will query the system again.
+	 */
+	public void invalidate() {
+		mEpoch.incrementAndGet();
+	}
+
+	/**
+	 * The current epoch of the cache, which changes every time the cache is invalidated
+	 *
+	 * @return the current epoch
+	 */
+	public int getEpoch() {
+		return mEpoch.get();
+	}
+
+	/**
+	 * Invalidates the cache the next time any activity of the app resumes, i.e. when the user comes back from a
+	 * screen outside of the app where permissions may have been granted, such as the app settings.
+	 *
+	 * @param activity
+	 * 		the activity that is about to leave the app
+	 */
+	public void invalidateOnReturn(@NonNull final Activity activity) {
+		final Application application = activity.getApplication();
+		if (application == null) {
+			invalidate();
+			return;
+		}
+		application.registerActivityLifecycleCallbacks(new ReturnCallbacks(application));
+	}
+
+	/**
+	 * The grant states read in a specific epoch
+	 */
+	private static final class State {
+		private final int mEpoch;
+
+		/**
+		 * The permissions whose grant state was read in this epoch
+		 */
+		@NonNull
+		private final PermissionSet mKnown;
+
+		/**
+		 * The known permissions that are granted
+		 */
+		@NonNull
+		private final PermissionSet mGranted;
+
+		/*package*/ State(final int epoch) {
+			this(epoch, PermissionSet.EMPTY, PermissionSet.EMPTY);
+		}
+
+		/*package*/ State(final int epoch, @NonNull final PermissionSet known, @NonNull final PermissionSet granted) {
+			mEpoch = epoch;
+			mKnown = known;
+			mGranted = granted;
+		}
+	}
+
+	/**
+	 * One-shot callbacks that invalidate the cache on the first activity resume and unregister themselves
+	 */
+	private final class ReturnCallbacks implements Application.ActivityLifecycleCallbacks {
+		@NonNull
+		private final Application mApplication;
+
+		/*package*/ ReturnCallbacks(@NonNull final Application application) {
+			mApplication = application;
+		}
+
+		@Override
+		public void onActivityResumed(final Activity activity) {
+			invalidate();
+			mApplication.unregisterActivityLifecycleCallbacks(this);
+		}
+
+		@Override
+		public void onActivityCreated(final Activity activity, final Bundle savedInstanceState) {
+			// no-op
+		}
+
+		@Override
+		public void onActivityStarted(final Activity activity) {
+			// no-op
+		}
+
+		@Override
+		public void onActivityPaused(final Activity activity) {
+			// no-op
+		}
+
+		@Override
+		public void onActivityStopped(final Activity activity) {
+			// no-op
+		}
+
+		@Override
+		public void onActivitySaveInstanceState(final Activity activity, final Bundle outState) {
+			// no-op
+		}
+
+		@Override
+		public void onActivityDestroyed(final Activity activity) {
+			// no-op
+		}
+	}
+}
@@ -0,0 +1,183 @@
+package com.tumblr.permissme;
+
+import android.app.Activity;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import com.tumblr.permissme.utils.PermissMeUtils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whether the system would show a rationale for each permission of a set, read in one pass through
+ * {@link Activity#shouldShowRequestPermissionRationale(String)}.
+ * <p>
+ * The rationale flag alone can't tell an auto-denied permission from one that was never asked: it is {@code false}
+ * in both cases. The {@link PermissionScheduler} takes a snapshot of the permissions of a dialog before showing it,
+ * and classifies the denied permissions from how their flag changed once the dialog returns, see
+ * {@link #getAutoDenied(Activity, RationaleSnapshot, PermissionSet, PermissionSet)}:
+ * <ul>
+ * <li>a rationale shown after the dialog: denied, and can still be asked</li>
+ * <li>a rationale shown before the dialog but not after: the user just chose to not be asked again</li>
+ * <li>no rationale either before or after: auto-denied if the permission was already denied by an earlier dialog,
+ * of the process or recorded in the {@link DecisionJournal}, or if the dialog returned faster than a user could
+ * answer it, i.e. the system denied it without showing anything; otherwise denied for the first time, e.g. by
+ * dismissing the dialog</li>
+ * </ul>
+ * The timing covers the permissions denied before the journal knew about them, e.g. before an upgrade, or in the
+ * system settings. It is ignored when a {@link PermissionBackend} answers the dialogs, since a backend answers right
+ * away whatever the decision.
+ * <p>
+ * Only the permissions whose rationale flag flipped, or that the system denied without showing anything, are known
+ * to be auto-denied; the others are a guess, which is reported to the flows but never persisted, see
+ * {@link #getUserFixed(PermissionSet)}.
+ * <p>
+ * Snapshots are only used from the main thread.
+ */
+/*package*/ final class RationaleSnapshot {
+
+	/*package*/ static final RationaleSnapshot EMPTY = new RationaleSnapshot(PermissionSet.EMPTY, 0);
+
+	/**
+	 * How fast a dialog returns when the system denies its permissions without showing it; a user takes longer to
+	 * read and answer it
+	 */
+	/*package*/ static final long DEFAULT_INSTANT_DENIAL_MILLIS = 200;
+
+	private static long sInstantDenialNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_INSTANT_DENIAL_MILLIS);
+
+	/**
+	 * The permissions denied by a dialog of the process so far
+	 */
+	@NonNull
+	private static PermissionSet sDeniedPermissions = PermissionSet.EMPTY;
+
+	/**
+	 * The permissions the system would show a rationale for
+	 */
+	@NonNull
+	private final PermissionSet mShowRationale;
+
+	/**
+	 * When the snapshot was taken, right before the dialog was shown, 0 if unknown
+	 */
+	private final long mCapturedNanos;
+
+	/**
+	 * Whether the dialog the snapshot was taken before returned too fast to have been shown, set once it returns
+	 */
+	private boolean mIsInstantDenial;
+
+	private RationaleSnapshot(@NonNull final PermissionSet showRationale, final long capturedNanos) {
+		mShowRationale = showRationale;
+		mCapturedNanos = capturedNanos;
+	}
+
+	/**
+	 * @param activity
+	 * 		the activity the permissions are requested in, or null if it is gone
+	 * @param permissions
+	 * 		the permissions to read the rationale flag of
+	 * @return the rationale flags of the permissions
+	 */
+	@NonNull
+	/*package*/ static RationaleSnapshot capture(@Nullable final Activity activity,
+	                                             @NonNull final PermissionSet permissions) {
+		if (activity == null || permissions.isEmpty()) {
+			return EMPTY;
+		}
+		PermissionSet showRationale = PermissionSet.EMPTY;
+		final String[] permissionArray = permissions.toArray();
+		for (int i = 0; i < permissionArray.length; i++) {
+			if (!PermissMeUtils.isAutoDeniedPermission(activity, permissionArray[i])) {
+				showRationale = showRationale.union(PermissionSet.of(permissionArray[i]));
+			}
+		}
+		return new RationaleSnapshot(showRationale, System.nanoTime());
+	}
+
+	/**
+	 * Reads the rationale flags of the denied permissions of a dialog and classifies them against the snapshot taken
+	 * before it, see the class documentation
+	 *
+	 * @param activity
+	 * 		the activity the dialog was shown in, or null if it is gone
+	 * @param before
+	 * 		the snapshot of the permissions of the dialog, taken before it was shown
+	 * @param deniedPermissions
+	 * 		the permissions the dialog denied
+	 * @param journalDeniedPermissions
+	 * 		the permissions denied before this process, as recorded in the {@link DecisionJournal}
+	 * @return the auto-denied permissions
+	 */
+	@NonNull
+	/*package*/ static PermissionSet getAutoDenied(@Nullable final Activity activity,
+	                                              @NonNull final RationaleSnapshot before,
+	                                              @NonNull final PermissionSet deniedPermissions,
+	                                              @NonNull final PermissionSet journalDeniedPermissions) {
+		if (activity == null || deniedPermissions.isEmpty()) {
+			return PermissionSet.EMPTY;
+		}
+		final boolean isInstant = isInstantDenial(before);
+		before.mIsInstantDenial = isInstant;
+		final RationaleSnapshot after = capture(activity, deniedPermissions);
+		final PermissionSet deniedBefore = sDeniedPermissions.union(journalDeniedPermissions);
+		sDeniedPermissions = sDeniedPermissions.union(deniedPermissions);
+
+		PermissionSet autoDenied = PermissionSet.EMPTY;
+		final String[] permissionArray = deniedPermissions.toArray();
+		for (int i = 0; i < permissionArray.length; i++) {
+			final String permission = permissionArray[i];
+			if (after.mShowRationale.contains(permission)) {
+				continue;
+			}
+			if (isInstant || before.mShowRationale.contains(permission) || deniedBefore.contains(permission)) {
+				autoDenied = autoDenied.union(PermissionSet.of(permission));
+			}
+		}
+		return autoDenied;
+	}
+
+	/**
+	 * @param before
+	 * 		the snapshot taken before the dialog was shown
+	 * @return {@code true} if the dialog returned too fast for the user to have seen it
+	 */
+	private static boolean isInstantDenial(@NonNull final RationaleSnapshot before) {
+		return before.mCapturedNanos != 0
+				&& PermissionBackend.getInstalled() == null
+				&& System.nanoTime() - before.mCapturedNanos < sInstantDenialNanos;
+	}
+
+	/**
+	 * @param autoDeniedPermissions
+	 * 		the auto-denied permissions of the dialog the snapshot was taken before
+	 * @return the auto-denied permissions the system showed a rationale for before the dialog, i.e. the ones the user
+	 * just chose to not be asked for again, or all of them if the system denied them without showing the dialog, as
+	 * opposed to the ones only guessed auto-denied from an earlier denial
+	 */
+	@NonNull
+	/*package*/ PermissionSet getUserFixed(@NonNull final PermissionSet autoDeniedPermissions) {
+		return mIsInstantDenial ? autoDeniedPermissions : autoDeniedPermissions.intersect(mShowRationale);
+	}
+
+	/**
+	 * @param instantDenialMillis
+	 * 		how fast a dialog returns when the system denies its permissions without showing it, 0 to never consider a
+	 * 		dialog unseen, see {@link #DEFAULT_INSTANT_DENIAL_MILLIS}
+	 */
+	@VisibleForTesting
+	/*package*/ static void setInstantDenialMillis(final long instantDenialMillis) {
+		sInstantDenialNanos = TimeUnit.MILLISECONDS.toNanos(instantDenialMillis);
+	}
+
+	/**
+	 * Forgets the permissions denied so far, as if the process was restarted
+	 */
+	@VisibleForTesting
+	/*package*/ static void reset() {
+		sDeniedPermissions = PermissionSet.EMPTY;
+	}
+}
@@ -0,0 +1,165 @@
+package com.tumblr.permissme;
+
+import android.content.pm.PackageManager;
+
+import androidx.activity.ComponentActivity;
+import androidx.activity.result.ActivityResultCallback;
+import androidx.activity.result.ActivityResultLauncher;
+import androidx.activity.result.contract.ActivityResultContracts;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleEventObserver;
+import androidx.lifecycle.LifecycleOwner;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Requests the permissions of the flows of one activity through its
+ * {@link androidx.activity.result.ActivityResultRegistry}, see {@link PermissMe#ENGINE_ACTIVITY_RESULT_REGISTRY}.
+ * <p>
+ * A launcher for the required permissions and one for the optional permissions are registered against the registry
+ * the first time the activity starts a flow, and are reused by every flow after that; starting a flow doesn't take
+ * any fragment transaction. Unlike the retained {@link PermissMe} fragment, the host doesn't outlive its activity:
+ * the flows waiting on a dialog when the activity is destroyed, e.g. by a configuration change, are dropped and their
+ * outcomes cancelled.
+ * <p>
+ * Hosts are only used from the main thread.
+ */
+/*package*/ final class RegistryPermissionHost implements PermissionScheduler.Host, LifecycleEventObserver {
+
+	private static final String KEY_PREFIX = "com.tumblr.permissme.RegistryPermissionHost#";
+
+	/**
+	 * The host of each activity; a host only holds a weak reference to its activity, and removes itself once the
+	 * activity is destroyed
+	 */
+	private static final Map<ComponentActivity, RegistryPermissionHost> HOSTS = new WeakHashMap<>();
+
+	@NonNull
+	private final WeakReference<ComponentActivity> mActivity;
+
+	@NonNull
+	private final PermissionScheduler mScheduler = new PermissionScheduler(this);
+
+	@NonNull
+	private final ActivityResultLauncher<String[]> mRequiredLauncher;
+
+	@NonNull
+	private final ActivityResultLauncher<String[]> mOptionalLauncher;
+
+	/**
+	 * The permissions of the dialog being shown, in the order the scheduler asked them
+	 */
+	@Nullable
+	private String[] mRequestedPermissions;
+
+	private RegistryPermissionHost(@NonNull final ComponentActivity activity) {
+		mActivity = new WeakReference<>(activity);
+		mRequiredLauncher = register(activity, PermissMe.REQUIRED_PERMISSION_REQUEST_CODE);
+		mOptionalLauncher = register(activity, PermissMe.OPTIONAL_PERMISSION_REQUEST_CODE);
+		activity.getLifecycle().addObserver(this);
+	}
+
+	/**
+	 * @param activity
+	 * 		the activity to request permissions in
+	 * @return the host of the activity, registered against its registry if it didn't exist yet
+	 */
+	@NonNull
+	/*package*/ static RegistryPermissionHost get(@NonNull final ComponentActivity activity) {
+		RegistryPermissionHost host = HOSTS.get(activity);
+		if (host == null) {
+			host = new RegistryPermissionHost(activity);
+			HOSTS.put(activity, host);
+		}
+		return host;
+	}
+
+	/**
+	 * Hands the flow to the scheduler of the activity
+	 *
+	 * @param flow
+	 * 		the flow to start
+	 */
+	/*package*/ void enqueue(@NonNull final PermissionFlow flow) {
+		mScheduler.enqueue(flow);
+	}
+
+	@Nullable
+	@Override
+	public ComponentActivity getHostActivity() {
+		return mActivity.get();
+	}
+
+	@NonNull
+	@Override
+	public PermissionSet getUngrantedPermissions(@NonNull final PermissionSet permissions) {
+		final ComponentActivity activity = mActivity.get();
+		return activity != null
+				? PermissionStateCache.getInstance().getDenied(activity, permissions)
+				: PermissionSet.EMPTY;
+	}
+
+	@Override
+	public void requestPermissions(@NonNull final String[] permissions, final int requestCode) {
+		mRequestedPermissions = permissions;
+		if (requestCode == PermissMe.REQUIRED_PERMISSION_REQUEST_CODE) {
+			mRequiredLauncher.launch(permissions);
+		} else {
+			mOptionalLauncher.launch(permissions);
+		}
+	}
+
+	@Override
+	public void onStateChanged(@NonNull final LifecycleOwner source, @NonNull final Lifecycle.Event event) {
+		if (event != Lifecycle.Event.ON_DESTROY) {
+			return;
+		}
+		source.getLifecycle().removeObserver(this);
+		mRequiredLauncher.unregister();
+		mOptionalLauncher.unregister();
+		// The launchers are gone with the activity, no result will come for the flows
+		mScheduler.cancelAll();
+		HOSTS.remove(source);
+	}
+
+	/**
+	 * Turns the result of a launcher into the result of {@code onRequestPermissionsResult}
+	 */
+	@VisibleForTesting
+	/*package*/ void onResult(final int requestCode, @NonNull final Map<String, Boolean> result) {
+		// The user may have changed the grant state of any permission we have cached
+		PermissionStateCache.getInstance().invalidate();
+
+		final String[] requestedPermissions = mRequestedPermissions;
+		mRequestedPermissions = null;
+		// An empty result means the request was cancelled, like an empty onRequestPermissionsResult
+		final String[] permissions = requestedPermissions != null && !result.isEmpty()
+				? requestedPermissions
+				: new String[0];
+		final int[] grantResults = new int[permissions.length];
+		for (int i = 0; i < permissions.length; i++) {
+			grantResults[i] = Boolean.TRUE.equals(result.get(permissions[i]))
+					? PackageManager.PERMISSION_GRANTED
+					: PackageManager.PERMISSION_DENIED;
+		}
+		mScheduler.onRequestPermissionsResult(requestCode, permissions, grantResults);
+	}
+
+	@NonNull
+	private ActivityResultLauncher<String[]> register(@NonNull final ComponentActivity activity,
+	                                                  final int requestCode) {
+		return activity.getActivityResultRegistry().register(KEY_PREFIX + requestCode,
+				new ActivityResultContracts.RequestMultiplePermissions(),
+				new ActivityResultCallback<Map<String, Boolean>>() {
+					@Override
+					public void onActivityResult(final Map<String, Boolean> result) {
+						onResult(requestCode, result);
+					}
+				});
+	}
+}
@@ -0,0 +1,106 @@
+package com.tumblr.permissme;
+
+import android.content.Context;
+import android.content.Intent;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the {@link DestinationWarmup}s and keeps their outcomes until the destination activity takes them, matched
+ * through a token added to the destination intent
+ */
+/*package*/ final class WarmupRegistry {
+
+	/**
+	 * The intent extra holding the token of the warm-up of the destination
+	 */
+	/*package*/ static final String DESTINATION_WARMUP_TOKEN_EXTRA = "DESTINATION_WARMUP_TOKEN_EXTRA";
+
+	/**
+	 * How many outcomes are kept for destinations that never took them, e.g. because they failed to launch; the
+	 * oldest one is dropped beyond that
+	 */
+	private static final int MAX_UNCLAIMED_OUTCOMES = 8;
+
+	/**
+	 * Tokens are unique to the process, so that an intent restored after the process died matches nothing
+	 */
+	private static final String TOKEN_PREFIX = UUID.randomUUID().toString() + ':';
+
+	private static final AtomicLong NEXT_TOKEN = new AtomicLong();
+
+	/**
+	 * The outcomes waiting for their destination, in the order they were started; guarded by its own lock
+	 */
+	private static final Map<String, PermissionOutcome<?>> OUTCOMES =
+			new LinkedHashMap<String, PermissionOutcome<?>>() {
+				@Override
+				protected boolean removeEldestEntry(final Map.Entry<String, PermissionOutcome<?>> eldest) {
+					return size() > MAX_UNCLAIMED_OUTCOMES;
+				}
+			};
+
+	private WarmupRegistry() {
+
+	}
+
+	/**
+	 * Starts the warm-up on the background executor of {@link PermissMeDispatcher} and adds its token to the
+	 * destination intent
+	 *
+	 * @param context
+	 * 		any context of the app
+	 * @param destinationIntent
+	 * 		the intent of the destination that will take the outcome
+	 * @param warmup
+	 * 		the warm-up to run
+	 */
+	/*package*/ static <T> void start(@NonNull final Context context,
+	                                  @NonNull final Intent destinationIntent,
+	                                  @NonNull final DestinationWarmup<T> warmup) {
+		final Context applicationContext = context.getApplicationContext();
+		final PermissionOutcome<T> outcome = new PermissionOutcome<>();
+		final String token = TOKEN_PREFIX + NEXT_TOKEN.incrementAndGet();
+		synchronized (OUTCOMES) {
+			OUTCOMES.put(token, outcome);
+		}
+		destinationIntent.putExtra(DESTINATION_WARMUP_TOKEN_EXTRA, token);
+
+		PermissMeDispatcher.getInstance().getBackgroundExecutor().execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					outcome.complete(warmup.warmUp(applicationContext));
+				} catch (final Exception e) {
+					outcome.completeExceptionally(e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Takes the outcome of the warm-up started for the destination intent; it can only be taken once
+	 *
+	 * @param destinationIntent
+	 * 		the intent the destination was started with
+	 * @return the outcome, or null if no warm-up was started for the intent or it was already taken
+	 */
+	@Nullable
+	/*package*/ static PermissionOutcome<?> take(@Nullable final Intent destinationIntent) {
+		final String token = destinationIntent != null
+				? destinationIntent.getStringExtra(DESTINATION_WARMUP_TOKEN_EXTRA)
+				: null;
+		if (token == null) {
+			return null;
+		}
+		synchronized (OUTCOMES) {
+			return OUTCOMES.remove(token);
+		}
+	}
+}
@@ -7,8 +7,6 @@ import android.content.Context;
 import android.content.Intent;
 import android.net.Uri;
 import android.os.Build;
-import android.os.Handler;
-import android.os.Looper;
 import android.provider.Settings;
 import android.view.View;
 import android.view.ViewGroup;
@@ -20,10 +18,14 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.content.PermissionChecker;
 
 import com.google.android.material.snackbar.Snackbar;
+import com.tumblr.permissme.PermissMe;
 import com.tumblr.permissme.PermissMeConfig;
+import com.tumblr.permissme.PermissMeDispatcher;
+import com.tumblr.permissme.PermissionBackend;
+import com.tumblr.permissme.PermissionStateCache;
+import com.tumblr.permissme.core.PermissionDecisions;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
 /**
  * Utils to help in common runtime permission related tasks introduced in AndroidM
@@ -32,6 +34,8 @@ import java.util.List;
  */
 public final class PermissMeUtils {
 
+	private static final String[] NO_PERMISSIONS = new String[0];
+
 	private PermissMeUtils() {
 
 	}
@@ -47,18 +51,7 @@ public final class PermissMeUtils {
 	 * @see Activity#onRequestPermissionsResult(int, String[], int[])
 	 */
 	public static boolean verifyPermissions(@NonNull final int[] grantResults) {
-		// At least one result must be checked.
-		if (grantResults.length < 1) {
-			return false;
-		}
-
-		// Verify that each required permission has been granted, otherwise return false.
-		for (int result : grantResults) {
-			if (result != PermissionChecker.PERMISSION_GRANTED) {
-				return false;
-			}
-		}
-		return true;
+		return PermissionDecisions.verifyPermissions(grantResults);
 	}
 
 	/**
@@ -72,20 +65,20 @@ public final class PermissMeUtils {
 	 */
 	@NonNull
 	public static String[] getDeniedPermissions(@NonNull final Context context, @Nullable final String... permissions) {
-		if (permissions == null || permissions.length <= 0) {
-			return new String[0];
+		// Answered from memory without allocating once the permissions were read, which also reads the missing
+		// ones at once
+		if (PermissionStateCache.getInstance().isAllGranted(context, permissions)) {
+			return NO_PERMISSIONS;
 		}
-
-		final List<String> deniedPermissions = new ArrayList<>();
+		// Every permission was read by the check above, answered from memory as well
+		final String[] deniedPermissions = new String[permissions.length];
+		int count = 0;
 		for (int i = 0; i < permissions.length; i++) {
-			final String permission = permissions[i];
-			if (!PermissMeUtils.permissionIsInvalidOrHasPermission(context, permission)) {
-				deniedPermissions.add(permission);
+			if (!permissionIsInvalidOrHasPermission(context, permissions[i])) {
+				deniedPermissions[count++] = permissions[i];
 			}
 		}
-
-		final String[] p = new String[deniedPermissions.size()];
-		return deniedPermissions.toArray(p);
+		return count == deniedPermissions.length ? deniedPermissions : Arrays.copyOf(deniedPermissions, count);
 	}
 
 	/**
@@ -98,20 +91,17 @@ public final class PermissMeUtils {
 	 * @return Whether we have access to the permission
 	 */
 	public static boolean needToRequestPermission(@NonNull final Context context, @NonNull final String... permissions) {
-		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-			for (int i = 0; i < permissions.length; i++) {
-				final String permission = permissions[i];
-				if (!PermissMeUtils.permissionIsInvalidOrHasPermission(context, permission)) {
-					return true;
-				}
-			}
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M || PermissionBackend.getInstalled() != null) {
+			// Answered from memory without allocating once the permissions were read, which also reads the missing
+			// ones at once
+			return !PermissionStateCache.getInstance().isAllGranted(context, permissions);
 		}
 		return false;
 	}
 
 	/**
 	 * Checks if the permission is invalid (null) or if it's not, if the package has the parameter permission already
-	 * granted
+	 * granted. The grant state is answered from the {@link PermissionStateCache} whenever possible.
 	 *
 	 * @param context
 	 * 		the context
@@ -125,7 +115,7 @@ public final class PermissMeUtils {
 	                                                              final String permission) {
 		return permission == null
 				|| permission.isEmpty()
-				|| PermissionChecker.checkSelfPermission(context, permission) == PermissionChecker.PERMISSION_GRANTED;
+				|| PermissionStateCache.getInstance().isGranted(context, permission);
 	}
 
 	/**
@@ -141,22 +131,42 @@ public final class PermissMeUtils {
 	 */
 	public static void showPermissionDeniedSnackbar(@NonNull final Activity activity,
 	                                                @Nullable final String customErrorMessage) {
-		final View topView = ((ViewGroup) activity.findViewById(android.R.id.content)).getChildAt(0);
+		showPermissionDeniedSnackbar(activity, customErrorMessage, null);
+	}
 
-		final String defaultErrorMessage =
-				activity.getResources().getString(PermissMeConfig.getInstance().getDefaultPermissionDeniedMsg());
-		final String errorMessage = customErrorMessage != null ? customErrorMessage : defaultErrorMessage;
+	/**
+	 * Shows the snackbar which is used in the scenario where user auto-denied permissions before, see
+	 * {@link #showPermissionDeniedSnackbar(Activity, String)}
+	 *
+	 * @param activity
+	 * 		the activity with the view to attach the snackbar to
+	 * @param customErrorMessage
+	 * 		an optional custom error message. this method uses the default one if the custom one
+	 * 		is null
+	 * @param config
+	 * 		the configuration of the snackbar, or null for the global {@link PermissMeConfig#getInstance()}
+	 */
+	public static void showPermissionDeniedSnackbar(@NonNull final Activity activity,
+	                                                @Nullable final String customErrorMessage,
+	                                                @Nullable final PermissMeConfig config) {
+		final ViewGroup content = activity.findViewById(android.R.id.content);
+		// No content view, e.g. an activity of a unit test
+		final View topView = content != null ? content.getChildAt(0) : null;
+		if (topView == null) {
+			return;
+		}
 
-		final String ctaString =
-				activity.getResources().getString(PermissMeConfig.getInstance().getDefaultCtaButtonMsg());
+		final PermissMeConfig snackbarConfig = config != null ? config : PermissMeConfig.getInstance();
+		final String errorMessage = customErrorMessage != null
+				? customErrorMessage
+				: snackbarConfig.getDefaultPermissionDeniedMsg(activity);
 
-		if (topView != null) {
-			showSnackBar(topView,
-					errorMessage,
-					activity.getResources().getColor(PermissMeConfig.getInstance().getSnackBarBgColorRes()),
-					ctaString,
-					createSettingsClickListener(activity));
-		}
+		showSnackBar(topView,
+				errorMessage,
+				snackbarConfig.getSnackBarBgColor(activity),
+				snackbarConfig.getDefaultCtaButtonMsg(activity),
+				createSettingsClickListener(activity),
+				snackbarConfig);
 	}
 
 	/**
@@ -196,12 +206,36 @@ public final class PermissMeUtils {
 	 * @return whether the permission was auto-denied by the system for the package
 	 */
 	@TargetApi(Build.VERSION_CODES.M)
-	public static boolean isAutoDeniedPermission(final AppCompatActivity activity, @NonNull final String permission) {
+	public static boolean isAutoDeniedPermission(final Activity activity, @NonNull final String permission) {
+		final PermissionBackend backend = PermissionBackend.getInstalled();
+		if (backend != null) {
+			return !backend.shouldShowRequestPermissionRationale(activity, permission);
+		}
 		return !activity.shouldShowRequestPermissionRationale(permission);
 	}
 
 	/**
-	 * The onClickListener that takes you to the app's system settings screen
+	 * Checks if the permission is auto-denied, see {@link #isAutoDeniedPermission(Activity, String)}
+	 *
+	 * @param activity
+	 * 		the activity
+	 * @param permission
+	 * 		the permission being queried
+	 * @return whether the permission was auto-denied by the system for the package
+	 * @deprecated use {@link #isAutoDeniedPermission(Activity, String)}, which takes any {@link Activity}; this
+	 * overload only remains for apps compiled against it
+	 */
+	@Deprecated
+	@TargetApi(Build.VERSION_CODES.M)
+	public static boolean isAutoDeniedPermission(final AppCompatActivity activity, @NonNull final String permission) {
+		return isAutoDeniedPermission((Activity) activity, permission);
+	}
+
+	/**
+	 * The onClickListener that takes you to the app's system settings screen. The auto-denied permissions are
+	 * forgotten as soon as the settings open, so they are asked again whatever the user does there, see
+	 * {@link PermissMe#forgetAutoDeniedPermissions(Context)}, and the {@link PermissionStateCache} is invalidated once
+	 * the user comes back to the app, since permissions may have been granted from there.
 	 *
 	 * @param activity
 	 * 		the caller activity used to start the settings intent
@@ -218,6 +252,8 @@ public final class PermissMeUtils {
 				intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
 				intent.addFlags(Intent.FLAG_ACTIVITY_NO_HISTORY);
 				intent.addFlags(Intent.FLAG_ACTIVITY_EXCLUDE_FROM_RECENTS);
+				PermissionStateCache.getInstance().invalidateOnReturn(activity);
+				PermissMe.forgetAutoDeniedPermissions(activity);
 				activity.startActivity(intent);
 			}
 		};
@@ -242,16 +278,23 @@ public final class PermissMeUtils {
 	                                final int backgroundColor,
 	                                final String ctaString,
 	                                final View.OnClickListener ctaClickListener) {
+		showSnackBar(view, msg, backgroundColor, ctaString, ctaClickListener, PermissMeConfig.getInstance());
+	}
+
+	private static void showSnackBar(final View view,
+	                                 final String msg,
+	                                 final int backgroundColor,
+	                                 final String ctaString,
+	                                 final View.OnClickListener ctaClickListener,
+	                                 @NonNull final PermissMeConfig config) {
 		final Snackbar snack = Snackbar.make(view, msg,
 				ctaString != null ? Snackbar.LENGTH_LONG : Snackbar.LENGTH_SHORT);
 
 		final ViewGroup group = (ViewGroup) snack.getView();
 		group.setBackgroundColor(backgroundColor);
 
-		final int textColor =
-				view.getContext().getResources().getColor(PermissMeConfig.getInstance().getTextColorRes());
 		if (ctaString != null && ctaClickListener != null) {
-			snack.setActionTextColor(textColor);
+			snack.setActionTextColor(config.getTextColor(view.getContext()));
 			snack.setAction(ctaString, ctaClickListener);
 		}
 
@@ -259,12 +302,13 @@ public final class PermissMeUtils {
 	}
 
 	/**
-	 * Helper method to post a {@link Runnable} to the main thread
+	 * Helper method to run a {@link Runnable} on the main thread through the shared {@link PermissMeDispatcher}; it
+	 * is posted or run inline depending on {@link PermissMeDispatcher#setMode(int)}
 	 *
 	 * @param runnable
 	 * 		runnable to execute on the main thread
 	 */
 	public static void runOnUiThread(final Runnable runnable) {
-		new Handler(Looper.getMainLooper()).post(runnable);
+		PermissMeDispatcher.getInstance().dispatch(runnable);
 	}
 }
@@ -0,0 +1,200 @@
+package com.tumblr.permissme;
+
+import android.Manifest;
+import android.content.Context;
+import android.os.Build;
+import androidx.activity.ComponentActivity;
+
+import com.tumblr.permissme.utils.PermissMeUtils;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Allocation budgets of the calls PermissMe makes on the scrolling and navigation paths of the app, measured through
+ * the allocation counter of the current thread once the grant states are cached and the calls are warmed up.
+ * <p>
+ * The budgets are the bytes each call may allocate on a 64-bit HotSpot JVM with compressed pointers, the default for
+ * heaps under 32 GB; a change that goes over one fails the build. Tighten them when a change saves allocations. On
+ * JVMs that don't count allocations, the tests are skipped.
+ */
+public class AllocationBudgetTest {
+
+	/**
+	 * {@link PermissMeUtils#needToRequestPermission(Context, String...)}: nothing, whether the permissions are granted
+	 * or not
+	 */
+	private static final long NEED_TO_REQUEST_GRANTED_BUDGET = 0;
+	private static final long NEED_TO_REQUEST_DENIED_BUDGET = 0;
+
+	/**
+	 * {@link PermissMeUtils#getDeniedPermissions(Context, String...)}: nothing when the permissions are granted; a
+	 * scratch array and the denied permissions otherwise
+	 */
+	private static final long GET_DENIED_GRANTED_BUDGET = 0;
+	private static final long GET_DENIED_DENIED_BUDGET = 48;
+
+	/**
+	 * The check of a request, {@link PermissMe#needsPermissions(Context, PermissionSet, PermissionSet)}, when the
+	 * permissions are granted
+	 */
+	private static final long NEEDS_PERMISSIONS_GRANTED_BUDGET = 0;
+
+	/**
+	 * A {@link PermissMe.Builder} with its required permissions, and the order they were asked in
+	 */
+	private static final long BUILDER_BUDGET = 120;
+
+	private static final int WARMUP_CALLS = 20000;
+	private static final int CALLS = 10000;
+
+	private static final String[] GRANTED = { Manifest.permission.CAMERA, Manifest.permission.RECORD_AUDIO };
+	private static final String[] DENIED = { Manifest.permission.CAMERA, Manifest.permission.READ_CONTACTS };
+
+	private final Set<String> mGrantedPermissions = new HashSet<>(Arrays.asList(GRANTED));
+
+	private ComponentActivity mActivity;
+	private int mSdkVersion;
+
+	/**
+	 * Where the results of the calls go, so they can't be optimized away
+	 */
+	private int mSink;
+
+	@Before
+	public void init() throws Exception {
+		final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		Assume.assumeTrue(threads instanceof com.sun.management.ThreadMXBean
+				&& ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported());
+
+		mActivity = Mockito.mock(ComponentActivity.class);
+		mSdkVersion = Build.VERSION.SDK_INT;
+		setEnvBuildVersion(Build.VERSION_CODES.M);
+		PermissionStateCache.getInstance().setGrantReader(new PermissionStateCache.GrantReader() {
+			@Override
+			public boolean isGranted(final Context context, final String permission) {
+				return mGrantedPermissions.contains(permission);
+			}
+		});
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		PermissionStateCache.getInstance().setGrantReader(null);
+		setEnvBuildVersion(mSdkVersion);
+	}
+
+	@Test
+	public void testNeedToRequestPermission_whenGranted_withinBudget() {
+		assertWithinBudget("needToRequestPermission, granted", NEED_TO_REQUEST_GRANTED_BUDGET, new Call() {
+			@Override
+			public void run() {
+				mSink += PermissMeUtils.needToRequestPermission(mActivity, GRANTED) ? 1 : 0;
+			}
+		});
+	}
+
+	@Test
+	public void testNeedToRequestPermission_whenDenied_withinBudget() {
+		assertWithinBudget("needToRequestPermission, denied", NEED_TO_REQUEST_DENIED_BUDGET, new Call() {
+			@Override
+			public void run() {
+				mSink += PermissMeUtils.needToRequestPermission(mActivity, DENIED) ? 1 : 0;
+			}
+		});
+	}
+
+	@Test
+	public void testGetDeniedPermissions_whenGranted_withinBudget() {
+		assertWithinBudget("getDeniedPermissions, granted", GET_DENIED_GRANTED_BUDGET, new Call() {
+			@Override
+			public void run() {
+				mSink += PermissMeUtils.getDeniedPermissions(mActivity, GRANTED).length;
+			}
+		});
+	}
+
+	@Test
+	public void testGetDeniedPermissions_whenDenied_withinBudget() {
+		assertWithinBudget("getDeniedPermissions, denied", GET_DENIED_DENIED_BUDGET, new Call() {
+			@Override
+			public void run() {
+				mSink += PermissMeUtils.getDeniedPermissions(mActivity, DENIED).length;
+			}
+		});
+	}
+
+	@Test
+	public void testNeedsPermissions_whenGranted_withinBudget() {
+		final PermissionSet requiredPermissions = PermissionSet.of(GRANTED[0]);
+		final PermissionSet optionalPermissions = PermissionSet.of(GRANTED[1]);
+		assertWithinBudget("needsPermissions, granted", NEEDS_PERMISSIONS_GRANTED_BUDGET, new Call() {
+			@Override
+			public void run() {
+				mSink += PermissMe.needsPermissions(mActivity, requiredPermissions, optionalPermissions) ? 1 : 0;
+				mSink += PermissMe.needsPermissions(mActivity, requiredPermissions, PermissionSet.EMPTY) ? 1 : 0;
+				mSink += PermissMe.needsPermissions(mActivity, PermissionSet.EMPTY, optionalPermissions) ? 1 : 0;
+			}
+		});
+	}
+
+	@Test
+	public void testBuilder_withinBudget() {
+		assertWithinBudget("Builder", BUILDER_BUDGET, new Call() {
+			@Override
+			public void run() {
+				mSink += PermissMe.with(mActivity).setRequiredPermissions(GRANTED).hashCode();
+			}
+		});
+	}
+
+	private static void assertWithinBudget(final String name, final long budget, final Call call) {
+		for (int i = 0; i < WARMUP_CALLS; i++) {
+			call.run();
+		}
+		final long start = allocatedBytes();
+		for (int i = 0; i < CALLS; i++) {
+			call.run();
+		}
+		// Rounded down, so that the allocations of the measurement itself don't count
+		final long bytesPerCall = (allocatedBytes() - start) / CALLS;
+		assertTrue(name + ": " + bytesPerCall + " bytes per call, over the budget of " + budget,
+				bytesPerCall <= budget);
+	}
+
+	private static long allocatedBytes() {
+		final com.sun.management.ThreadMXBean threads =
+				(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	private void setEnvBuildVersion(final int version) throws Exception {
+		final Field sdkIntField = Build.VERSION.class.getDeclaredField("SDK_INT");
+		final Field modifiersField = Field.class.getDeclaredField("modifiers");
+
+		sdkIntField.setAccessible(true);
+		modifiersField.setAccessible(true);
+		modifiersField.setInt(sdkIntField, sdkIntField.getModifiers() & ~Modifier.FINAL);
+
+		sdkIntField.set(null, version);
+		modifiersField.setInt(sdkIntField, sdkIntField.getModifiers() | Modifier.FINAL);
+		sdkIntField.setAccessible(false);
+	}
+
+	private interface Call {
+		void run();
+	}
+}
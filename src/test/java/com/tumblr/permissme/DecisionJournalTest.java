@@ -0,0 +1,155 @@
+package com.tumblr.permissme;
+
+import android.Manifest;
+import android.app.Activity;
+import android.content.Context;
+
+import androidx.core.content.PermissionChecker;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for the {@link DecisionJournal} class
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(PermissionChecker.class)
+@PowerMockIgnore("jdk.internal.reflect.*")
+public class DecisionJournalTest {
+
+	private static final Executor DIRECT_EXECUTOR = new Executor() {
+		@Override
+		public void execute(final Runnable command) {
+			command.run();
+		}
+	};
+
+	private static final PermissionSet CAMERA = PermissionSet.of(Manifest.permission.CAMERA);
+	private static final PermissionSet READ_SMS = PermissionSet.of(Manifest.permission.READ_SMS);
+
+	@Rule
+	public final TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+	private File mFile;
+
+	@Before
+	public void init() {
+		mFile = new File(mTemporaryFolder.getRoot(), DecisionJournal.FILE_NAME);
+	}
+
+	@Test
+	public void testRecord_whenReopened_keepDecisions() {
+		final DecisionJournal journal = new DecisionJournal(mFile, DIRECT_EXECUTOR);
+		journal.record(PermissionSet.EMPTY, CAMERA.union(READ_SMS), CAMERA);
+
+		assertEquals(CAMERA, journal.getAutoDenied());
+		assertEquals(CAMERA.union(READ_SMS), journal.getDenied());
+
+		final DecisionJournal reopened = open();
+		assertEquals(CAMERA, reopened.getAutoDenied());
+		assertEquals(CAMERA.union(READ_SMS), reopened.getDenied());
+	}
+
+	@Test
+	public void testRecord_whenDecisionChanges_lastDecisionWins() {
+		final DecisionJournal journal = new DecisionJournal(mFile, DIRECT_EXECUTOR);
+		journal.record(PermissionSet.EMPTY, CAMERA, CAMERA);
+		journal.record(CAMERA, PermissionSet.EMPTY, PermissionSet.EMPTY);
+
+		assertTrue(journal.getAutoDenied().isEmpty());
+		assertTrue(open().getDenied().isEmpty());
+	}
+
+	@Test
+	public void testRecord_whenJournalFull_compactWithoutGrowing() {
+		final DecisionJournal journal = new DecisionJournal(mFile, DIRECT_EXECUTOR);
+		// Far more records than fit in the journal, for only two permissions
+		for (int i = 0; i < DecisionJournal.DEFAULT_CAPACITY_BYTES; i++) {
+			journal.record(READ_SMS, CAMERA, i % 2 == 0 ? CAMERA : PermissionSet.EMPTY);
+			journal.record(CAMERA, READ_SMS, PermissionSet.EMPTY);
+		}
+		journal.record(READ_SMS, CAMERA, CAMERA);
+
+		assertEquals(DecisionJournal.DEFAULT_CAPACITY_BYTES, mFile.length());
+		final DecisionJournal reopened = open();
+		assertEquals(CAMERA, reopened.getAutoDenied());
+		assertEquals(CAMERA, reopened.getDenied());
+	}
+
+	@Test
+	public void testForgetAutoDenied_keepPermissionsDenied() {
+		final DecisionJournal journal = new DecisionJournal(mFile, DIRECT_EXECUTOR);
+		journal.record(PermissionSet.EMPTY, CAMERA, CAMERA);
+		journal.forgetAutoDenied();
+
+		assertTrue(journal.getAutoDenied().isEmpty());
+		assertEquals(CAMERA, open().getDenied());
+	}
+
+	@Test
+	public void testRecord_whenFileUnreadable_startOver() throws Exception {
+		assertTrue(mFile.createNewFile());
+		final FileOutputStream out = new FileOutputStream(mFile);
+		out.write(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9 });
+		out.close();
+
+		final DecisionJournal journal = new DecisionJournal(mFile, DIRECT_EXECUTOR);
+		journal.record(PermissionSet.EMPTY, CAMERA, CAMERA);
+
+		assertEquals(CAMERA, open().getAutoDenied());
+	}
+
+	@Test
+	public void testVerify_whenStillDeniedWithoutRationale_keepAutoDenied() {
+		final DecisionJournal journal = new DecisionJournal(mFile, DIRECT_EXECUTOR);
+		journal.record(PermissionSet.EMPTY, CAMERA.union(READ_SMS), CAMERA.union(READ_SMS));
+		final Activity activity = mock(Activity.class);
+		// Asked again from the system settings: the rationale shows again
+		when(activity.shouldShowRequestPermissionRationale(Manifest.permission.READ_SMS)).thenReturn(true);
+		PowerMockito.mockStatic(PermissionChecker.class);
+		PowerMockito.when(PermissionChecker.checkSelfPermission(any(Context.class), anyString()))
+				.thenReturn(PermissionChecker.PERMISSION_DENIED);
+
+		journal.verify(activity, CAMERA.union(READ_SMS));
+
+		assertEquals(CAMERA, journal.getAutoDenied());
+		assertEquals(CAMERA.union(READ_SMS), open().getDenied());
+	}
+
+	@Test
+	public void testSkip_whenSkippedBefore_askSystem() {
+		final DecisionJournal journal = new DecisionJournal(mFile, DIRECT_EXECUTOR);
+		journal.record(PermissionSet.EMPTY, CAMERA.union(READ_SMS), CAMERA);
+
+		assertFalse(journal.skip(CAMERA.union(READ_SMS)));
+		assertTrue(journal.skip(CAMERA));
+		// e.g. reset to "ask every time" from the system settings, which the journal can't tell
+		assertFalse(journal.skip(CAMERA));
+		assertEquals(CAMERA, journal.getAutoDenied());
+		assertTrue(open().skip(CAMERA));
+	}
+
+	/**
+	 * @return a new journal of the same file, loaded by recording nothing
+	 */
+	private DecisionJournal open() {
+		final DecisionJournal journal = new DecisionJournal(mFile, DIRECT_EXECUTOR);
+		journal.record(PermissionSet.EMPTY, PermissionSet.EMPTY, PermissionSet.EMPTY);
+		return journal;
+	}
+}
@@ -0,0 +1,157 @@
+package com.tumblr.permissme;
+
+import android.Manifest;
+import android.content.ComponentName;
+import android.content.Intent;
+import android.os.Bundle;
+import androidx.activity.ComponentActivity;
+import androidx.annotation.NonNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for the {@link FlowState} class
+ */
+public class FlowStateTest {
+
+	private static final int REQUEST_CODE = 7;
+	private static final int ENTER_ANIM = 11;
+	private static final int EXIT_ANIM = 13;
+
+	private ComponentName mDestination;
+	private Bundle mDestinationExtras;
+	private Bundle mLaunchOptions;
+	private PermissMeConfig mConfig;
+
+	@Before
+	public void init() {
+		mDestination = mock(ComponentName.class);
+		mDestinationExtras = mock(Bundle.class);
+		mLaunchOptions = mock(Bundle.class);
+		mConfig = PermissMeConfig.getInstance();
+		PermissMeDispatcher.setMainThreadExecutor(new Executor() {
+			@Override
+			public void execute(@NonNull final Runnable command) {
+				command.run();
+			}
+		});
+	}
+
+	@After
+	public void tearDown() {
+		PermissMeDispatcher.setMainThreadExecutor(null);
+	}
+
+	@Test
+	public void testEquals_whenSameFields_equalWithSameHashCode() {
+		final FlowState state = createState();
+		final FlowState other = createState();
+
+		assertEquals(state, other);
+		assertEquals(state.hashCode(), other.hashCode());
+		assertEquals(new FlowState(), new FlowState());
+		assertNotEquals(state, new FlowState());
+		assertNotEquals(state, null);
+	}
+
+	@Test
+	public void testEquals_whenAnyFieldDiffers_notEqual() {
+		final FlowState state = createState();
+
+		FlowState other = createState();
+		other.mDestination = mock(ComponentName.class);
+		assertNotEquals(state, other);
+
+		other = createState();
+		other.mDestinationExtras = null;
+		assertNotEquals(state, other);
+
+		other = createState();
+		other.mLaunchOptions = null;
+		assertNotEquals(state, other);
+
+		other = createState();
+		other.mEnterAnim = 0;
+		assertNotEquals(state, other);
+
+		other = createState();
+		other.mExitAnim = 0;
+		assertNotEquals(state, other);
+
+		other = createState();
+		other.mRequestCode = 0;
+		assertNotEquals(state, other);
+
+		other = createState();
+		other.mFinishCallerActivity = false;
+		assertNotEquals(state, other);
+
+		other = createState();
+		other.mShowUIOnFailure = true;
+		assertNotEquals(state, other);
+
+		other = createState();
+		other.mCustomAutoDeniedMessage = "Other message";
+		assertNotEquals(state, other);
+
+		other = createState();
+		other.mConfig = null;
+		assertNotEquals(state, other);
+	}
+
+	@Test
+	public void testIsSameRequest_whenStatesDiffer_keepFlowsApart() {
+		final PermissionFlow flow = createFlow(createState());
+		final PermissionFlow sameFlow = createFlow(createState());
+		final FlowState otherState = createState();
+		otherState.mEnterAnim = 0;
+
+		assertTrue(flow.isSameRequest(sameFlow));
+		assertFalse(flow.isSameRequest(createFlow(otherState)));
+	}
+
+	@Test
+	public void testLaunchDestinationIntent_launchWithState() {
+		final ComponentActivity activity = mock(ComponentActivity.class);
+		final Intent intent = mock(Intent.class);
+		final PermissionFlow flow = createFlow(createState());
+		flow.mLaunchIntent = intent;
+
+		flow.launchDestinationIntent(activity);
+
+		verify(activity).startActivityForResult(intent, REQUEST_CODE, mLaunchOptions);
+		verify(activity).overridePendingTransition(ENTER_ANIM, EXIT_ANIM);
+		verify(activity).finish();
+	}
+
+	@NonNull
+	private FlowState createState() {
+		final FlowState state = new FlowState();
+		state.mDestination = mDestination;
+		state.mDestinationExtras = mDestinationExtras;
+		state.mLaunchOptions = mLaunchOptions;
+		state.mEnterAnim = ENTER_ANIM;
+		state.mExitAnim = EXIT_ANIM;
+		state.mRequestCode = REQUEST_CODE;
+		state.mFinishCallerActivity = true;
+		state.mShowUIOnFailure = false;
+		state.mCustomAutoDeniedMessage = "Grant the camera permission in the settings";
+		state.mConfig = mConfig;
+		return state;
+	}
+
+	@NonNull
+	private static PermissionFlow createFlow(@NonNull final FlowState state) {
+		final PermissionFlow flow = new PermissionFlow();
+		flow.mState = state;
+		flow.mRequiredPermissions = PermissionSet.of(Manifest.permission.CAMERA);
+		return flow;
+	}
+}
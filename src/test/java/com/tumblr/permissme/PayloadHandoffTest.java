@@ -0,0 +1,152 @@
+package com.tumblr.permissme;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Parcel;
+import android.os.SystemClock;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for the {@link PayloadHandoff} class
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(SystemClock.class)
+@PowerMockIgnore("jdk.internal.reflect.*")
+public class PayloadHandoffTest {
+
+	private static final String OWN_PACKAGE = "com.tumblr.app";
+
+	@Before
+	public void init() {
+		PowerMockito.mockStatic(SystemClock.class);
+	}
+
+	@After
+	public void tearDown() {
+		PayloadHandoff.setThresholdBytes(PayloadHandoff.DISABLED_THRESHOLD_BYTES);
+	}
+
+	@Test
+	public void testPutExtras_byDefault_putPlainExtrasWithoutMeasuring() {
+		final Intent intent = mockIntent(OWN_PACKAGE);
+		final Bundle extras = mock(Bundle.class);
+
+		PayloadHandoff.putExtras(mockContext(), intent, extras);
+
+		verify(intent).putExtras(extras);
+		verify(intent, never()).putExtra(eq(PayloadHandoff.HANDOFF_TOKEN_EXTRA), anyString());
+		verify(intent, never()).writeToParcel(any(Parcel.class), anyInt());
+	}
+
+	@Test
+	public void testPutExtras_whenEnabledForOwnPackage_handOffExtras() {
+		PayloadHandoff.setThresholdBytes(0);
+		final Intent intent = mockIntent(OWN_PACKAGE);
+		final Bundle extras = mock(Bundle.class);
+
+		PayloadHandoff.putExtras(mockContext(), intent, extras);
+
+		final ArgumentCaptor<String> token = ArgumentCaptor.forClass(String.class);
+		verify(intent).putExtra(eq(PayloadHandoff.HANDOFF_TOKEN_EXTRA), token.capture());
+		verify(intent, never()).putExtras(any(Bundle.class));
+		assertSame(extras, PayloadHandoff.claim(token.getValue(), 0));
+	}
+
+	@Test
+	public void testPutExtras_whenEnabledForOtherPackage_putPlainExtras() {
+		PayloadHandoff.setThresholdBytes(0);
+		final Intent intent = mockIntent("com.other.app");
+		final Bundle extras = mock(Bundle.class);
+
+		PayloadHandoff.putExtras(mockContext(), intent, extras);
+
+		verify(intent).putExtras(extras);
+		verify(intent, never()).putExtra(eq(PayloadHandoff.HANDOFF_TOKEN_EXTRA), anyString());
+	}
+
+	@Test
+	public void testPutExtras_whenEnabledForImplicitIntent_putPlainExtras() {
+		PayloadHandoff.setThresholdBytes(0);
+		final Intent intent = mock(Intent.class);
+		final Bundle extras = mock(Bundle.class);
+
+		PayloadHandoff.putExtras(mockContext(), intent, extras);
+
+		verify(intent).putExtras(extras);
+		verify(intent, never()).putExtra(eq(PayloadHandoff.HANDOFF_TOKEN_EXTRA), anyString());
+	}
+
+	@Test
+	public void testPutExtras_whenEnabledWithoutContext_putPlainExtras() {
+		PayloadHandoff.setThresholdBytes(0);
+		final Intent intent = mockIntent(OWN_PACKAGE);
+		final Bundle extras = mock(Bundle.class);
+
+		PayloadHandoff.putExtras(null, intent, extras);
+
+		verify(intent).putExtras(extras);
+		verify(intent, never()).putExtra(eq(PayloadHandoff.HANDOFF_TOKEN_EXTRA), anyString());
+	}
+
+	@Test
+	public void testClaim_whenPayloadPut_returnPayloadOnce() {
+		final Object payload = new Object();
+		final String token = PayloadHandoff.put(payload, 0);
+
+		assertSame(payload, PayloadHandoff.claim(token, 1));
+		assertNull(PayloadHandoff.claim(token, 2));
+	}
+
+	@Test
+	public void testClaim_whenSamePayloadPutTwice_keepPayloadUntilLastClaim() {
+		final Object payload = new Object();
+		final String token = PayloadHandoff.put(payload, 0);
+
+		assertEquals(token, PayloadHandoff.put(payload, 1));
+		assertSame(payload, PayloadHandoff.claim(token, 2));
+		assertSame(payload, PayloadHandoff.claim(token, 3));
+		assertNull(PayloadHandoff.claim(token, 4));
+	}
+
+	@Test
+	public void testClaim_whenTimedOut_returnNull() {
+		final String token = PayloadHandoff.put(new Object(), 0);
+
+		assertNull(PayloadHandoff.claim(token, PayloadHandoff.TIMEOUT_MILLIS));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testSetThresholdBytes_whenNegative_throwException() {
+		PayloadHandoff.setThresholdBytes(-1);
+	}
+
+	private static Context mockContext() {
+		final Context context = mock(Context.class);
+		when(context.getPackageName()).thenReturn(OWN_PACKAGE);
+		return context;
+	}
+
+	private static Intent mockIntent(final String targetPackage) {
+		final ComponentName component = mock(ComponentName.class);
+		when(component.getPackageName()).thenReturn(targetPackage);
+		final Intent intent = mock(Intent.class);
+		when(intent.getComponent()).thenReturn(component);
+		return intent;
+	}
+}
@@ -0,0 +1,65 @@
+package com.tumblr.permissme;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the {@link PermissMeConfig} class
+ */
+public class PermissMeConfigTest {
+
+	private static final int MESSAGE_RES = 101;
+	private static final int CTA_RES = 102;
+	private static final int TEXT_COLOR_RES = 103;
+	private static final int BG_COLOR_RES = 104;
+
+	private final PermissMeConfig mInitialConfig = PermissMeConfig.getInstance();
+
+	@After
+	public void tearDown() {
+		PermissMeConfig.config(mInitialConfig);
+	}
+
+	@Test
+	public void testConfig_replacesInstanceAndKeepsOldSnapshot() {
+		final PermissMeConfig before = PermissMeConfig.getInstance();
+		final int oldMessage = before.getDefaultPermissionDeniedMsg();
+
+		PermissMeConfig.config(MESSAGE_RES, CTA_RES, TEXT_COLOR_RES, BG_COLOR_RES);
+
+		final PermissMeConfig after = PermissMeConfig.getInstance();
+		assertNotSame(before, after);
+		assertEquals(oldMessage, before.getDefaultPermissionDeniedMsg());
+		assertEquals(MESSAGE_RES, after.getDefaultPermissionDeniedMsg());
+		assertEquals(CTA_RES, after.getDefaultCtaButtonMsg());
+		assertEquals(TEXT_COLOR_RES, after.getTextColorRes());
+		assertEquals(BG_COLOR_RES, after.getSnackBarBgColorRes());
+	}
+
+	@Test
+	public void testConfig_whenZero_keepsCurrentValues() {
+		PermissMeConfig.config(MESSAGE_RES, CTA_RES, TEXT_COLOR_RES, BG_COLOR_RES);
+		PermissMeConfig.config(0, 0, 0, BG_COLOR_RES + 1);
+
+		final PermissMeConfig config = PermissMeConfig.getInstance();
+		assertEquals(MESSAGE_RES, config.getDefaultPermissionDeniedMsg());
+		assertEquals(CTA_RES, config.getDefaultCtaButtonMsg());
+		assertEquals(TEXT_COLOR_RES, config.getTextColorRes());
+		assertEquals(BG_COLOR_RES + 1, config.getSnackBarBgColorRes());
+	}
+
+	@Test
+	public void testBuildUpon_doesNotChangeGlobalInstance() {
+		final PermissMeConfig global = PermissMeConfig.getInstance();
+
+		final PermissMeConfig custom = global.buildUpon().permissionDeniedMessage(MESSAGE_RES).build();
+
+		assertSame(global, PermissMeConfig.getInstance());
+		assertEquals(MESSAGE_RES, custom.getDefaultPermissionDeniedMsg());
+		assertEquals(global.getDefaultCtaButtonMsg(), custom.getDefaultCtaButtonMsg());
+		assertEquals(global.getTextColorRes(), custom.getTextColorRes());
+		assertEquals(global.getSnackBarBgColorRes(), custom.getSnackBarBgColorRes());
+	}
+}
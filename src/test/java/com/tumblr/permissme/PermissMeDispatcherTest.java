@@ -0,0 +1,67 @@
+package com.tumblr.permissme;
+
+import android.os.Looper;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the {@link PermissMeDispatcher} class
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(Looper.class)
+@PowerMockIgnore("jdk.internal.reflect.*")
+public class PermissMeDispatcherTest {
+
+	@After
+	public void tearDown() {
+		PermissMeDispatcher.setMode(PermissMeDispatcher.MODE_POST);
+	}
+
+	@Test
+	public void testDispatch_whenInlineModeOnMainThread_runImmediately() {
+		final Looper mainLooper = PowerMockito.mock(Looper.class);
+		PowerMockito.mockStatic(Looper.class);
+		PowerMockito.when(Looper.getMainLooper()).thenReturn(mainLooper);
+		PowerMockito.when(Looper.myLooper()).thenReturn(mainLooper);
+		PermissMeDispatcher.setMode(PermissMeDispatcher.MODE_INLINE);
+		final boolean[] hasRun = new boolean[1];
+
+		PermissMeDispatcher.getInstance().dispatch(new Runnable() {
+			@Override
+			public void run() {
+				hasRun[0] = true;
+			}
+		});
+
+		assertTrue(PermissMeDispatcher.getInstance().willRunInline());
+		assertTrue(hasRun[0]);
+	}
+
+	@Test
+	public void testWillRunInline_whenInlineModeOffMainThread_returnFalse() {
+		PowerMockito.mockStatic(Looper.class);
+		PowerMockito.when(Looper.getMainLooper()).thenReturn(PowerMockito.mock(Looper.class));
+		PowerMockito.when(Looper.myLooper()).thenReturn(null);
+		PermissMeDispatcher.setMode(PermissMeDispatcher.MODE_INLINE);
+
+		assertFalse(PermissMeDispatcher.getInstance().willRunInline());
+	}
+
+	@Test
+	public void testWillRunInline_whenPostMode_returnFalse() {
+		assertFalse(PermissMeDispatcher.getInstance().willRunInline());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testSetMode_whenUnknownMode_throwException() {
+		PermissMeDispatcher.setMode(-1);
+	}
+}
@@ -0,0 +1,95 @@
+package com.tumblr.permissme;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the {@link PermissMeEventLog} class
+ */
+public class PermissMeEventLogTest {
+
+	@Test
+	public void testDump_listEventsOldestFirst() {
+		final PermissMeEventLog eventLog = new PermissMeEventLog(8);
+		eventLog.record(PermissMeEventLog.EVENT_REQUEST, 3, 2);
+		eventLog.record(PermissMeEventLog.EVENT_RESULT, 3, 0);
+		eventLog.record(PermissMeEventLog.EVENT_CANCEL, 3, 0);
+
+		final String[] lines = eventLog.dump().split("\n");
+		assertEquals(4, lines.length);
+		assertEquals("PermissMe events: 3 of 3", lines[0]);
+		assertTrue(lines[1], lines[1].startsWith("0 "));
+		assertTrue(lines[1], lines[1].endsWith(" flow=3 REQUEST arg=2"));
+		assertTrue(lines[2], lines[2].endsWith(" flow=3 RESULT arg=0"));
+		assertTrue(lines[3], lines[3].endsWith(" flow=3 CANCEL arg=0"));
+	}
+
+	@Test
+	public void testRecord_whenFull_overwriteOldestEvents() {
+		final PermissMeEventLog eventLog = new PermissMeEventLog(4);
+		for (int i = 0; i < 6; i++) {
+			eventLog.record(PermissMeEventLog.EVENT_LAUNCH, i, 0);
+		}
+
+		final String[] lines = eventLog.dump().split("\n");
+		assertEquals(5, lines.length);
+		assertEquals("PermissMe events: 4 of 6", lines[0]);
+		assertTrue(lines[1], lines[1].startsWith("2 "));
+		assertTrue(lines[1], lines[1].endsWith(" flow=2 LAUNCH arg=0"));
+		assertTrue(lines[4], lines[4].endsWith(" flow=5 LAUNCH arg=0"));
+	}
+
+	@Test
+	public void testRecord_keepFullFlowIdAndEventOfLargeValues() {
+		final PermissMeEventLog eventLog = new PermissMeEventLog(2);
+		eventLog.record(PermissMeEventLog.EVENT_LISTENER_NULL, Integer.MAX_VALUE, 0x1ffffff);
+
+		final String[] lines = eventLog.dump().split("\n");
+		assertTrue(lines[1], lines[1].endsWith(" flow=" + Integer.MAX_VALUE + " LISTENER_NULL arg=" + 0xffffff));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testConstructor_whenCapacityNotPowerOfTwo_throw() {
+		new PermissMeEventLog(6);
+	}
+
+	@Test
+	public void testRecord_fromSeveralThreads_keepLastEvents() throws InterruptedException {
+		final PermissMeEventLog eventLog = new PermissMeEventLog(64);
+		final int threadCount = 4;
+		final int eventsPerThread = 1000;
+		final CountDownLatch start = new CountDownLatch(1);
+		final Thread[] threads = new Thread[threadCount];
+		for (int t = 0; t < threadCount; t++) {
+			final int flowId = t;
+			threads[t] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch (final InterruptedException e) {
+						return;
+					}
+					for (int i = 0; i < eventsPerThread; i++) {
+						eventLog.record(PermissMeEventLog.EVENT_DIALOG, flowId, i);
+					}
+				}
+			});
+			threads[t].start();
+		}
+		start.countDown();
+		for (int t = 0; t < threadCount; t++) {
+			threads[t].join();
+		}
+
+		final String[] lines = eventLog.dump().split("\n");
+		assertEquals("PermissMe events: 64 of 4000", lines[0]);
+		assertEquals(65, lines.length);
+		for (int i = 1; i < lines.length; i++) {
+			assertTrue(lines[i], lines[i].contains(" DIALOG arg="));
+		}
+	}
+}
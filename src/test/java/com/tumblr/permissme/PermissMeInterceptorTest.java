@@ -0,0 +1,108 @@
+package com.tumblr.permissme;
+
+import android.Manifest;
+import android.app.Activity;
+import android.content.Context;
+import android.content.Intent;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for the {@link PermissMeInterceptor} class
+ */
+public class PermissMeInterceptorTest {
+
+	@After
+	public void tearDown() {
+		PermissMeInterceptor.uninstallAll();
+	}
+
+	@Test
+	public void testCheckChain_whenInterceptorAnswers_skipCheck() {
+		final PermissMeInterceptor cached = new PermissMeInterceptor() {
+			@Override
+			public boolean interceptCheck(final CheckChain chain) {
+				return true;
+			}
+		};
+		final PermissMeInterceptor[] interceptors = { cached };
+
+		assertTrue(new PermissMeInterceptor.CheckChain(interceptors, 0, mock(Context.class),
+				PermissionSet.of(Manifest.permission.CAMERA), PermissionSet.EMPTY).proceed());
+	}
+
+	@Test
+	public void testLaunchChain_whenInterceptorRewritesIntent_launchRewrittenIntent() {
+		final Intent intent = mock(Intent.class);
+		final Intent rewrittenIntent = mock(Intent.class);
+		final List<Intent> launched = new ArrayList<>();
+		final PermissMeInterceptor[] interceptors = {
+				new PermissMeInterceptor() {
+					@Override
+					public void interceptLaunch(final LaunchChain chain) {
+						chain.proceed(rewrittenIntent);
+					}
+				},
+				new PermissMeInterceptor() {
+				}
+		};
+
+		new PermissMeInterceptor.LaunchChain(interceptors, 0, mock(Activity.class), intent, 0,
+				new PermissMeInterceptor.LaunchChain.Launcher() {
+					@Override
+					public void start(final Intent intent) {
+						launched.add(intent);
+					}
+				}).proceed(intent);
+
+		assertEquals(1, launched.size());
+		assertSame(rewrittenIntent, launched.get(0));
+	}
+
+	@Test
+	public void testLaunchChain_whenInterceptorDoesNotProceed_vetoLaunch() {
+		final List<Intent> launched = new ArrayList<>();
+		final PermissMeInterceptor[] interceptors = {
+				new PermissMeInterceptor() {
+					@Override
+					public void interceptLaunch(final LaunchChain chain) {
+					}
+				}
+		};
+
+		final Intent intent = mock(Intent.class);
+		new PermissMeInterceptor.LaunchChain(interceptors, 0, mock(Activity.class), intent, 0,
+				new PermissMeInterceptor.LaunchChain.Launcher() {
+					@Override
+					public void start(final Intent intent) {
+						launched.add(intent);
+					}
+				}).proceed(intent);
+
+		assertTrue(launched.isEmpty());
+	}
+
+	@Test
+	public void testRemoveInterceptor_keepOrderOfOthers() {
+		final PermissMeInterceptor first = new PermissMeInterceptor() {
+		};
+		final PermissMeInterceptor second = new PermissMeInterceptor() {
+		};
+		final PermissMeInterceptor third = new PermissMeInterceptor() {
+		};
+		PermissMe.addInterceptor(first);
+		PermissMe.addInterceptor(second);
+		PermissMe.addInterceptor(third);
+
+		PermissMe.removeInterceptor(second);
+
+		assertArrayEquals(new PermissMeInterceptor[] { first, third }, PermissMeInterceptor.getInstalled());
+	}
+}
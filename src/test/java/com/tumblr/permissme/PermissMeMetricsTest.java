@@ -0,0 +1,75 @@
+package com.tumblr.permissme;
+
+import android.Manifest;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the {@link PermissMeMetrics} class
+ */
+public class PermissMeMetricsTest {
+
+	private final PermissMeMetrics mMetrics = new PermissMeMetrics();
+
+	@After
+	public void tearDown() {
+		PermissMeMetrics.setEnabled(true);
+	}
+
+	@Test
+	public void testRecordStage_countDurationInPowerOfTwoBucket() {
+		mMetrics.recordStage(PermissMeMetrics.STAGE_DIALOG_DWELL, 1000, 1000 + 1500);
+		mMetrics.recordStage(PermissMeMetrics.STAGE_DIALOG_DWELL, 1000, 1000 + 3000);
+
+		final PermissMeMetrics.HistogramSnapshot histogram = mMetrics.snapshot()
+				.getStage(PermissMeMetrics.STAGE_DIALOG_DWELL);
+		assertEquals(2, histogram.getCount());
+		assertEquals(4500, histogram.getSumNanos());
+		assertEquals(3000, histogram.getMaxNanos());
+		// 1500 is in [1024, 2048), 3000 in [2048, 4096)
+		assertEquals(1, histogram.getBucket(11));
+		assertEquals(1, histogram.getBucket(12));
+		assertEquals(2047, histogram.getBucketUpperBoundNanos(11));
+		assertEquals(2047, histogram.getPercentileNanos(50));
+		assertEquals(3000, histogram.getPercentileNanos(99));
+		assertEquals(0, mMetrics.snapshot().getStage(PermissMeMetrics.STAGE_BUILD_TO_CHECK).getCount());
+	}
+
+	@Test
+	public void testRecordStage_whenEndNotStamped_skipStage() {
+		mMetrics.recordStage(PermissMeMetrics.STAGE_RESULT_TO_LAUNCH, 0, 1000);
+
+		assertEquals(0, mMetrics.snapshot().getStage(PermissMeMetrics.STAGE_RESULT_TO_LAUNCH).getCount());
+		assertEquals(0, mMetrics.snapshot().getStage(PermissMeMetrics.STAGE_RESULT_TO_LAUNCH).getPercentileNanos(50));
+	}
+
+	@Test
+	public void testNow_whenDisabled_returnZero() {
+		PermissMeMetrics.setEnabled(false);
+
+		assertEquals(0, PermissMeMetrics.now());
+	}
+
+	@Test
+	public void testRecordDecisions_countEachPermission() {
+		final PermissionSet requested = PermissionSet.of(Manifest.permission.CAMERA, Manifest.permission.READ_SMS,
+				Manifest.permission.READ_CONTACTS);
+		mMetrics.recordDecisions(requested,
+				PermissionSet.of(Manifest.permission.READ_SMS, Manifest.permission.READ_CONTACTS),
+				PermissionSet.of(Manifest.permission.READ_CONTACTS));
+		mMetrics.recordDecisions(PermissionSet.of(Manifest.permission.CAMERA), PermissionSet.EMPTY,
+				PermissionSet.EMPTY);
+
+		final PermissMeMetrics.Snapshot snapshot = mMetrics.snapshot();
+		assertEquals(requested, PermissionSet.of(snapshot.getPermissions()));
+		assertEquals(2, snapshot.getDecisionCount(Manifest.permission.CAMERA, PermissMeMetrics.DECISION_GRANTED));
+		assertEquals(1, snapshot.getDecisionCount(Manifest.permission.READ_SMS, PermissMeMetrics.DECISION_DENIED));
+		assertEquals(0, snapshot.getDecisionCount(Manifest.permission.READ_SMS, PermissMeMetrics.DECISION_AUTO_DENIED));
+		assertEquals(1, snapshot.getDecisionCount(Manifest.permission.READ_CONTACTS,
+				PermissMeMetrics.DECISION_AUTO_DENIED));
+		assertEquals(0, snapshot.getDecisionCount(Manifest.permission.READ_CONTACTS, PermissMeMetrics.DECISION_DENIED));
+	}
+}
@@ -2,10 +2,12 @@ package com.tumblr.permissme;
 
 import android.Manifest;
 import android.app.Activity;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.os.Bundle;
 import androidx.fragment.app.Fragment;
+import androidx.fragment.app.FragmentActivity;
 import androidx.appcompat.app.AppCompatActivity;
 import com.tumblr.permissme.utils.PermissMeUtils;
 import org.junit.Before;
@@ -23,18 +25,20 @@ import static org.mockito.Matchers.*;
 import static org.mockito.Mockito.*;
 
 /**
- * Tests for the {@link PermissMe} class
+ * Tests for the {@link PermissMe} class and the {@link PermissionFlow}s it schedules
  */
 @RunWith(PowerMockRunner.class)
-@PrepareForTest({PermissMeUtils.class, PermissMe.class})
+@PrepareForTest({PermissMeUtils.class, PermissMe.class, Fragment.class})
 @PowerMockIgnore("jdk.internal.reflect.*")
 public class PermissMeTests {
 
-	private PermissMe mPermissMe;
+	private PermissionFlow mFlow;
+	private AppCompatActivity mActivity;
 
 	@Before
 	public void init() {
-		mPermissMe = new PermissMe();
+		mFlow = new PermissionFlow();
+		mActivity = mock(AppCompatActivity.class);
 		PowerMockito.mockStatic(PermissMeUtils.class);
 	}
 
@@ -42,21 +46,21 @@ public class PermissMeTests {
 	public void testOnPermissionDenied_whenRequiredPermissionsNotAutoDenied_callRequiredPermissionListener() {
 		final String[] permissions = { Manifest.permission.WRITE_EXTERNAL_STORAGE};
 		PowerMockito.when(PermissMeUtils.getDeniedPermissions(any(Activity.class), any(String[].class))).thenReturn(permissions);
-		PowerMockito.when(PermissMeUtils.isAutoDeniedPermission(any(AppCompatActivity.class), any(String.class))).thenReturn(false);
 
-		mPermissMe.mListener = mock(TestPermissionListener.class);
-		mPermissMe.onPermissionDenied(PermissMe.REQUIRED_PERMISSION_REQUEST_CODE, permissions);
+		mFlow.mListener = mock(TestPermissionListener.class);
+		mFlow.onPermissionDenied(mActivity, PermissMe.REQUIRED_PERMISSION_REQUEST_CODE, permissions,
+				PermissionSet.EMPTY);
 
 		ArgumentCaptor<String[]> permissionArgumentCaptor = ArgumentCaptor.forClass(String[].class);
 		ArgumentCaptor<boolean[]> autoDeniedArgumentCaptor = ArgumentCaptor.forClass(boolean[].class);
-		verify(mPermissMe.mListener, times(1)).onRequiredPermissionDenied(permissionArgumentCaptor.capture(),
+		verify(mFlow.mListener, times(1)).onRequiredPermissionDenied(permissionArgumentCaptor.capture(),
 				autoDeniedArgumentCaptor.capture());
-		verify(mPermissMe.mListener, never()).onOptionalPermissionDenied(any(String[].class),
+		verify(mFlow.mListener, never()).onOptionalPermissionDenied(any(String[].class),
 				any(boolean[].class));
-		verify(mPermissMe.mListener, never()).onSuccess();
+		verify(mFlow.mListener, never()).onSuccess();
 
 		PowerMockito.verifyStatic(never());
-		PermissMeUtils.showPermissionDeniedSnackbar(any(Activity.class), anyString());
+		PermissMeUtils.showPermissionDeniedSnackbar(any(Activity.class), anyString(), any(PermissMeConfig.class));
 
 		assertTrue(permissionArgumentCaptor.getValue().length == 1);
 		assertTrue(autoDeniedArgumentCaptor.getValue().length == 1);
@@ -69,29 +73,26 @@ public class PermissMeTests {
 		final String[] permissions = { Manifest.permission.WRITE_EXTERNAL_STORAGE};
 		PowerMockito.when(PermissMeUtils.getDeniedPermissions(any(Activity.class), any(String[].class))).thenReturn
 				(permissions);
-		PowerMockito.when(PermissMeUtils.isAutoDeniedPermission(any(AppCompatActivity.class), any(String.class)))
-				.thenReturn(true);
 
-		// Return true to show permissionDeniedSnackbar
-		mPermissMe.mPermissionsInfoBundle = mock(Bundle.class);
-		when(mPermissMe.mPermissionsInfoBundle.getBoolean(eq(PermissMe.SHOULD_SHOW_UI_UPON_FAILURE_EXTRA), eq(true)))
-				.thenReturn(true);
+		// Show permissionDeniedSnackbar
+		mFlow.mState.mShowUIOnFailure = true;
 
 		// Create mock listener to check that correct callbacks are being called
-		mPermissMe.mListener = mock(TestPermissionListener.class);
+		mFlow.mListener = mock(TestPermissionListener.class);
 
 		// <<< EXECUTE CALL TO METHOD >>>
-		mPermissMe.onPermissionDenied(PermissMe.REQUIRED_PERMISSION_REQUEST_CODE, permissions);
+		mFlow.onPermissionDenied(mActivity, PermissMe.REQUIRED_PERMISSION_REQUEST_CODE, permissions,
+				PermissionSet.of(permissions));
 
 		ArgumentCaptor<String[]> permissionArgumentCaptor = ArgumentCaptor.forClass(String[].class);
 		ArgumentCaptor<boolean[]> autoDeniedArgumentCaptor = ArgumentCaptor.forClass(boolean[].class);
 
 		// Test callback methods in listener
-		verify(mPermissMe.mListener, times(1)).onRequiredPermissionDenied(permissionArgumentCaptor.capture(),
+		verify(mFlow.mListener, times(1)).onRequiredPermissionDenied(permissionArgumentCaptor.capture(),
 				autoDeniedArgumentCaptor.capture());
-		verify(mPermissMe.mListener, never()).onOptionalPermissionDenied(any(String[].class),
+		verify(mFlow.mListener, never()).onOptionalPermissionDenied(any(String[].class),
 				any(boolean[].class));
-		verify(mPermissMe.mListener, never()).onSuccess();
+		verify(mFlow.mListener, never()).onSuccess();
 
 		// Test values of the callbacks
 		assertTrue(permissionArgumentCaptor.getValue().length == 1);
@@ -101,7 +102,7 @@ public class PermissMeTests {
 
 		// Test that we do show the permission denied snackbar
 		PowerMockito.verifyStatic(times(1));
-		PermissMeUtils.showPermissionDeniedSnackbar(any(Activity.class), anyString());
+		PermissMeUtils.showPermissionDeniedSnackbar(any(Activity.class), anyString(), any(PermissMeConfig.class));
 	}
 
 	@Test
@@ -110,24 +111,23 @@ public class PermissMeTests {
 		final String[] permissions = { Manifest.permission.WRITE_EXTERNAL_STORAGE};
 		PowerMockito.when(PermissMeUtils.getDeniedPermissions(any(Activity.class), any(String[].class))).thenReturn
 				(permissions);
-		PowerMockito.when(PermissMeUtils.isAutoDeniedPermission(any(AppCompatActivity.class), any(String.class)))
-				.thenReturn(false);
 
 		// Create mock listener to check that correct callbacks are being called
-		mPermissMe.mListener = mock(TestPermissionListener.class);
+		mFlow.mListener = mock(TestPermissionListener.class);
 
 		// <<< EXECUTE CALL TO METHOD >>>
-		mPermissMe.onPermissionDenied(PermissMe.OPTIONAL_PERMISSION_REQUEST_CODE, permissions);
+		mFlow.onPermissionDenied(mActivity, PermissMe.OPTIONAL_PERMISSION_REQUEST_CODE, permissions,
+				PermissionSet.EMPTY);
 
 		ArgumentCaptor<String[]> permissionArgumentCaptor = ArgumentCaptor.forClass(String[].class);
 		ArgumentCaptor<boolean[]> autoDeniedArgumentCaptor = ArgumentCaptor.forClass(boolean[].class);
 
 		// Test callback methods in listener
-		verify(mPermissMe.mListener, times(1)).onOptionalPermissionDenied(permissionArgumentCaptor.capture(),
+		verify(mFlow.mListener, times(1)).onOptionalPermissionDenied(permissionArgumentCaptor.capture(),
 				autoDeniedArgumentCaptor.capture());
-		verify(mPermissMe.mListener, never()).onRequiredPermissionDenied(any(String[].class),
+		verify(mFlow.mListener, never()).onRequiredPermissionDenied(any(String[].class),
 				any(boolean[].class));
-		verify(mPermissMe.mListener, never()).onSuccess();
+		verify(mFlow.mListener, never()).onSuccess();
 
 		// Test values of the callbacks
 		assertTrue(permissionArgumentCaptor.getValue().length == 1);
@@ -137,7 +137,7 @@ public class PermissMeTests {
 
 		// Test that we do show the permission denied snackbar
 		PowerMockito.verifyStatic(never());
-		PermissMeUtils.showPermissionDeniedSnackbar(any(Activity.class), anyString());
+		PermissMeUtils.showPermissionDeniedSnackbar(any(Activity.class), anyString(), any(PermissMeConfig.class));
 	}
 
 	@Test
@@ -145,24 +145,23 @@ public class PermissMeTests {
 		final String[] permissions = { Manifest.permission.WRITE_EXTERNAL_STORAGE};
 		PowerMockito.when(PermissMeUtils.getDeniedPermissions(any(Activity.class), any(String[].class))).thenReturn
 				(permissions);
-		PowerMockito.when(PermissMeUtils.isAutoDeniedPermission(any(AppCompatActivity.class), any(String.class)))
-				.thenReturn(true);
 
 		// Create mock listener to check that correct callbacks are being called
-		mPermissMe.mListener = mock(TestPermissionListener.class);
+		mFlow.mListener = mock(TestPermissionListener.class);
 
 		// <<< EXECUTE CALL TO METHOD >>>
-		mPermissMe.onPermissionDenied(PermissMe.OPTIONAL_PERMISSION_REQUEST_CODE, permissions);
+		mFlow.onPermissionDenied(mActivity, PermissMe.OPTIONAL_PERMISSION_REQUEST_CODE, permissions,
+				PermissionSet.of(permissions));
 
 		ArgumentCaptor<String[]> permissionArgumentCaptor = ArgumentCaptor.forClass(String[].class);
 		ArgumentCaptor<boolean[]> autoDeniedArgumentCaptor = ArgumentCaptor.forClass(boolean[].class);
 
 		// Test callback methods in listener
-		verify(mPermissMe.mListener, times(1)).onOptionalPermissionDenied(permissionArgumentCaptor.capture(),
+		verify(mFlow.mListener, times(1)).onOptionalPermissionDenied(permissionArgumentCaptor.capture(),
 				autoDeniedArgumentCaptor.capture());
-		verify(mPermissMe.mListener, never()).onRequiredPermissionDenied(any(String[].class),
+		verify(mFlow.mListener, never()).onRequiredPermissionDenied(any(String[].class),
 				any(boolean[].class));
-		verify(mPermissMe.mListener, never()).onSuccess();
+		verify(mFlow.mListener, never()).onSuccess();
 
 		// Test values of the callbacks
 		assertTrue(permissionArgumentCaptor.getValue().length == 1);
@@ -172,7 +171,7 @@ public class PermissMeTests {
 
 		// Test that we do show the permission denied snackbar
 		PowerMockito.verifyStatic(never());
-		PermissMeUtils.showPermissionDeniedSnackbar(any(Activity.class), anyString());
+		PermissMeUtils.showPermissionDeniedSnackbar(any(Activity.class), anyString(), any(PermissMeConfig.class));
 	}
 
 	@Test
@@ -182,31 +181,26 @@ public class PermissMeTests {
 
 		PowerMockito.when(PermissMeUtils.getDeniedPermissions(any(Context.class), Matchers.<String>anyVararg())).thenReturn
 				(permissions);
-		PowerMockito.when(PermissMeUtils.isAutoDeniedPermission(any(AppCompatActivity.class), eq(Manifest.permission.WRITE_EXTERNAL_STORAGE)))
-				.thenReturn(false);
-		PowerMockito.when(PermissMeUtils.isAutoDeniedPermission(any(AppCompatActivity.class), eq(Manifest.permission.READ_SMS)))
-				.thenReturn(true);
 
-		// Return true to show permissionDeniedSnackbar
-		mPermissMe.mPermissionsInfoBundle = mock(Bundle.class);
-		when(mPermissMe.mPermissionsInfoBundle.getBoolean(eq(PermissMe.SHOULD_SHOW_UI_UPON_FAILURE_EXTRA), eq(true)))
-				.thenReturn(true);
+		// Show permissionDeniedSnackbar
+		mFlow.mState.mShowUIOnFailure = true;
 
 		// Create mock listener to check that correct callbacks are being called
-		mPermissMe.mListener = mock(TestPermissionListener.class);
+		mFlow.mListener = mock(TestPermissionListener.class);
 
 		// <<< EXECUTE CALL TO METHOD >>>
-		mPermissMe.onPermissionDenied(PermissMe.REQUIRED_PERMISSION_REQUEST_CODE, permissions);
+		mFlow.onPermissionDenied(mActivity, PermissMe.REQUIRED_PERMISSION_REQUEST_CODE, permissions,
+				PermissionSet.of(Manifest.permission.READ_SMS));
 
 		ArgumentCaptor<String[]> permissionArgumentCaptor = ArgumentCaptor.forClass(String[].class);
 		ArgumentCaptor<boolean[]> autoDeniedArgumentCaptor = ArgumentCaptor.forClass(boolean[].class);
 
 		// Test callback methods in listener
-		verify(mPermissMe.mListener, times(1)).onRequiredPermissionDenied(permissionArgumentCaptor.capture(),
+		verify(mFlow.mListener, times(1)).onRequiredPermissionDenied(permissionArgumentCaptor.capture(),
 				autoDeniedArgumentCaptor.capture());
-		verify(mPermissMe.mListener, never()).onOptionalPermissionDenied(any(String[].class),
+		verify(mFlow.mListener, never()).onOptionalPermissionDenied(any(String[].class),
 				any(boolean[].class));
-		verify(mPermissMe.mListener, never()).onSuccess();
+		verify(mFlow.mListener, never()).onSuccess();
 
 		// Test values of the callbacks
 		assertTrue(permissionArgumentCaptor.getValue().length == 2);
@@ -217,7 +211,7 @@ public class PermissMeTests {
 
 		// Test that we do show the permission denied snackbar
 		PowerMockito.verifyStatic(times(1));
-		PermissMeUtils.showPermissionDeniedSnackbar(any(Activity.class), anyString());
+		PermissMeUtils.showPermissionDeniedSnackbar(any(Activity.class), anyString(), any(PermissMeConfig.class));
 	}
 
 	@Test
@@ -226,20 +220,17 @@ public class PermissMeTests {
 
 		PowerMockito.when(PermissMeUtils.getDeniedPermissions(any(Activity.class), any(String[].class))).thenReturn
 				(permissions);
-		PowerMockito.when(PermissMeUtils.isAutoDeniedPermission(any(AppCompatActivity.class), anyString()))
-				.thenReturn(true);
 
-		// Return true to show permissionDeniedSnackbar
-		mPermissMe.mPermissionsInfoBundle = mock(Bundle.class);
-		when(mPermissMe.mPermissionsInfoBundle.getBoolean(eq(PermissMe.SHOULD_SHOW_UI_UPON_FAILURE_EXTRA), eq(true)))
-				.thenReturn(true);
+		// Show permissionDeniedSnackbar
+		mFlow.mState.mShowUIOnFailure = true;
 
 		// <<< EXECUTE CALL TO METHOD >>>
-		mPermissMe.onPermissionDenied(PermissMe.REQUIRED_PERMISSION_REQUEST_CODE, permissions);
+		mFlow.onPermissionDenied(mActivity, PermissMe.REQUIRED_PERMISSION_REQUEST_CODE, permissions,
+				PermissionSet.of(permissions));
 
 		// Test that we do show the permission denied snackbar
 		PowerMockito.verifyStatic(times(1));
-		PermissMeUtils.showPermissionDeniedSnackbar(any(Activity.class), anyString());
+		PermissMeUtils.showPermissionDeniedSnackbar(any(Activity.class), anyString(), any(PermissMeConfig.class));
 	}
 
 	@Test
@@ -248,88 +239,74 @@ public class PermissMeTests {
 
 		PowerMockito.when(PermissMeUtils.getDeniedPermissions(any(Activity.class), any(String[].class))).thenReturn
 				(permissions);
-		PowerMockito.when(PermissMeUtils.isAutoDeniedPermission(any(AppCompatActivity.class), anyString()))
-				.thenReturn(true);
 
-		// Return true to show permissionDeniedSnackbar
-		mPermissMe.mPermissionsInfoBundle = mock(Bundle.class);
-		when(mPermissMe.mPermissionsInfoBundle.getBoolean(eq(PermissMe.SHOULD_SHOW_UI_UPON_FAILURE_EXTRA), eq(true)))
-				.thenReturn(true);
+		// Show permissionDeniedSnackbar
+		mFlow.mState.mShowUIOnFailure = true;
 
 		// <<< EXECUTE CALL TO METHOD >>>
-		mPermissMe.onPermissionDenied(PermissMe.OPTIONAL_PERMISSION_REQUEST_CODE, permissions);
+		mFlow.onPermissionDenied(mActivity, PermissMe.OPTIONAL_PERMISSION_REQUEST_CODE, permissions,
+				PermissionSet.of(permissions));
 
 		// Test that we do show the permission denied snackbar
 		PowerMockito.verifyStatic(never());
-		PermissMeUtils.showPermissionDeniedSnackbar(any(Activity.class), anyString());
+		PermissMeUtils.showPermissionDeniedSnackbar(any(Activity.class), anyString(), any(PermissMeConfig.class));
 	}
 
 	@Test
 	public void testOnSuccess_listenerHasValueAndNoIntentToLaunch_callOnSuccessDontLaunchIntent() {
 		// Create mock listener to check that correct callbacks are being called
-		mPermissMe.mListener = mock(TestPermissionListener.class);
+		mFlow.mListener = mock(TestPermissionListener.class);
 
-		// Fix a mock permission bundle
-		mPermissMe.mPermissionsInfoBundle = mock(Bundle.class);
+		final PermissionFlow spyFlow = spy(mFlow);
+		spyFlow.onSuccess(mActivity);
 
-		final PermissMe spyPermissMe = spy(mPermissMe);
-		spyPermissMe.onSuccess();
-
-		verify(spyPermissMe.mListener, times(1)).onSuccess();
-		verify(spyPermissMe, never()).launchDestinationIntent();
+		verify(spyFlow.mListener, times(1)).onSuccess();
+		verify(spyFlow, never()).launchDestinationIntent(any(AppCompatActivity.class));
 	}
 
 	@Test
 	public void testOnSuccess_listenerNullAndHasLaunchIntent_callLaunchDestinationIntent() {
 
-		// Fix a mock permission bundle
-		mPermissMe.mPermissionsInfoBundle = mock(Bundle.class);
 		// Mock launch intent
-		mPermissMe.mLaunchIntent = mock(Intent.class);
+		mFlow.mLaunchIntent = mock(Intent.class);
 
-		final PermissMe spyPermissMe = spy(mPermissMe);
+		final PermissionFlow spyFlow = spy(mFlow);
 
-		doNothing().when(spyPermissMe).launchDestinationIntent();
+		doNothing().when(spyFlow).launchDestinationIntent(any(AppCompatActivity.class));
 
 		// <<< EXECUTE CALL TO TEST METHOD >>>
-		spyPermissMe.onSuccess();
+		spyFlow.onSuccess(mActivity);
 
-		verify(spyPermissMe, times(1)).launchDestinationIntent();
+		verify(spyFlow, times(1)).launchDestinationIntent(mActivity);
 	}
 
 	@Test
 	public void testOnSuccess_listenerNullAndHasDestinationIntent_callLaunchDestinationIntent() {
 
-		// Fix a mock permission bundle
-		mPermissMe.mPermissionsInfoBundle = mock(Bundle.class);
-
-		when(mPermissMe.mPermissionsInfoBundle.getSerializable(eq(PermissMe.DESTINATION_ACTIVITY_CLASS_EXTRA)))
-				.thenReturn(mock(Activity.class).getClass());
+		// Set a destination activity
+		mFlow.mState.mDestination = mock(ComponentName.class);
 
-		final PermissMe spyPermissMe = spy(mPermissMe);
+		final PermissionFlow spyFlow = spy(mFlow);
 
-		doNothing().when(spyPermissMe).launchDestinationIntent();
+		doNothing().when(spyFlow).launchDestinationIntent(any(AppCompatActivity.class));
 
 		// <<< EXECUTE CALL TO TEST METHOD >>>
-		spyPermissMe.onSuccess();
+		spyFlow.onSuccess(mActivity);
 
-		verify(spyPermissMe, times(1)).launchDestinationIntent();
+		verify(spyFlow, times(1)).launchDestinationIntent(mActivity);
 	}
 
 	@Test
 	public void testLaunchDestinationIntent_whenLaunchIntentNotNullNoExtraParameters_launchIntentWithCorrectParameters() throws Exception {
-		// Fix a mock permission bundle
-		mPermissMe.mPermissionsInfoBundle = mock(Bundle.class);
-		mPermissMe.mLaunchIntent = mock(Intent.class);
-
-		// Mock some responses
-		when(mPermissMe.mPermissionsInfoBundle.getBoolean(eq(PermissMe.DESTINATION_FINISH_ACTIVITY_UPON_RESULT_EXTRA)
-		)).thenReturn(true);
-		final PermissMe spyPermissMe = spy(mPermissMe);
-		when(spyPermissMe.getDestinationActivityRequestCode()).thenReturn(1);
-		when(spyPermissMe.getEnterAnimation()).thenReturn(1);
-		when(spyPermissMe.getExitAnimation()).thenReturn(1);
-		when(spyPermissMe.getDestinationActivityLaunchOptionsBundle()).thenReturn(mPermissMe.mPermissionsInfoBundle);
+		mFlow.mLaunchIntent = mock(Intent.class);
+
+		// Set up the state of the flow
+		mFlow.mState.mFinishCallerActivity = true;
+		mFlow.mState.mRequestCode = 1;
+		mFlow.mState.mEnterAnim = 1;
+		mFlow.mState.mExitAnim = 1;
+		mFlow.mState.mLaunchOptions = mock(Bundle.class);
+		final PermissionFlow spyFlow = spy(mFlow);
 
 		ArgumentCaptor<Intent> intentArgCap = ArgumentCaptor.forClass(Intent.class);
 		ArgumentCaptor<Bundle> bundleArgCap= ArgumentCaptor.forClass(Bundle.class);
@@ -347,18 +324,35 @@ public class PermissMeTests {
 				animEnterArgCap.capture(),
 				animExitArgCap.capture(),
 				requestCodeArgCap.capture(),
-				finishCallerActivityArgCap.capture());
+				finishCallerActivityArgCap.capture(),
+				anyInt());
 
 		// << EXECUTE CALL TO METHOD >>
-		spyPermissMe.launchDestinationIntent();
+		spyFlow.launchDestinationIntent(mActivity);
 
 		// Make sure all the parameters are correctly set in the launch intent
-		assertTrue(mPermissMe.mLaunchIntent == intentArgCap.getValue());
+		assertTrue(mFlow.mLaunchIntent == intentArgCap.getValue());
 		assertEquals(1, (int)requestCodeArgCap.getValue());
 		assertEquals(1, (int)animEnterArgCap.getValue());
 		assertEquals(1, (int)animExitArgCap.getValue());
 		assertEquals(true, finishCallerActivityArgCap.getValue());
-		assertTrue(mPermissMe.mPermissionsInfoBundle == bundleArgCap.getValue());
+		assertTrue(mFlow.mState.mLaunchOptions == bundleArgCap.getValue());
+	}
+
+	@Test
+	public void testBuilder_whenFragmentInComponentActivity_useActivity() {
+		final Fragment fragment = PowerMockito.mock(Fragment.class);
+		PowerMockito.when(fragment.getActivity()).thenReturn(mock(FragmentActivity.class));
+
+		assertNotNull(new PermissMe.Builder(fragment));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testBuilder_whenFragmentNotAttached_throwIllegalArgumentException() {
+		final Fragment fragment = PowerMockito.mock(Fragment.class);
+		PowerMockito.when(fragment.getActivity()).thenReturn(null);
+
+		new PermissMe.Builder(fragment);
 	}
 
 	private class TestPermissionListener implements PermissMe.PermissionListener {
@@ -0,0 +1,225 @@
+package com.tumblr.permissme;
+
+import android.Manifest;
+import android.content.Context;
+import androidx.activity.ComponentActivity;
+import androidx.core.content.PermissionChecker;
+import androidx.tracing.Trace;
+import com.tumblr.permissme.utils.PermissMeUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Matchers;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for the {@link PermissMeTrace} class, and the sections the {@link PermissionScheduler} traces with it
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({Trace.class, PermissMeUtils.class})
+@PowerMockIgnore("jdk.internal.reflect.*")
+public class PermissMeTraceTest {
+
+	private static final String[] CAMERA = { Manifest.permission.CAMERA };
+
+	/**
+	 * The sections begun and not ended yet, and the most that were open at once
+	 */
+	private int mOpenSections;
+	private int mMaxOpenSections;
+
+	private TestHost mHost;
+	private PermissionScheduler mScheduler;
+
+	@Before
+	public void init() {
+		PowerMockito.mockStatic(Trace.class);
+		PowerMockito.mockStatic(PermissMeUtils.class);
+		// Every permission handed to a denied callback is reported as denied
+		PowerMockito.when(PermissMeUtils.getDeniedPermissions(any(Context.class), Matchers.<String>anyVararg()))
+				.thenReturn(CAMERA);
+		RationaleSnapshot.reset();
+		DecisionJournal.setInstance(null);
+
+		mHost = new TestHost();
+		mScheduler = new PermissionScheduler(mHost);
+	}
+
+	@After
+	public void tearDown() {
+		DecisionJournal.setInstance(null);
+	}
+
+	@Test
+	public void testBeginSection_whenTracingOff_buildNoLabel() {
+		PowerMockito.when(Trace.isEnabled()).thenReturn(false);
+		@SuppressWarnings("unchecked")
+		final List<PermissionFlow> flows = mock(List.class);
+
+		assertFalse(PermissMeTrace.beginSection("startPermissionsFlow", flows));
+		assertFalse(PermissMeTrace.beginSection("onPermissionDenied", 1));
+		PermissMeTrace.endSection(false);
+
+		verifyZeroInteractions(flows);
+		PowerMockito.verifyStatic(never());
+		Trace.beginSection(anyString());
+		PowerMockito.verifyStatic(never());
+		Trace.endSection();
+	}
+
+	@Test
+	public void testBeginSection_whenTracingOn_labelWithEveryFlow() {
+		traceSections();
+		final PermissionFlow flow = new PermissionFlow();
+		flow.mId = 3;
+		final PermissionFlow otherFlow = new PermissionFlow();
+		otherFlow.mId = 5;
+
+		assertTrue(PermissMeTrace.beginSection("startPermissionsFlow", Arrays.asList(flow, otherFlow)));
+		PermissMeTrace.endSection(true);
+
+		PowerMockito.verifyStatic(times(1));
+		Trace.beginSection("PermissMe#startPermissionsFlow flows=3,5");
+		assertEquals(0, mOpenSections);
+	}
+
+	@Test
+	public void testDrain_whenHostDestroyed_beginNoSection() {
+		traceSections();
+		mHost.mActivity = null;
+		mScheduler.enqueue(createFlow());
+
+		mScheduler.drain();
+
+		assertEquals(0, mMaxOpenSections);
+	}
+
+	@Test
+	public void testDrain_whenAllGranted_endEverySection() {
+		traceSections();
+		final PermissionFlow flow = createFlow();
+		// The listener is dropped once the flow completes
+		final PermissMe.PermissionListener listener = flow.mListener;
+		mScheduler.enqueue(flow);
+
+		mScheduler.drain();
+
+		verify(listener).onSuccess();
+		assertTrue(mMaxOpenSections > 0);
+		assertEquals(0, mOpenSections);
+	}
+
+	@Test
+	public void testOnRequestPermissionsResult_whenHostDestroyedDuringDialog_endEverySection() {
+		traceSections();
+		mHost.mUngranted = PermissionSet.of(CAMERA);
+		final PermissionFlow flow = createFlow();
+		final PermissMe.PermissionListener listener = flow.mListener;
+		mScheduler.enqueue(flow);
+		mScheduler.drain();
+
+		mHost.mActivity = null;
+		mScheduler.onRequestPermissionsResult(PermissMe.REQUIRED_PERMISSION_REQUEST_CODE, CAMERA,
+				new int[] { PermissionChecker.PERMISSION_DENIED });
+
+		verify(listener).onRequiredPermissionDenied(any(String[].class), any(boolean[].class));
+		assertTrue(mMaxOpenSections > 0);
+		assertEquals(0, mOpenSections);
+	}
+
+	@Test
+	public void testOnRequestPermissionsResult_whenDialogCancelled_endEverySection() {
+		traceSections();
+		mHost.mUngranted = PermissionSet.of(CAMERA);
+		mScheduler.enqueue(createFlow());
+		mScheduler.drain();
+
+		mScheduler.onRequestPermissionsResult(PermissMe.REQUIRED_PERMISSION_REQUEST_CODE, new String[0], new int[0]);
+
+		assertTrue(mMaxOpenSections > 0);
+		assertEquals(0, mOpenSections);
+	}
+
+	@Test
+	public void testDrain_whenListenerThrows_endEverySection() {
+		traceSections();
+		final PermissionFlow flow = createFlow();
+		doThrow(new IllegalStateException()).when(flow.mListener).onSuccess();
+		mScheduler.enqueue(flow);
+
+		try {
+			mScheduler.drain();
+			fail("The exception of the listener should go through");
+		} catch (final IllegalStateException e) {
+			// expected
+		}
+
+		assertTrue(mMaxOpenSections > 0);
+		assertEquals(0, mOpenSections);
+	}
+
+	/**
+	 * Turns tracing on, and keeps track of the sections begun and ended
+	 */
+	private void traceSections() {
+		PowerMockito.when(Trace.isEnabled()).thenReturn(true);
+		PowerMockito.doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(final InvocationOnMock invocation) {
+				mOpenSections++;
+				mMaxOpenSections = Math.max(mMaxOpenSections, mOpenSections);
+				return null;
+			}
+		}).when(Trace.class);
+		Trace.beginSection(anyString());
+		PowerMockito.doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(final InvocationOnMock invocation) {
+				mOpenSections--;
+				return null;
+			}
+		}).when(Trace.class);
+		Trace.endSection();
+	}
+
+	private static PermissionFlow createFlow() {
+		final PermissionFlow flow = new PermissionFlow();
+		flow.mId = PermissMeTrace.newFlowId();
+		flow.mRequiredPermissions = PermissionSet.of(CAMERA);
+		flow.mListener = mock(PermissMe.PermissionListener.class);
+		return flow;
+	}
+
+	private static class TestHost implements PermissionScheduler.Host {
+		private ComponentActivity mActivity = mock(ComponentActivity.class);
+		private PermissionSet mUngranted = PermissionSet.EMPTY;
+
+		@Override
+		public ComponentActivity getHostActivity() {
+			return mActivity;
+		}
+
+		@Override
+		public PermissionSet getUngrantedPermissions(final PermissionSet permissions) {
+			return permissions.intersect(mUngranted);
+		}
+
+		@Override
+		public void requestPermissions(final String[] permissions, final int requestCode) {
+			// The tests answer the dialog themselves
+		}
+	}
+}
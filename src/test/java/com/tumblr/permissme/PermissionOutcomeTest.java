@@ -0,0 +1,124 @@
+package com.tumblr.permissme;
+
+import org.junit.Test;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the {@link PermissionOutcome} class
+ */
+public class PermissionOutcomeTest {
+
+	private static final long TIMEOUT_SECONDS = 5;
+
+	private static final PermissionOutcome.Function<Integer, Integer> DOUBLE =
+			new PermissionOutcome.Function<Integer, Integer>() {
+				@Override
+				public Integer apply(final Integer value) {
+					return value * 2;
+				}
+			};
+
+	@Test
+	public void testThenApply_whenAlreadyCompleted_applyRightAway() throws Exception {
+		final PermissionOutcome<Integer> outcome = PermissionOutcome.completed(2).thenApply(DOUBLE);
+
+		assertTrue(outcome.isDone());
+		assertEquals(4, (int) outcome.get());
+	}
+
+	@Test
+	public void testThenApplyAsync_whenCompletedLater_applyOnExecutor() throws Exception {
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			final PermissionOutcome<Integer> source = new PermissionOutcome<>();
+			final PermissionOutcome<Integer> outcome = source.thenApplyAsync(DOUBLE, executor).thenApply(DOUBLE);
+			assertEquals(-1, (int) outcome.getNow(-1));
+
+			source.complete(3);
+
+			assertEquals(12, (int) outcome.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testThenApply_whenFunctionThrows_failDependents() throws Exception {
+		final IllegalStateException failure = new IllegalStateException();
+		final PermissionOutcome<Integer> outcome = PermissionOutcome.completed(1)
+				.thenApply(new PermissionOutcome.Function<Integer, Integer>() {
+					@Override
+					public Integer apply(final Integer value) {
+						throw failure;
+					}
+				})
+				.thenApply(DOUBLE);
+
+		try {
+			outcome.get();
+			fail("The outcome should have failed");
+		} catch (final ExecutionException e) {
+			assertSame(failure, e.getCause());
+		}
+	}
+
+	@Test(expected = CancellationException.class)
+	public void testCancel_whenPending_cancelDependents() throws Exception {
+		final PermissionOutcome<Integer> source = new PermissionOutcome<>();
+		final PermissionOutcome<Integer> outcome = source.thenApply(DOUBLE);
+
+		assertTrue(source.cancel(false));
+		assertTrue(outcome.isCancelled());
+		assertFalse(source.complete(1));
+		outcome.get();
+	}
+
+	@Test
+	public void testAllOf_whenEveryOutcomeCompletes_complete() throws Exception {
+		final PermissionOutcome<Integer> first = new PermissionOutcome<>();
+		final PermissionOutcome<Integer> second = new PermissionOutcome<>();
+		final PermissionOutcome<Void> all = PermissionOutcome.allOf(first, second);
+
+		first.complete(1);
+		assertFalse(all.isDone());
+		second.complete(2);
+
+		assertTrue(all.isDone());
+		assertNull(all.get());
+	}
+
+	@Test
+	public void testGet_whenCompletedFromOtherThread_returnValue() throws Exception {
+		final PermissionOutcome<Integer> outcome = new PermissionOutcome<>();
+		final CountDownLatch started = new CountDownLatch(1);
+		final Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					started.await();
+				} catch (final InterruptedException e) {
+					return;
+				}
+				outcome.complete(7);
+			}
+		});
+		thread.start();
+		started.countDown();
+
+		assertEquals(7, (int) outcome.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+	}
+
+	@Test(expected = TimeoutException.class)
+	public void testGet_whenPending_timeOut() throws Exception {
+		new PermissionOutcome<Integer>().get(1, TimeUnit.MILLISECONDS);
+	}
+}
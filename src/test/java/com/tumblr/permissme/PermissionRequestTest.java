@@ -0,0 +1,169 @@
+package com.tumblr.permissme;
+
+import android.Manifest;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import androidx.appcompat.app.AppCompatActivity;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+
+/**
+ * Tests for the {@link PermissionRequest} class. These run without PowerMock on purpose: its bytecode rewriting
+ * allocates on every call, which would hide what the code under test allocates.
+ */
+public class PermissionRequestTest {
+
+	private static final int WARM_UP_ITERATIONS = 10000;
+	private static final int MEASURED_ITERATIONS = 100000;
+
+	private static final PermissionRequest REQUEST = new PermissionRequest.Builder()
+			.setRequiredPermissions(Manifest.permission.CAMERA, Manifest.permission.RECORD_AUDIO)
+			.setOptionalPermissions(Manifest.permission.ACCESS_FINE_LOCATION)
+			.build();
+
+	private AppCompatActivity mActivity;
+	private int mSdkVersion;
+
+	@Before
+	public void init() throws Exception {
+		PermissionStateCache.getInstance().invalidate();
+		mActivity = Mockito.mock(AppCompatActivity.class);
+		mSdkVersion = Build.VERSION.SDK_INT;
+		setEnvBuildVersion(Build.VERSION_CODES.M);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		PermissMeInterceptor.uninstallAll();
+		setEnvBuildVersion(mSdkVersion);
+	}
+
+	@Test
+	public void testExecute_whenAllPermissionsGranted_callOnSuccess() throws Exception {
+		grantAllPermissions();
+		final CountingListener listener = new CountingListener();
+
+		REQUEST.execute(mActivity, listener);
+
+		assertEquals(1, listener.mSuccessCount);
+	}
+
+	@Test
+	public void testExecute_whenAllPermissionsGranted_allocateNothing() throws Exception {
+		grantAllPermissions();
+		final CountingListener listener = new CountingListener();
+
+		// Warm up the permission state cache and let the JIT settle
+		for (int i = 0; i < WARM_UP_ITERATIONS; i++) {
+			REQUEST.execute(mActivity, listener);
+		}
+
+		final com.sun.management.ThreadMXBean threadMXBean =
+				(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		final long threadId = Thread.currentThread().getId();
+
+		// Reading the counter allocates by itself, measure that first so it can be subtracted
+		final long calibrationStart = threadMXBean.getThreadAllocatedBytes(threadId);
+		final long calibrationEnd = threadMXBean.getThreadAllocatedBytes(threadId);
+		final long measurementCost = calibrationEnd - calibrationStart;
+
+		final long start = threadMXBean.getThreadAllocatedBytes(threadId);
+		for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+			REQUEST.execute(mActivity, listener);
+		}
+		final long end = threadMXBean.getThreadAllocatedBytes(threadId);
+
+		assertEquals(WARM_UP_ITERATIONS + MEASURED_ITERATIONS, listener.mSuccessCount);
+		assertEquals("Bytes allocated by " + MEASURED_ITERATIONS + " granted executions",
+				0, end - start - measurementCost);
+	}
+
+	@Test
+	public void testExecute_whenInterceptorInstalled_checkThroughInterceptorOnce() throws Exception {
+		grantAllPermissions();
+		final int[] checkCount = new int[1];
+		PermissMe.addInterceptor(new PermissMeInterceptor() {
+			@Override
+			public boolean interceptCheck(final CheckChain chain) {
+				checkCount[0]++;
+				return chain.proceed();
+			}
+		});
+		final CountingListener listener = new CountingListener();
+
+		REQUEST.execute(mActivity, listener);
+
+		assertEquals(1, checkCount[0]);
+		assertEquals(1, listener.mSuccessCount);
+	}
+
+	@Test
+	public void testGetPermissions_returnCompiledPermissions() {
+		assertEquals(PermissionSet.of(Manifest.permission.CAMERA, Manifest.permission.RECORD_AUDIO),
+				REQUEST.getRequiredPermissions());
+		assertEquals(PermissionSet.of(Manifest.permission.ACCESS_FINE_LOCATION), REQUEST.getOptionalPermissions());
+	}
+
+	/**
+	 * Declares and grants every permission of the request, read by the cache through a {@link PermissionSnapshot}
+	 */
+	private void grantAllPermissions() throws Exception {
+		final PackageInfo packageInfo = Mockito.mock(PackageInfo.class);
+		packageInfo.requestedPermissions = new String[] {
+				Manifest.permission.CAMERA,
+				Manifest.permission.RECORD_AUDIO,
+				Manifest.permission.ACCESS_FINE_LOCATION
+		};
+		packageInfo.requestedPermissionsFlags = new int[] {
+				PackageInfo.REQUESTED_PERMISSION_GRANTED,
+				PackageInfo.REQUESTED_PERMISSION_GRANTED,
+				PackageInfo.REQUESTED_PERMISSION_GRANTED
+		};
+		final PackageManager packageManager = Mockito.mock(PackageManager.class);
+		Mockito.when(packageManager.getPackageInfo(anyString(), anyInt())).thenReturn(packageInfo);
+		Mockito.when(mActivity.getPackageManager()).thenReturn(packageManager);
+	}
+
+	private void setEnvBuildVersion(final int version) throws Exception {
+		final Field sdkIntField = Build.VERSION.class.getDeclaredField("SDK_INT");
+		final Field modifiersField = Field.class.getDeclaredField("modifiers");
+
+		sdkIntField.setAccessible(true);
+		modifiersField.setAccessible(true);
+		modifiersField.setInt(sdkIntField, sdkIntField.getModifiers() & ~Modifier.FINAL);
+
+		sdkIntField.set(null, version);
+		modifiersField.setInt(sdkIntField, sdkIntField.getModifiers() | Modifier.FINAL);
+		sdkIntField.setAccessible(false);
+	}
+
+	private static class CountingListener implements PermissMe.PermissionListener {
+		private int mSuccessCount;
+
+		@Override
+		public void onSuccess() {
+			mSuccessCount++;
+		}
+
+		@Override
+		public void onRequiredPermissionDenied(final String[] deniedPermissions, final boolean[] isAutoDenied) {
+			fail("Permissions are granted");
+		}
+
+		@Override
+		public void onOptionalPermissionDenied(final String[] deniedPermissions, final boolean[] isAutoDenied) {
+			fail("Permissions are granted");
+		}
+	}
+}
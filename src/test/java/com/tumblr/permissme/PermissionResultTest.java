@@ -0,0 +1,57 @@
+package com.tumblr.permissme;
+
+import android.Manifest;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the {@link PermissionResult} class
+ */
+public class PermissionResultTest {
+
+	@Test
+	public void testObtain_whenStatusesSet_returnExpectedCounts() {
+		final PermissionResult result = PermissionResult.obtain(true, 3);
+		result.set(0, Manifest.permission.CAMERA, PermissionResult.STATUS_GRANTED);
+		result.set(1, Manifest.permission.READ_SMS, PermissionResult.STATUS_DENIED);
+		result.set(2, Manifest.permission.READ_CONTACTS, PermissionResult.STATUS_AUTO_DENIED);
+
+		assertTrue(result.isRequired());
+		assertEquals(3, result.size());
+		assertEquals(Manifest.permission.READ_SMS, result.getPermission(1));
+		assertEquals(PermissionResult.STATUS_AUTO_DENIED, result.getStatus(Manifest.permission.READ_CONTACTS));
+		assertEquals(PermissionResult.STATUS_NOT_APPLICABLE, result.getStatus(Manifest.permission.RECORD_AUDIO));
+		assertEquals(1, result.getCount(PermissionResult.STATUS_GRANTED));
+		assertTrue(result.hasAutoDenied());
+		assertFalse(result.isGranted());
+		result.recycle();
+	}
+
+	@Test
+	public void testRecycle_whenObtainedAgain_reuseAndResetResult() {
+		final PermissionResult first = PermissionResult.obtain(true, 1);
+		first.set(0, Manifest.permission.CAMERA, PermissionResult.STATUS_DENIED);
+		first.recycle();
+
+		final PermissionResult second = PermissionResult.obtain(false, 1);
+		second.set(0, Manifest.permission.READ_SMS, PermissionResult.STATUS_GRANTED);
+
+		assertSame(first, second);
+		assertFalse(second.isRequired());
+		assertTrue(second.isGranted());
+		assertEquals(PermissionResult.STATUS_NOT_APPLICABLE, second.getStatus(Manifest.permission.CAMERA));
+		second.recycle();
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testGetPermission_whenIndexOutOfBounds_throwException() {
+		final PermissionResult result = PermissionResult.obtain(true, 1);
+		try {
+			result.getPermission(1);
+		} finally {
+			result.recycle();
+		}
+	}
+}
@@ -0,0 +1,661 @@
+package com.tumblr.permissme;
+
+import android.Manifest;
+import android.app.Activity;
+import android.content.Context;
+import android.content.Intent;
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.core.content.PermissionChecker;
+import com.tumblr.permissme.utils.PermissMeUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.Matchers;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+import static org.mockito.AdditionalMatchers.aryEq;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for the {@link PermissionScheduler} class
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(PermissMeUtils.class)
+@PowerMockIgnore("jdk.internal.reflect.*")
+public class PermissionSchedulerTest {
+
+	private static final int[] GRANTED = { PermissionChecker.PERMISSION_GRANTED };
+
+	@Rule
+	public final TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+	private TestHost mHost;
+	private PermissionScheduler mScheduler;
+
+	@Before
+	public void init() {
+		PowerMockito.mockStatic(PermissMeUtils.class);
+		// Every permission handed to a denied callback is reported as denied
+		PowerMockito.when(PermissMeUtils.getDeniedPermissions(any(Context.class), Matchers.<String>anyVararg()))
+				.thenAnswer(new Answer<String[]>() {
+					@Override
+					public String[] answer(final InvocationOnMock invocation) {
+						final Object[] arguments = invocation.getArguments();
+						final String[] permissions = new String[arguments.length - 1];
+						for (int i = 1; i < arguments.length; i++) {
+							permissions[i - 1] = (String) arguments[i];
+						}
+						return permissions;
+					}
+				});
+
+		RationaleSnapshot.reset();
+		// The dialogs of these tests are answered right away; they stand for dialogs the user saw and answered
+		RationaleSnapshot.setInstantDenialMillis(0);
+		DecisionJournal.setInstance(null);
+		PermissMeInterceptor.uninstallAll();
+
+		mHost = new TestHost();
+		mScheduler = new PermissionScheduler(mHost);
+	}
+
+	@After
+	public void tearDown() {
+		RationaleSnapshot.setInstantDenialMillis(RationaleSnapshot.DEFAULT_INSTANT_DENIAL_MILLIS);
+		DecisionJournal.setInstance(null);
+		PermissMeInterceptor.uninstallAll();
+	}
+
+	@Test
+	public void testDrain_whenTwoFlowsEnqueued_requestUnionInOneDialogAndCallBothListeners() {
+		final PermissionFlow cameraFlow = createFlow(PermissionSet.of(Manifest.permission.CAMERA), PermissionSet.EMPTY);
+		final PermissionFlow smsFlow = createFlow(PermissionSet.of(Manifest.permission.READ_SMS), PermissionSet.EMPTY);
+		mHost.mUngranted = PermissionSet.of(Manifest.permission.CAMERA, Manifest.permission.READ_SMS);
+
+		mScheduler.enqueue(cameraFlow);
+		mScheduler.enqueue(smsFlow);
+		mScheduler.drain();
+
+		assertEquals(1, mHost.mRequests.size());
+		assertEquals(PermissMe.REQUIRED_PERMISSION_REQUEST_CODE, (int) mHost.mRequestCodes.get(0));
+		assertEquals(mHost.mUngranted, PermissionSet.of(mHost.mRequests.get(0)));
+
+		final String[] requested = mHost.mRequests.get(0);
+		mHost.mUngranted = PermissionSet.EMPTY;
+		mScheduler.onRequestPermissionsResult(PermissMe.REQUIRED_PERMISSION_REQUEST_CODE, requested,
+				new int[] { PermissionChecker.PERMISSION_GRANTED, PermissionChecker.PERMISSION_GRANTED });
+
+		verify(cameraFlow.mListener, times(1)).onSuccess();
+		verify(smsFlow.mListener, times(1)).onSuccess();
+		assertEquals(1, mHost.mRequests.size());
+		assertFalse(mScheduler.isBusy());
+	}
+
+	@Test
+	public void testOnRequestPermissionsResult_whenOneFlowDenied_callDeniedOnlyForThatFlow() {
+		final PermissionFlow cameraFlow = createFlow(PermissionSet.of(Manifest.permission.CAMERA), PermissionSet.EMPTY);
+		final PermissionFlow smsFlow = createFlow(PermissionSet.of(Manifest.permission.READ_SMS),
+				PermissionSet.of(Manifest.permission.READ_CONTACTS));
+		mHost.mUngranted = PermissionSet.of(Manifest.permission.CAMERA, Manifest.permission.READ_SMS,
+				Manifest.permission.READ_CONTACTS);
+
+		mScheduler.enqueue(cameraFlow);
+		mScheduler.enqueue(smsFlow);
+		mScheduler.drain();
+
+		final String[] requested = mHost.mRequests.get(0);
+		final int[] grantResults = new int[requested.length];
+		for (int i = 0; i < requested.length; i++) {
+			grantResults[i] = Manifest.permission.CAMERA.equals(requested[i])
+					? PermissionChecker.PERMISSION_DENIED
+					: PermissionChecker.PERMISSION_GRANTED;
+		}
+		mScheduler.onRequestPermissionsResult(PermissMe.REQUIRED_PERMISSION_REQUEST_CODE, requested, grantResults);
+
+		verify(cameraFlow.mListener, times(1)).onRequiredPermissionDenied(
+				aryEq(new String[] { Manifest.permission.CAMERA }), any(boolean[].class));
+		verify(cameraFlow.mListener, never()).onSuccess();
+		verifyZeroInteractions(smsFlow.mListener);
+
+		// The optional permissions of the flow that got its required permissions are asked next
+		assertEquals(2, mHost.mRequests.size());
+		assertEquals(PermissMe.OPTIONAL_PERMISSION_REQUEST_CODE, (int) mHost.mRequestCodes.get(1));
+		assertArrayEquals(new String[] { Manifest.permission.READ_CONTACTS }, mHost.mRequests.get(1));
+
+		mScheduler.onRequestPermissionsResult(PermissMe.OPTIONAL_PERMISSION_REQUEST_CODE, mHost.mRequests.get(1),
+				new int[] { PermissionChecker.PERMISSION_DENIED });
+
+		verify(smsFlow.mListener, times(1)).onSuccess();
+		verify(smsFlow.mListener, times(1)).onOptionalPermissionDenied(
+				aryEq(new String[] { Manifest.permission.READ_CONTACTS }), any(boolean[].class));
+	}
+
+	@Test
+	public void testOnRequestPermissionsResult_whenDenied_reportInRequestOrder() {
+		final String first = "com.tumblr.permissme.test.SCHEDULER_FIRST";
+		final String second = "com.tumblr.permissme.test.SCHEDULER_SECOND";
+		// Seen by the process in the opposite order of the request
+		mHost.mUngranted = PermissionSet.of(first, second);
+		final PermissionFlow flow = createFlow(PermissionSet.of(second, first), PermissionSet.EMPTY);
+		flow.mRequiredPermissionOrder = new String[] { second, first };
+
+		mScheduler.enqueue(flow);
+		mScheduler.drain();
+		mScheduler.onRequestPermissionsResult(PermissMe.REQUIRED_PERMISSION_REQUEST_CODE, mHost.mRequests.get(0),
+				new int[] { PermissionChecker.PERMISSION_DENIED, PermissionChecker.PERMISSION_DENIED });
+
+		verify(flow.mListener, times(1)).onRequiredPermissionDenied(aryEq(new String[] { second, first }),
+				any(boolean[].class));
+	}
+
+	@Test
+	public void testDrain_whenHostNotAttached_waitForAttach() {
+		final PermissionFlow flow = createFlow(PermissionSet.of(Manifest.permission.CAMERA), PermissionSet.EMPTY);
+		mHost.mUngranted = PermissionSet.of(Manifest.permission.CAMERA);
+		final AppCompatActivity activity = mHost.mActivity;
+		mHost.mActivity = null;
+
+		mScheduler.enqueue(flow);
+		mScheduler.drain();
+
+		assertTrue(mHost.mRequests.isEmpty());
+		assertFalse(mScheduler.isBusy());
+
+		mHost.mActivity = activity;
+		mScheduler.onHostAttached();
+		mScheduler.drain();
+
+		assertEquals(1, mHost.mRequests.size());
+		assertArrayEquals(new String[] { Manifest.permission.CAMERA }, mHost.mRequests.get(0));
+	}
+
+	@Test
+	public void testOnRequestPermissionsResult_whenRequiredDenialIsOptionalForOtherFlow_notAskedTwice() {
+		final PermissionFlow cameraFlow = createFlow(PermissionSet.of(Manifest.permission.CAMERA), PermissionSet.EMPTY);
+		final PermissionFlow smsFlow = createFlow(PermissionSet.of(Manifest.permission.READ_SMS),
+				PermissionSet.of(Manifest.permission.CAMERA));
+		mHost.mUngranted = PermissionSet.of(Manifest.permission.CAMERA, Manifest.permission.READ_SMS);
+
+		mScheduler.enqueue(cameraFlow);
+		mScheduler.enqueue(smsFlow);
+		mScheduler.drain();
+		final String[] requested = mHost.mRequests.get(0);
+		final int[] grantResults = new int[requested.length];
+		for (int i = 0; i < requested.length; i++) {
+			grantResults[i] = Manifest.permission.CAMERA.equals(requested[i])
+					? PermissionChecker.PERMISSION_DENIED
+					: PermissionChecker.PERMISSION_GRANTED;
+		}
+		mHost.mUngranted = PermissionSet.of(Manifest.permission.CAMERA);
+		mScheduler.onRequestPermissionsResult(PermissMe.REQUIRED_PERMISSION_REQUEST_CODE, requested, grantResults);
+
+		assertEquals(1, mHost.mRequests.size());
+		verify(cameraFlow.mListener, times(1)).onRequiredPermissionDenied(
+				aryEq(new String[] { Manifest.permission.CAMERA }), any(boolean[].class));
+		verify(smsFlow.mListener, times(1)).onSuccess();
+		verify(smsFlow.mListener, times(1)).onOptionalPermissionDenied(
+				aryEq(new String[] { Manifest.permission.CAMERA }), any(boolean[].class));
+		assertFalse(mScheduler.isBusy());
+	}
+
+	@Test
+	public void testEnqueue_whenDialogInFlight_waitForNextBatch() {
+		final PermissionFlow cameraFlow = createFlow(PermissionSet.of(Manifest.permission.CAMERA), PermissionSet.EMPTY);
+		final PermissionFlow smsFlow = createFlow(PermissionSet.of(Manifest.permission.READ_SMS), PermissionSet.EMPTY);
+		mHost.mUngranted = PermissionSet.of(Manifest.permission.CAMERA, Manifest.permission.READ_SMS);
+
+		mScheduler.enqueue(cameraFlow);
+		mScheduler.drain();
+		mScheduler.enqueue(smsFlow);
+		mScheduler.drain();
+
+		assertEquals(1, mHost.mRequests.size());
+		assertArrayEquals(new String[] { Manifest.permission.CAMERA }, mHost.mRequests.get(0));
+
+		mHost.mUngranted = PermissionSet.of(Manifest.permission.READ_SMS);
+		mScheduler.onRequestPermissionsResult(PermissMe.REQUIRED_PERMISSION_REQUEST_CODE,
+				new String[] { Manifest.permission.CAMERA }, GRANTED);
+		verify(cameraFlow.mListener, times(1)).onSuccess();
+
+		mScheduler.drain();
+		assertEquals(2, mHost.mRequests.size());
+		assertArrayEquals(new String[] { Manifest.permission.READ_SMS }, mHost.mRequests.get(1));
+	}
+
+	@Test
+	public void testEnqueue_whenIdenticalFlowInFlight_attachAndLaunchDestinationOnce() {
+		final PermissionFlow firstTap = createDestinationFlow();
+		final PermissionFlow secondTap = createDestinationFlow();
+		mHost.mUngranted = PermissionSet.of(Manifest.permission.READ_CONTACTS);
+
+		mScheduler.enqueue(firstTap);
+		mScheduler.drain();
+		mScheduler.enqueue(secondTap);
+		mScheduler.drain();
+
+		assertEquals(1, mHost.mRequests.size());
+
+		mHost.mUngranted = PermissionSet.EMPTY;
+		mScheduler.onRequestPermissionsResult(PermissMe.REQUIRED_PERMISSION_REQUEST_CODE,
+				new String[] { Manifest.permission.READ_CONTACTS }, GRANTED);
+
+		verify(firstTap.mListener, times(1)).onSuccess();
+		verify(secondTap.mListener, times(1)).onSuccess();
+		verify(firstTap, times(1)).launchDestinationIntent(any(AppCompatActivity.class));
+		verify(secondTap, never()).launchDestinationIntent(any(AppCompatActivity.class));
+		assertEquals(1, mHost.mRequests.size());
+	}
+
+	@Test
+	public void testEnqueue_whenIdenticalFlowLaunchesPerCaller_launchDestinationForEachCaller() {
+		final PermissionFlow firstTap = createDestinationFlow();
+		final PermissionFlow secondTap = createDestinationFlow();
+		secondTap.mLaunchDestinationPerCaller = true;
+		mHost.mUngranted = PermissionSet.of(Manifest.permission.READ_CONTACTS);
+
+		mScheduler.enqueue(firstTap);
+		mScheduler.enqueue(secondTap);
+		mScheduler.drain();
+		mHost.mUngranted = PermissionSet.EMPTY;
+		mScheduler.onRequestPermissionsResult(PermissMe.REQUIRED_PERMISSION_REQUEST_CODE,
+				new String[] { Manifest.permission.READ_CONTACTS }, GRANTED);
+
+		assertEquals(1, mHost.mRequests.size());
+		verify(firstTap, times(1)).launchDestinationIntent(any(AppCompatActivity.class));
+		verify(secondTap, times(1)).launchDestinationIntent(any(AppCompatActivity.class));
+	}
+
+	@Test
+	public void testOnRequestPermissionsResult_whenFlowHasOutcome_completeWithDecision() throws Exception {
+		final PermissionFlow flow = createFlow(PermissionSet.of(Manifest.permission.CAMERA),
+				PermissionSet.of(Manifest.permission.READ_SMS));
+		flow.mOutcome = new PermissionOutcome<>();
+		mHost.mUngranted = PermissionSet.of(Manifest.permission.CAMERA, Manifest.permission.READ_SMS);
+
+		mScheduler.enqueue(flow);
+		mScheduler.drain();
+		mScheduler.onRequestPermissionsResult(PermissMe.REQUIRED_PERMISSION_REQUEST_CODE,
+				new String[] { Manifest.permission.CAMERA }, GRANTED);
+		assertFalse(flow.mOutcome.isDone());
+		mScheduler.onRequestPermissionsResult(PermissMe.OPTIONAL_PERMISSION_REQUEST_CODE,
+				new String[] { Manifest.permission.READ_SMS }, new int[] { PermissionChecker.PERMISSION_DENIED });
+
+		final PermissionDecision decision = flow.mOutcome.get();
+		assertTrue(decision.isGranted());
+		assertEquals(PermissionSet.of(Manifest.permission.READ_SMS), decision.getDeniedOptionalPermissions());
+		assertTrue(decision.getAutoDeniedPermissions().isEmpty());
+	}
+
+	@Test
+	public void testOnRequestPermissionsResult_whenDialogCancelled_cancelOutcome() {
+		final PermissionFlow flow = createFlow(PermissionSet.of(Manifest.permission.CAMERA), PermissionSet.EMPTY);
+		flow.mOutcome = new PermissionOutcome<>();
+		mHost.mUngranted = PermissionSet.of(Manifest.permission.CAMERA);
+
+		mScheduler.enqueue(flow);
+		mScheduler.drain();
+		mScheduler.onRequestPermissionsResult(PermissMe.REQUIRED_PERMISSION_REQUEST_CODE, new String[0], new int[0]);
+
+		assertTrue(flow.mOutcome.isCancelled());
+		verifyZeroInteractions(flow.mListener);
+	}
+
+	@Test
+	public void testCancelAll_whenFlowsActiveAndPending_cancelOutcomes() {
+		final PermissionFlow activeFlow = createFlow(PermissionSet.of(Manifest.permission.CAMERA), PermissionSet.EMPTY);
+		activeFlow.mOutcome = new PermissionOutcome<>();
+		final PermissionFlow pendingFlow = createFlow(PermissionSet.of(Manifest.permission.READ_SMS),
+				PermissionSet.EMPTY);
+		pendingFlow.mOutcome = new PermissionOutcome<>();
+		mHost.mUngranted = PermissionSet.of(Manifest.permission.CAMERA, Manifest.permission.READ_SMS);
+
+		mScheduler.enqueue(activeFlow);
+		mScheduler.drain();
+		mScheduler.enqueue(pendingFlow);
+		mScheduler.cancelAll();
+
+		assertTrue(activeFlow.mOutcome.isCancelled());
+		assertTrue(pendingFlow.mOutcome.isCancelled());
+		verifyZeroInteractions(activeFlow.mListener, pendingFlow.mListener);
+		assertFalse(mScheduler.isBusy());
+	}
+
+	@Test
+	public void testOnRequestPermissionsResult_whenFirstDenialWithoutRationale_notAutoDenied() {
+		final PermissionFlow flow = createFlow(PermissionSet.of(Manifest.permission.CAMERA), PermissionSet.EMPTY);
+		mHost.mUngranted = PermissionSet.of(Manifest.permission.CAMERA);
+		// No rationale either before or after the dialog, e.g. the dialog was dismissed
+		PowerMockito.when(PermissMeUtils.isAutoDeniedPermission(any(Activity.class), anyString()))
+				.thenReturn(true);
+
+		mScheduler.enqueue(flow);
+		mScheduler.drain();
+		mScheduler.onRequestPermissionsResult(PermissMe.REQUIRED_PERMISSION_REQUEST_CODE,
+				new String[] { Manifest.permission.CAMERA }, new int[] { PermissionChecker.PERMISSION_DENIED });
+
+		verify(flow.mListener, times(1)).onRequiredPermissionDenied(
+				aryEq(new String[] { Manifest.permission.CAMERA }), aryEq(new boolean[] { false }));
+		PowerMockito.verifyStatic(never());
+		PermissMeUtils.showPermissionDeniedSnackbar(any(AppCompatActivity.class), anyString(),
+				any(PermissMeConfig.class));
+	}
+
+	@Test
+	public void testOnRequestPermissionsResult_whenDeniedAgainWithoutRationale_autoDenied() {
+		final PermissionFlow firstFlow = createFlow(PermissionSet.of(Manifest.permission.CAMERA), PermissionSet.EMPTY);
+		final PermissionFlow secondFlow = createFlow(PermissionSet.of(Manifest.permission.CAMERA), PermissionSet.EMPTY);
+		mHost.mUngranted = PermissionSet.of(Manifest.permission.CAMERA);
+		PowerMockito.when(PermissMeUtils.isAutoDeniedPermission(any(Activity.class), anyString()))
+				.thenReturn(true);
+
+		mScheduler.enqueue(firstFlow);
+		mScheduler.drain();
+		mScheduler.onRequestPermissionsResult(PermissMe.REQUIRED_PERMISSION_REQUEST_CODE,
+				new String[] { Manifest.permission.CAMERA }, new int[] { PermissionChecker.PERMISSION_DENIED });
+		mScheduler.enqueue(secondFlow);
+		mScheduler.drain();
+		mScheduler.onRequestPermissionsResult(PermissMe.REQUIRED_PERMISSION_REQUEST_CODE,
+				new String[] { Manifest.permission.CAMERA }, new int[] { PermissionChecker.PERMISSION_DENIED });
+
+		verify(secondFlow.mListener, times(1)).onRequiredPermissionDenied(
+				aryEq(new String[] { Manifest.permission.CAMERA }), aryEq(new boolean[] { true }));
+	}
+
+	@Test
+	public void testOnRequestPermissionsResult_whenRationaleLost_autoDeniedWithOneReadPerSnapshot() {
+		final PermissionFlow cameraFlow = createFlow(PermissionSet.of(Manifest.permission.CAMERA), PermissionSet.EMPTY);
+		final PermissionFlow otherCameraFlow = createFlow(PermissionSet.of(Manifest.permission.CAMERA),
+				PermissionSet.of(Manifest.permission.READ_SMS));
+		mHost.mUngranted = PermissionSet.of(Manifest.permission.CAMERA);
+		// A rationale before the dialog and none after: the user chose to not be asked again
+		PowerMockito.when(PermissMeUtils.isAutoDeniedPermission(any(Activity.class), anyString()))
+				.thenReturn(false, true);
+
+		mScheduler.enqueue(cameraFlow);
+		mScheduler.enqueue(otherCameraFlow);
+		mScheduler.drain();
+		mScheduler.onRequestPermissionsResult(PermissMe.REQUIRED_PERMISSION_REQUEST_CODE,
+				new String[] { Manifest.permission.CAMERA }, new int[] { PermissionChecker.PERMISSION_DENIED });
+
+		verify(cameraFlow.mListener, times(1)).onRequiredPermissionDenied(
+				aryEq(new String[] { Manifest.permission.CAMERA }), aryEq(new boolean[] { true }));
+		verify(otherCameraFlow.mListener, times(1)).onRequiredPermissionDenied(
+				aryEq(new String[] { Manifest.permission.CAMERA }), aryEq(new boolean[] { true }));
+		// Once before the dialog and once after it, however many flows share the permission
+		PowerMockito.verifyStatic(times(2));
+		PermissMeUtils.isAutoDeniedPermission(any(Activity.class), eq(Manifest.permission.CAMERA));
+	}
+
+	@Test
+	public void testDrain_whenDismissedTwiceWithoutRationale_askAgain() {
+		final DecisionJournal journal = new DecisionJournal(new File(mTemporaryFolder.getRoot(), "journal"),
+				new Executor() {
+					@Override
+					public void execute(final Runnable command) {
+						command.run();
+					}
+				});
+		DecisionJournal.setInstance(journal);
+		mHost.mUngranted = PermissionSet.of(Manifest.permission.CAMERA);
+		// No rationale ever: the dialogs were dismissed, the user never chose to not be asked again
+		PowerMockito.when(PermissMeUtils.isAutoDeniedPermission(any(Activity.class), anyString()))
+				.thenReturn(true);
+
+		for (int i = 0; i < 2; i++) {
+			mScheduler.enqueue(createFlow(PermissionSet.of(Manifest.permission.CAMERA), PermissionSet.EMPTY));
+			mScheduler.drain();
+			mScheduler.onRequestPermissionsResult(PermissMe.REQUIRED_PERMISSION_REQUEST_CODE,
+					new String[] { Manifest.permission.CAMERA }, new int[] { PermissionChecker.PERMISSION_DENIED });
+		}
+		mScheduler.enqueue(createFlow(PermissionSet.of(Manifest.permission.CAMERA), PermissionSet.EMPTY));
+		mScheduler.drain();
+
+		// Guessed auto-denied by the second dialog, but not remembered as such
+		assertTrue(journal.getAutoDenied().isEmpty());
+		assertEquals(3, mHost.mRequests.size());
+	}
+
+	@Test
+	public void testDrain_whenJournalKnowsAllAutoDenied_skipDialog() {
+		final List<Runnable> journalTasks = new ArrayList<>();
+		final DecisionJournal journal = new DecisionJournal(new File(mTemporaryFolder.getRoot(), "journal"),
+				new Executor() {
+					@Override
+					public void execute(final Runnable command) {
+						journalTasks.add(command);
+					}
+				});
+		journal.record(PermissionSet.EMPTY, PermissionSet.of(Manifest.permission.CAMERA),
+				PermissionSet.of(Manifest.permission.CAMERA));
+		journalTasks.remove(0).run();
+		DecisionJournal.setInstance(journal);
+
+		final PermissionFlow flow = createFlow(PermissionSet.of(Manifest.permission.CAMERA), PermissionSet.EMPTY);
+		flow.mState.mShowUIOnFailure = true;
+		mHost.mUngranted = PermissionSet.of(Manifest.permission.CAMERA);
+
+		mScheduler.enqueue(flow);
+		mScheduler.drain();
+
+		assertTrue(mHost.mRequests.isEmpty());
+		verify(flow.mListener, times(1)).onRequiredPermissionDenied(
+				aryEq(new String[] { Manifest.permission.CAMERA }), aryEq(new boolean[] { true }));
+		PowerMockito.verifyStatic(times(1));
+		PermissMeUtils.showPermissionDeniedSnackbar(any(AppCompatActivity.class), anyString(),
+				any(PermissMeConfig.class));
+		// The skipped dialog gets verified in the background
+		assertEquals(1, journalTasks.size());
+		assertFalse(mScheduler.isBusy());
+	}
+
+	@Test
+	public void testDrain_whenJournalSkippedDialogBefore_showDialog() {
+		final List<Runnable> journalTasks = new ArrayList<>();
+		final DecisionJournal journal = new DecisionJournal(new File(mTemporaryFolder.getRoot(), "journal"),
+				new Executor() {
+					@Override
+					public void execute(final Runnable command) {
+						journalTasks.add(command);
+					}
+				});
+		journal.record(PermissionSet.EMPTY, PermissionSet.of(Manifest.permission.CAMERA),
+				PermissionSet.of(Manifest.permission.CAMERA));
+		journalTasks.remove(0).run();
+		DecisionJournal.setInstance(journal);
+		mHost.mUngranted = PermissionSet.of(Manifest.permission.CAMERA);
+
+		mScheduler.enqueue(createFlow(PermissionSet.of(Manifest.permission.CAMERA), PermissionSet.EMPTY));
+		mScheduler.drain();
+		// Requested again, e.g. by the user retrying after a reset from the system settings
+		mScheduler.enqueue(createFlow(PermissionSet.of(Manifest.permission.CAMERA), PermissionSet.EMPTY));
+		mScheduler.drain();
+
+		assertEquals(1, mHost.mRequests.size());
+		assertTrue(mScheduler.isBusy());
+	}
+
+	@Test
+	public void testDrain_whenJournalKnowsSomeAutoDenied_showDialog() {
+		final DecisionJournal journal = new DecisionJournal(new File(mTemporaryFolder.getRoot(), "journal"),
+				new Executor() {
+					@Override
+					public void execute(final Runnable command) {
+						command.run();
+					}
+				});
+		journal.record(PermissionSet.EMPTY, PermissionSet.of(Manifest.permission.CAMERA),
+				PermissionSet.of(Manifest.permission.CAMERA));
+		DecisionJournal.setInstance(journal);
+
+		final PermissionFlow flow = createFlow(PermissionSet.of(Manifest.permission.CAMERA,
+				Manifest.permission.READ_SMS), PermissionSet.EMPTY);
+		mHost.mUngranted = PermissionSet.of(Manifest.permission.CAMERA, Manifest.permission.READ_SMS);
+
+		mScheduler.enqueue(flow);
+		mScheduler.drain();
+
+		assertEquals(1, mHost.mRequests.size());
+		assertTrue(mScheduler.isBusy());
+	}
+
+	@Test
+	public void testDrain_whenInterceptorVetoesRequest_skipDialogAndDeny() {
+		PermissMe.addInterceptor(new PermissMeInterceptor() {
+			@Override
+			public PermissionSet interceptRequest(final RequestChain chain) {
+				return PermissionSet.EMPTY;
+			}
+		});
+		final PermissionFlow flow = createFlow(PermissionSet.of(Manifest.permission.CAMERA), PermissionSet.EMPTY);
+		mHost.mUngranted = PermissionSet.of(Manifest.permission.CAMERA);
+
+		mScheduler.enqueue(flow);
+		mScheduler.drain();
+
+		assertTrue(mHost.mRequests.isEmpty());
+		verify(flow.mListener, times(1)).onRequiredPermissionDenied(
+				aryEq(new String[] { Manifest.permission.CAMERA }), aryEq(new boolean[] { false }));
+		assertFalse(mScheduler.isBusy());
+	}
+
+	@Test
+	public void testOnRequestPermissionsResult_whenInterceptorDroppedRequired_reportDenied() {
+		PermissMe.addInterceptor(new PermissMeInterceptor() {
+			@Override
+			public PermissionSet interceptRequest(final RequestChain chain) {
+				return chain.proceed(chain.getPermissions().minus(PermissionSet.of(Manifest.permission.CAMERA)));
+			}
+		});
+		final PermissionFlow cameraFlow = createFlow(PermissionSet.of(Manifest.permission.CAMERA), PermissionSet.EMPTY);
+		final PermissionFlow smsFlow = createFlow(PermissionSet.of(Manifest.permission.READ_SMS), PermissionSet.EMPTY);
+		mHost.mUngranted = PermissionSet.of(Manifest.permission.CAMERA, Manifest.permission.READ_SMS);
+
+		mScheduler.enqueue(cameraFlow);
+		mScheduler.enqueue(smsFlow);
+		mScheduler.drain();
+		mScheduler.onRequestPermissionsResult(PermissMe.REQUIRED_PERMISSION_REQUEST_CODE,
+				new String[] { Manifest.permission.READ_SMS }, GRANTED);
+
+		assertArrayEquals(new String[] { Manifest.permission.READ_SMS }, mHost.mRequests.get(0));
+		verify(cameraFlow.mListener, never()).onSuccess();
+		verify(cameraFlow.mListener, times(1)).onRequiredPermissionDenied(
+				aryEq(new String[] { Manifest.permission.CAMERA }), aryEq(new boolean[] { false }));
+		verify(smsFlow.mListener, times(1)).onSuccess();
+		assertFalse(mScheduler.isBusy());
+	}
+
+	@Test
+	public void testDrain_whenInterceptorsRewriteRequest_askRewrittenPermissionsInOrder() {
+		final List<String> calls = new ArrayList<>();
+		PermissMe.addInterceptor(new PermissMeInterceptor() {
+			@Override
+			public PermissionSet interceptRequest(final RequestChain chain) {
+				calls.add("outer");
+				return chain.proceed(chain.getPermissions().minus(PermissionSet.of(Manifest.permission.READ_SMS)));
+			}
+		});
+		PermissMe.addInterceptor(new PermissMeInterceptor() {
+			@Override
+			public PermissionSet interceptRequest(final RequestChain chain) {
+				calls.add("inner " + chain.getPermissions().size() + " " + chain.isRequired());
+				return chain.proceed(chain.getPermissions());
+			}
+		});
+		final PermissionFlow flow = createFlow(PermissionSet.of(Manifest.permission.CAMERA,
+				Manifest.permission.READ_SMS), PermissionSet.EMPTY);
+		mHost.mUngranted = PermissionSet.of(Manifest.permission.CAMERA, Manifest.permission.READ_SMS);
+
+		mScheduler.enqueue(flow);
+		mScheduler.drain();
+
+		assertEquals(2, calls.size());
+		assertEquals("outer", calls.get(0));
+		assertEquals("inner 1 true", calls.get(1));
+		assertArrayEquals(new String[] { Manifest.permission.CAMERA }, mHost.mRequests.get(0));
+	}
+
+	@Test
+	public void testOnRequestPermissionsResult_whenInterceptorClassifiesResult_useItsAutoDenied() {
+		PermissMe.addInterceptor(new PermissMeInterceptor() {
+			@Override
+			public PermissionSet interceptResult(final ResultChain chain) {
+				chain.proceed();
+				return chain.getDeniedPermissions();
+			}
+		});
+		final PermissionFlow flow = createFlow(PermissionSet.of(Manifest.permission.CAMERA), PermissionSet.EMPTY);
+		mHost.mUngranted = PermissionSet.of(Manifest.permission.CAMERA);
+
+		mScheduler.enqueue(flow);
+		mScheduler.drain();
+		mScheduler.onRequestPermissionsResult(PermissMe.REQUIRED_PERMISSION_REQUEST_CODE,
+				new String[] { Manifest.permission.CAMERA }, new int[] { PermissionChecker.PERMISSION_DENIED });
+
+		verify(flow.mListener, times(1)).onRequiredPermissionDenied(
+				aryEq(new String[] { Manifest.permission.CAMERA }), aryEq(new boolean[] { true }));
+	}
+
+	@Test
+	public void testOnRequestPermissionsResult_whenOtherRequestCode_returnFalse() {
+		assertFalse(mScheduler.onRequestPermissionsResult(0, new String[0], new int[0]));
+	}
+
+	private static PermissionFlow createFlow(final PermissionSet requiredPermissions,
+	                                         final PermissionSet optionalPermissions) {
+		final PermissionFlow flow = spy(new PermissionFlow());
+		flow.mRequiredPermissions = requiredPermissions;
+		flow.mOptionalPermissions = optionalPermissions;
+		flow.mListener = mock(PermissMe.PermissionListener.class);
+		// The listener is dropped once the flow completes; keep it around for verification
+		doNothing().when(flow).cleanUp();
+		return flow;
+	}
+
+	private static PermissionFlow createDestinationFlow() {
+		final PermissionFlow flow = createFlow(PermissionSet.of(Manifest.permission.READ_CONTACTS), PermissionSet.EMPTY);
+		// The same destination for every tap, without extras
+		final Intent intent = mock(Intent.class);
+		when(intent.filterEquals(any(Intent.class))).thenReturn(true);
+		flow.mLaunchIntent = intent;
+		doNothing().when(flow).launchDestinationIntent(any(AppCompatActivity.class));
+		return flow;
+	}
+
+	private static class TestHost implements PermissionScheduler.Host {
+		private AppCompatActivity mActivity = mock(AppCompatActivity.class);
+		private final List<String[]> mRequests = new ArrayList<>();
+		private final List<Integer> mRequestCodes = new ArrayList<>();
+		private PermissionSet mUngranted = PermissionSet.EMPTY;
+
+		@Override
+		public AppCompatActivity getHostActivity() {
+			return mActivity;
+		}
+
+		@Override
+		public PermissionSet getUngrantedPermissions(final PermissionSet permissions) {
+			return permissions.intersect(mUngranted);
+		}
+
+		@Override
+		public void requestPermissions(final String[] permissions, final int requestCode) {
+			mRequests.add(permissions);
+			mRequestCodes.add(requestCode);
+		}
+	}
+}
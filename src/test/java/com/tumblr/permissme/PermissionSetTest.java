@@ -0,0 +1,105 @@
+package com.tumblr.permissme;
+
+import android.Manifest;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the {@link PermissionSet} class
+ */
+public class PermissionSetTest {
+
+	/**
+	 * More permissions than fit in a single word, so that the overflow path gets exercised
+	 */
+	private static final int MANY_PERMISSIONS = 150;
+
+	@Test
+	public void testOf_whenNullOrEmptyPermissions_returnEmptySet() {
+		assertSame(PermissionSet.EMPTY, PermissionSet.of());
+		assertSame(PermissionSet.EMPTY, PermissionSet.of((String[]) null));
+		assertSame(PermissionSet.EMPTY, PermissionSet.of(null, "", null));
+		assertTrue(PermissionSet.EMPTY.isEmpty());
+		assertEquals(0, PermissionSet.EMPTY.toArray().length);
+	}
+
+	@Test
+	public void testOf_whenDuplicatePermissions_containsEachOnce() {
+		final PermissionSet set = PermissionSet.of(Manifest.permission.CAMERA,
+				Manifest.permission.READ_CONTACTS,
+				Manifest.permission.CAMERA);
+
+		assertEquals(2, set.size());
+		assertTrue(set.contains(Manifest.permission.CAMERA));
+		assertTrue(set.contains(Manifest.permission.READ_CONTACTS));
+		assertFalse(set.contains(Manifest.permission.READ_SMS));
+		assertFalse(set.contains(null));
+	}
+
+	@Test
+	public void testSetOperations_whenSmallSets_returnExpectedSets() {
+		final PermissionSet camera = PermissionSet.of(Manifest.permission.CAMERA);
+		final PermissionSet cameraAndSms = PermissionSet.of(Manifest.permission.CAMERA, Manifest.permission.READ_SMS);
+
+		assertEquals(cameraAndSms, camera.union(PermissionSet.of(Manifest.permission.READ_SMS)));
+		assertEquals(PermissionSet.of(Manifest.permission.READ_SMS), cameraAndSms.minus(camera));
+		assertEquals(camera, cameraAndSms.intersect(camera));
+		assertSame(PermissionSet.EMPTY, camera.minus(cameraAndSms));
+		assertTrue(cameraAndSms.containsAll(camera));
+		assertFalse(camera.containsAll(cameraAndSms));
+		assertTrue(camera.containsAll(PermissionSet.EMPTY));
+	}
+
+	@Test
+	public void testSetOperations_whenPermissionsOverflowFirstWord_returnExpectedSets() {
+		final String[] permissions = new String[MANY_PERMISSIONS];
+		for (int i = 0; i < permissions.length; i++) {
+			permissions[i] = "com.tumblr.permissme.test.PERMISSION_" + i;
+		}
+		final PermissionSet all = PermissionSet.of(permissions);
+		final PermissionSet last = PermissionSet.of(permissions[MANY_PERMISSIONS - 1]);
+		final PermissionSet allButLast = PermissionSet.of(Arrays.copyOf(permissions, MANY_PERMISSIONS - 1));
+
+		assertEquals(MANY_PERMISSIONS, all.size());
+		assertTrue(all.contains(permissions[MANY_PERMISSIONS - 1]));
+		assertTrue(all.containsAll(last));
+		assertFalse(allButLast.containsAll(last));
+		assertEquals(all, allButLast.union(last));
+		assertEquals(allButLast, all.minus(last));
+		assertEquals(last, all.intersect(last));
+		assertEquals(all.hashCode(), allButLast.union(last).hashCode());
+		assertSame(PermissionSet.EMPTY, last.minus(all));
+	}
+
+	@Test
+	public void testToArray_whenPermissionsOverflowFirstWord_returnEveryPermissionOnce() {
+		final String[] permissions = new String[MANY_PERMISSIONS];
+		for (int i = 0; i < permissions.length; i++) {
+			permissions[i] = "com.tumblr.permissme.test.OTHER_PERMISSION_" + i;
+		}
+
+		final String[] result = PermissionSet.of(permissions).toArray();
+
+		assertEquals(MANY_PERMISSIONS, result.length);
+		final Set<String> expected = new HashSet<>(Arrays.asList(permissions));
+		assertEquals(expected, new HashSet<>(Arrays.asList(result)));
+	}
+
+	@Test
+	public void testToArray_withOrder_followOrderThenFirstSeen() {
+		final String first = "com.tumblr.permissme.test.ORDER_FIRST";
+		final String second = "com.tumblr.permissme.test.ORDER_SECOND";
+		final String third = "com.tumblr.permissme.test.ORDER_THIRD";
+		final PermissionSet set = PermissionSet.of(first, second, third);
+
+		assertArrayEquals(new String[] { third, first, second },
+				set.toArray(new String[] { third, Manifest.permission.READ_SMS, third, first }));
+		assertArrayEquals(new String[] { first, second, third }, set.toArray(null));
+	}
+}
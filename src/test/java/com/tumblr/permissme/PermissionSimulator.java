@@ -0,0 +1,845 @@
+package com.tumblr.permissme;
+
+import android.Manifest;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+import androidx.activity.ComponentActivity;
+import androidx.core.content.PermissionChecker;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Drives the {@link PermissionScheduler} through simulated user sessions, to load test the state machine of the flows
+ * against the ways users answer permission dialogs: granting, denying, denying with "don't ask again", dismissing the
+ * dialog, which the system reports with empty results, and rotating the device while the dialog is showing.
+ * <p>
+ * The simulator stands in for the system: it keeps the grant state and rationale flag of a small pool of permissions
+ * the way the permission service does, answers the grant checks of the {@link PermissionStateCache} and the rationale
+ * checks of the activity from it, and shows the dialogs, denying blocked permissions without asking. The main looper
+ * is scripted, see {@link PermissMeDispatcher#setMainThreadExecutor(Executor)}, and time only passes on a virtual
+ * clock, when the simulated user thinks, rotates or comes back to the app.
+ * <p>
+ * Every session starts from a fresh install and process, and runs a few rounds of flows started together, some of them
+ * identical, some launching a destination, some started by another caller while a dialog is showing. Every choice of
+ * a session is drawn from a seeded {@link Random} and recorded, so a session can be replayed from its {@link Trace}
+ * with a log of what happened, see {@link #replay(Trace)}. Once a session is over, the simulator checks that:
+ * <ul>
+ * <li>each flow that got a result was called back exactly once, unless its listener was dropped by a rotation</li>
+ * <li>the outcome of each flow is complete, cancelled when its dialog was dismissed</li>
+ * <li>the outcomes and callbacks agree with the grant state of the simulated system, and only permissions the system
+ * blocks are reported auto-denied</li>
+ * <li>the destinations launched are those of the flows that got their required permissions</li>
+ * <li>no flow holds on to its listeners, and the scheduler is idle</li>
+ * </ul>
+ * The {@link Report} of a run counts the sessions, flows and decisions simulated, the throughput, and each kind of
+ * failure along with the traces of the first failed sessions.
+ */
+/*package*/ final class PermissionSimulator {
+
+	/**
+	 * The grant states of a permission in the simulated system
+	 */
+	private static final int STATE_NEVER_ASKED = 0;
+	private static final int STATE_GRANTED = 1;
+	private static final int STATE_DENIED = 2;
+	private static final int STATE_BLOCKED = 3;
+
+	/**
+	 * The answers of the simulated user to each permission of a dialog
+	 */
+	private static final int ANSWER_GRANT = 0;
+	private static final int ANSWER_DENY = 1;
+	private static final int ANSWER_DONT_ASK_AGAIN = 2;
+	private static final int ANSWERS = 3;
+
+	/**
+	 * The permissions the simulated app asks
+	 */
+	private static final String[] PERMISSIONS = {
+			Manifest.permission.CAMERA,
+			Manifest.permission.RECORD_AUDIO,
+			Manifest.permission.READ_CONTACTS,
+			Manifest.permission.ACCESS_FINE_LOCATION
+	};
+
+	/**
+	 * One in how many permissions are in each state on install: mostly never asked, then one each granted, denied
+	 * and blocked, e.g. restored from a backup
+	 */
+	private static final int INSTALL_STATES = 8;
+
+	/**
+	 * One in how many permissions of a flow are required, and how many are optional
+	 */
+	private static final int FLOW_PERMISSION_KINDS = 4;
+
+	private static final int MAX_ROUNDS = 3;
+	private static final int MAX_FLOWS_PER_ROUND = 3;
+
+	/**
+	 * One in how many flows repeat the previous flow, e.g. after a double tap, and launch a destination
+	 */
+	private static final int DUPLICATE_ODDS = 8;
+	private static final int LAUNCH_ODDS = 2;
+
+	/**
+	 * One in how many dialogs another caller starts a flow while it is showing
+	 */
+	private static final int LATE_FLOW_ODDS = 10;
+
+	/**
+	 * How the user handles a dialog, one in {@link #DIALOG_ODDS} dismisses it or rotates the device; otherwise the
+	 * user answers each permission
+	 */
+	private static final int DIALOG_ODDS = 20;
+	private static final int DIALOG_DISMISS = 0;
+	private static final int DIALOG_ROTATE = 1;
+
+	/**
+	 * The time the user thinks before answering, in steps of {@link #THINK_STEP_MILLIS}; and the time a rotation and a
+	 * trip out of the app take
+	 */
+	private static final int THINK_STEPS = 20;
+	private static final long THINK_STEP_MILLIS = 250;
+	private static final long ROTATION_MILLIS = 400;
+	private static final long ROUND_GAP_MILLIS = 30000;
+
+	/**
+	 * How many traces of failed sessions a report keeps
+	 */
+	private static final int MAX_FAILED_TRACES = 10;
+
+	private static final int[] NO_RESULTS = new int[0];
+	private static final String[] NO_PERMISSIONS = new String[0];
+
+	private static final double NANOS_PER_SECOND = 1e9;
+	private static final long MILLIS_PER_HOUR = 3600000;
+
+	private final Random mRandom;
+
+	/**
+	 * The grant state of each permission of {@link #PERMISSIONS}
+	 */
+	private final int[] mStates = new int[PERMISSIONS.length];
+
+	private final ArrayDeque<Runnable> mLooper = new ArrayDeque<>();
+
+	/**
+	 * The activity before and after a rotation; the session swaps them every time the device rotates
+	 */
+	private final ComponentActivity[] mActivities = new ComponentActivity[2];
+	private final Intent mIntent = mock(Intent.class, withSettings().stubOnly());
+
+	private final SimulatedHost mHost = new SimulatedHost();
+	private final ArrayList<FlowProbe> mProbes = new ArrayList<>();
+
+	private int[] mChoices = new int[64];
+	private int mChoiceCount;
+
+	/**
+	 * The position of the next choice when replaying a trace, -1 when choices are drawn from {@link #mRandom}
+	 */
+	private int mReplayPosition = -1;
+
+	/**
+	 * What happened during the session, only kept when replaying
+	 */
+	private StringBuilder mLog;
+
+	private Report mReport;
+	private PermissionScheduler mScheduler;
+	private int mActivityIndex;
+	private int mLaunchCount;
+	private long mClockMillis;
+	private int mNextFlowId;
+
+	/**
+	 * @param seed
+	 * 		the seed of the choices of every session; two simulators with the same seed run the same sessions
+	 */
+	/*package*/ PermissionSimulator(final long seed) {
+		mRandom = new Random(seed);
+		final Answer<Boolean> rationale = new Answer<Boolean>() {
+			@Override
+			public Boolean answer(final InvocationOnMock invocation) {
+				return mStates[indexOf((String) invocation.getArguments()[0])] == STATE_DENIED;
+			}
+		};
+		final Answer<Void> launch = new Answer<Void>() {
+			@Override
+			public Void answer(final InvocationOnMock invocation) {
+				mLaunchCount++;
+				return null;
+			}
+		};
+		for (int i = 0; i < mActivities.length; i++) {
+			mActivities[i] = mock(ComponentActivity.class, withSettings().stubOnly());
+			when(mActivities[i].shouldShowRequestPermissionRationale(anyString())).thenAnswer(rationale);
+			doAnswer(launch).when(mActivities[i]).startActivity(any(Intent.class), any(Bundle.class));
+		}
+	}
+
+	/**
+	 * Runs sessions with choices drawn from the seed
+	 *
+	 * @param sessions
+	 * 		the number of sessions to run
+	 * @return the report of the sessions
+	 */
+	/*package*/ Report run(final int sessions) {
+		final Report report = new Report();
+		install();
+		try {
+			final long start = System.nanoTime();
+			for (int i = 0; i < sessions; i++) {
+				mChoiceCount = 0;
+				try {
+					runSession(report);
+				} catch (final RuntimeException e) {
+					report.mCrashes++;
+					report.mFailedSessions++;
+					if (report.mFailedTraces.size() < MAX_FAILED_TRACES) {
+						report.mFailedTraces.add(new Trace(Arrays.copyOf(mChoices, mChoiceCount)));
+					}
+					mLooper.clear();
+				}
+			}
+			report.mWallNanos = System.nanoTime() - start;
+		} finally {
+			uninstall();
+		}
+		return report;
+	}
+
+	/**
+	 * Runs a session again from its trace, logging what happens
+	 *
+	 * @param trace
+	 * 		the trace of the session, e.g. from {@link Report#getFailedTraces()}
+	 * @return the report of the session, with its log
+	 */
+	/*package*/ Report replay(final Trace trace) {
+		final Report report = new Report();
+		mChoices = trace.mChoices.clone();
+		mChoiceCount = mChoices.length;
+		mReplayPosition = 0;
+		mLog = new StringBuilder();
+		install();
+		try {
+			final long start = System.nanoTime();
+			runSession(report);
+			report.mWallNanos = System.nanoTime() - start;
+			if (mReplayPosition != mChoiceCount) {
+				throw new IllegalStateException("The session ended before the end of its trace");
+			}
+			report.mLog = mLog.toString();
+		} finally {
+			mReplayPosition = -1;
+			mLog = null;
+			uninstall();
+		}
+		return report;
+	}
+
+	/**
+	 * @return the trace of the last session run
+	 */
+	/*package*/ Trace getLastTrace() {
+		return new Trace(Arrays.copyOf(mChoices, mChoiceCount));
+	}
+
+	private void install() {
+		PermissMeDispatcher.setMainThreadExecutor(new Executor() {
+			@Override
+			public void execute(final Runnable command) {
+				mLooper.add(command);
+			}
+		});
+		PermissionStateCache.getInstance().setGrantReader(new PermissionStateCache.GrantReader() {
+			@Override
+			public boolean isGranted(final Context context, final String permission) {
+				return mStates[indexOf(permission)] == STATE_GRANTED;
+			}
+		});
+	}
+
+	private void uninstall() {
+		PermissMeDispatcher.setMainThreadExecutor(null);
+		PermissionStateCache.getInstance().setGrantReader(null);
+		mLooper.clear();
+	}
+
+	/**
+	 * Installs the app, runs a few rounds of flows in a new process and checks how they ended
+	 */
+	private void runSession(final Report report) {
+		mReport = report;
+		mProbes.clear();
+		mLaunchCount = 0;
+		mActivityIndex = 0;
+		mClockMillis = 0;
+		mScheduler = new PermissionScheduler(mHost);
+		RationaleSnapshot.reset();
+		PermissionStateCache.getInstance().invalidate();
+
+		for (int i = 0; i < PERMISSIONS.length; i++) {
+			final int state = choose(INSTALL_STATES);
+			mStates[i] = state <= STATE_BLOCKED ? state : STATE_NEVER_ASKED;
+		}
+		log("installed, states " + describeStates());
+
+		final int rounds = 1 + choose(MAX_ROUNDS);
+		for (int round = 0; round < rounds; round++) {
+			if (round > 0) {
+				mClockMillis += ROUND_GAP_MILLIS;
+			}
+			final int flows = 1 + choose(MAX_FLOWS_PER_ROUND);
+			for (int i = 0; i < flows; i++) {
+				startFlow();
+			}
+			Runnable task;
+			while ((task = mLooper.poll()) != null) {
+				task.run();
+			}
+		}
+
+		report.mSessions++;
+		report.mVirtualMillis += mClockMillis;
+		if (!check()) {
+			report.mFailedSessions++;
+			if (report.mFailedTraces.size() < MAX_FAILED_TRACES) {
+				report.mFailedTraces.add(new Trace(Arrays.copyOf(mChoices, mChoiceCount)));
+			}
+		}
+	}
+
+	/**
+	 * Starts a flow of random permissions, or the same flow as the previous one
+	 */
+	private void startFlow() {
+		final PermissionFlow flow = new PermissionFlow();
+		final FlowProbe previous = mProbes.isEmpty() ? null : mProbes.get(mProbes.size() - 1);
+		if (previous != null && choose(DUPLICATE_ODDS) == 0) {
+			flow.mRequiredPermissions = previous.mFlow.mRequiredPermissions;
+			flow.mOptionalPermissions = previous.mFlow.mOptionalPermissions;
+			flow.mLaunchIntent = previous.mFlow.mLaunchIntent;
+		} else {
+			for (int i = 0; i < PERMISSIONS.length; i++) {
+				final int kind = choose(FLOW_PERMISSION_KINDS);
+				if (kind == 0) {
+					flow.mRequiredPermissions = flow.mRequiredPermissions.union(PermissionSet.of(PERMISSIONS[i]));
+				} else if (kind == 1) {
+					flow.mOptionalPermissions = flow.mOptionalPermissions.union(PermissionSet.of(PERMISSIONS[i]));
+				}
+			}
+			if (flow.mRequiredPermissions.isEmpty() && flow.mOptionalPermissions.isEmpty()) {
+				flow.mRequiredPermissions = PermissionSet.of(PERMISSIONS[choose(PERMISSIONS.length)]);
+			}
+			if (choose(LAUNCH_ODDS) == 0) {
+				flow.mLaunchIntent = mIntent;
+			}
+		}
+		// There is no view to show the auto-denied snackbar in
+		flow.mState.mShowUIOnFailure = false;
+		flow.mId = ++mNextFlowId;
+		flow.mOutcome = new PermissionOutcome<>();
+
+		final FlowProbe probe = new FlowProbe(flow);
+		flow.mListener = probe;
+		flow.mResultListener = probe;
+		mProbes.add(probe);
+		mReport.mFlows++;
+		log("flow " + flow.mId + " started, required " + flow.mRequiredPermissions + ", optional "
+				+ flow.mOptionalPermissions + (flow.mLaunchIntent != null ? ", launches" : ""));
+		mScheduler.enqueue(flow);
+	}
+
+	/**
+	 * Shows a system dialog: the user dismisses it, rotates the device, or answers each permission the system doesn't
+	 * answer by itself; then the result is delivered from the looper
+	 */
+	private void showDialog(final String[] permissions, final int requestCode) {
+		mReport.mDialogs++;
+		log("dialog " + Arrays.toString(permissions));
+		if (choose(LATE_FLOW_ODDS) == 0) {
+			mReport.mLateFlows++;
+			startFlow();
+		}
+
+		int decision;
+		while ((decision = choose(DIALOG_ODDS)) == DIALOG_ROTATE) {
+			rotate();
+		}
+		mClockMillis += (1 + choose(THINK_STEPS)) * THINK_STEP_MILLIS;
+
+		// The user may have changed the grant state of any permission we have cached, as the PermissMe fragment does
+		PermissionStateCache.getInstance().invalidate();
+		if (decision == DIALOG_DISMISS) {
+			mReport.mDismissals++;
+			log("dismissed");
+			mScheduler.onRequestPermissionsResult(requestCode, NO_PERMISSIONS, NO_RESULTS);
+			return;
+		}
+
+		final int[] grantResults = new int[permissions.length];
+		for (int i = 0; i < permissions.length; i++) {
+			final int index = indexOf(permissions[i]);
+			if (mStates[index] == STATE_BLOCKED) {
+				mReport.mSystemDenials++;
+			} else if (mStates[index] != STATE_GRANTED) {
+				answer(index, choose(ANSWERS));
+			}
+			grantResults[i] = mStates[index] == STATE_GRANTED
+					? PermissionChecker.PERMISSION_GRANTED
+					: PermissionChecker.PERMISSION_DENIED;
+		}
+		log("answered, states " + describeStates());
+		mScheduler.onRequestPermissionsResult(requestCode, permissions, grantResults);
+	}
+
+	/**
+	 * The activity is recreated while the dialog is showing: the retained PermissMe fragment is detached from the old
+	 * activity, which lets go of the listeners of every flow, and attached to the new one
+	 */
+	private void rotate() {
+		mReport.mRotations++;
+		mClockMillis += ROTATION_MILLIS;
+		log("rotated");
+		for (int i = 0; i < mProbes.size(); i++) {
+			if (!mProbes.get(i).mFlow.mOutcome.isDone()) {
+				mProbes.get(i).mIsRotated = true;
+			}
+		}
+		mScheduler.cleanUp();
+		mActivityIndex = 1 - mActivityIndex;
+	}
+
+	private void answer(final int index, final int answer) {
+		if (answer == ANSWER_GRANT) {
+			mReport.mGrants++;
+			mStates[index] = STATE_GRANTED;
+		} else if (answer == ANSWER_DONT_ASK_AGAIN && mStates[index] == STATE_DENIED) {
+			// "Don't ask again" is only offered once the permission was denied before
+			mReport.mDontAskAgains++;
+			mStates[index] = STATE_BLOCKED;
+		} else {
+			mReport.mDenials++;
+			mStates[index] = STATE_DENIED;
+		}
+	}
+
+	/**
+	 * @return {@code true} if every flow of the session ended the way it should have
+	 */
+	private boolean check() {
+		final Report report = mReport;
+		final long failures = report.getFailureCount();
+		int expectedLaunches = 0;
+		for (int i = 0; i < mProbes.size(); i++) {
+			final FlowProbe probe = mProbes.get(i);
+			final PermissionFlow flow = probe.mFlow;
+			if (flow.mListener != null || flow.mResultListener != null) {
+				report.mLeakedListeners++;
+				log("flow " + flow.mId + " still holds its listeners");
+			}
+			if (probe.mMismatchCount > 0) {
+				report.mMismatches += probe.mMismatchCount;
+				log("flow " + flow.mId + " got results that don't match the system");
+			}
+
+			final PermissionDecision decision;
+			try {
+				decision = flow.mOutcome.getNow(null);
+			} catch (final CancellationException e) {
+				// Dismissed: no callbacks
+				if (probe.getCallbackCount() != 0) {
+					report.mDuplicateCallbacks++;
+					log("flow " + flow.mId + " was called back although it was cancelled");
+				}
+				continue;
+			} catch (final ExecutionException e) {
+				report.mLostOutcomes++;
+				log("flow " + flow.mId + " failed: " + e.getCause());
+				continue;
+			}
+			if (decision == null) {
+				report.mLostOutcomes++;
+				log("flow " + flow.mId + " never completed");
+				continue;
+			}
+
+			final boolean isGranted = decision.getDeniedRequiredPermissions().isEmpty();
+			if (isGranted && flow.mLaunchIntent != null) {
+				expectedLaunches++;
+			}
+			// Granted permissions stay granted and blocked ones stay blocked, so this still holds at the end
+			if (isGranted && !isGranted(flow.mRequiredPermissions) || !isBlocked(decision.getAutoDeniedPermissions())) {
+				report.mMismatches++;
+				log("flow " + flow.mId + " completed with " + decision + " but the states are " + describeStates());
+			}
+
+			final int callbacks = probe.getCallbackCount();
+			if (callbacks > 1 || probe.mSuccessCount > 0 && !isGranted || probe.mRequiredDeniedCount > 0 && isGranted
+					|| probe.mOptionalDeniedCount > 1) {
+				report.mDuplicateCallbacks++;
+				log("flow " + flow.mId + " was called back " + probe.describeCallbacks() + " for " + decision);
+			} else if (callbacks == 0 && !probe.mIsRotated) {
+				report.mLostCallbacks++;
+				log("flow " + flow.mId + " completed with " + decision + " but was never called back");
+			}
+		}
+		if (mLaunchCount != expectedLaunches) {
+			report.mLaunchMismatches++;
+			log(mLaunchCount + " destinations launched instead of " + expectedLaunches);
+		}
+		if (mScheduler.isBusy()) {
+			report.mBusySchedulers++;
+			log("the scheduler is still busy");
+		}
+		return report.getFailureCount() == failures;
+	}
+
+	private boolean isGranted(final PermissionSet permissions) {
+		return hasState(permissions, STATE_GRANTED);
+	}
+
+	private boolean isBlocked(final PermissionSet permissions) {
+		return hasState(permissions, STATE_BLOCKED);
+	}
+
+	/**
+	 * @return {@code true} if every permission of the set is in the state, i.e. also for an empty set
+	 */
+	private boolean hasState(final PermissionSet permissions, final int state) {
+		for (int id = permissions.nextId(0); id >= 0; id = permissions.nextId(id + 1)) {
+			if (mStates[indexOf(PermissionSet.permissionOf(id))] != state) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the next choice of the session, in {@code [0, bound)}
+	 */
+	private int choose(final int bound) {
+		if (mReplayPosition >= 0) {
+			if (mReplayPosition == mChoiceCount) {
+				throw new IllegalStateException("The trace ended before the session");
+			}
+			final int choice = mChoices[mReplayPosition++];
+			if (choice < 0 || choice >= bound) {
+				throw new IllegalStateException("The trace doesn't match this simulator: " + choice + " out of "
+						+ bound);
+			}
+			return choice;
+		}
+		final int choice = mRandom.nextInt(bound);
+		if (mChoiceCount == mChoices.length) {
+			mChoices = Arrays.copyOf(mChoices, mChoiceCount * 2);
+		}
+		mChoices[mChoiceCount++] = choice;
+		return choice;
+	}
+
+	private void log(final String message) {
+		if (mLog != null) {
+			mLog.append(String.format(Locale.US, "%8d ms  ", mClockMillis)).append(message).append('\n');
+		}
+	}
+
+	private String describeStates() {
+		final StringBuilder states = new StringBuilder("{");
+		for (int i = 0; i < PERMISSIONS.length; i++) {
+			if (i > 0) {
+				states.append(", ");
+			}
+			states.append(PERMISSIONS[i].substring(PERMISSIONS[i].lastIndexOf('.') + 1)).append('=');
+			switch (mStates[i]) {
+				case STATE_GRANTED:
+					states.append("granted");
+					break;
+				case STATE_DENIED:
+					states.append("denied");
+					break;
+				case STATE_BLOCKED:
+					states.append("blocked");
+					break;
+				default:
+					states.append("never asked");
+					break;
+			}
+		}
+		return states.append('}').toString();
+	}
+
+	private static int indexOf(final String permission) {
+		for (int i = 0; i < PERMISSIONS.length; i++) {
+			if (PERMISSIONS[i].equals(permission)) {
+				return i;
+			}
+		}
+		throw new IllegalArgumentException("Not a simulated permission: " + permission);
+	}
+
+	/**
+	 * The choices of a session, enough to run it again
+	 */
+	/*package*/ static final class Trace {
+		private final int[] mChoices;
+
+		/*package*/ Trace(final int[] choices) {
+			mChoices = choices;
+		}
+
+		/**
+		 * @param trace
+		 * 		a trace as written by {@link #toString()}
+		 * @return the trace
+		 */
+		/*package*/ static Trace parse(final String trace) {
+			final String[] choices = trace.trim().split(",");
+			final int[] values = new int[choices.length];
+			for (int i = 0; i < choices.length; i++) {
+				values[i] = Integer.parseInt(choices[i].trim());
+			}
+			return new Trace(values);
+		}
+
+		@Override
+		public boolean equals(final Object o) {
+			return o instanceof Trace && Arrays.equals(mChoices, ((Trace) o).mChoices);
+		}
+
+		@Override
+		public int hashCode() {
+			return Arrays.hashCode(mChoices);
+		}
+
+		@Override
+		public String toString() {
+			final StringBuilder trace = new StringBuilder();
+			for (int i = 0; i < mChoices.length; i++) {
+				if (i > 0) {
+					trace.append(',');
+				}
+				trace.append(mChoices[i]);
+			}
+			return trace.toString();
+		}
+	}
+
+	/**
+	 * What a run simulated, how fast, and what went wrong
+	 */
+	/*package*/ static final class Report {
+		private long mSessions;
+		private long mFlows;
+		private long mLateFlows;
+		private long mDialogs;
+		private long mGrants;
+		private long mDenials;
+		private long mDontAskAgains;
+		private long mSystemDenials;
+		private long mDismissals;
+		private long mRotations;
+		private long mVirtualMillis;
+		private long mWallNanos;
+
+		private long mFailedSessions;
+		private long mLostCallbacks;
+		private long mDuplicateCallbacks;
+		private long mLostOutcomes;
+		private long mMismatches;
+		private long mLaunchMismatches;
+		private long mLeakedListeners;
+		private long mBusySchedulers;
+		private long mCrashes;
+
+		private final List<Trace> mFailedTraces = new ArrayList<>();
+		private String mLog = "";
+
+		/*package*/ long getSessions() {
+			return mSessions;
+		}
+
+		/*package*/ long getFlows() {
+			return mFlows;
+		}
+
+		/*package*/ long getDismissals() {
+			return mDismissals;
+		}
+
+		/*package*/ long getRotations() {
+			return mRotations;
+		}
+
+		/*package*/ long getDontAskAgains() {
+			return mDontAskAgains;
+		}
+
+		/**
+		 * @return the number of flows that completed with a result but whose listener was never called back
+		 */
+		/*package*/ long getLostCallbacks() {
+			return mLostCallbacks;
+		}
+
+		/**
+		 * @return the number of failures of any kind
+		 */
+		/*package*/ long getFailureCount() {
+			return mLostCallbacks + mDuplicateCallbacks + mLostOutcomes + mMismatches + mLaunchMismatches
+					+ mLeakedListeners + mBusySchedulers + mCrashes;
+		}
+
+		/*package*/ long getFailedSessions() {
+			return mFailedSessions;
+		}
+
+		/**
+		 * @return the traces of the first sessions that failed
+		 */
+		/*package*/ List<Trace> getFailedTraces() {
+			return mFailedTraces;
+		}
+
+		/**
+		 * @return what happened during a replayed session, empty otherwise
+		 */
+		/*package*/ String getLog() {
+			return mLog;
+		}
+
+		@Override
+		public String toString() {
+			final double seconds = mWallNanos / NANOS_PER_SECOND;
+			return String.format(Locale.US, "%d sessions, %d flows (%d started mid-dialog), %d dialogs in %.1f s: "
+							+ "%.0f sessions/s, %.0f flows/s, %.1f simulated hours%n"
+							+ "  answers: %d granted, %d denied, %d don't ask again, %d denied by the system, "
+							+ "%d dismissed dialogs, %d rotations%n"
+							+ "  failures: %d sessions, %d lost callbacks, %d duplicate callbacks, %d lost outcomes, "
+							+ "%d mismatches, %d launch mismatches, %d leaked listeners, %d busy schedulers, %d crashes",
+					mSessions, mFlows, mLateFlows, mDialogs, seconds, mSessions / seconds, mFlows / seconds,
+					(double) mVirtualMillis / MILLIS_PER_HOUR, mGrants, mDenials, mDontAskAgains, mSystemDenials,
+					mDismissals, mRotations, mFailedSessions, mLostCallbacks, mDuplicateCallbacks, mLostOutcomes,
+					mMismatches, mLaunchMismatches, mLeakedListeners, mBusySchedulers, mCrashes);
+		}
+	}
+
+	/**
+	 * Listens to a flow and checks the results it is handed against the simulated system
+	 */
+	private final class FlowProbe implements PermissMe.PermissionListener, PermissMe.PermissionResultListener {
+		private final PermissionFlow mFlow;
+		private int mSuccessCount;
+		private int mRequiredDeniedCount;
+		private int mOptionalDeniedCount;
+		private int mMismatchCount;
+
+		/**
+		 * Whether the flow was in flight when the device rotated, and so lost its listener
+		 */
+		private boolean mIsRotated;
+
+		private FlowProbe(final PermissionFlow flow) {
+			mFlow = flow;
+		}
+
+		@Override
+		public void onSuccess() {
+			mSuccessCount++;
+			log("flow " + mFlow.mId + " succeeded");
+		}
+
+		@Override
+		public void onRequiredPermissionDenied(final String[] deniedPermissions, final boolean[] isAutoDenied) {
+			mRequiredDeniedCount++;
+			log("flow " + mFlow.mId + " denied required " + Arrays.toString(deniedPermissions) + ", auto-denied "
+					+ Arrays.toString(isAutoDenied));
+			checkDenied(deniedPermissions, isAutoDenied);
+		}
+
+		@Override
+		public void onOptionalPermissionDenied(final String[] deniedPermissions, final boolean[] isAutoDenied) {
+			mOptionalDeniedCount++;
+			log("flow " + mFlow.mId + " denied optional " + Arrays.toString(deniedPermissions) + ", auto-denied "
+					+ Arrays.toString(isAutoDenied));
+			checkDenied(deniedPermissions, isAutoDenied);
+		}
+
+		@Override
+		public void onPermissionResult(final PermissionResult result) {
+			for (int i = 0; i < result.size(); i++) {
+				final int state = mStates[indexOf(result.getPermission(i))];
+				final int status = result.getStatus(i);
+				if ((status == PermissionResult.STATUS_GRANTED) != (state == STATE_GRANTED)
+						|| status == PermissionResult.STATUS_AUTO_DENIED && state != STATE_BLOCKED) {
+					mMismatchCount++;
+				}
+			}
+		}
+
+		private void checkDenied(final String[] deniedPermissions, final boolean[] isAutoDenied) {
+			for (int i = 0; i < deniedPermissions.length; i++) {
+				final int state = mStates[indexOf(deniedPermissions[i])];
+				if (state == STATE_GRANTED || isAutoDenied[i] && state != STATE_BLOCKED) {
+					mMismatchCount++;
+				}
+			}
+		}
+
+		/**
+		 * @return the number of final callbacks, i.e. success or required permissions denied
+		 */
+		private int getCallbackCount() {
+			return mSuccessCount + mRequiredDeniedCount;
+		}
+
+		private String describeCallbacks() {
+			return mSuccessCount + " success, " + mRequiredDeniedCount + " required denied, " + mOptionalDeniedCount
+					+ " optional denied";
+		}
+	}
+
+	/**
+	 * The PermissMe fragment of the simulated activity: shows the dialogs of the simulated system from the looper
+	 */
+	private final class SimulatedHost implements PermissionScheduler.Host {
+		@Override
+		public ComponentActivity getHostActivity() {
+			return mActivities[mActivityIndex];
+		}
+
+		@Override
+		public PermissionSet getUngrantedPermissions(final PermissionSet permissions) {
+			return PermissionStateCache.getInstance().getDenied(getHostActivity(), permissions);
+		}
+
+		@Override
+		public void requestPermissions(final String[] permissions, final int requestCode) {
+			mLooper.add(new Runnable() {
+				@Override
+				public void run() {
+					showDialog(permissions, requestCode);
+				}
+			});
+		}
+	}
+}
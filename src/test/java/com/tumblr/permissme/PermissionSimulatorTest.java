@@ -0,0 +1,92 @@
+package com.tumblr.permissme;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the {@link PermissionSimulator} class, and the sessions it simulates
+ */
+public class PermissionSimulatorTest {
+
+	private static final long SEED = 20161016L;
+
+	@Before
+	public void init() {
+		DecisionJournal.setInstance(null);
+		PermissMeInterceptor.uninstallAll();
+	}
+
+	@After
+	public void tearDown() {
+		RationaleSnapshot.reset();
+		PermissionStateCache.getInstance().invalidate();
+	}
+
+	@Test
+	public void testRun_noFailures() {
+		final PermissionSimulator.Report report = new PermissionSimulator(SEED).run(2000);
+
+		assertEquals(report + "\n" + report.getFailedTraces(), 0, report.getFailureCount());
+		assertEquals(2000, report.getSessions());
+		// Every kind of decision was simulated
+		assertTrue(report.toString(), report.getDismissals() > 0);
+		assertTrue(report.toString(), report.getRotations() > 0);
+		assertTrue(report.toString(), report.getDontAskAgains() > 0);
+	}
+
+	@Test
+	public void testRun_withSameSeed_runSameSessions() {
+		final PermissionSimulator simulator = new PermissionSimulator(SEED);
+		final PermissionSimulator.Report report = simulator.run(100);
+		final PermissionSimulator otherSimulator = new PermissionSimulator(SEED);
+		final PermissionSimulator.Report otherReport = otherSimulator.run(100);
+
+		assertEquals(report.getFlows(), otherReport.getFlows());
+		assertEquals(report.getDismissals(), otherReport.getDismissals());
+		assertEquals(report.getRotations(), otherReport.getRotations());
+		assertEquals(simulator.getLastTrace(), otherSimulator.getLastTrace());
+	}
+
+	@Test
+	public void testReplay_runSessionAgain() {
+		final PermissionSimulator simulator = new PermissionSimulator(SEED);
+		final PermissionSimulator.Report report = simulator.run(1);
+		final PermissionSimulator.Trace trace = PermissionSimulator.Trace.parse(simulator.getLastTrace().toString());
+
+		final PermissionSimulator.Report replay = new PermissionSimulator(0).replay(trace);
+		final PermissionSimulator.Report otherReplay = new PermissionSimulator(0).replay(trace);
+
+		assertEquals(1, replay.getSessions());
+		assertEquals(report.getFlows(), replay.getFlows());
+		assertEquals(report.getFailureCount(), replay.getFailureCount());
+		assertTrue(replay.getLog(), replay.getLog().startsWith("       0 ms  installed"));
+		assertEquals(replay.getLog(), otherReplay.getLog());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testReplay_whenTraceEndsBeforeSession_throw() {
+		new PermissionSimulator(SEED).replay(PermissionSimulator.Trace.parse("0,0"));
+	}
+
+	/**
+	 * Simulates a million sessions, or as many as set in the {@code permissme.simulator.sessions} system property,
+	 * from the seed set in {@code permissme.simulator.seed}. Run it manually.
+	 */
+	@Ignore("Load test")
+	@Test
+	public void loadTest() {
+		final int sessions = Integer.getInteger("permissme.simulator.sessions", 1000000);
+		final long seed = Long.getLong("permissme.simulator.seed", SEED);
+		final PermissionSimulator.Report report = new PermissionSimulator(seed).run(sessions);
+
+		System.out.println(report);
+		for (final PermissionSimulator.Trace trace : report.getFailedTraces()) {
+			System.out.println("Failed session: " + trace);
+		}
+		assertEquals(0, report.getFailureCount());
+	}
+}
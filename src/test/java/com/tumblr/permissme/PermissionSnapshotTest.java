@@ -0,0 +1,128 @@
+package com.tumblr.permissme;
+
+import android.Manifest;
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for the {@link PermissionSnapshot} class
+ */
+public class PermissionSnapshotTest {
+
+	private static final String CAMERA = Manifest.permission.CAMERA;
+	private static final String READ_SMS = Manifest.permission.READ_SMS;
+	private static final String READ_CONTACTS = Manifest.permission.READ_CONTACTS;
+
+	private Context mContext;
+	private PackageManager mPackageManager;
+
+	@Before
+	public void init() {
+		mPackageManager = mock(PackageManager.class);
+		mContext = mock(Context.class);
+		when(mContext.getPackageManager()).thenReturn(mPackageManager);
+		when(mContext.getPackageName()).thenReturn("com.tumblr.permissme.test");
+	}
+
+	@Test
+	public void testCapture_whenPackageNotFound_returnNull() throws Exception {
+		when(mPackageManager.getPackageInfo(anyString(), anyInt()))
+				.thenThrow(PackageManager.NameNotFoundException.class);
+
+		assertNull(PermissionSnapshot.capture(mContext));
+	}
+
+	@Test
+	public void testCapture_readDeclaredGrantStates() throws Exception {
+		final PermissionSnapshot snapshot = capture(new String[] { CAMERA, READ_SMS },
+				new int[] { PackageInfo.REQUESTED_PERMISSION_GRANTED, 0 });
+
+		assertTrue(snapshot.isDeclared(CAMERA));
+		assertTrue(snapshot.isGranted(CAMERA));
+		assertTrue(snapshot.isDeclared(READ_SMS));
+		assertFalse(snapshot.isGranted(READ_SMS));
+		assertArrayEquals(new String[] { READ_SMS }, snapshot.denied(CAMERA, null, "", READ_SMS));
+	}
+
+	@Test
+	public void testIsGranted_whenNotDeclared_returnFalse() throws Exception {
+		final PermissionSnapshot snapshot = capture(new String[] { CAMERA },
+				new int[] { PackageInfo.REQUESTED_PERMISSION_GRANTED });
+
+		assertFalse(snapshot.isDeclared(READ_CONTACTS));
+		assertFalse(snapshot.isGranted(READ_CONTACTS));
+		assertArrayEquals(new String[] { READ_CONTACTS }, snapshot.denied(CAMERA, READ_CONTACTS));
+	}
+
+	@Test
+	public void testCapture_whenFlagsNull_declareNothing() throws Exception {
+		final PermissionSnapshot snapshot = capture(new String[] { CAMERA }, null);
+
+		assertNotNull(snapshot);
+		assertFalse(snapshot.isDeclared(CAMERA));
+		assertFalse(snapshot.isGranted(CAMERA));
+	}
+
+	@Test
+	public void testCapture_whenFlagsShort_declareOnlyPermissionsWithFlags() throws Exception {
+		final PermissionSnapshot snapshot = capture(new String[] { CAMERA, READ_SMS },
+				new int[] { PackageInfo.REQUESTED_PERMISSION_GRANTED });
+
+		assertTrue(snapshot.isGranted(CAMERA));
+		assertFalse(snapshot.isDeclared(READ_SMS));
+	}
+
+	@Test
+	public void testDiff_reportGrantedAndRevoked() throws Exception {
+		final PermissionSnapshot previous = capture(new String[] { CAMERA, READ_SMS, READ_CONTACTS },
+				new int[] { 0, PackageInfo.REQUESTED_PERMISSION_GRANTED, PackageInfo.REQUESTED_PERMISSION_GRANTED });
+		// READ_CONTACTS is no longer declared at all
+		final PermissionSnapshot snapshot = capture(new String[] { CAMERA, READ_SMS },
+				new int[] { PackageInfo.REQUESTED_PERMISSION_GRANTED, 0 });
+
+		final PermissionSnapshot.Diff diff = snapshot.diff(previous);
+
+		assertTrue(snapshot.getVersion() > previous.getVersion());
+		assertArrayEquals(new String[] { CAMERA }, diff.getGranted());
+		assertEquals(2, diff.getRevoked().length);
+		assertTrue(Arrays.asList(diff.getRevoked()).containsAll(Arrays.asList(READ_SMS, READ_CONTACTS)));
+		assertFalse(diff.isEmpty());
+	}
+
+	@Test
+	public void testDiff_whenUnchanged_returnEmpty() throws Exception {
+		final String[] permissions = { CAMERA };
+		final int[] flags = { PackageInfo.REQUESTED_PERMISSION_GRANTED };
+
+		assertTrue(capture(permissions, flags).diff(capture(permissions, flags)).isEmpty());
+	}
+
+	@Test
+	public void testDiff_whenNoPrevious_reportGranted() throws Exception {
+		final PermissionSnapshot snapshot = capture(new String[] { CAMERA, READ_SMS },
+				new int[] { PackageInfo.REQUESTED_PERMISSION_GRANTED, 0 });
+
+		final PermissionSnapshot.Diff diff = snapshot.diff(null);
+
+		assertArrayEquals(new String[] { CAMERA }, diff.getGranted());
+		assertEquals(0, diff.getRevoked().length);
+	}
+
+	private PermissionSnapshot capture(final String[] permissions, final int[] flags) throws Exception {
+		final PackageInfo packageInfo = mock(PackageInfo.class);
+		packageInfo.requestedPermissions = permissions;
+		packageInfo.requestedPermissionsFlags = flags;
+		when(mPackageManager.getPackageInfo(anyString(), anyInt())).thenReturn(packageInfo);
+		return PermissionSnapshot.capture(mContext);
+	}
+}
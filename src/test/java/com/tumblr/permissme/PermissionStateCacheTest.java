@@ -0,0 +1,166 @@
+package com.tumblr.permissme;
+
+import android.Manifest;
+import android.app.Activity;
+import android.app.Application;
+import android.content.Context;
+import androidx.activity.ComponentActivity;
+import androidx.annotation.NonNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for the {@link PermissionStateCache} class
+ */
+public class PermissionStateCacheTest {
+
+	private static final String CAMERA = Manifest.permission.CAMERA;
+	private static final String READ_SMS = Manifest.permission.READ_SMS;
+
+	/**
+	 * The permissions granted by the system, as read through the grant reader
+	 */
+	private final Set<String> mGrantedPermissions = new HashSet<>();
+	private int mReadCount;
+
+	private PermissionStateCache mCache;
+	private ComponentActivity mActivity;
+
+	@Before
+	public void init() {
+		mActivity = mock(ComponentActivity.class);
+		mCache = PermissionStateCache.getInstance();
+		mCache.setGrantReader(new PermissionStateCache.GrantReader() {
+			@Override
+			public boolean isGranted(@NonNull final Context context, @NonNull final String permission) {
+				mReadCount++;
+				return mGrantedPermissions.contains(permission);
+			}
+		});
+	}
+
+	@After
+	public void tearDown() {
+		PermissMe.setPermissionBackend(null);
+		mCache.setGrantReader(null);
+	}
+
+	@Test
+	public void testIsGranted_whenAlreadyRead_answerFromMemory() {
+		mGrantedPermissions.add(CAMERA);
+
+		assertTrue(mCache.isGranted(mActivity, CAMERA));
+		assertTrue(mCache.isGranted(mActivity, CAMERA));
+		assertTrue(mCache.isAllGranted(mActivity, CAMERA));
+		assertTrue(mCache.isAllGranted(mActivity, PermissionSet.of(CAMERA)));
+
+		assertEquals(1, mReadCount);
+	}
+
+	@Test
+	public void testIsAllGranted_whenSomeAlreadyRead_readOnlyMissing() {
+		mGrantedPermissions.add(CAMERA);
+		mCache.isGranted(mActivity, CAMERA);
+
+		assertFalse(mCache.isAllGranted(mActivity, CAMERA, READ_SMS));
+
+		assertEquals(2, mReadCount);
+		assertEquals(PermissionSet.of(READ_SMS), mCache.getDenied(mActivity, PermissionSet.of(CAMERA, READ_SMS)));
+		assertEquals(2, mReadCount);
+	}
+
+	@Test
+	public void testInvalidate_bumpEpochAndReadAgain() {
+		mCache.isGranted(mActivity, CAMERA);
+		final int epoch = mCache.getEpoch();
+		mGrantedPermissions.add(CAMERA);
+
+		// Still answered from memory until invalidated
+		assertFalse(mCache.isGranted(mActivity, CAMERA));
+		mCache.invalidate();
+
+		assertEquals(epoch + 1, mCache.getEpoch());
+		assertTrue(mCache.isGranted(mActivity, CAMERA));
+		assertEquals(2, mReadCount);
+	}
+
+	@Test
+	public void testInvalidateOnReturn_whenActivityResumed_invalidateOnce() {
+		final Application application = mock(Application.class);
+		final Activity activity = mock(Activity.class);
+		when(activity.getApplication()).thenReturn(application);
+		mCache.isGranted(mActivity, CAMERA);
+		final int epoch = mCache.getEpoch();
+
+		mCache.invalidateOnReturn(activity);
+		final ArgumentCaptor<Application.ActivityLifecycleCallbacks> callbacks =
+				ArgumentCaptor.forClass(Application.ActivityLifecycleCallbacks.class);
+		verify(application).registerActivityLifecycleCallbacks(callbacks.capture());
+		// Leaving the app doesn't invalidate anything yet
+		callbacks.getValue().onActivityPaused(activity);
+		assertEquals(epoch, mCache.getEpoch());
+
+		mGrantedPermissions.add(CAMERA);
+		callbacks.getValue().onActivityResumed(activity);
+
+		assertEquals(epoch + 1, mCache.getEpoch());
+		verify(application).unregisterActivityLifecycleCallbacks(callbacks.getValue());
+		assertTrue(mCache.isGranted(mActivity, CAMERA));
+	}
+
+	@Test
+	public void testIsGranted_whenGrantedDuringFlow_seeGrantAfterwards() {
+		final Set<String> backendGranted = new HashSet<>();
+		PermissMe.setPermissionBackend(new PermissionBackend() {
+			@Override
+			public boolean isGranted(@NonNull final Context context, @NonNull final String permission) {
+				return backendGranted.contains(permission);
+			}
+
+			@Override
+			public boolean shouldShowRequestPermissionRationale(@NonNull final Activity activity,
+			                                                    @NonNull final String permission) {
+				return false;
+			}
+
+			@Override
+			public void requestPermissions(@NonNull final Activity activity,
+			                               @NonNull final String[] permissions,
+			                               @NonNull final ResultCallback callback) {
+				// The user grants every permission of the dialog
+				final int[] grantResults = new int[permissions.length];
+				for (final String permission : permissions) {
+					backendGranted.add(permission);
+				}
+				callback.onRequestPermissionsResult(permissions, grantResults);
+			}
+
+			@Override
+			public Executor getMainThreadExecutor() {
+				return new Executor() {
+					@Override
+					public void execute(@NonNull final Runnable command) {
+						command.run();
+					}
+				};
+			}
+		});
+		assertFalse(mCache.isGranted(mActivity, CAMERA));
+		final PermissMe.PermissionListener listener = mock(PermissMe.PermissionListener.class);
+
+		PermissMe.with(mActivity).setRequiredPermissions(CAMERA).listener(listener).verifyPermissions();
+
+		verify(listener).onSuccess();
+		assertTrue(mCache.isGranted(mActivity, CAMERA));
+	}
+}
@@ -0,0 +1,137 @@
+package com.tumblr.permissme;
+
+import android.Manifest;
+import android.app.Activity;
+import com.tumblr.permissme.utils.PermissMeUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for the {@link RationaleSnapshot} class
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(PermissMeUtils.class)
+@PowerMockIgnore("jdk.internal.reflect.*")
+public class RationaleSnapshotTest {
+
+	private static final PermissionSet CAMERA = PermissionSet.of(Manifest.permission.CAMERA);
+
+	/**
+	 * A delay no dialog of the tests is answered within, so that every dialog counts as unseen
+	 */
+	private static final long ANY_ANSWER_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+	private Activity mActivity;
+
+	@Before
+	public void init() {
+		PowerMockito.mockStatic(PermissMeUtils.class);
+		RationaleSnapshot.reset();
+		// A dialog is only considered unseen by the tests that say so
+		RationaleSnapshot.setInstantDenialMillis(0);
+		mActivity = mock(Activity.class);
+	}
+
+	@After
+	public void tearDown() {
+		RationaleSnapshot.setInstantDenialMillis(RationaleSnapshot.DEFAULT_INSTANT_DENIAL_MILLIS);
+		RationaleSnapshot.reset();
+	}
+
+	@Test
+	public void testGetAutoDenied_whenRationaleAfter_denied() {
+		RationaleSnapshot.setInstantDenialMillis(ANY_ANSWER_MILLIS);
+		showRationale(false, true);
+
+		final RationaleSnapshot before = RationaleSnapshot.capture(mActivity, CAMERA);
+
+		// Even when answered right away, a rationale means the permission can still be asked
+		assertTrue(RationaleSnapshot.getAutoDenied(mActivity, before, CAMERA, PermissionSet.EMPTY).isEmpty());
+	}
+
+	@Test
+	public void testGetAutoDenied_whenRationaleLost_autoDeniedByUser() {
+		showRationale(true, false);
+
+		final RationaleSnapshot before = RationaleSnapshot.capture(mActivity, CAMERA);
+		final PermissionSet autoDenied = RationaleSnapshot.getAutoDenied(mActivity, before, CAMERA,
+				PermissionSet.EMPTY);
+
+		assertEquals(CAMERA, autoDenied);
+		assertEquals(CAMERA, before.getUserFixed(autoDenied));
+	}
+
+	@Test
+	public void testGetAutoDenied_whenNoRationaleAndDeniedBefore_autoDenied() {
+		showRationale(false, false);
+
+		final RationaleSnapshot before = RationaleSnapshot.capture(mActivity, CAMERA);
+		final PermissionSet autoDenied = RationaleSnapshot.getAutoDenied(mActivity, before, CAMERA, CAMERA);
+
+		assertEquals(CAMERA, autoDenied);
+		// Only guessed, not something the user was seen choosing
+		assertTrue(before.getUserFixed(autoDenied).isEmpty());
+	}
+
+	@Test
+	public void testGetAutoDenied_whenNoRationaleNoRecordAndInstant_autoDenied() {
+		RationaleSnapshot.setInstantDenialMillis(ANY_ANSWER_MILLIS);
+		showRationale(false, false);
+
+		final RationaleSnapshot before = RationaleSnapshot.capture(mActivity, CAMERA);
+		final PermissionSet autoDenied = RationaleSnapshot.getAutoDenied(mActivity, before, CAMERA,
+				PermissionSet.EMPTY);
+
+		assertEquals(CAMERA, autoDenied);
+		// The system was seen denying it without asking
+		assertEquals(CAMERA, before.getUserFixed(autoDenied));
+	}
+
+	@Test
+	public void testGetAutoDenied_whenNoRationaleNoRecordAndAnswered_denied() {
+		showRationale(false, false);
+
+		final RationaleSnapshot before = RationaleSnapshot.capture(mActivity, CAMERA);
+
+		// e.g. the dialog was dismissed
+		assertTrue(RationaleSnapshot.getAutoDenied(mActivity, before, CAMERA, PermissionSet.EMPTY).isEmpty());
+	}
+
+	@Test
+	public void testGetAutoDenied_whenBackendInstalled_ignoreTiming() {
+		RationaleSnapshot.setInstantDenialMillis(ANY_ANSWER_MILLIS);
+		PermissMe.setPermissionBackend(mock(PermissionBackend.class));
+		try {
+			showRationale(false, false);
+
+			final RationaleSnapshot before = RationaleSnapshot.capture(mActivity, CAMERA);
+
+			assertTrue(RationaleSnapshot.getAutoDenied(mActivity, before, CAMERA, PermissionSet.EMPTY).isEmpty());
+		} finally {
+			PermissMe.setPermissionBackend(null);
+		}
+	}
+
+	/**
+	 * @param before
+	 * 		whether the system shows a rationale before the dialog
+	 * @param after
+	 * 		whether the system shows a rationale after the dialog
+	 */
+	private static void showRationale(final boolean before, final boolean after) {
+		PowerMockito.when(PermissMeUtils.isAutoDeniedPermission(any(Activity.class), anyString()))
+				.thenReturn(!before, !after);
+	}
+}
@@ -0,0 +1,142 @@
+package com.tumblr.permissme;
+
+import android.Manifest;
+import android.content.Context;
+import androidx.activity.ComponentActivity;
+import androidx.activity.result.ActivityResultCallback;
+import androidx.activity.result.ActivityResultLauncher;
+import androidx.activity.result.ActivityResultRegistry;
+import androidx.activity.result.contract.ActivityResultContract;
+import androidx.lifecycle.Lifecycle;
+import com.tumblr.permissme.utils.PermissMeUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static org.mockito.AdditionalMatchers.aryEq;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for the {@link RegistryPermissionHost} class
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({PermissMeUtils.class, PermissionStateCache.class, ComponentActivity.class,
+		ActivityResultRegistry.class})
+@PowerMockIgnore("jdk.internal.reflect.*")
+public class RegistryPermissionHostTest {
+
+	private ComponentActivity mActivity;
+	private ActivityResultRegistry mRegistry;
+	private ActivityResultLauncher<String[]> mRequiredLauncher;
+	private ActivityResultLauncher<String[]> mOptionalLauncher;
+	private ArgumentCaptor<ActivityResultCallback> mCallbacks;
+
+	@Before
+	@SuppressWarnings("unchecked")
+	public void init() {
+		PowerMockito.mockStatic(PermissMeUtils.class);
+		// Run the scheduler right away
+		PowerMockito.doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(final InvocationOnMock invocation) {
+				((Runnable) invocation.getArguments()[0]).run();
+				return null;
+			}
+		}).when(PermissMeUtils.class);
+		PermissMeUtils.runOnUiThread(any(Runnable.class));
+
+		// Every permission asked is ungranted
+		final PermissionStateCache cache = PowerMockito.mock(PermissionStateCache.class);
+		when(cache.getDenied(any(Context.class), any(PermissionSet.class))).thenAnswer(new Answer<PermissionSet>() {
+			@Override
+			public PermissionSet answer(final InvocationOnMock invocation) {
+				return (PermissionSet) invocation.getArguments()[1];
+			}
+		});
+		PowerMockito.mockStatic(PermissionStateCache.class);
+		PowerMockito.when(PermissionStateCache.getInstance()).thenReturn(cache);
+
+		mActivity = PowerMockito.mock(ComponentActivity.class);
+		mRegistry = PowerMockito.mock(ActivityResultRegistry.class);
+		mRequiredLauncher = mock(ActivityResultLauncher.class);
+		mOptionalLauncher = mock(ActivityResultLauncher.class);
+		mCallbacks = ArgumentCaptor.forClass(ActivityResultCallback.class);
+		PowerMockito.when(mActivity.getActivityResultRegistry()).thenReturn(mRegistry);
+		when(mActivity.getLifecycle()).thenReturn(mock(Lifecycle.class));
+		when(mRegistry.register(anyString(), any(ActivityResultContract.class), mCallbacks.capture()))
+				.thenReturn(mRequiredLauncher, mOptionalLauncher);
+	}
+
+	@Test
+	public void testGet_whenCalledTwice_registerLaunchersOnce() {
+		final RegistryPermissionHost host = RegistryPermissionHost.get(mActivity);
+
+		assertSame(host, RegistryPermissionHost.get(mActivity));
+		verify(mRegistry, times(2)).register(anyString(), any(ActivityResultContract.class),
+				any(ActivityResultCallback.class));
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testEnqueue_whenRequiredPermissionsGranted_launchRequiredLauncherAndCallOnSuccess() {
+		final PermissionFlow flow = new PermissionFlow();
+		flow.mRequiredPermissions = PermissionSet.of(Manifest.permission.CAMERA);
+		final PermissMe.PermissionListener listener = mock(PermissMe.PermissionListener.class);
+		flow.mListener = listener;
+
+		RegistryPermissionHost.get(mActivity).enqueue(flow);
+
+		verify(mRequiredLauncher, times(1)).launch(aryEq(new String[] { Manifest.permission.CAMERA }));
+		verify(mOptionalLauncher, never()).launch(any(String[].class));
+
+		final Map<String, Boolean> result = new HashMap<>();
+		result.put(Manifest.permission.CAMERA, true);
+		mCallbacks.getAllValues().get(0).onActivityResult(result);
+
+		verify(listener, times(1)).onSuccess();
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testOnResult_whenResultEmpty_cancelFlows() {
+		final PermissionFlow flow = new PermissionFlow();
+		flow.mRequiredPermissions = PermissionSet.of(Manifest.permission.CAMERA);
+		final PermissMe.PermissionListener listener = mock(PermissMe.PermissionListener.class);
+		flow.mListener = listener;
+		flow.mOutcome = new PermissionOutcome<>();
+
+		RegistryPermissionHost.get(mActivity).enqueue(flow);
+		mCallbacks.getAllValues().get(0).onActivityResult(Collections.<String, Boolean>emptyMap());
+
+		assertTrue(flow.mOutcome.isCancelled());
+		verify(listener, never()).onSuccess();
+	}
+
+	@Test
+	public void testOnStateChanged_whenDestroyed_cancelOutcomes() {
+		final PermissionFlow flow = new PermissionFlow();
+		flow.mRequiredPermissions = PermissionSet.of(Manifest.permission.CAMERA);
+		flow.mListener = mock(PermissMe.PermissionListener.class);
+		flow.mOutcome = new PermissionOutcome<>();
+
+		final RegistryPermissionHost host = RegistryPermissionHost.get(mActivity);
+		host.enqueue(flow);
+		host.onStateChanged(mActivity, Lifecycle.Event.ON_DESTROY);
+
+		assertTrue(flow.mOutcome.isCancelled());
+		verify(mRequiredLauncher).unregister();
+	}
+}
@@ -0,0 +1,81 @@
+package com.tumblr.permissme;
+
+import android.content.Context;
+import android.content.Intent;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for the {@link WarmupRegistry} class
+ */
+public class WarmupRegistryTest {
+
+	@BeforeClass
+	public static void setUpClass() {
+		// Run warm-ups right away so that their outcomes can be checked synchronously
+		PermissMeDispatcher.setBackgroundExecutor(new Executor() {
+			@Override
+			public void execute(final Runnable command) {
+				command.run();
+			}
+		});
+	}
+
+	@Test
+	public void testTakeDestinationWarmup_whenWarmupStarted_returnOutcomeOnce() throws Exception {
+		final Context context = Mockito.mock(Context.class);
+		final Intent intent = mockIntent();
+
+		WarmupRegistry.start(context, intent, new DestinationWarmup<String>() {
+			@Override
+			public String warmUp(final Context applicationContext) {
+				return "contacts";
+			}
+		});
+		final PermissionOutcome<String> outcome = PermissMe.takeDestinationWarmup(intent);
+
+		assertNotNull(outcome);
+		assertEquals("contacts", outcome.get());
+		assertNull(PermissMe.takeDestinationWarmup(intent));
+	}
+
+	@Test
+	public void testTakeDestinationWarmup_whenNoWarmupStarted_returnNull() {
+		assertNull(PermissMe.takeDestinationWarmup(mockIntent()));
+		assertNull(PermissMe.takeDestinationWarmup(null));
+	}
+
+	/**
+	 * @return an intent that keeps its string extras, since the framework one is not available to unit tests
+	 */
+	private static Intent mockIntent() {
+		final Intent intent = mock(Intent.class);
+		final Map<String, String> extras = new HashMap<>();
+		when(intent.putExtra(anyString(), anyString())).thenAnswer(new Answer<Intent>() {
+			@Override
+			public Intent answer(final InvocationOnMock invocation) {
+				extras.put((String) invocation.getArguments()[0], (String) invocation.getArguments()[1]);
+				return intent;
+			}
+		});
+		when(intent.getStringExtra(anyString())).thenAnswer(new Answer<String>() {
+			@Override
+			public String answer(final InvocationOnMock invocation) {
+				return extras.get((String) invocation.getArguments()[0]);
+			}
+		});
+		return intent;
+	}
+}
@@ -6,6 +6,8 @@ import android.content.pm.PackageManager;
 import android.os.Build;
 import androidx.core.content.PermissionChecker;
 
+import com.tumblr.permissme.PermissionStateCache;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -40,6 +42,8 @@ public class PermissMeUtilsTest {
 	@Before
 	public void init() {
 		PowerMockito.mockStatic(PermissionChecker.class);
+		// Grant states are cached process-wide, don't let one test's mocked state leak into the next
+		PermissionStateCache.getInstance().invalidate();
 	}
 
 	@Test